@@ -96,8 +96,12 @@ if [ "$COMMAND"  = "start" ] ; then
     if [ $? -ne 7 ] ; then
         error "Error: base port already in use?: $ANUENUE_BASE_PORT"
     fi
-    ANUENUE_START_OPTS="$ANUENUE_HOME/conf/jetty.xml"
-    exec $ANUENUE_JAVA $DAEMON_JAVA_OPTS $ANUENUE_OPTS -jar $ANUENUE_HOME/lib/start.jar $ANUENUE_START_OPTS &
+    # the filter jar in lib/ext provides the filters registered in webdefault.xml
+    ls $ANUENUE_HOME/lib/ext/anuenue-filter-*.jar > /dev/null 2>&1
+    if [ $? -ne 0 ] ; then
+        error "Error: anuenue-filter jar not found in $ANUENUE_HOME/lib/ext (run ant build)"
+    fi
+    exec $ANUENUE_JAVA $DAEMON_JAVA_OPTS $ANUENUE_OPTS -jar $ANUENUE_HOME/lib/start.jar $ANUENUE_HOME/conf/jetty.xml &
     if [ $? -ne 0 ] ; then
         error "Error: anuenue cannot start"
     fi
@@ -17,7 +17,7 @@
 set -e
 
 usage() {
-        echo "Usage: anuenue-dist-commands COMMAND [--arg COMMAND_ARGMENT] [--conf CONF_FILE]"
+        echo "Usage: anuenue-dist-commands COMMAND [--arg COMMAND_ARGMENT] [--conf CONF_FILE] [--resume] [--watch]"
         echo "where "
         echo "COMMAND: name of the command to run"
         echo "  delete        delete documents which are matched by specified query"
@@ -27,11 +27,15 @@ usage() {
         echo "  post          post documents specified by a file or a directory"
         echo "  update        update documents specified by a file or a directory"
         echo "  batchdelete   delete documents specified by a file or a directory"
+        echo "  replay        replay chunks spooled by failed commands (--arg spool_dir, or SPOOL_DIR)"
         echo ""
         echo "COMMAND_ARGUMENT: argument of each COMMAND"
         echo ""
         echo "CONF_FILE: node configuration file (anuenue-nodes.xml)."
         echo "          Users set CONF_FILE when the node configuration file is not in $ANUENUE_HOME."
+        echo ""
+        echo "--resume: post and update resume from CHECKPOINT_FILE, skipping acknowledged lines."
+        echo "--watch: post watches the directory and adds each new file once, until it is terminated."
 }
 
 cd `dirname $0`/..
@@ -49,7 +53,7 @@ fi
 COMMAND=$1
 shift
 
-if ! OPTIONS=$(getopt -o a:c: -l arg:,conf: -- "$@")
+if ! OPTIONS=$(getopt -o a:c:rw -l arg:,conf:,resume,watch -- "$@")
 then
         usage
         exit 1
@@ -58,12 +62,16 @@ fi
 
 arg=""
 conf=""
+resume=""
+watch=""
 
 while [ $# -gt 0 ]
 do
         case $1 in
                 -a|--arg) arg=$2 ; shift ;;
                 -h|--conf) conf=$2 ; shift ;;
+                -r|--resume) resume="yes" ;;
+                -w|--watch) watch="yes" ;;
                 --) break;;
         esac
         shift
@@ -76,6 +84,12 @@ fi
 if [ x"$conf" != x"" ] ; then
         COMMAND_OPTIONS="$COMMAND_OPTIONS --conf '$conf'"
 fi
+if [ x"$resume" != x"" ] ; then
+        COMMAND_OPTIONS="$COMMAND_OPTIONS --resume"
+fi
+if [ x"$watch" != x"" ] ; then
+        COMMAND_OPTIONS="$COMMAND_OPTIONS --watch"
+fi
 
 # run COMMAND
 echo "[`date --rfc-3339=seconds`]," "executing anuenue-distcommands with the target command,$COMMAND"
@@ -92,6 +106,8 @@ elif [ x"$COMMAND" = x"delete" ] ; then
 elif [ x"$COMMAND" = x"batchDelete" ] ; then
         [ x"$arg" != x"" ] || error "Please specify arguments(--arg dir_or_file)"
         eval $ANUENUE_JAVA $COMMAND_JAVA_OPTS $ANUENUE_OPTS org.unigram.anuenue.client.AnuenueDistCommands --command batchDelete $COMMAND_OPTIONS
+elif [ x"$COMMAND" = x"replay" ] ; then
+        eval $ANUENUE_JAVA $COMMAND_JAVA_OPTS $ANUENUE_OPTS org.unigram.anuenue.client.AnuenueDistCommands --command resumeSpool $COMMAND_OPTIONS
 elif [ x"$COMMAND" = x"optimize" ] ; then
         eval $ANUENUE_JAVA $COMMAND_JAVA_OPTS $ANUENUE_OPTS org.unigram.anuenue.client.AnuenueDistCommands --command optimize $COMMAND_OPTIONS
 elif [ x"$COMMAND" = x"update" ] ; then
@@ -0,0 +1,74 @@
+#!/usr/bin/env bash
+
+# Copyright (c) The Anuenue Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+usage() {
+        echo "Usage: anuenue-ingestd COMMAND [--conf CONF_FILE]"
+        echo "where COMMAND is one of:"
+        echo "  start    start the ingestion daemon, which accepts documents on http://host:INGEST_PORT/ingest"
+        echo "  stop     stop the ingestion daemon after sending the accepted documents"
+        echo ""
+        echo "CONF_FILE: node configuration file (anuenue-nodes.xml)."
+}
+
+cd `dirname $0`/..
+
+. bin/_function.sh
+
+load_config_files
+
+if [ $# -lt 1 ] ; then
+        usage
+        exit 1
+fi
+
+COMMAND=$1
+shift
+
+conf=""
+while [ $# -gt 0 ]
+do
+        case $1 in
+                -c|--conf) conf=$2 ; shift ;;
+        esac
+        shift
+done
+
+COMMAND_OPTIONS=''
+if [ x"$conf" != x"" ] ; then
+        COMMAND_OPTIONS="$COMMAND_OPTIONS --conf $conf"
+fi
+
+PID_FILE=${INGEST_PID_FILE:-/tmp/anuenue-ingestd.pid}
+
+if [ x"$COMMAND" = x"start" ] ; then
+        if [ -f "$PID_FILE" ] && kill -0 `cat "$PID_FILE"` 2> /dev/null ; then
+                error "Error: the ingestion daemon is already running: `cat $PID_FILE`"
+        fi
+        # jetty is in lib
+        nohup $ANUENUE_JAVA:$ANUENUE_HOME/lib/* $DAEMON_JAVA_OPTS $ANUENUE_OPTS org.unigram.anuenue.client.AnuenueIngestionDaemon $COMMAND_OPTIONS >> $ANUENUE_DAEMON_LOG_FILE 2>&1 &
+        echo $! > "$PID_FILE"
+        echo "ingestion daemon started [OK]"
+elif [ x"$COMMAND" = x"stop" ] ; then
+        [ -f "$PID_FILE" ] || error "Error: $PID_FILE does not exist"
+        # the shutdown hook sends the accepted documents before exiting
+        kill `cat "$PID_FILE"` || error "Error: the ingestion daemon cannot stop"
+        rm -f "$PID_FILE"
+        echo "ingestion daemon stopped [OK]"
+else
+        error "Error: nothing such a command like $COMMAND"
+        usage
+        exit 1
+fi
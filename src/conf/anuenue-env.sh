@@ -31,6 +31,10 @@
 # Data dir (default $ANUENUE_HOME/sorl/collection1/data)
 # DATA_DIR=./data
 
+# uniqueKey field of the schema (default blogid [schema.xml]), which is the
+# first column of TSV and the key of the ingestion daemon and the search merger
+# UNIQUE_KEY=blogid
+
 # SOLR_HOME directly (default $ANUENUE_HOME)
 # SOLR_HOME=$ANUENUE_HOME
 
@@ -92,9 +96,154 @@
 # maximum lines to be sent at one time (default 100).
 # MAXIMUM_LINE_ONE_TIME=1000
 
+# maximum bytes to be sent at one time (default 0, no limit).
+# when set, MAXIMUM_LINE_ONE_TIME is still the limit of lines in a chunk.
+# MAXIMUM_BYTES_ONE_TIME=1048576
+
+# adjust the lines of chunks for each master by the latency of posts (true or false, default false).
+# the lines start from MAXIMUM_LINE_ONE_TIME, grow while the 95th percentile latency
+# is below the target and the throughput does not drop, and shrink above the target.
+# POST_ADAPTIVE=true
+# POST_ADAPTIVE_TARGET_LATENCY=1000
+# POST_ADAPTIVE_MIN_LINE=10
+# POST_ADAPTIVE_MAX_LINE=10000
+
 # factor of thread number which multiplies the size of master nodes (default 3.0).
+# it is the number of chunks posted to a node at the same time. the chunks are
+# sent on the executor below, within EXECUTOR_MAX_PER_NODE.
 # FACTOR_OF_THREAD_NUMBER=3.0
 
+# number of chunks queued for each node while posting (default 4).
+# POST_QUEUE_CAPACITY=4
+
+# number of files read at the same time by addDir (default 4).
+# POST_CONCURRENT_FILES=4
+
+# order of files read by addDir (size or name, default size).
+# size reads the largest file first, name reads files in lexical order.
+# POST_FILE_ORDER=name
+
+# reader of input files in roundrobin routing (mmap or line, default mmap).
+# mmap sends slices of the memory-mapped file without decoding lines.
+# POST_READER=line
+
+# number of ids deleted by one request of batchDelete and updateDir (default 1000).
+# DELETE_BATCH_SIZE=1000
+
+# routing of documents to masters (roundrobin or hash, default roundrobin).
+# with hash, a document is sent to the master which owns its id (the first column)
+# on a consistent hash ring, and deletes are sent only to that master.
+# ROUTING_MODE=hash
+
+# number of virtual nodes per master on the hash ring (default 160).
+# ROUTING_VIRTUAL_NODES=160
+
+# update mode of updateDir (deleteAndAdd or upsert, default deleteAndAdd).
+# upsert reads each file once and overwrites documents by the uniqueKey.
+# it requires ROUTING_MODE=hash. documents added by roundrobin are not tracked,
+# so reindex all documents (deleteAll and addDir) when switching to hash.
+# UPDATE_MODE=upsert
+
+# anuenue-nodes.xml of the previous layout of masters (upsert only).
+# documents whose master is changed are deleted on their previous master.
+# ROUTING_PREVIOUS_NODES=$ANUENUE_HOME/conf/anuenue-nodes.xml.old
+
+# fingerprint store of update (base name of its files). when it is set, the
+# input of update is a snapshot of all documents: only the rows which have
+# changed since the previous update are sent, and ids which have disappeared
+# are deleted. the store takes about 64 bytes per id.
+# UPDATE_FINGERPRINT_STORE=/var/lib/anuenue/update.fingerprint
+
+# file which keeps lines rejected by Solr (default logs/anuenue-deadletter.txt)
+# DEADLETTER_FILE=$ANUENUE_HOME/logs/anuenue-deadletter.txt
+
+# executor of commands and posted chunks sent to each node (fixed or virtual, default fixed).
+# virtual starts a virtual thread per command and requires Java 21 or later.
+# EXECUTOR_MODE=fixed
+
+# number of threads of the fixed executor (default 32).
+# EXECUTOR_THREADS=32
+
+# maximum number of commands running on a node at the same time (default 8).
+# EXECUTOR_MAX_PER_NODE=8
+
+# concurrency limit of each node (fixed or aimd, default fixed).
+# aimd starts from EXECUTOR_AIMD_INITIAL, increases while requests finish within
+# EXECUTOR_AIMD_LATENCY(msec) up to EXECUTOR_MAX_PER_NODE, and halves on timeouts
+# or HTTP 503. posting workers also follow the limit.
+# EXECUTOR_CONCURRENCY=aimd
+# EXECUTOR_AIMD_INITIAL=2
+# EXECUTOR_AIMD_LATENCY=5000
+
+# directory where chunks which could not be sent are spooled, per node.
+# when it is set, a failed chunk does not fail post/update/batchdelete, and
+# "anuenue-distcommands.sh replay" replays the spooled chunks later.
+# SPOOL_DIR=/var/spool/anuenue
+
+# number of attempts of a spooled chunk by resume, and the first backoff(msec)
+# which is doubled on each retry
+# SPOOL_RETRY_MAX=5
+# SPOOL_RETRY_BACKOFF=1000
+
+# file where the lines of input files acknowledged by the nodes are recorded.
+# "anuenue-distcommands.sh post --resume" skips them after a failed run.
+# CHECKPOINT_FILE=/var/lib/anuenue/post.checkpoint
+
+# "anuenue-distcommands.sh post --watch" adds a file when it has not changed for
+# WATCH_QUIET(msec). files whose names start with "." are ignored.
+# WATCH_QUIET=1000
+
+# manifest of the files added by watch mode (default .anuenue-manifest in the directory)
+# WATCH_MANIFEST=/var/lib/anuenue/watch.manifest
+
+# port of the ingestion daemon (anuenue-ingestd.sh), which accepts TSV or JSON
+# documents on /ingest and answers after the masters have accepted them
+# INGEST_PORT=8990
+
+# a batch of the ingestion daemon is sent when it has INGEST_BATCH_DOCUMENTS
+# documents or INGEST_BATCH_BYTES bytes, or INGEST_BATCH_DELAY(msec) after its
+# first document
+# INGEST_BATCH_DOCUMENTS=1000
+# INGEST_BATCH_BYTES=1048576
+# INGEST_BATCH_DELAY=200
+
+# number of senders of the ingestion daemon per master
+# INGEST_SENDERS=4
+
+# a request to the ingestion daemon fails with 504 when the masters have not
+# accepted its documents in this period(msec)
+# INGEST_ACK_TIMEOUT=60000
+
+# pid file of the ingestion daemon
+# INGEST_PID_FILE=/tmp/anuenue-ingestd.pid
+
+# node configuration read by the search merger (/anuenue/select of every node),
+# which searches one replica of each master and merges the results
+# MERGER_NODES=conf/anuenue-nodes.xml
+
+# the search merger returns partial results of the shards which have answered in
+# MERGER_DEADLINE(msec). the "deadline" parameter overrides it per query
+# MERGER_DEADLINE=5000
+
+# number of threads of the search merger which search the shards
+# MERGER_THREADS=64
+
+# maximum of start + rows of a query to the search merger, which is also the number
+# of documents requested from each shard (larger windows are answered with 400)
+# MERGER_MAX_ROWS=10000
+
+# QueryClient ejects a slave for QUERY_EJECT_TIME(msec) after QUERY_EJECT_FAILURES
+# consecutive failures, and sends a failed or hedged query to up to QUERY_ATTEMPTS replicas
+# QUERY_EJECT_FAILURES=3
+# QUERY_EJECT_TIME=30000
+# QUERY_ATTEMPTS=2
+
+# QueryClient hedges a query (sends it to another replica too) when it has not been answered
+# within QUERY_HEDGE_PERCENTILE of the latencies of the shard, but not before
+# QUERY_HEDGE_MIN_DELAY(msec). QUERY_HEDGE_PERCENTILE=0 disables hedging
+# QUERY_HEDGE_PERCENTILE=95
+# QUERY_HEDGE_MIN_DELAY=5
+
 # HTTP connection timeout(msec, default 60000(1 min))
 # HTTP_CONNECT_TIMEOUT=60000
 
@@ -110,5 +259,28 @@
 # HTTP read timeout for updateViaStreamFile command(msec, default 21600000(360 min))
 # HTTP_READ_TIMEOUT_UPDATE_VIA_STREAM_FILE=21600000
 
+# maximum number of persistent HTTP connections per instance (default 16)
+# HTTP_POOL_MAX_PER_HOST=16
+
+# idle persistent HTTP connections are closed after this period (msec, default 30000)
+# HTTP_POOL_IDLE_TIMEOUT=30000
+
+# check that an idle HTTP connection is still open before reusing it (default true)
+# HTTP_POOL_VALIDATE=true
+
+# only HTTP connections idle longer than this are checked before reuse (msec, default 2000)
+# HTTP_POOL_VALIDATE_AFTER=2000
+
+# Content-Encoding of update posts (none, gzip or deflate, default none).
+# the nodes decode the bodies by the filter in webdefault.xml.
+# HTTP_REQUEST_COMPRESSION=gzip
+
+# bodies smaller than this are posted without compression (bytes, default 1024)
+# HTTP_REQUEST_COMPRESSION_MIN_BYTES=1024
+
+# format of posted documents and deletes (tsv or javabin, default tsv).
+# javabin is read by the masters without parsing text. updateViaStreamFile is always TSV.
+# UPDATE_FORMAT=javabin
+
 # Extra Java runtime options for anuenue-commands. Empty by default (OPTIONAL).
 # COMMAND_JAVA_OPTS=
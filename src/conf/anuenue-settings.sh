@@ -33,6 +33,10 @@ if [ x"$DATA_DIR" != x"" ]; then
     ANUENUE_OPTS="$ANUENUE_OPTS -Dsolr.data.dir=$DATA_DIR"
 fi
 
+if [ x"$UNIQUE_KEY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.uniqueKey=$UNIQUE_KEY"
+fi
+
 
 ############################################################
 # add index setting
@@ -144,10 +148,182 @@ if [ x"$MAXIMUM_LINE_ONE_TIME" != x"" ]; then
     ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.max.line=$MAXIMUM_LINE_ONE_TIME"
 fi
 
+if [ x"$MAXIMUM_BYTES_ONE_TIME" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.max.bytes=$MAXIMUM_BYTES_ONE_TIME"
+fi
+
+if [ x"$POST_ADAPTIVE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.adaptive=$POST_ADAPTIVE"
+fi
+
+if [ x"$POST_ADAPTIVE_TARGET_LATENCY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.adaptive.target.latency=$POST_ADAPTIVE_TARGET_LATENCY"
+fi
+
+if [ x"$POST_ADAPTIVE_MIN_LINE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.adaptive.min.line=$POST_ADAPTIVE_MIN_LINE"
+fi
+
+if [ x"$POST_ADAPTIVE_MAX_LINE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.adaptive.max.line=$POST_ADAPTIVE_MAX_LINE"
+fi
+
 if [ x"$FACTOR_OF_THREAD_NUMBER" != x"" ]; then
     ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.factor.of.thread.number=$FACTOR_OF_THREAD_NUMBER"
 fi
 
+if [ x"$POST_QUEUE_CAPACITY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.queue.capacity=$POST_QUEUE_CAPACITY"
+fi
+
+if [ x"$POST_CONCURRENT_FILES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.concurrent.files=$POST_CONCURRENT_FILES"
+fi
+
+if [ x"$POST_FILE_ORDER" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.file.order=$POST_FILE_ORDER"
+fi
+
+if [ x"$POST_READER" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.reader=$POST_READER"
+fi
+
+if [ x"$DELETE_BATCH_SIZE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.delete.batch.size=$DELETE_BATCH_SIZE"
+fi
+
+if [ x"$ROUTING_MODE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.routing.mode=$ROUTING_MODE"
+fi
+
+if [ x"$ROUTING_VIRTUAL_NODES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.routing.virtual.nodes=$ROUTING_VIRTUAL_NODES"
+fi
+
+if [ x"$UPDATE_MODE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.update.mode=$UPDATE_MODE"
+fi
+
+if [ x"$ROUTING_PREVIOUS_NODES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.routing.previous.nodes=$ROUTING_PREVIOUS_NODES"
+fi
+
+if [ x"$UPDATE_FINGERPRINT_STORE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.update.fingerprint.store=$UPDATE_FINGERPRINT_STORE"
+fi
+
+if [ x"$DEADLETTER_FILE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.deadletter.file=$DEADLETTER_FILE"
+fi
+
+if [ x"$EXECUTOR_MODE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.mode=$EXECUTOR_MODE"
+fi
+
+if [ x"$EXECUTOR_THREADS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.threads=$EXECUTOR_THREADS"
+fi
+
+if [ x"$EXECUTOR_MAX_PER_NODE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.max.per.node=$EXECUTOR_MAX_PER_NODE"
+fi
+
+if [ x"$EXECUTOR_CONCURRENCY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.concurrency=$EXECUTOR_CONCURRENCY"
+fi
+
+if [ x"$EXECUTOR_AIMD_INITIAL" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.aimd.initial=$EXECUTOR_AIMD_INITIAL"
+fi
+
+if [ x"$EXECUTOR_AIMD_LATENCY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.executor.aimd.latency=$EXECUTOR_AIMD_LATENCY"
+fi
+
+if [ x"$SPOOL_DIR" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.spool.dir=$SPOOL_DIR"
+fi
+
+if [ x"$SPOOL_RETRY_MAX" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.spool.retry.max=$SPOOL_RETRY_MAX"
+fi
+
+if [ x"$SPOOL_RETRY_BACKOFF" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.spool.retry.backoff=$SPOOL_RETRY_BACKOFF"
+fi
+
+if [ x"$CHECKPOINT_FILE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.checkpoint.file=$CHECKPOINT_FILE"
+fi
+
+if [ x"$WATCH_QUIET" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.watch.quiet=$WATCH_QUIET"
+fi
+
+if [ x"$WATCH_MANIFEST" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.post.watch.manifest=$WATCH_MANIFEST"
+fi
+
+if [ x"$INGEST_PORT" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.port=$INGEST_PORT"
+fi
+
+if [ x"$INGEST_BATCH_DOCUMENTS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.batch.documents=$INGEST_BATCH_DOCUMENTS"
+fi
+
+if [ x"$INGEST_BATCH_BYTES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.batch.bytes=$INGEST_BATCH_BYTES"
+fi
+
+if [ x"$INGEST_BATCH_DELAY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.batch.delay=$INGEST_BATCH_DELAY"
+fi
+
+if [ x"$INGEST_SENDERS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.senders=$INGEST_SENDERS"
+fi
+
+if [ x"$INGEST_ACK_TIMEOUT" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.ingest.ack.timeout=$INGEST_ACK_TIMEOUT"
+fi
+
+if [ x"$MERGER_NODES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.merger.nodes=$MERGER_NODES"
+fi
+
+if [ x"$MERGER_DEADLINE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.merger.deadline=$MERGER_DEADLINE"
+fi
+
+if [ x"$MERGER_THREADS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.merger.threads=$MERGER_THREADS"
+fi
+
+if [ x"$MERGER_MAX_ROWS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.merger.max.rows=$MERGER_MAX_ROWS"
+fi
+
+if [ x"$QUERY_EJECT_FAILURES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.query.eject.failures=$QUERY_EJECT_FAILURES"
+fi
+
+if [ x"$QUERY_EJECT_TIME" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.query.eject.time=$QUERY_EJECT_TIME"
+fi
+
+if [ x"$QUERY_ATTEMPTS" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.query.attempts=$QUERY_ATTEMPTS"
+fi
+
+if [ x"$QUERY_HEDGE_PERCENTILE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.query.hedge.percentile=$QUERY_HEDGE_PERCENTILE"
+fi
+
+if [ x"$QUERY_HEDGE_MIN_DELAY" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.query.hedge.min.delay=$QUERY_HEDGE_MIN_DELAY"
+fi
+
 if [ x"$HTTP_CONNECT_TIMEOUT" != x"" ]; then
     ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.connet.timeout=$HTTP_CONNECT_TIMEOUT"
 fi
@@ -167,3 +343,31 @@ fi
 if [ x"$HTTP_READ_TIMEOUT_UPDATE_VIA_STREAM_FILE" != x"" ]; then
     ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.read.timeout.updateviastreamfile=$HTTP_READ_TIMEOUT_UPDATE_VIA_STREAM_FILE"
 fi
+
+if [ x"$HTTP_POOL_MAX_PER_HOST" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.pool.max.per.host=$HTTP_POOL_MAX_PER_HOST"
+fi
+
+if [ x"$HTTP_POOL_IDLE_TIMEOUT" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.pool.idle.timeout=$HTTP_POOL_IDLE_TIMEOUT"
+fi
+
+if [ x"$HTTP_POOL_VALIDATE" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.pool.validate=$HTTP_POOL_VALIDATE"
+fi
+
+if [ x"$HTTP_POOL_VALIDATE_AFTER" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.pool.validate.after=$HTTP_POOL_VALIDATE_AFTER"
+fi
+
+if [ x"$HTTP_REQUEST_COMPRESSION" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.request.compression=$HTTP_REQUEST_COMPRESSION"
+fi
+
+if [ x"$HTTP_REQUEST_COMPRESSION_MIN_BYTES" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.http.request.compression.min.bytes=$HTTP_REQUEST_COMPRESSION_MIN_BYTES"
+fi
+
+if [ x"$UPDATE_FORMAT" != x"" ]; then
+    ANUENUE_OPTS="$ANUENUE_OPTS -Danuenue.update.format=$UPDATE_FORMAT"
+fi
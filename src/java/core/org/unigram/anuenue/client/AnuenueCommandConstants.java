@@ -44,6 +44,12 @@ public final class AnuenueCommandConstants {
     /** default port name. */
     public static final int DEFAULT_PORT = 8983;
 
+    /** property: name of the uniqueKey field of the schema. */
+    public static final String PROPERTY_UNIQUE_KEY = "anuenue.uniqueKey";
+
+    /** default: name of the uniqueKey field (schema.xml). */
+    public static final String DEFAULT_UNIQUE_KEY = "blogid";
+
     /** default configuration filename. */
     public static final String DEFAULT_CONFIGURATION_FILENAME = "conf/anuenue-nodes.xml";
 
@@ -71,6 +77,12 @@ public final class AnuenueCommandConstants {
     /** "target" command line option string. */
     public static final String OPTION_TARGET = "target";
 
+    /** "resume" command line option string. */
+    public static final String OPTION_RESUME = "resume";
+
+    /** "watch" command line option string. */
+    public static final String OPTION_WATCH = "watch";
+
     /** "master" target. */
     public static final String TARGET_MASTER = "master";
 
@@ -92,6 +104,9 @@ public final class AnuenueCommandConstants {
     /** "batchDelete" distribution command. */
     public static final String DISTCOMMAND_BATCHDELETE = "batchDelete";
 
+    /** "resumeSpool" distribution command. */
+    public static final String DISTCOMMAND_RESUMESPOOL = "resumeSpool";
+
     /** "addFile" command. */
     public static final String COMMAND_ADDFILE = "addFile";
 
@@ -101,6 +116,9 @@ public final class AnuenueCommandConstants {
     /** "delete" command. */
     public static final String COMMAND_DELETE = "delete";
 
+    /** "deleteById" command. */
+    public static final String COMMAND_DELETEBYID = "deleteById";
+
     /** "optimize" command. */
     public static final String COMMAND_OPTIMIZE = "optimize";
 
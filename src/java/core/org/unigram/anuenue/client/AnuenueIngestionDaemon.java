@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.distcommand.IngestionDaemon;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.NodeDatabaseBuilder;
+import org.unigram.anuenue.util.SimpleCommandLineParser;
+
+/**
+ * Runner of the ingestion daemon. Runs until the process is terminated.
+ */
+public final class AnuenueIngestionDaemon {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(AnuenueIngestionDaemon.class);
+
+    /**
+     * Constructor.
+     *
+     */
+    private AnuenueIngestionDaemon() {
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            command line arguments
+     */
+    public static void main(final String[] args) {
+        SimpleCommandLineParser parser = new SimpleCommandLineParser();
+        parser.addOption(AnuenueCommandConstants.OPTION_CONF, "conf", AnuenueCommandConstants.DEFAULT_CONFIGURATION_FILENAME);
+
+        final IngestionDaemon daemon;
+        try {
+            parser.parse(args);
+            daemon = new IngestionDaemon(new NodeDatabaseBuilder(
+                    parser.getValue(AnuenueCommandConstants.OPTION_CONF)).build());
+            daemon.start();
+        } catch (ParseException e) {
+            LOG.fatal("parse error");
+            System.exit(1);
+            return;
+        } catch (AnuenueException e) {
+            LOG.error("failed to start the ingestion daemon");
+            LOG.error(e.toString());
+            System.exit(1);
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                daemon.stop();
+            }
+        });
+        try {
+            daemon.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.solr.RequestHandle;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.NodeDatabase;
+import org.unigram.anuenue.util.LatencyHistogram;
+
+/**
+ * Client which sends queries to the slaves.
+ * The slaves which replicate the same master are the replicas of a shard. Each query to a shard
+ * is sent to a replica chosen by ReplicaSelector, and a query which fails by an IO error or
+ * a server error is retried on another replica. The replicas can be limited to a slave group.
+ * A query which has not been answered within a percentile of the latencies of the shard is hedged:
+ * it is sent to another replica too, the first answer is used and the other request is aborted.
+ * The client is thread safe and should be shared, and closed after use.
+ */
+public final class QueryClient implements Closeable {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(QueryClient.class);
+
+    /** property: anuenue.query.eject.failures. */
+    private static final String PROPERTY_QUERY_EJECT_FAILURES = "anuenue.query.eject.failures";
+
+    /** default: number of consecutive failures which eject a replica. */
+    private static final String DEFAULT_QUERY_EJECT_FAILURES = "3";
+
+    /** property: anuenue.query.eject.time. */
+    private static final String PROPERTY_QUERY_EJECT_TIME = "anuenue.query.eject.time";
+
+    /** default: time for which a replica is ejected(msec). */
+    private static final String DEFAULT_QUERY_EJECT_TIME = "30000";
+
+    /** property: anuenue.query.attempts. */
+    private static final String PROPERTY_QUERY_ATTEMPTS = "anuenue.query.attempts";
+
+    /** default: number of replicas a query is sent to, including a hedge and retries. */
+    private static final String DEFAULT_QUERY_ATTEMPTS = "2";
+
+    /** property: anuenue.query.hedge.percentile. */
+    private static final String PROPERTY_QUERY_HEDGE_PERCENTILE = "anuenue.query.hedge.percentile";
+
+    /** default: percentile of the latencies after which a query is hedged(0 disables hedging). */
+    private static final String DEFAULT_QUERY_HEDGE_PERCENTILE = "95";
+
+    /** property: anuenue.query.hedge.min.delay. */
+    private static final String PROPERTY_QUERY_HEDGE_MIN_DELAY = "anuenue.query.hedge.min.delay";
+
+    /** default: minimum delay before a query is hedged(msec). */
+    private static final String DEFAULT_QUERY_HEDGE_MIN_DELAY = "5";
+
+    /** number of latencies of a shard needed before its queries are hedged. */
+    private static final long HEDGE_MIN_SAMPLES = 20;
+
+    /** time constant of the decay of the latency average of an idle replica(msec). */
+    private static final long LATENCY_DECAY_TIME = 10000;
+
+    /** minimum status code which means a server error. */
+    private static final int HTTP_SERVER_ERROR_STATUS = 500;
+
+    /** map (shard name -> shard). */
+    private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();
+
+    /** map (node -> client). */
+    private final Map<Node, SolrClient> clients = new HashMap<Node, SolrClient>();
+
+    /** number of replicas a query is sent to, including a hedge and retries. */
+    private final int attempts;
+
+    /** percentile of the latencies after which a query is hedged, or 0. */
+    private final double hedgePercentile;
+
+    /** minimum delay before a query is hedged(nsec). */
+    private final long hedgeMinDelay;
+
+    /** executor of the hedged requests. */
+    private final ExecutorService executor;
+
+    /** number of queries. */
+    private final AtomicLong queries = new AtomicLong();
+
+    /** number of retried queries. */
+    private final AtomicLong retries = new AtomicLong();
+
+    /** number of failed queries. */
+    private final AtomicLong failures = new AtomicLong();
+
+    /** number of hedged queries. */
+    private final AtomicLong hedges = new AtomicLong();
+
+    /** number of hedged queries answered first by the hedge. */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /** number of aborted requests. */
+    private final AtomicLong aborts = new AtomicLong();
+
+    /** latencies of the hedged queries. */
+    private final LatencyHistogram hedgedLatency = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     * @param replicas map (shard name -> replicas)
+     */
+    public QueryClient(final Map<String, List<Node>> replicas) {
+        int ejectFailures = Integer.parseInt(System.getProperty(PROPERTY_QUERY_EJECT_FAILURES,
+                DEFAULT_QUERY_EJECT_FAILURES));
+        long ejectTime = Long.parseLong(System.getProperty(PROPERTY_QUERY_EJECT_TIME, DEFAULT_QUERY_EJECT_TIME));
+        for (Map.Entry<String, List<Node>> entry : replicas.entrySet()) {
+            shards.put(entry.getKey(), new Shard(new ReplicaSelector(entry.getValue(), ejectFailures, ejectTime,
+                    LATENCY_DECAY_TIME)));
+            for (Node replica : entry.getValue()) {
+                clients.put(replica, new SolrClient(replica.getHostName(), replica.getPortNumber()));
+            }
+        }
+        attempts = Math.max(1, Integer.parseInt(System.getProperty(PROPERTY_QUERY_ATTEMPTS, DEFAULT_QUERY_ATTEMPTS)));
+        hedgePercentile = Double.parseDouble(System.getProperty(PROPERTY_QUERY_HEDGE_PERCENTILE,
+                DEFAULT_QUERY_HEDGE_PERCENTILE));
+        hedgeMinDelay = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(
+                PROPERTY_QUERY_HEDGE_MIN_DELAY, DEFAULT_QUERY_HEDGE_MIN_DELAY)));
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "query-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * create a client of the slaves. the replicas of a shard are the slaves which replicate the same
+     * master; a slave which does not replicate is a shard by itself.
+     * @param database node database
+     * @param groupName slave group which the replicas are limited to, or null for all slaves
+     * @return client
+     * @throws AnuenueException if there is no slave
+     */
+    public static QueryClient create(final NodeDatabase database, final String groupName) throws AnuenueException {
+        List<Node> slaves = groupName == null ? database.getSlaveList() : database.getSlavesInGroup(groupName);
+        if (slaves == null || slaves.isEmpty()) {
+            throw new AnuenueException("no slave" + (groupName == null ? "" : " in group: " + groupName));
+        }
+        Map<String, List<Node>> shards = new LinkedHashMap<String, List<Node>>();
+        for (Node slave : slaves) {
+            String shard = slave.getName();
+            if (slave.getReplicationMaster() != null) {
+                Node master = database.getNodeByName(slave.getReplicationMaster());
+                shard = master == null ? slave.getReplicationMaster() : master.getName();
+            }
+            if (!shards.containsKey(shard)) {
+                shards.put(shard, new ArrayList<Node>());
+            }
+            shards.get(shard).add(slave);
+        }
+        return new QueryClient(shards);
+    }
+
+    /**
+     * get the names of the shards.
+     * @return names of the shards (names of the masters)
+     */
+    public Set<String> getShardNames() {
+        return Collections.unmodifiableSet(shards.keySet());
+    }
+
+    /**
+     * search the shard of a cluster which has only one shard.
+     * @param query query string (URL encoded parameters of /solr/select)
+     * @return the result of search
+     * @throws IOException if the query failed on all attempted replicas, or the query is invalid
+     */
+    public String select(final String query) throws IOException {
+        if (shards.size() != 1) {
+            throw new IllegalStateException("there are " + shards.size()
+                    + " shards. give the shard name, or search /anuenue/select");
+        }
+        return select(shards.values().iterator().next(), query);
+    }
+
+    /**
+     * search a shard.
+     * @param shardName name of the shard
+     * @param query query string (URL encoded parameters of /solr/select)
+     * @return the result of search
+     * @throws IOException if the query failed on all attempted replicas, or the query is invalid
+     */
+    public String select(final String shardName, final String query) throws IOException {
+        Shard shard = shards.get(shardName);
+        if (shard == null) {
+            throw new IllegalArgumentException("unknown shard: " + shardName);
+        }
+        return select(shard, query);
+    }
+
+    /**
+     * search replicas of a shard.
+     * @param shard shard
+     * @param query query string
+     * @return the result of search
+     * @throws IOException if the query failed on all attempted replicas, or the query is invalid
+     */
+    private String select(final Shard shard, final String query) throws IOException {
+        queries.incrementAndGet();
+        int limit = Math.min(attempts, shard.selector.size());
+        long delay = shard.getHedgeDelay();
+        if (limit < 2 || delay < 0) {
+            return selectInline(shard, query, limit);
+        }
+        return selectHedged(shard, query, limit, delay);
+    }
+
+    /**
+     * search replicas of a shard one by one on the calling thread.
+     * @param shard shard
+     * @param query query string
+     * @param limit number of replicas the query is sent to
+     * @return the result of search
+     * @throws IOException if the query failed on all attempted replicas, or the query is invalid
+     */
+    private String selectInline(final Shard shard, final String query, final int limit) throws IOException {
+        Attempt attempt = null;
+        for (int i = 0; i < limit; ++i) {
+            Attempt previous = attempt;
+            attempt = new Attempt(shard, previous == null ? null : previous.replica, query, false, null);
+            if (previous != null) {
+                retries.incrementAndGet();
+                LOG.debug("retry on " + attempt.replica.getNode().getName() + ": " + previous.error.toString());
+            }
+            attempt.run();
+            if (attempt.error == null) {
+                return attempt.result;
+            }
+            if (attempt.isClientError()) {
+                break;
+            }
+        }
+        failures.incrementAndGet();
+        throw attempt.error;
+    }
+
+    /**
+     * search replicas of a shard, hedging the query after a delay.
+     * the hedge and the retries share the limit of the attempts.
+     * @param shard shard
+     * @param query query string
+     * @param limit number of replicas the query is sent to
+     * @param delay delay before the query is hedged(nsec)
+     * @return the result of search
+     * @throws IOException if the query failed on all attempted replicas, or the query is invalid
+     */
+    private String selectHedged(final Shard shard, final String query, final int limit, final long delay)
+            throws IOException {
+        long begin = System.nanoTime();
+        BlockingQueue<Attempt> finished = new LinkedBlockingQueue<Attempt>();
+        List<Attempt> running = new ArrayList<Attempt>();
+        Attempt primary = launch(new Attempt(shard, null, query, false, finished));
+        running.add(primary);
+        int launched = 1;
+        boolean hedged = false;
+        try {
+            while (true) {
+                Attempt attempt;
+                if (launched == 1) {
+                    attempt = finished.poll(begin + delay - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (attempt == null) {
+                        hedged = true;
+                        hedges.incrementAndGet();
+                        running.add(launch(new Attempt(shard, primary.replica, query, true, finished)));
+                        ++launched;
+                        continue;
+                    }
+                } else {
+                    attempt = finished.take();
+                }
+                running.remove(attempt);
+                if (attempt.error == null) {
+                    if (attempt.hedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return attempt.result;
+                }
+                if (attempt.isClientError()) {
+                    failures.incrementAndGet();
+                    throw attempt.error;
+                }
+                if (!running.isEmpty()) {
+                    // the other request may still answer
+                    continue;
+                }
+                if (launched >= limit) {
+                    failures.incrementAndGet();
+                    throw attempt.error;
+                }
+                retries.incrementAndGet();
+                LOG.debug("retry of " + attempt.replica.getNode().getName() + ": " + attempt.error.toString());
+                running.add(launch(new Attempt(shard, attempt.replica, query, false, finished)));
+                ++launched;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + shard.selector.size() + " replicas");
+        } finally {
+            for (Attempt attempt : running) {
+                attempt.handle.abort();
+            }
+            if (hedged) {
+                hedgedLatency.record(System.nanoTime() - begin);
+            }
+        }
+    }
+
+    /**
+     * run an attempt on the executor.
+     * @param attempt attempt
+     * @return the attempt
+     */
+    private Attempt launch(final Attempt attempt) {
+        executor.execute(attempt);
+        return attempt;
+    }
+
+    /**
+     * get the statistics. the hedge rate is the ratio of hedged queries, and the wins are the hedged
+     * queries answered first by the hedge, whose latency has been cut to about the hedge delay.
+     * @return statistics
+     */
+    public String getStatistics() {
+        long count = queries.get();
+        long hedged = hedges.get();
+        StringBuilder builder = new StringBuilder("queries=" + count + ", retries=" + retries.get()
+                + ", failures=" + failures.get() + ", hedges=" + hedged
+                + String.format(Locale.ENGLISH, ", hedgeRate=%.2f%%", count == 0 ? 0.0 : hedged * 100.0 / count)
+                + ", hedgeWins=" + hedgeWins.get() + ", aborts=" + aborts.get()
+                + ", hedgedLatency(" + hedgedLatency + ")");
+        for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+            Shard shard = entry.getValue();
+            long delay = shard.getHedgeDelay();
+            builder.append('\n').append(entry.getKey()).append(": ")
+                .append("hedgeDelay=").append(delay < 0 ? "-" : TimeUnit.NANOSECONDS.toMicros(delay) + "us")
+                .append(", latency(").append(shard.latency).append("), ")
+                .append(shard.selector.getStatistics());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * stop the threads of the hedged requests.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Shard and the latencies of its replicas.
+     */
+    private final class Shard {
+
+        /** selector of the replicas. */
+        private final ReplicaSelector selector;
+
+        /** latencies of the succeeded requests. */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Constructor.
+         * @param replicaSelector selector of the replicas
+         */
+        private Shard(final ReplicaSelector replicaSelector) {
+            selector = replicaSelector;
+        }
+
+        /**
+         * get the delay after which a query is hedged.
+         * @return delay(nsec), or -1 if queries are not hedged
+         */
+        private long getHedgeDelay() {
+            if (hedgePercentile <= 0 || latency.getCount() < HEDGE_MIN_SAMPLES) {
+                return -1;
+            }
+            return Math.max(hedgeMinDelay, TimeUnit.MICROSECONDS.toNanos(latency.getPercentile(hedgePercentile)));
+        }
+    }
+
+    /**
+     * Request of a query to a replica.
+     */
+    private final class Attempt implements Runnable {
+
+        /** shard. */
+        private final Shard shard;
+
+        /** replica. */
+        private final ReplicaSelector.Replica replica;
+
+        /** query string. */
+        private final String query;
+
+        /** the request is a hedge. */
+        private final boolean hedge;
+
+        /** queue which the finished attempt is put to, or null. */
+        private final BlockingQueue<Attempt> finished;
+
+        /** handle which aborts the request. */
+        private final RequestHandle handle = new RequestHandle();
+
+        /** the result of search. */
+        private volatile String result;
+
+        /** error of the request. */
+        private volatile IOException error;
+
+        /**
+         * Constructor.
+         * @param attemptShard shard
+         * @param exclude replica not to be selected, or null
+         * @param attemptQuery query string
+         * @param isHedge the request is a hedge
+         * @param queue queue which the finished attempt is put to, or null
+         */
+        private Attempt(final Shard attemptShard, final ReplicaSelector.Replica exclude, final String attemptQuery,
+                final boolean isHedge, final BlockingQueue<Attempt> queue) {
+            shard = attemptShard;
+            replica = attemptShard.selector.select(exclude);
+            query = attemptQuery;
+            hedge = isHedge;
+            finished = queue;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            replica.start();
+            try {
+                result = clients.get(replica.getNode()).select(query, handle);
+                long elapsed = System.nanoTime() - begin;
+                replica.succeed(elapsed);
+                shard.latency.record(elapsed);
+            } catch (IOException e) {
+                error = e;
+                if (handle.isAborted()) {
+                    aborts.incrementAndGet();
+                    replica.cancel(System.nanoTime() - begin);
+                } else if (isClientError()) {
+                    // the slave has answered; the query itself is wrong
+                    replica.succeed(System.nanoTime() - begin);
+                } else {
+                    replica.fail();
+                }
+            } catch (RuntimeException e) {
+                // e.g. a broken response; the attempt must not be taken as a success
+                error = new IOException(e);
+                replica.fail();
+            } finally {
+                if (finished != null) {
+                    finished.add(this);
+                }
+            }
+        }
+
+        /**
+         * check the request has failed because the query is invalid.
+         * @return true if the slave has returned a client error
+         */
+        private boolean isClientError() {
+            return error instanceof SolrResponseException
+                    && ((SolrResponseException) error).getStatusCode() < HTTP_SERVER_ERROR_STATUS;
+        }
+    }
+}
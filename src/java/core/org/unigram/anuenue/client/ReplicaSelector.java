@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Selector of the replica which serves a request, by the power of two choices.
+ * Two replicas are picked at random and the one with the lower cost is used; the cost is
+ * the latency average multiplied by the outstanding requests plus one. The average follows
+ * a slower latency at once and decays to faster ones, so that a replica in a pause is avoided
+ * quickly; it also decays while the replica is idle, so that an avoided replica is tried again.
+ * A replica which fails consecutively is ejected for a while.
+ * Selection does not lock, so that it does not contend under many threads.
+ */
+final class ReplicaSelector {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(ReplicaSelector.class);
+
+    /** initial latency average(nsec). */
+    private static final long INITIAL_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** weight of a new latency which is faster than the average. */
+    private static final double DECAY = 0.3;
+
+    /** replicas. */
+    private final Replica[] replicas;
+
+    /** number of consecutive failures which eject a replica. */
+    private final int ejectFailures;
+
+    /** time for which a replica is ejected(nsec). */
+    private final long ejectTime;
+
+    /** time constant of the decay of an idle latency average(nsec). */
+    private final double decayTime;
+
+    /** number of ejections. */
+    private final AtomicLong ejections = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param nodes replicas
+     * @param failures number of consecutive failures which eject a replica
+     * @param ejectMillis time for which a replica is ejected(msec)
+     * @param decayMillis time constant of the decay of an idle latency average(msec)
+     */
+    ReplicaSelector(final List<Node> nodes, final int failures, final long ejectMillis, final long decayMillis) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("no replica");
+        }
+        replicas = new Replica[nodes.size()];
+        for (int i = 0; i < replicas.length; ++i) {
+            replicas[i] = new Replica(nodes.get(i));
+        }
+        ejectFailures = failures;
+        ejectTime = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+        decayTime = TimeUnit.MILLISECONDS.toNanos(Math.max(1, decayMillis));
+    }
+
+    /**
+     * select a replica.
+     * if all replicas except the excluded one are ejected, the one whose ejection ends first is used.
+     * @param exclude replica not to be selected (one which has just failed), or null
+     * @return replica
+     */
+    Replica select(final Replica exclude) {
+        int n = replicas.length;
+        if (n == 1) {
+            return replicas[0];
+        }
+        long now = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(n);
+        int second = random.nextInt(n - 1);
+        if (second >= first) {
+            ++second;
+        }
+        Replica a = available(first, exclude, now);
+        Replica b = available(second, exclude, now);
+        if (a == null) {
+            return b == null ? fallback(exclude) : b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.cost(now) <= b.cost(now) ? a : b;
+    }
+
+    /**
+     * get a replica if it can be selected, or the next one which can be.
+     * @param index index of the replica
+     * @param exclude replica not to be selected, or null
+     * @param now current time(nsec)
+     * @return replica, or null if none can be selected
+     */
+    private Replica available(final int index, final Replica exclude, final long now) {
+        for (int i = 0; i < replicas.length; ++i) {
+            Replica replica = replicas[(index + i) % replicas.length];
+            if (replica != exclude && !replica.isEjected(now)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * get the replica whose ejection ends first.
+     * @param exclude replica not to be selected, or null
+     * @return replica
+     */
+    private Replica fallback(final Replica exclude) {
+        Replica selected = null;
+        for (Replica replica : replicas) {
+            if (replica != exclude && (selected == null || replica.ejectedUntil < selected.ejectedUntil)) {
+                selected = replica;
+            }
+        }
+        return selected == null ? exclude : selected;
+    }
+
+    /**
+     * get number of replicas.
+     * @return number of replicas
+     */
+    int size() {
+        return replicas.length;
+    }
+
+    /**
+     * get the statistics.
+     * @return statistics
+     */
+    String getStatistics() {
+        StringBuilder builder = new StringBuilder("ejections=" + ejections.get());
+        long now = System.nanoTime();
+        for (Replica replica : replicas) {
+            builder.append(", ").append(replica.node.getName())
+                .append("(latency=").append(TimeUnit.NANOSECONDS.toMicros((long) replica.latency(now))).append("us")
+                .append(", outstanding=").append(replica.outstanding.get())
+                .append(replica.isEjected(now) ? ", ejected" : "").append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Replica and its load.
+     */
+    final class Replica {
+
+        /** node. */
+        private final Node node;
+
+        /** number of outstanding requests. */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /** latency average(nsec) when it was updated. */
+        private final AtomicLong latency = new AtomicLong(INITIAL_LATENCY);
+
+        /** time when the latency average was updated(nsec). */
+        private volatile long updated = System.nanoTime();
+
+        /** number of consecutive failures. */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /** time until which the replica is ejected(nsec). */
+        private volatile long ejectedUntil;
+
+        /** the replica is ejected. */
+        private volatile boolean ejected;
+
+        /**
+         * Constructor.
+         * @param replicaNode node
+         */
+        private Replica(final Node replicaNode) {
+            node = replicaNode;
+        }
+
+        /**
+         * get the node.
+         * @return node
+         */
+        Node getNode() {
+            return node;
+        }
+
+        /**
+         * get the latency average, decayed for the time since it was updated.
+         * @param now current time(nsec)
+         * @return latency average(nsec)
+         */
+        private double latency(final long now) {
+            long idle = now - updated;
+            double average = latency.get();
+            return idle <= 0 ? average : average * Math.exp(-idle / decayTime);
+        }
+
+        /**
+         * get the cost of a new request.
+         * @param now current time(nsec)
+         * @return cost
+         */
+        private double cost(final long now) {
+            return latency(now) * (outstanding.get() + 1);
+        }
+
+        /**
+         * check the replica is ejected.
+         * @param now current time(nsec)
+         * @return true if ejected
+         */
+        private boolean isEjected(final long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        /**
+         * a request to the replica starts.
+         */
+        void start() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * a request to the replica has succeeded.
+         * @param elapsed latency(nsec)
+         */
+        void succeed(final long elapsed) {
+            outstanding.decrementAndGet();
+            failures.set(0);
+            ejected = false;
+            record(elapsed);
+        }
+
+        /**
+         * update the latency average.
+         * @param elapsed latency(nsec)
+         */
+        private void record(final long elapsed) {
+            long now = System.nanoTime();
+            while (true) {
+                long stored = latency.get();
+                double current = latency(now);
+                long next = elapsed >= current ? elapsed : (long) (current + (elapsed - current) * DECAY);
+                if (latency.compareAndSet(stored, Math.max(1, next))) {
+                    break;
+                }
+            }
+            updated = now;
+        }
+
+        /**
+         * a request to the replica has failed. the replica is ejected after consecutive failures;
+         * a failure after an ejection ejects it again.
+         */
+        void fail() {
+            outstanding.decrementAndGet();
+            if (failures.incrementAndGet() >= ejectFailures) {
+                ejectedUntil = System.nanoTime() + ejectTime;
+                ejected = true;
+                ejections.incrementAndGet();
+                LOG.warn("eject " + node.getName() + " for " + TimeUnit.NANOSECONDS.toMillis(ejectTime)
+                        + " msec after " + failures.get() + " consecutive failures");
+            }
+        }
+
+        /**
+         * a request to the replica has been aborted by the client, after another replica answered.
+         * the time until the abort is recorded as the latency, since the replica would have been slower;
+         * it is not a failure.
+         * @param elapsed time until the abort(nsec)
+         */
+        void cancel(final long elapsed) {
+            outstanding.decrementAndGet();
+            record(elapsed);
+        }
+    }
+}
@@ -15,14 +15,14 @@
  */
 package org.unigram.anuenue.client.command;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.SolrResponseException;
 
 /**
  * A Class for "addData" command.
@@ -32,6 +32,18 @@ public final class AddDataCommand extends AbstractCommand {
     /** logger. */
     private static final Log LOG = LogFactory.getLog(AddDataCommand.class);
 
+    /** charset of data. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** header bytes of a slice, or null. */
+    private final byte[] header;
+
+    /** slice of a file, or null. */
+    private final ByteBuffer body;
+
+    /** time of the post(msec), or -1 if the data has not been posted or has been bisected. */
+    private long postTime = -1;
+
     /**
      * Constructor.
      *
@@ -40,58 +52,76 @@ public final class AddDataCommand extends AbstractCommand {
      */
     public AddDataCommand(final SolrClient client, final String arg) {
         super(client, arg);
+        header = null;
+        body = null;
     }
 
     /**
-     * run command.
+     * Constructor of the command which posts the header and a slice of a file.
+     *
+     * @param client SolrClient
+     * @param headerBytes header bytes (with new line)
+     * @param slice slice of a file
+     */
+    public AddDataCommand(final SolrClient client, final byte[] headerBytes, final ByteBuffer slice) {
+        super(client, null);
+        header = headerBytes;
+        body = slice;
+    }
+
+    /**
+     * run command. when Solr rejects the data (4xx), invalid lines are isolated by bisection.
      * @return result of command
-     * @throws IOException in case of IO error
+     * @throws IOException in case of IO error, timeout or server error, which are not caused by the data
      */
     @Override
     public String runCommand() throws IOException {
         String result = "";
+        postTime = -1;
+        long start = System.currentTimeMillis();
         try {
-            result = getSolrClient().updateTSVData(getArgument());
-        } catch (ConnectException e) { // when server is down
+            if (body != null) {
+                result = getSolrClient().updateTSVDataStatus(header, body.duplicate()).toString();
+            } else {
+                result = getSolrClient().updateTSVDataStatus(getArgument()).toString();
+            }
+            postTime = System.currentTimeMillis() - start;
+        } catch (SolrResponseException e) {
+            if (!BadLineIsolator.isRejected(e)) {
+                // the server is overloaded or broken, not the data
+                LOG.error(e.toString());
+                throw e;
+            }
+            LOG.warn(e.toString());
+            LOG.warn("isolating invalid lines by bisection...");
+            BadLineIsolator.retryByBisection(getSolrClient(), getData(), e);
+        } catch (IOException e) { // when server is down or does not respond
             LOG.error(e.toString());
             throw e;
-        } catch (IOException  e) { // in case input contains invalid lines
-            LOG.warn(e.toString());
-            LOG.warn("adding " + getArgument() + " one by one...");
-            addOneByOne(getArgument());
         }
         return result;
     }
 
     /**
-     * add data one line at a time.
-     *
-     * @param chunk chunkData
-     * @throws ConnectException in case of connection failure.
+     * get time of the last post, which does not include retries by bisection.
+     * @return time of the post(msec), or -1 if the data has been bisected or the post has failed
      */
-    private void addOneByOne(final String chunk) throws ConnectException {
-        try (StringReader stringReader = new StringReader(chunk);
-                BufferedReader bufferedReader = new BufferedReader(stringReader)) {
-            String header = bufferedReader.readLine(); // fist line must be a header
+    public long getPostTime() {
+        return postTime;
+    }
 
-            while (true) {
-                String line = bufferedReader.readLine();
-                if (line == null) {
-                    break;
-                }
-                try {
-                    getSolrClient().updateTSVData(header + "\n" + line);
-                } catch (ConnectException e) {
-                    LOG.error(e.toString());
-                    throw e;
-                } catch (IOException e) {
-                    LOG.warn(e.toString());
-                    LOG.warn("skipping invalid line: " + line);
-                }
-            }
-        } catch (IOException e) {
-            LOG.error(e.toString());
+    /**
+     * get data as a String.
+     * @return data
+     */
+    private String getData() {
+        if (body == null) {
+            return getArgument();
         }
-
+        ByteBuffer slice = body.duplicate();
+        byte[] bytes = new byte[header.length + slice.remaining()];
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        slice.get(bytes, header.length, slice.remaining());
+        return new String(bytes, UTF8);
     }
 }
@@ -18,14 +18,13 @@ package org.unigram.anuenue.client.command;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.ConnectException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.SolrResponseException;
 
 
 /**
@@ -47,59 +46,43 @@ public final class AddFileCommand extends AbstractCommand {
     }
 
     /**
-     * run command.
+     * run command. when Solr rejects the file (4xx), it is added in segments.
      * @return result of command
-     * @throws IOException in case of IO error
+     * @throws IOException in case of IO error, timeout or server error, which are not caused by the data
      */
     @Override
     public String runCommand() throws IOException {
         String result = "";
         try {
             LOG.info("adding tsv file: " + getArgument());
-            result = getSolrClient().updateTSVFile(new File(getArgument()));
-        } catch (ConnectException e) { // when server is down
+            result = getSolrClient().updateTSVFileStatus(new File(getArgument())).toString();
+        } catch (SolrResponseException e) {
+            if (!BadLineIsolator.isRejected(e)) {
+                // the server is overloaded or broken, not the data
+                LOG.error(e.toString());
+                throw e;
+            }
+            LOG.warn(e.toString());
+            LOG.warn("adding " + getArgument() + " in segments...");
+            addInSegments(getArgument());
+        } catch (IOException e) { // when server is down or does not respond
             LOG.error(e.toString());
             throw e;
-        } catch (IOException  e) { // in case input contains invalid lines
-            LOG.warn(e.toString());
-            LOG.warn("adding " + getArgument() + " one by one...");
-            addOneByOne(getArgument());
         }
         return result;
     }
 
     /**
-     * add file one line at a time.
+     * add file in segments, isolating invalid lines by bisection.
      *
      * @param fileName file name
-     * @throws ConnectException in case of connection failure.
+     * @throws IOException in case of IO error, or an error which is not a rejection of Solr
      */
-    private void addOneByOne(final String fileName) throws ConnectException {
+    private void addInSegments(final String fileName) throws IOException {
         try (FileInputStream fileInputStream = new FileInputStream(fileName);
                 InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, "UTF-8");
                 BufferedReader bufferedReader = new BufferedReader(inputStreamReader)) {
-            String header = bufferedReader.readLine(); // fist line must be a header
-
-            while (true) {
-                String line = bufferedReader.readLine();
-                if (line == null) {
-                    break;
-                }
-                try {
-                    getSolrClient().updateTSVData(header + "\n" + line);
-                } catch (ConnectException e) {
-                    LOG.error(e.toString());
-                    throw e;
-                } catch (IOException e) {
-                    LOG.warn(e.toString());
-                    LOG.warn("skipping invalid line: " + line);
-                }
-            }
-        } catch (FileNotFoundException e) {
-            LOG.error(e.toString());
-        } catch (IOException e) {
-            LOG.error(e.toString());
+            BadLineIsolator.addInSegments(getSolrClient(), bufferedReader);
         }
-
     }
 }
@@ -15,6 +15,8 @@
  */
 package org.unigram.anuenue.client.command;
 
+import java.nio.ByteBuffer;
+
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -93,6 +95,8 @@ public final class AnuenueCommandFactory {
             return new DeleteAllCommand(client, arg);
         case AnuenueCommandConstants.COMMAND_DELETE:
             return new DeleteCommand(client, arg);
+        case AnuenueCommandConstants.COMMAND_DELETEBYID:
+            return new DeleteByIdCommand(client, arg);
         case AnuenueCommandConstants.COMMAND_OPTIMIZE:
             return new OptimizeCommand(client, arg);
         case AnuenueCommandConstants.COMMAND_COMMIT:
@@ -108,6 +112,19 @@ public final class AnuenueCommandFactory {
         }
     }
 
+    /**
+     * Create "addData" command which posts the header and a slice of a file without decoding.
+     *
+     * @param node target Node
+     * @param header header bytes (with new line)
+     * @param body slice of a file
+     *
+     * @return AddDataCommand
+     */
+    public static AddDataCommand createAddDataCommand(final Node node, final byte[] header, final ByteBuffer body) {
+        return new AddDataCommand(new SolrClient(node.getHostName(), node.getPortNumber()), header, body);
+    }
+
     /**
      * Create AnuenueCommand.
      * @param args command line arguments.
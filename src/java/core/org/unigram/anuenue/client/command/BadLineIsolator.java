@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.command;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.SolrResponseException;
+
+/**
+ * Finds invalid lines of TSV data which Solr rejected, by splitting the data
+ * into halves and retrying recursively. k invalid lines of n lines are found
+ * by O(k log n) requests instead of n requests.
+ * Only data which Solr rejected (4xx) is split; other errors, such as timeouts,
+ * connection failures and 5xx, are thrown since they are not caused by the lines.
+ * A rejection of every line, such as an unknown field of the header, is also thrown
+ * instead of being bisected down to each line.
+ * Invalid lines are written to the dead letter file.
+ */
+final class BadLineIsolator {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(BadLineIsolator.class);
+
+    /** number of lines posted at one time when a file is read. */
+    private static final int SEGMENT_SIZE = 1000;
+
+    /** SolrClient. */
+    private final SolrClient client;
+
+    /** header line. */
+    private final String header;
+
+    /** number of lines. */
+    private int lines;
+
+    /** number of requests. */
+    private int requests;
+
+    /** number of invalid lines. */
+    private int badLines;
+
+    /** true if Solr accepted the header with a line. */
+    private boolean headerAccepted;
+
+    /**
+     * Constructor.
+     * @param solrClient SolrClient
+     * @param headerLine header line
+     */
+    BadLineIsolator(final SolrClient solrClient, final String headerLine) {
+        client = solrClient;
+        header = headerLine;
+        lines = 0;
+        requests = 0;
+        badLines = 0;
+        headerAccepted = false;
+    }
+
+    /**
+     * post lines of a reader in segments, and isolate invalid lines of failed segments.
+     * @param solrClient SolrClient
+     * @param reader reader whose first line is the header
+     * @throws IOException in case of IO error, or an error which is not a rejection of Solr
+     */
+    static void addInSegments(final SolrClient solrClient, final BufferedReader reader) throws IOException {
+        String headerLine = reader.readLine(); // fist line must be a header
+        if (headerLine == null) {
+            return;
+        }
+        BadLineIsolator isolator = new BadLineIsolator(solrClient, headerLine);
+        List<String> segment = new ArrayList<String>(SEGMENT_SIZE);
+        while (true) {
+            String line = reader.readLine();
+            if (line != null) {
+                segment.add(line);
+            }
+            if (segment.size() >= SEGMENT_SIZE || (line == null && !segment.isEmpty())) {
+                isolator.lines += segment.size();
+                isolator.post(segment);
+                segment = new ArrayList<String>(SEGMENT_SIZE);
+            }
+            if (line == null) {
+                break;
+            }
+        }
+        isolator.report();
+    }
+
+    /**
+     * isolate invalid lines of TSV data which failed as a whole, and post the other lines.
+     * @param solrClient SolrClient
+     * @param data TSV data whose first line is the header
+     * @param error rejection of the data
+     * @throws IOException in case of an error which is not a rejection of Solr
+     */
+    static void retryByBisection(final SolrClient solrClient, final String data, final SolrResponseException error)
+            throws IOException {
+        String[] allLines = data.split("\n");
+        List<String> body = new ArrayList<String>(allLines.length);
+        for (int i = 1; i < allLines.length; ++i) {
+            body.add(allLines[i]);
+        }
+        BadLineIsolator isolator = new BadLineIsolator(solrClient, allLines[0]);
+        isolator.lines = body.size();
+        isolator.isolate(body, error);
+        isolator.report();
+    }
+
+    /**
+     * post lines, and isolate invalid lines if it fails.
+     * @param target lines
+     * @throws IOException in case of an error which is not a rejection of Solr
+     */
+    private void post(final List<String> target) throws IOException {
+        if (target.isEmpty()) {
+            return;
+        }
+        SolrResponseException error = send(target);
+        if (error == null) {
+            headerAccepted = true;
+        } else {
+            isolate(target, error);
+        }
+    }
+
+    /**
+     * send lines.
+     * @param target lines
+     * @return rejection, or null if succeeded
+     * @throws IOException in case of an error which is not a rejection of Solr
+     */
+    private SolrResponseException send(final List<String> target) throws IOException {
+        StringBuilder builder = new StringBuilder(header).append('\n');
+        for (String line : target) {
+            builder.append(line).append('\n');
+        }
+        ++requests;
+        try {
+            client.updateTSVDataStatus(builder.toString());
+            return null;
+        } catch (SolrResponseException e) {
+            if (isRejected(e)) {
+                return e;
+            }
+            LOG.error(e.toString());
+            throw e;
+        } catch (IOException e) {
+            LOG.error(e.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * isolate invalid lines of lines which failed as a whole.
+     * @param target lines
+     * @param error rejection of the lines
+     * @throws IOException in case of an error which is not a rejection of Solr
+     */
+    private void isolate(final List<String> target, final SolrResponseException error) throws IOException {
+        if (target.isEmpty()) {
+            return;
+        }
+        if (target.size() == 1) {
+            ++badLines;
+            LOG.warn("skipping invalid line: " + target.get(0));
+            DeadLetterFile.getInstance().write(client.getName(), target.get(0), error);
+            return;
+        }
+        int middle = target.size() / 2;
+        List<String> first = target.subList(0, middle);
+        List<String> second = target.subList(middle, target.size());
+        SolrResponseException firstError = send(first);
+        if (firstError == null) {
+            // Solr rejected the data, so the invalid lines must be in the second half
+            headerAccepted = true;
+            isolate(second, error);
+            return;
+        }
+        if (headerAccepted) {
+            isolate(first, firstError);
+            post(second);
+            return;
+        }
+        SolrResponseException secondError = send(second);
+        if (secondError == null) {
+            headerAccepted = true;
+            isolate(first, firstError);
+            return;
+        }
+        checkHeader(first, error);
+        isolate(first.subList(1, first.size()), firstError);
+        isolate(second, secondError);
+    }
+
+    /**
+     * check the rejection of both halves is caused by lines, by posting the first line alone.
+     * if Solr rejects it too, the rejection applies to every line (e.g. an unknown field of the header),
+     * and it is thrown instead of bisecting the lines down to each line.
+     * @param first first half which Solr rejected
+     * @param error rejection of the whole lines
+     * @throws IOException if Solr rejects the line, or in case of an error which is not a rejection of Solr
+     */
+    private void checkHeader(final List<String> first, final SolrResponseException error) throws IOException {
+        SolrResponseException lineError = first.size() > 1 ? send(first.subList(0, 1)) : error;
+        if (lineError != null) {
+            LOG.error("all lines are rejected: " + error.toString());
+            throw error;
+        }
+        headerAccepted = true;
+    }
+
+    /**
+     * check Solr rejected the data (4xx). other errors (e.g. timeout, 5xx) are not caused by the data.
+     * @param error error
+     * @return true if Solr rejected the data
+     */
+    static boolean isRejected(final IOException error) {
+        return error instanceof SolrResponseException && ((SolrResponseException) error).isClientError();
+    }
+
+    /**
+     * log the result.
+     */
+    private void report() {
+        if (badLines == 0 && requests <= 1) {
+            return;
+        }
+        LOG.info(client.getName() + ": " + badLines + " invalid lines of " + lines + " lines isolated by "
+                + requests + " requests (" + Math.max(0, lines - requests) + " requests saved)");
+        if (badLines > 0) {
+            LOG.warn(badLines + " invalid lines are written to " + DeadLetterFile.getInstance().getFile());
+        }
+    }
+}
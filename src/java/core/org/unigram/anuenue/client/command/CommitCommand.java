@@ -55,7 +55,7 @@ public final class CommitCommand extends AbstractCommand {
     @Override
     public String runCommand() throws IOException {
         LOG.info("commiting the changes");
-        return getSolrClient().updateXML(AnuenueCommandConstants.COMMIT_COMMAND);
+        return getSolrClient().updateXMLStatus(AnuenueCommandConstants.COMMIT_COMMAND).toString();
     }
 
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.command;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * File which keeps lines rejected by Solr.
+ * Each rejected line is preceded by a comment line with the node and the error.
+ */
+final class DeadLetterFile {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(DeadLetterFile.class);
+
+    /** property: anuenue.deadletter.file. */
+    private static final String PROPERTY_DEADLETTER_FILE = "anuenue.deadletter.file";
+
+    /** default: dead letter file. */
+    private static final String DEFAULT_DEADLETTER_FILE = "logs/anuenue-deadletter.txt";
+
+    /** maximum length of an error message. */
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+
+    /** shared instance. */
+    private static final DeadLetterFile INSTANCE = new DeadLetterFile(
+            new File(System.getProperty(PROPERTY_DEADLETTER_FILE, DEFAULT_DEADLETTER_FILE)));
+
+    /** file. */
+    private final File file;
+
+    /**
+     * Constructor.
+     * @param deadLetterFile file
+     */
+    private DeadLetterFile(final File deadLetterFile) {
+        file = deadLetterFile;
+    }
+
+    /**
+     * get the shared instance.
+     * @return DeadLetterFile
+     */
+    static DeadLetterFile getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * append a rejected line.
+     * @param nodeName host:port of Solr
+     * @param line rejected line
+     * @param error error returned by Solr
+     */
+    synchronized void write(final String nodeName, final String line, final IOException error) {
+        String message = String.valueOf(error.getMessage()).replaceAll("\\s+", " ");
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH) + "...";
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            LOG.error("failed to create directory: " + parent);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")) {
+            writer.write("# " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date())
+                    + " " + nodeName + " " + message + "\n");
+            writer.write(line);
+            writer.write("\n");
+        } catch (IOException e) {
+            LOG.error("failed to write dead letter file " + file + ": " + e.toString());
+            LOG.error("rejected line: " + line);
+        }
+    }
+
+    /**
+     * get the file.
+     * @return file
+     */
+    File getFile() {
+        return file;
+    }
+}
@@ -50,7 +50,7 @@ public final class DeleteAllCommand extends AbstractCommand {
     public String runCommand() throws IOException {
         LOG.info("deleting all index");
         return getSolrClient()
-                        .updateXML(AnuenueCommandConstants.DELETE_ALL_COMMAND);
+                        .updateXMLStatus(AnuenueCommandConstants.DELETE_ALL_COMMAND).toString();
     }
 
 }
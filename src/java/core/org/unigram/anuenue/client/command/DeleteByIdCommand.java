@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.command;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.solr.SolrClient;
+
+/**
+ * A Class for "deleteById" command.
+ * The argument is a list of unique keys separated by new lines,
+ * which are deleted by one request.
+ */
+public final class DeleteByIdCommand extends AbstractCommand {
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(DeleteByIdCommand.class);
+
+    /**
+     * Constructer.
+     *
+     * @param client SolrClient
+     * @param arg argument
+     */
+    public DeleteByIdCommand(final SolrClient client, final String arg) {
+        super(client, arg);
+    }
+
+    /**
+     * run command.
+     *
+     * @return result of command
+     * @throws IOException in case of IO error
+     */
+    @Override
+    public String runCommand() throws IOException {
+        List<String> ids = new ArrayList<String>();
+        for (String id : getArgument().split("\n")) {
+            if (id.length() == 0) {
+                continue;
+            }
+            ids.add(id);
+        }
+        LOG.debug("deleting " + ids.size() + " documents");
+        return getSolrClient().deleteById(ids).toString();
+    }
+
+}
@@ -17,7 +17,6 @@ package org.unigram.anuenue.client.command;
 
 import java.io.IOException;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unigram.anuenue.client.solr.SolrClient;
@@ -48,9 +47,7 @@ public final class DeleteCommand extends AbstractCommand {
     @Override
     public String runCommand() throws IOException {
         LOG.info("deleting index");
-        return getSolrClient().updateXML("<delete><query>"
-                + StringEscapeUtils.escapeXml(getArgument()) + "</query></delete>");
-
+        return getSolrClient().deleteByQuery(getArgument()).toString();
     }
 
 }
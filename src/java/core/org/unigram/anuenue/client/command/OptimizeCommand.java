@@ -55,6 +55,6 @@ public final class OptimizeCommand extends AbstractCommand {
     @Override
     public String runCommand() throws IOException {
         LOG.info("optimizing index");
-        return getSolrClient().updateXML(AnuenueCommandConstants.OPTIMIZE_COMMAND);
+        return getSolrClient().updateXMLStatus(AnuenueCommandConstants.OPTIMIZE_COMMAND).toString();
     }
 }
@@ -47,6 +47,6 @@ public final class PingCommand extends AbstractCommand {
     @Override
     public String runCommand() throws IOException {
         LOG.info("submiting ping");
-        return getSolrClient().ping();
+        return getSolrClient().pingStatus().toString();
     }
 }
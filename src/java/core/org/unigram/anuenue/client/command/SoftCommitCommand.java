@@ -55,7 +55,7 @@ public final class SoftCommitCommand extends AbstractCommand {
     @Override
     public String runCommand() throws IOException {
         LOG.info("soft commiting the changes");
-        return getSolrClient().updateXML(AnuenueCommandConstants.SOFT_COMMIT_COMMAND);
+        return getSolrClient().updateXMLStatus(AnuenueCommandConstants.SOFT_COMMIT_COMMAND).toString();
     }
 
 }
@@ -58,7 +58,7 @@ public final class UpdateViaStreamFileCommand extends AbstractCommand {
         String result = "";
         try {
             LOG.info("adding tsv file: " + getArgument());
-            result = getSolrClient().updateTSVViaStreamFile(getArgument());
+            result = getSolrClient().updateTSVViaStreamFileStatus(getArgument()).toString();
         } catch (ConnectException e) { // when server is down
             LOG.error(e.toString());
             throw e;
@@ -17,18 +17,29 @@ package org.unigram.anuenue.client.distcommand;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unigram.anuenue.client.AnuenueCommandConstants;
 import org.unigram.anuenue.client.command.AnuenueCommandFactory;
+import org.unigram.anuenue.client.solr.HttpConnectionPool;
 import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.ConsistentHashRing;
 import org.unigram.anuenue.node.Node;
 import org.unigram.anuenue.node.NodeDatabase;
 
@@ -46,7 +57,16 @@ public abstract class AbstractDistCommand {
     /** default: maximum number of line to be sent one time. */
     private static final String DEFAULT_MAX_LINE_PER_FILE = "100";
 
-    /** factor of thread number which multiplies size of the master nodes. */
+    /** maximum size of a chunk in bytes (0 for no limit). maxLinePerFile still limits the lines. */
+    private long maxBytesPerChunk;
+
+    /** property: maximum size of a chunk in bytes. */
+    private static final String PROPERTY_MAX_BYTES_PER_CHUNK = "anuenue.post.max.bytes";
+
+    /** default: chunks are not limited by size. */
+    private static final String DEFAULT_MAX_BYTES_PER_CHUNK = "0";
+
+    /** factor of thread number which multiplies size of the master nodes (number of workers per node). */
     private final double factorOfThreadNumber;
 
     /** property: factor of thread number. */
@@ -55,6 +75,138 @@ public abstract class AbstractDistCommand {
     /** default: factor of thread number which multiplies size of the master nodes. */
     private static final String DEFAULT_FACTOR_OF_THREAD_NUMBER = "3.0";
 
+    /** capacity of the chunk queue of each node. */
+    private final int queueCapacity;
+
+    /** property: capacity of the chunk queue of each node. */
+    private static final String PROPERTY_QUEUE_CAPACITY = "anuenue.post.queue.capacity";
+
+    /** default: capacity of the chunk queue of each node. */
+    private static final String DEFAULT_QUEUE_CAPACITY = "4";
+
+    /** number of ids deleted by one request. */
+    private final int deleteBatchSize;
+
+    /** property: number of ids deleted by one request. */
+    private static final String PROPERTY_DELETE_BATCH_SIZE = "anuenue.delete.batch.size";
+
+    /** default: number of ids deleted by one request. */
+    private static final String DEFAULT_DELETE_BATCH_SIZE = "1000";
+
+    /** routing mode: chunks are sent to the least loaded node. */
+    public static final String ROUTING_ROUNDROBIN = "roundrobin";
+
+    /** routing mode: documents are sent to the master which owns the id on a consistent hash ring. */
+    public static final String ROUTING_HASH = "hash";
+
+    /** routing mode. */
+    private final String routingMode;
+
+    /** property: routing mode (roundrobin or hash). */
+    static final String PROPERTY_ROUTING_MODE = "anuenue.routing.mode";
+
+    /** default: routing mode. */
+    static final String DEFAULT_ROUTING_MODE = ROUTING_ROUNDROBIN;
+
+    /** number of virtual nodes per master on the hash ring. */
+    private final int virtualNodes;
+
+    /** property: number of virtual nodes per master on the hash ring. */
+    static final String PROPERTY_ROUTING_VIRTUAL_NODES = "anuenue.routing.virtual.nodes";
+
+    /** default: number of virtual nodes per master on the hash ring. */
+    static final String DEFAULT_ROUTING_VIRTUAL_NODES = "160";
+
+    /** number of files read at the same time. */
+    private final int concurrentFiles;
+
+    /** property: number of files read at the same time. */
+    private static final String PROPERTY_CONCURRENT_FILES = "anuenue.post.concurrent.files";
+
+    /** default: number of files read at the same time. */
+    private static final String DEFAULT_CONCURRENT_FILES = "4";
+
+    /** reader: the file is memory-mapped and split at new line bytes. */
+    public static final String READER_MMAP = "mmap";
+
+    /** reader: the file is decoded and read line by line. */
+    public static final String READER_LINE = "line";
+
+    /** reader of input files in round robin mode. */
+    private final String reader;
+
+    /** property: reader of input files in round robin mode (mmap or line). */
+    private static final String PROPERTY_READER = "anuenue.post.reader";
+
+    /** default: reader of input files. */
+    private static final String DEFAULT_READER = READER_MMAP;
+
+    /** adjust the number of lines of chunks by the latency of each node. */
+    private final boolean adaptiveChunk;
+
+    /** property: adjust the number of lines of chunks by the latency of each node. */
+    private static final String PROPERTY_ADAPTIVE_CHUNK = "anuenue.post.adaptive";
+
+    /** default: the number of lines of chunks is fixed. */
+    private static final String DEFAULT_ADAPTIVE_CHUNK = "false";
+
+    /** target of the 95th percentile latency of posts(msec) for adaptive chunks. */
+    private final long adaptiveTargetLatency;
+
+    /** property: target of the 95th percentile latency of posts(msec). */
+    private static final String PROPERTY_ADAPTIVE_TARGET_LATENCY = "anuenue.post.adaptive.target.latency";
+
+    /** default: target of the 95th percentile latency of posts(msec). */
+    private static final String DEFAULT_ADAPTIVE_TARGET_LATENCY = "1000";
+
+    /** minimum number of lines of adaptive chunks. */
+    private final int adaptiveMinLines;
+
+    /** property: minimum number of lines of adaptive chunks. */
+    private static final String PROPERTY_ADAPTIVE_MIN_LINE = "anuenue.post.adaptive.min.line";
+
+    /** default: minimum number of lines of adaptive chunks. */
+    private static final String DEFAULT_ADAPTIVE_MIN_LINE = "10";
+
+    /** maximum number of lines of adaptive chunks. */
+    private final int adaptiveMaxLines;
+
+    /** property: maximum number of lines of adaptive chunks. */
+    private static final String PROPERTY_ADAPTIVE_MAX_LINE = "anuenue.post.adaptive.max.line";
+
+    /** default: maximum number of lines of adaptive chunks. */
+    private static final String DEFAULT_ADAPTIVE_MAX_LINE = "10000";
+
+    /** directory where chunks which could not be sent are spooled (empty to fail the command). */
+    private final String spoolDirectory;
+
+    /** property: spool directory. */
+    static final String PROPERTY_SPOOL_DIR = "anuenue.spool.dir";
+
+    /** default: spool directory. */
+    private static final String DEFAULT_SPOOL_DIR = "";
+
+    /** spool of the command, created by the first pipeline. */
+    private ChunkSpool spool;
+
+    /** checkpoint file of acknowledged lines of input files (empty for no checkpoint). */
+    private final String checkpointFile;
+
+    /** property: checkpoint file. */
+    private static final String PROPERTY_CHECKPOINT_FILE = "anuenue.checkpoint.file";
+
+    /** default: checkpoint file. */
+    private static final String DEFAULT_CHECKPOINT_FILE = "";
+
+    /** resume from the checkpoint. */
+    private boolean resume;
+
+    /** interval of checking the pipeline while watching a directory(msec). */
+    private static final long WATCH_POLL_INTERVAL = 1000;
+
+    /** checkpoint of the command, or null. */
+    private Checkpoint checkpoint;
+
     /** logger. */
     private static final Log LOG = LogFactory.getLog(AbstractDistCommand.class);
 
@@ -118,7 +270,23 @@ public abstract class AbstractDistCommand {
 
         // set the configuration on maximum line per file
         maxLinePerFile = Integer.parseInt(System.getProperty(PROPERTY_MAX_LINE_PER_FILE, DEFAULT_MAX_LINE_PER_FILE));
+        maxBytesPerChunk = Long.parseLong(System.getProperty(PROPERTY_MAX_BYTES_PER_CHUNK, DEFAULT_MAX_BYTES_PER_CHUNK));
         factorOfThreadNumber = Double.parseDouble(System.getProperty(PROPERTY_FACTOR_OF_THREAD_NUMBER, DEFAULT_FACTOR_OF_THREAD_NUMBER));
+        queueCapacity = Integer.parseInt(System.getProperty(PROPERTY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+        deleteBatchSize = Integer.parseInt(System.getProperty(PROPERTY_DELETE_BATCH_SIZE, DEFAULT_DELETE_BATCH_SIZE));
+        concurrentFiles = Integer.parseInt(System.getProperty(PROPERTY_CONCURRENT_FILES, DEFAULT_CONCURRENT_FILES));
+        routingMode = System.getProperty(PROPERTY_ROUTING_MODE, DEFAULT_ROUTING_MODE);
+        virtualNodes = Integer.parseInt(System.getProperty(PROPERTY_ROUTING_VIRTUAL_NODES, DEFAULT_ROUTING_VIRTUAL_NODES));
+        reader = System.getProperty(PROPERTY_READER, DEFAULT_READER);
+        adaptiveChunk = Boolean.parseBoolean(System.getProperty(PROPERTY_ADAPTIVE_CHUNK, DEFAULT_ADAPTIVE_CHUNK));
+        adaptiveTargetLatency = Long.parseLong(System.getProperty(PROPERTY_ADAPTIVE_TARGET_LATENCY, DEFAULT_ADAPTIVE_TARGET_LATENCY));
+        adaptiveMinLines = Integer.parseInt(System.getProperty(PROPERTY_ADAPTIVE_MIN_LINE, DEFAULT_ADAPTIVE_MIN_LINE));
+        adaptiveMaxLines = Integer.parseInt(System.getProperty(PROPERTY_ADAPTIVE_MAX_LINE, DEFAULT_ADAPTIVE_MAX_LINE));
+        spoolDirectory = System.getProperty(PROPERTY_SPOOL_DIR, DEFAULT_SPOOL_DIR);
+        checkpointFile = System.getProperty(PROPERTY_CHECKPOINT_FILE, DEFAULT_CHECKPOINT_FILE);
+        if (!ROUTING_ROUNDROBIN.equals(routingMode) && !ROUTING_HASH.equals(routingMode)) {
+            throw new AnuenueException("unknown routing mode: " + routingMode);
+        }
     }
 
     /**
@@ -129,6 +297,23 @@ public abstract class AbstractDistCommand {
         maxLinePerFile = line;
     }
 
+    /**
+     * set maxBytesPerChunk.
+     * @param bytes new maxBytesPerChunk (0 for no limit)
+     */
+    public final void setMaxBytesPerChunk(final long bytes) {
+        maxBytesPerChunk = bytes;
+    }
+
+    /**
+     * resume from the checkpoint: files which have been acknowledged are skipped,
+     * and the others start after their acknowledged lines.
+     * @param resumeFromCheckpoint resume from the checkpoint
+     */
+    public final void setResume(final boolean resumeFromCheckpoint) {
+        resume = resumeFromCheckpoint;
+    }
+
     /**
      * execute dist command.
      *
@@ -136,13 +321,17 @@ public abstract class AbstractDistCommand {
      *             in case of any error
      */
     public final void execute() throws AnuenueException {
-        CommandUncaughtExceptionHandler exceptionHandler = new CommandUncaughtExceptionHandler();
-        Thread.setDefaultUncaughtExceptionHandler(exceptionHandler);
-
-        executeImpl();
-
-        if (!exceptionHandler.isSucceeded()) {
-            throw new AnuenueException(exceptionHandler.getErrorMassage());
+        try {
+            executeImpl();
+        } finally {
+            if (spool != null) {
+                spool.close();
+            }
+            if (checkpoint != null) {
+                checkpoint.flush();
+            }
+            LOG.info(DistCommandManager.getInstance().getStatistics());
+            LOG.info(HttpConnectionPool.getInstance().getStatistics());
         }
     }
 
@@ -179,20 +368,15 @@ public abstract class AbstractDistCommand {
     protected static void executeCommand(final List<Node> nodeList,
             final String command, final String arg) throws AnuenueException {
 
-        DistCommandManager manager = new DistCommandManager();
+        DistCommandManager manager = DistCommandManager.getInstance();
+        List<Future<String>> futures = new ArrayList<Future<String>>(nodeList.size());
         try {
             for (Node node : nodeList) {
-                DistCommandRunner runner = new DistCommandRunner(manager,
-                        AnuenueCommandFactory.createCommand(node, command, arg));
-                runner.start();
+                futures.add(manager.submit(node, AnuenueCommandFactory.createCommand(node, command, arg)));
             }
-        } catch (RuntimeException e) {
-            LOG.error("detected runtimeexception");
-            throw new AnuenueException(e);
         } finally {
-            manager.waitSync();
+            manager.waitAll(futures);
         }
-
     }
 
     /**
@@ -240,179 +424,744 @@ public abstract class AbstractDistCommand {
         return targetNodeList;
     }
 
+    /**
+     * get a node by its name.
+     * @param name node name
+     * @return node, or null if no node has the name
+     */
+    protected final Node getNodeByName(final String name) {
+        return nodeDatabase.getNodeByName(name);
+    }
+
+    /**
+     * check documents are routed by the hash of the id.
+     * hash routing is applied only when the target is master.
+     * @return true if documents are routed by the hash of the id
+     */
+    protected final boolean isHashRouting() {
+        if (!ROUTING_HASH.equals(routingMode)) {
+            return false;
+        }
+        if (!AnuenueCommandConstants.TARGET_MASTER.equals(targetName)) {
+            LOG.warn("hash routing is applied only to master target. use " + ROUTING_ROUNDROBIN);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * create a hash ring of masters.
+     * @return ConsistentHashRing
+     * @throws AnuenueException if there is no master
+     */
+    protected final ConsistentHashRing createHashRing() throws AnuenueException {
+        return createHashRing(nodeDatabase.getMasterList());
+    }
+
+    /**
+     * create a hash ring of given masters.
+     * @param masters masters
+     * @return ConsistentHashRing
+     * @throws AnuenueException if there is no master
+     */
+    protected final ConsistentHashRing createHashRing(final List<Node> masters) throws AnuenueException {
+        return new ConsistentHashRing(masters, virtualNodes);
+    }
+
     /**
      * add file.
      * @param fileName file name.
      * @throws AnuenueException in case of IO error.
      */
     protected final void addFile(final String fileName) throws AnuenueException {
+        addFiles(Collections.singletonList(new File(fileName)));
+    }
 
+    /**
+     * add files.
+     * chunks are posted through a pipeline shared by all files, so that every node
+     * is kept busy even if their latencies differ. several files are read at the
+     * same time. with hash routing, each document is posted to the master which owns its id.
+     * with a checkpoint, files acknowledged by a previous run are skipped when the command resumes.
+     * @param inputFiles files in the order to be read
+     * @throws AnuenueException in case of IO error.
+     */
+    protected final void addFiles(final List<File> inputFiles) throws AnuenueException {
+
+        final Checkpoint fileCheckpoint = getCheckpoint();
+        List<File> files = inputFiles;
+        if (fileCheckpoint != null) {
+            files = new ArrayList<File>(inputFiles.size());
+            for (File file : inputFiles) {
+                Checkpoint.Entry entry = fileCheckpoint.get(file.toString());
+                if (entry != null && entry.isComplete()) {
+                    LOG.info("skip " + file + ": acknowledged in the checkpoint");
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+
+        final ConsistentHashRing ring = isHashRouting() ? createHashRing() : null;
         // get target instances
-        List<Node> nodeList = getTargetNodeList();
+        List<Node> nodeList = ring == null ? getTargetNodeList() : ring.getNodes();
 
-        int dataNodeSize = nodeList.size();
-        long totalNumberOfThread = Math.round(dataNodeSize * factorOfThreadNumber);
+        final IngestionPipeline pipeline = createPipeline(nodeList, AnuenueCommandConstants.COMMAND_ADDDATA);
+        final AtomicInteger finishedFiles = new AtomicInteger();
+        int readers = Math.min(concurrentFiles, files.size());
+        boolean submitted = false;
+        try {
+            if (readers <= 1) {
+                for (File file : files) {
+                    submitFile(pipeline, ring, new FileProgress(file.toString(), files.size(), finishedFiles));
+                }
+            } else {
+                ExecutorService readerPool = Executors.newFixedThreadPool(readers);
+                try {
+                    List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+                    for (File file : files) {
+                        final FileProgress progress = new FileProgress(file.toString(), files.size(), finishedFiles);
+                        futures.add(readerPool.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws AnuenueException {
+                                submitFile(pipeline, ring, progress);
+                                return null;
+                            }
+                        }));
+                    }
+                    for (Future<Void> future : futures) {
+                        waitReader(future);
+                    }
+                } finally {
+                    readerPool.shutdownNow();
+                }
+            }
+            submitted = true;
+        } finally {
+            if (submitted) {
+                pipeline.finish();
+            } else {
+                finishQuietly(pipeline);
+            }
+        }
+    }
 
-        try (TSVFileReader reader = new TSVFileReader(fileName)) {
-            reader.init();
-            ALL_DATA_WERE_PROCESSED: while (true) {
-                DistCommandManager manager = new DistCommandManager();
-                for (int k = 0; k < totalNumberOfThread; ++k) {
-                    String chunk = reader.readChunk(maxLinePerFile);
-                    if (chunk == null) {
-                        manager.waitSync();
-                        break ALL_DATA_WERE_PROCESSED;
+    /**
+     * add files as they become ready in a watched directory, until the watcher is closed.
+     * files are read concurrently through one pipeline. the manifest is a checkpoint
+     * which is always loaded: files acknowledged in it are skipped, and a partially
+     * acknowledged file starts after its acknowledged lines.
+     * a file which cannot be read is left out of the manifest, and the watch continues.
+     * @param watcher watcher of the directory
+     * @param manifestFile manifest of processed files
+     * @throws AnuenueException in case that the manifest cannot be loaded, or the pipeline has failed
+     */
+    final void addWatchedFiles(final DirectoryWatcher watcher, final File manifestFile)
+            throws AnuenueException {
+        final Checkpoint manifest = new Checkpoint(manifestFile);
+        try {
+            manifest.load();
+        } catch (IOException e) {
+            throw new AnuenueException("failed to load manifest " + manifestFile, e);
+        }
+        checkpoint = manifest;
+
+        final ConsistentHashRing ring = isHashRouting() ? createHashRing() : null;
+        List<Node> nodeList = ring == null ? getTargetNodeList() : ring.getNodes();
+        final IngestionPipeline pipeline = createPipeline(nodeList, AnuenueCommandConstants.COMMAND_ADDDATA);
+        final AtomicInteger finishedFiles = new AtomicInteger();
+        ExecutorService readerPool = Executors.newFixedThreadPool(Math.max(1, concurrentFiles));
+        boolean stopped = false;
+        try {
+            while (true) {
+                pipeline.checkFailure();
+                File file = watcher.poll(WATCH_POLL_INTERVAL);
+                if (file == null) {
+                    if (watcher.isClosed()) {
+                        break;
                     }
-                    new DistCommandRunner(manager,
-                            AnuenueCommandFactory.createCommand(
-                                    nodeList.get(k % dataNodeSize),
-                                    AnuenueCommandConstants.COMMAND_ADDDATA,
-                                    chunk)).start();
+                    continue;
                 }
-                manager.waitSync();
+                Checkpoint.Entry entry = manifest.get(file.toString());
+                if (entry != null && entry.isComplete()) {
+                    LOG.info("skip " + file + ": acknowledged in the manifest");
+                    continue;
+                }
+                final FileProgress progress = new FileProgress(file.toString(), 0, finishedFiles);
+                readerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            submitFile(pipeline, ring, progress);
+                        } catch (AnuenueException e) {
+                            LOG.error("failed to add " + progress.getFileName() + ": " + e.toString());
+                        }
+                    }
+                });
+            }
+            readerPool.shutdown();
+            readerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            stopped = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnuenueException("interrupted while watching files", e);
+        } finally {
+            readerPool.shutdownNow();
+            try {
+                if (stopped) {
+                    pipeline.finish();
+                } else {
+                    finishQuietly(pipeline);
+                }
+            } finally {
+                manifest.flush();
+            }
+        }
+    }
+
+    /**
+     * wait a reader of a file.
+     * @param future future of the reader
+     * @throws AnuenueException if the reader has failed
+     */
+    private static void waitReader(final Future<Void> future) throws AnuenueException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AnuenueException) {
+                throw (AnuenueException) e.getCause();
+            }
+            throw new AnuenueException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnuenueException("interrupted while reading files", e);
+        }
+    }
+
+    /**
+     * read a file and submit its chunks to the pipeline.
+     * @param pipeline pipeline
+     * @param ring hash ring, or null for round robin
+     * @param progress progress of the file
+     * @throws AnuenueException in case of IO error.
+     */
+    private void submitFile(final IngestionPipeline pipeline, final ConsistentHashRing ring,
+            final FileProgress progress) throws AnuenueException {
+        LOG.info("adding file: " + progress.getFileName());
+        Checkpoint.Entry entry = null;
+        if (checkpoint != null) {
+            entry = checkpoint.get(progress.getFileName());
+            if (entry != null && ring != null) {
+                LOG.info("hash routing resumes a file from the beginning: " + progress.getFileName());
+                entry = null;
             }
+            progress.setCheckpoint(checkpoint, entry == null ? 0 : entry.getLines(),
+                    entry == null ? -1 : entry.getOffset());
+        }
+        try {
+            if (ring == null) {
+                submitChunks(pipeline, progress, entry);
+            } else {
+                routeLines(pipeline, ring, progress);
+            }
+            progress.readFinished();
         } catch (IOException e) {
             throw new AnuenueException("addFile() failed", e);
         }
     }
 
     /**
-     * delete file.
-     * @param inputFile File
-     * @throws AnuenueException in case of IO error
+     * read a file by chunks and submit them to the least loaded node.
+     * @param pipeline pipeline
+     * @param progress progress of the file
+     * @param entry checkpoint of the file to resume from, or null
+     * @throws IOException in case of IO error.
+     * @throws AnuenueException in case of invalid file.
      */
-    protected final void deleteFile(final File inputFile)
-            throws AnuenueException {
-
-        try (FileInputStream fileInputStream = new FileInputStream(inputFile);
-                InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, "UTF-8");
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader)) {
+    private void submitChunks(final IngestionPipeline pipeline, final FileProgress progress,
+            final Checkpoint.Entry entry) throws IOException, AnuenueException {
+        try (ChunkReader chunkReader = createChunkReader(progress.getFileName())) {
+            chunkReader.init();
+            if (entry != null && entry.getLines() > 0) {
+                LOG.info("resume " + progress.getFileName() + " after " + entry.getLines() + " lines");
+                chunkReader.skip(entry.getLines(), entry.getOffset());
+            }
+            while (true) {
+                Node node = pipeline.selectNode();
+                Chunk chunk = chunkReader.readChunk(pipeline.getMaxLines(node, maxLinePerFile), maxBytesPerChunk,
+                        progress);
+                if (chunk == null) {
+                    break;
+                }
+                progress.chunkSubmitted();
+                pipeline.submitTo(node, chunk);
+            }
+        }
+    }
 
-            String[] strAry;
+    /**
+     * read a file line by line and route each line to the master which owns its id.
+     * @param pipeline pipeline
+     * @param ring hash ring
+     * @param progress progress of the file
+     * @throws IOException in case of IO error.
+     * @throws AnuenueException in case of invalid file.
+     */
+    private void routeLines(final IngestionPipeline pipeline, final ConsistentHashRing ring,
+            final FileProgress progress) throws IOException, AnuenueException {
+        try (TSVFileReader lineReader = new TSVFileReader(progress.getFileName())) {
+            lineReader.init();
+            ChunkRouter router = new ChunkRouter(pipeline, ring, lineReader.getHeader(), maxLinePerFile,
+                    maxBytesPerChunk, progress);
+            while (true) {
+                String line = lineReader.readLine();
+                if (line == null) {
+                    break;
+                }
+                router.add(ChunkRouter.getId(line), line);
+            }
+            router.flush();
+        }
+    }
 
-            /*
-             * WARN: currently "id" of input document is specified as the first column.
-             */
-            String header = bufferedReader.readLine();
-            if (header == null) {
-                LOG.error("input file: " + inputFile.toString() + "has no content.");
-                throw new AnuenueException("input file: " + inputFile.toString() + "has no content.");
+    /**
+     * get the checkpoint of the command, which is loaded when the command resumes.
+     * @return checkpoint, or null if no checkpoint file is specified
+     * @throws AnuenueException in case that the checkpoint cannot be loaded
+     */
+    private Checkpoint getCheckpoint() throws AnuenueException {
+        if (checkpoint == null && checkpointFile.length() > 0) {
+            Checkpoint newCheckpoint = new Checkpoint(new File(checkpointFile));
+            if (resume) {
+                try {
+                    newCheckpoint.load();
+                } catch (IOException e) {
+                    throw new AnuenueException("failed to load checkpoint " + checkpointFile, e);
+                }
             }
-            String[] headerAry = header.split("\t");
-            String idTag = headerAry[0];
+            checkpoint = newCheckpoint;
+        } else if (checkpoint == null && resume) {
+            throw new AnuenueException("resume requires " + PROPERTY_CHECKPOINT_FILE);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * create the reader of an input file.
+     * @param fileName file name
+     * compressed files are read by lines, because they cannot be mapped.
+     * @return ChunkReader
+     * @throws IOException in case of IO error.
+     */
+    private ChunkReader createChunkReader(final String fileName) throws IOException {
+        if (READER_LINE.equals(reader) || CompressedFileInputStream.detectCodec(fileName) != null) {
+            return new TSVFileReader(fileName);
+        }
+        if (!READER_MMAP.equals(reader)) {
+            LOG.warn("unknown reader: " + reader + ". use " + READER_MMAP);
+        }
+        return new MappedTSVChunker(fileName);
+    }
+
+    /**
+     * add or overwrite documents of a file in one pass, relying on the uniqueKey of the schema.
+     * each document is posted to the master which owns its id. if the owner was
+     * different in the previous (hash) layout, the id is deleted only on its previous owner;
+     * a previous owner which is no longer a master is skipped.
+     * requires hash routing. documents posted by round robin are not tracked by any ring,
+     * so switching from round robin to hash requires a full reindex (deleteAll and addDir).
+     * @param fileName file name.
+     * @param previousRing hash ring of the previous layout, or null if the layout is not changed
+     * @throws AnuenueException in case of IO error.
+     */
+    protected final void upsertFile(final String fileName, final ConsistentHashRing previousRing)
+            throws AnuenueException {
+
+        ConsistentHashRing ring = createHashRing();
+        List<Node> masters = ring.getNodes();
+        Set<String> masterNames = new HashSet<String>();
+        for (Node master : masters) {
+            masterNames.add(master.getName());
+        }
+        IngestionPipeline addPipeline = createPipeline(masters, AnuenueCommandConstants.COMMAND_ADDDATA);
+        IngestionPipeline deletePipeline = createPipeline(masters, AnuenueCommandConstants.COMMAND_DELETEBYID);
+        boolean submitted = false;
+        long moved = 0;
+        try (TSVFileReader reader = new TSVFileReader(fileName)) {
+            reader.init();
+            ChunkRouter addRouter = new ChunkRouter(addPipeline, ring, reader.getHeader(), maxLinePerFile,
+                    maxBytesPerChunk, null);
+            ChunkRouter deleteRouter = new ChunkRouter(deletePipeline, ring, "", deleteBatchSize, null);
             while (true) {
-                String line = bufferedReader.readLine();
+                String line = reader.readLine();
                 if (line == null) {
                     break;
                 }
-                strAry = line.split("\t");
-                if (strAry.length != 0 && strAry[0] != null) {
-                    executeCommand(getTargetNodeList(),
-                            AnuenueCommandConstants.COMMAND_DELETE, idTag + ":"
-                                    + strAry[0]);
+                String id = ChunkRouter.getId(line);
+                Node owner = ring.getNode(id);
+                addRouter.addTo(owner, line);
+                if (previousRing == null) {
+                    continue;
+                }
+                Node previousOwner = previousRing.getNode(id);
+                if (!previousOwner.getName().equals(owner.getName())) {
+                    ++moved;
+                    if (masterNames.contains(previousOwner.getName())) {
+                        deleteRouter.addTo(previousOwner, id);
+                    }
                 }
             }
+            addRouter.flush();
+            deleteRouter.flush();
+            submitted = true;
         } catch (IOException e) {
-            LOG.fatal("IO Error", e);
-            throw new AnuenueException("IO Error", e);
+            throw new AnuenueException("upsertFile() failed", e);
+        } finally {
+            if (submitted) {
+                deletePipeline.finish();
+                addPipeline.finish();
+            } else {
+                finishQuietly(deletePipeline);
+                finishQuietly(addPipeline);
+            }
         }
+        LOG.info(fileName + ": " + moved + " documents moved to other masters");
     }
 
     /**
-     * Check Argument is empty.
-     * @return true if argument is empty
+     * update the rows which have changed since the previous snapshot in the fingerprint store.
+     * the files are a snapshot of all documents: new and changed rows are added, and ids
+     * which are not in the files are deleted. with hash routing, changed rows overwrite the
+     * documents on their owners in one pass. in round robin, changed ids are deleted from all
+     * nodes first, and the files are read again to add the rows.
+     * the store is committed only when all chunks have been sent.
+     * @param files files of the snapshot
+     * @param storeBase base name of the files of the fingerprint store
+     * @throws AnuenueException in case of any error
      */
-    protected final boolean isArgumentEmpty() {
-        if (argument == null || "".equals(argument)) {
-            return true;
+    final void updateChangedRows(final List<File> files, final File storeBase) throws AnuenueException {
+        final ConsistentHashRing ring = isHashRouting() ? createHashRing() : null;
+        List<Node> nodeList = ring == null ? getTargetNodeList() : ring.getNodes();
+        long[] counts = new long[FingerprintStore.UNCHANGED + 1];
+        long removed;
+        try (FingerprintStore store = new FingerprintStore(storeBase)) {
+            final IngestionPipeline deletePipeline = createPipeline(nodeList,
+                    AnuenueCommandConstants.COMMAND_DELETEBYID);
+            IngestionPipeline addPipeline = ring == null ? null
+                    : createPipeline(nodeList, AnuenueCommandConstants.COMMAND_ADDDATA);
+            boolean submitted = false;
+            try {
+                final IdBatch deletes = new IdBatch(deletePipeline, ring);
+                for (File file : files) {
+                    compareFile(file.toString(), store, ring, addPipeline, deletes, counts);
+                }
+                removed = store.visitRemoved(new FingerprintStore.IdVisitor() {
+                    @Override
+                    public void visit(final String id) throws AnuenueException {
+                        deletes.add(id);
+                    }
+                });
+                deletes.flush();
+                submitted = true;
+            } finally {
+                if (submitted) {
+                    deletePipeline.finish();
+                    if (addPipeline != null) {
+                        addPipeline.finish();
+                    }
+                } else {
+                    finishQuietly(deletePipeline);
+                    if (addPipeline != null) {
+                        finishQuietly(addPipeline);
+                    }
+                }
+            }
+
+            if (ring == null && counts[FingerprintStore.NEW] + counts[FingerprintStore.CHANGED] > 0) {
+                addPipeline = createPipeline(nodeList, AnuenueCommandConstants.COMMAND_ADDDATA);
+                submitted = false;
+                try {
+                    for (File file : files) {
+                        addChangedRows(file.toString(), store, addPipeline);
+                    }
+                    submitted = true;
+                } finally {
+                    if (submitted) {
+                        addPipeline.finish();
+                    } else {
+                        finishQuietly(addPipeline);
+                    }
+                }
+            }
+            store.commit();
+        } catch (IOException e) {
+            throw new AnuenueException("updateChangedRows() failed", e);
         }
-        return false;
+        LOG.info("rows: " + counts[FingerprintStore.NEW] + " new, " + counts[FingerprintStore.CHANGED] + " changed, "
+                + counts[FingerprintStore.UNCHANGED] + " unchanged, " + removed + " ids removed");
     }
 
     /**
-     * A Reader of TSV File.
+     * compare the rows of a file with the fingerprint store, and record them in the next snapshot.
+     * with hash routing, new and changed rows are added. in round robin, changed ids are deleted.
+     * @param fileName file name
+     * @param store fingerprint store
+     * @param ring hash ring, or null for round robin
+     * @param addPipeline pipeline of additions (hash routing only)
+     * @param deletes batch of deletions
+     * @param counts numbers of new, changed and unchanged rows
+     * @throws IOException in case of IO error
+     * @throws AnuenueException if a pipeline has failed
      */
-    private static class TSVFileReader implements AutoCloseable {
+    private void compareFile(final String fileName, final FingerprintStore store, final ConsistentHashRing ring,
+            final IngestionPipeline addPipeline, final IdBatch deletes, final long[] counts)
+            throws IOException, AnuenueException {
+        LOG.info("comparing file: " + fileName);
+        try (TSVFileReader lineReader = new TSVFileReader(fileName)) {
+            lineReader.init();
+            String header = lineReader.getHeader();
+            ChunkRouter router = ring == null ? null
+                    : new ChunkRouter(addPipeline, ring, header, maxLinePerFile, maxBytesPerChunk, null);
+            while (true) {
+                String line = lineReader.readLine();
+                if (line == null) {
+                    break;
+                }
+                String id = ChunkRouter.getId(line);
+                long fingerprint = FingerprintStore.fingerprint(header, line);
+                int result = store.compare(id, fingerprint);
+                store.record(id, fingerprint);
+                ++counts[result];
+                if (result == FingerprintStore.UNCHANGED) {
+                    continue;
+                }
+                if (router != null) {
+                    router.add(id, line);
+                } else if (result == FingerprintStore.CHANGED) {
+                    deletes.add(id);
+                }
+            }
+            if (router != null) {
+                router.flush();
+            }
+        }
+    }
 
-        /** BufferedReader. */
-        private BufferedReader reader = null;
+    /**
+     * add the new and changed rows of a file to the least loaded nodes.
+     * @param fileName file name
+     * @param store fingerprint store
+     * @param pipeline pipeline of additions
+     * @throws IOException in case of IO error
+     * @throws AnuenueException if the pipeline has failed
+     */
+    private void addChangedRows(final String fileName, final FingerprintStore store,
+            final IngestionPipeline pipeline) throws IOException, AnuenueException {
+        try (TSVFileReader lineReader = new TSVFileReader(fileName)) {
+            lineReader.init();
+            String header = lineReader.getHeader();
+            StringBuilder body = new StringBuilder();
+            int count = 0;
+            long bytes = 0;
+            while (true) {
+                String line = lineReader.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (store.compare(ChunkRouter.getId(line), FingerprintStore.fingerprint(header, line))
+                        == FingerprintStore.UNCHANGED) {
+                    continue;
+                }
+                body.append(line).append('\n');
+                bytes += Chunk.utf8Length(line) + 1;
+                if (++count >= maxLinePerFile || maxBytesPerChunk > 0 && bytes >= maxBytesPerChunk) {
+                    pipeline.submit(new Chunk(header + body, count));
+                    body.setLength(0);
+                    count = 0;
+                    bytes = 0;
+                }
+            }
+            if (count > 0) {
+                pipeline.submit(new Chunk(header + body, count));
+            }
+        }
+    }
 
-        /** FileInputStream. */
-        private FileInputStream fis = null;
+    /**
+     * Batch of ids to delete: routed to their owners with hash routing, or sent to all nodes.
+     */
+    private final class IdBatch {
 
-        /** InputStreamReader. */
-        private InputStreamReader isr = null;
+        /** pipeline. */
+        private final IngestionPipeline pipeline;
 
-        /** filename. */
-        private final String inputFileName;
+        /** router, or null to send to all nodes. */
+        private final ChunkRouter router;
 
-        /** The header of file. */
-        private String header;
+        /** ids. */
+        private final StringBuilder batch = new StringBuilder();
 
-        /** has more chunk. */
-        private boolean hasNext;
+        /** number of ids. */
+        private int count;
 
-        /** Constructor.
-         *
-         * @param filename filename
+        /**
+         * Constructor.
+         * @param deletePipeline pipeline
+         * @param ring hash ring, or null to send to all nodes
          */
-        public TSVFileReader(final String filename) {
-            inputFileName = filename;
-            hasNext = true;
+        private IdBatch(final IngestionPipeline deletePipeline, final ConsistentHashRing ring) {
+            pipeline = deletePipeline;
+            router = ring == null ? null : new ChunkRouter(pipeline, ring, "", deleteBatchSize, null);
         }
 
         /**
-         * Initialize.
-         *
-         * @throws IOException in case of IO error.
-         * @throws AnuenueException in case that a file is empty.
+         * add an id.
+         * @param id id
+         * @throws AnuenueException if the pipeline has failed
          */
-        public void init() throws IOException, AnuenueException {
-            fis = new FileInputStream(inputFileName);
-            isr = new InputStreamReader(fis, "UTF-8");
-            reader = new BufferedReader(isr);
-
-            header = reader.readLine();
-            if (header == null) {
-                LOG.error("input file: " + inputFileName + "has no content.");
-                throw new AnuenueException("input file: " + inputFileName + "has no content.");
+        private void add(final String id) throws AnuenueException {
+            if (router != null) {
+                router.add(id, id);
+                return;
+            }
+            batch.append(id).append('\n');
+            if (++count >= deleteBatchSize) {
+                flush();
             }
-            header += "\n";
         }
 
         /**
-         * read a chunk.
-         *
-         * @param maxLineNumber max line number.
-         * @return a chunk started with header
-         * @throws IOException in case of IO error.
+         * submit the ids which have not been submitted.
+         * @throws AnuenueException if the pipeline has failed
          */
-        public String readChunk(final int maxLineNumber) throws IOException {
-            if (!hasNext) {
-                return null;
+        private void flush() throws AnuenueException {
+            if (router != null) {
+                router.flush();
+            } else if (count > 0) {
+                pipeline.submitToAll(new Chunk(batch.toString(), count));
+                batch.setLength(0);
+                count = 0;
             }
+        }
+    }
 
-            StringBuffer builder = new StringBuffer(header);
+    /**
+     * create a pipeline.
+     * @param nodeList target nodes
+     * @param command command which sends a chunk
+     * @return IngestionPipeline
+     */
+    private IngestionPipeline createPipeline(final List<Node> nodeList, final String command) {
+        int workersPerNode = (int) Math.max(1, Math.round(factorOfThreadNumber));
+        DistCommandManager manager = DistCommandManager.getInstance();
+        if (manager.isAdaptiveConcurrency()) {
+            // chunks wait for the adaptive limit in the manager, which can grow up to the maximum per node
+            workersPerNode = Math.max(workersPerNode, manager.getMaxPerNode());
+        }
+        IngestionPipeline pipeline = new IngestionPipeline(nodeList, command, workersPerNode, queueCapacity,
+                manager);
+        if (spoolDirectory.length() > 0) {
+            if (spool == null) {
+                spool = new ChunkSpool(new File(spoolDirectory));
+            }
+            pipeline.setSpool(spool);
+        }
+        if (adaptiveChunk && AnuenueCommandConstants.COMMAND_ADDDATA.equals(command)) {
+            pipeline.setAdaptiveChunkSize(new AdaptiveChunkSize(maxLinePerFile, adaptiveMinLines,
+                    adaptiveMaxLines, adaptiveTargetLatency));
+        }
+        return pipeline;
+    }
 
-            for (int i = 0; i < maxLineNumber; ++i) {
-                String line = reader.readLine();
+    /**
+     * wait the pipeline without throwing exception.
+     * @param pipeline pipeline
+     */
+    private static void finishQuietly(final IngestionPipeline pipeline) {
+        try {
+            pipeline.finish();
+        } catch (AnuenueException e) {
+            LOG.error("pipeline failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * delete file.
+     * ids in the first column are deleted in batches, and the batches are
+     * sent to all target nodes concurrently. with hash routing, each id is
+     * deleted only on the master which owns it.
+     * @param inputFile File
+     * @throws AnuenueException in case of IO error
+     */
+    protected final void deleteFile(final File inputFile)
+            throws AnuenueException {
+
+        ConsistentHashRing ring = isHashRouting() ? createHashRing() : null;
+        IngestionPipeline pipeline = createPipeline(ring == null ? getTargetNodeList() : ring.getNodes(),
+                AnuenueCommandConstants.COMMAND_DELETEBYID);
+        ChunkRouter router = ring == null ? null : new ChunkRouter(pipeline, ring, "", deleteBatchSize, null);
+        boolean submitted = false;
+        try (InputStream fileInputStream = CompressedFileInputStream.open(inputFile.toString());
+                InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, "UTF-8");
+                BufferedReader bufferedReader = new BufferedReader(inputStreamReader)) {
+
+            /*
+             * WARN: currently "id" (uniqueKey) of input document is specified as the first column.
+             */
+            String header = bufferedReader.readLine();
+            if (header == null) {
+                LOG.error("input file: " + inputFile.toString() + "has no content.");
+                throw new AnuenueException("input file: " + inputFile.toString() + "has no content.");
+            }
+            StringBuilder batch = new StringBuilder();
+            int count = 0;
+            while (true) {
+                String line = bufferedReader.readLine();
                 if (line == null) {
-                    hasNext = false;
                     break;
                 }
-                builder.append(line).append('\n');
+                String id = ChunkRouter.getId(line);
+                if (id.length() == 0) {
+                    continue;
+                }
+                if (router != null) {
+                    router.add(id, id);
+                    continue;
+                }
+                batch.append(id).append('\n');
+                if (++count >= deleteBatchSize) {
+                    pipeline.submitToAll(new Chunk(batch.toString(), count));
+                    batch.setLength(0);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                pipeline.submitToAll(new Chunk(batch.toString(), count));
+            }
+            if (router != null) {
+                router.flush();
+            }
+            submitted = true;
+        } catch (IOException e) {
+            LOG.fatal("IO Error", e);
+            throw new AnuenueException("IO Error", e);
+        } finally {
+            if (submitted) {
+                pipeline.finish();
+            } else {
+                finishQuietly(pipeline);
             }
-            return builder.toString();
         }
+    }
 
-        /**
-         * close readers.
-         */
-        public void close() {
-            IOUtils.closeQuietly(reader);
-            IOUtils.closeQuietly(isr);
-            IOUtils.closeQuietly(fis);
+    /**
+     * Check Argument is empty.
+     * @return true if argument is empty
+     */
+    protected final boolean isArgumentEmpty() {
+        if (argument == null || "".equals(argument)) {
+            return true;
         }
-
+        return false;
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Chunk size of each node adjusted by the observed latency of posts.
+ * After every window of posts, the size grows while the 95th percentile
+ * latency is below the target and the throughput does not drop,
+ * and shrinks when the latency exceeds the target.
+ */
+final class AdaptiveChunkSize {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(AdaptiveChunkSize.class);
+
+    /** number of posts in a window. */
+    static final int WINDOW = 16;
+
+    /** percentile compared with the target latency. */
+    private static final double PERCENTILE = 0.95;
+
+    /** throughput ratio regarded as a drop after the size has grown. */
+    private static final double THROUGHPUT_DROP = 0.9;
+
+    /** initial number of lines. */
+    private final int initialLines;
+
+    /** minimum number of lines. */
+    private final int minLines;
+
+    /** maximum number of lines. */
+    private final int maxLines;
+
+    /** target of the 95th percentile latency(msec). */
+    private final long targetLatency;
+
+    /** map (node name -> state of the node). */
+    private final ConcurrentMap<String, NodeState> states = new ConcurrentHashMap<String, NodeState>();
+
+    /**
+     * Constructor.
+     * @param initial initial number of lines
+     * @param min minimum number of lines
+     * @param max maximum number of lines
+     * @param target target of the 95th percentile latency(msec)
+     */
+    AdaptiveChunkSize(final int initial, final int min, final int max, final long target) {
+        minLines = Math.max(1, min);
+        maxLines = Math.max(minLines, max);
+        initialLines = Math.min(maxLines, Math.max(minLines, initial));
+        targetLatency = target;
+    }
+
+    /**
+     * get number of lines of the next chunk for a node.
+     * @param node node
+     * @return number of lines
+     */
+    int getLines(final Node node) {
+        return getState(node.getName()).lines;
+    }
+
+    /**
+     * record a post.
+     * @param node node
+     * @param documents number of posted documents
+     * @param latency latency of the post(msec)
+     */
+    void record(final Node node, final int documents, final long latency) {
+        getState(node.getName()).record(documents, latency);
+    }
+
+    /**
+     * get state of a node.
+     * @param name node name
+     * @return NodeState
+     */
+    private NodeState getState(final String name) {
+        NodeState state = states.get(name);
+        if (state == null) {
+            NodeState newState = new NodeState(name);
+            state = states.putIfAbsent(name, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * chosen sizes of nodes, for example "node1: lines=400 p95=820msec".
+     * @return chosen sizes
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, NodeState> entry : states.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            NodeState state = entry.getValue();
+            builder.append(entry.getKey()).append(": lines=").append(state.lines)
+                .append(" p95=").append(state.lastPercentile).append("msec");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * State of a node.
+     */
+    private final class NodeState {
+
+        /** node name. */
+        private final String nodeName;
+
+        /** number of lines of the next chunk. */
+        private volatile int lines = initialLines;
+
+        /** latencies of the current window. */
+        private final long[] latencies = new long[WINDOW];
+
+        /** number of posts in the current window. */
+        private int count;
+
+        /** documents of the current window. */
+        private long documents;
+
+        /** total latency of the current window(msec). */
+        private long totalLatency;
+
+        /** throughput of the previous window(docs/sec of a request). */
+        private double lastThroughput;
+
+        /** number of lines before the last growth, or 0 if the size did not grow. */
+        private int linesBeforeGrowth;
+
+        /** the size does not grow beyond this, lowered when a growth drops the throughput. */
+        private int ceiling = maxLines;
+
+        /** 95th percentile latency of the previous window(msec). */
+        private volatile long lastPercentile;
+
+        /**
+         * Constructor.
+         * @param name node name
+         */
+        private NodeState(final String name) {
+            nodeName = name;
+        }
+
+        /**
+         * record a post, and adjust the size at the end of a window.
+         * @param posted number of posted documents
+         * @param latency latency(msec)
+         */
+        private synchronized void record(final int posted, final long latency) {
+            latencies[count++] = latency;
+            documents += posted;
+            totalLatency += latency;
+            if (count < WINDOW) {
+                return;
+            }
+            long[] sorted = Arrays.copyOf(latencies, WINDOW);
+            Arrays.sort(sorted);
+            long percentile = sorted[(int) Math.ceil(PERCENTILE * WINDOW) - 1];
+            double throughput = documents * 1000.0 / Math.max(1, totalLatency);
+            int previous = lines;
+            if (percentile > targetLatency) {
+                lines = Math.max(minLines, lines * 3 / 4);
+                linesBeforeGrowth = 0;
+            } else if (linesBeforeGrowth > 0 && throughput < lastThroughput * THROUGHPUT_DROP) {
+                // the last growth did not pay
+                lines = linesBeforeGrowth;
+                ceiling = linesBeforeGrowth;
+                linesBeforeGrowth = 0;
+            } else if (lines < ceiling) {
+                linesBeforeGrowth = lines;
+                lines = Math.min(ceiling, lines + Math.max(1, lines / 4));
+            } else {
+                linesBeforeGrowth = 0;
+            }
+            if (lines != previous && LOG.isDebugEnabled()) {
+                LOG.debug(nodeName + " chunk size: " + previous + " -> " + lines + " lines (p95=" + percentile + "msec, "
+                        + (long) throughput + " docs/sec)");
+            }
+            lastPercentile = percentile;
+            lastThroughput = throughput;
+            count = 0;
+            documents = 0;
+            totalLatency = 0;
+        }
+    }
+}
@@ -16,6 +16,12 @@
 package org.unigram.anuenue.client.distcommand;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,12 +31,47 @@ import org.unigram.anuenue.node.NodeDatabase;
 
 /**
  * "addDir" Dist Command Class.
+ * In watch mode, the directory is watched and each new or rewritten file is
+ * added once it has been completely written, until the process is terminated.
  */
 public final class AddDirDistCommand extends AbstractDistCommand {
 
     /** logger. */
     private static final Log LOG = LogFactory.getLog(AddDirDistCommand.class);
 
+    /** file order: largest file first, which balances the load of concurrent files. */
+    public static final String FILE_ORDER_SIZE = "size";
+
+    /** file order: lexical order of file names. */
+    public static final String FILE_ORDER_NAME = "name";
+
+    /** property: order of input files (size or name). */
+    private static final String PROPERTY_FILE_ORDER = "anuenue.post.file.order";
+
+    /** default: order of input files. */
+    private static final String DEFAULT_FILE_ORDER = FILE_ORDER_SIZE;
+
+    /** order of input files. */
+    private final String fileOrder;
+
+    /** property: time for which a watched file must not change before it is added(msec). */
+    private static final String PROPERTY_WATCH_QUIET = "anuenue.post.watch.quiet";
+
+    /** default: time for which a watched file must not change(msec). */
+    private static final String DEFAULT_WATCH_QUIET = "1000";
+
+    /** property: manifest of the files added in watch mode. */
+    private static final String PROPERTY_WATCH_MANIFEST = "anuenue.post.watch.manifest";
+
+    /** default: ".anuenue-manifest" in the watched directory. */
+    private static final String DEFAULT_WATCH_MANIFEST = "";
+
+    /** name of the default manifest in the watched directory. */
+    private static final String DEFAULT_MANIFEST_NAME = ".anuenue-manifest";
+
+    /** watch the directory. */
+    private boolean watch;
+
     /**
      * Constructor.
      * @param target target
@@ -41,6 +82,18 @@ public final class AddDirDistCommand extends AbstractDistCommand {
     public AddDirDistCommand(final String target, final String arg,
             final NodeDatabase database) throws AnuenueException {
         super(target, AnuenueCommandConstants.DISTCOMMAND_ADDDIR, arg, database, true);
+        fileOrder = System.getProperty(PROPERTY_FILE_ORDER, DEFAULT_FILE_ORDER);
+        if (!FILE_ORDER_SIZE.equals(fileOrder) && !FILE_ORDER_NAME.equals(fileOrder)) {
+            throw new AnuenueException("unknown file order: " + fileOrder);
+        }
+    }
+
+    /**
+     * watch the directory instead of adding the files which exist now.
+     * @param watchDirectory watch the directory
+     */
+    public void setWatch(final boolean watchDirectory) {
+        watch = watchDirectory;
     }
 
     /**
@@ -49,7 +102,60 @@ public final class AddDirDistCommand extends AbstractDistCommand {
      */
     @Override
     protected void executeImpl() throws AnuenueException {
-        addDir();
+        if (watch) {
+            watchDir();
+        } else {
+            addDir();
+        }
+    }
+
+    /**
+     * add files of the directory as they arrive, until the process is terminated.
+     * the files which have been added are recorded in the manifest, and skipped after a restart.
+     * @throws AnuenueException in case that the directory cannot be watched, or the pipeline has failed
+     */
+    private void watchDir() throws AnuenueException {
+        File dir = new File(getArgument());
+        if (!dir.isDirectory()) {
+            throw new AnuenueException("watch mode requires a directory: " + dir);
+        }
+        String manifestName = System.getProperty(PROPERTY_WATCH_MANIFEST, DEFAULT_WATCH_MANIFEST);
+        File manifest = manifestName.length() > 0 ? new File(manifestName) : new File(dir, DEFAULT_MANIFEST_NAME);
+
+        final DirectoryWatcher watcher;
+        try {
+            watcher = new DirectoryWatcher(dir,
+                    Long.parseLong(System.getProperty(PROPERTY_WATCH_QUIET, DEFAULT_WATCH_QUIET)));
+        } catch (IOException e) {
+            throw new AnuenueException("cannot watch " + dir, e);
+        }
+        final CountDownLatch stopped = new CountDownLatch(1);
+        // on termination, stop watching and wait until the files being added have been sent
+        Thread shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                watcher.close();
+                try {
+                    stopped.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        LOG.info("watching " + dir + " (manifest: " + manifest + ")");
+        try {
+            addWatchedFiles(watcher, manifest);
+        } finally {
+            watcher.close();
+            stopped.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the hook is running
+                LOG.debug("shutting down");
+            }
+        }
     }
 
     /**
@@ -71,10 +177,37 @@ public final class AddDirDistCommand extends AbstractDistCommand {
             throw new AnuenueException("there is no files in directory: " + dirName);
         }
 
-        for (int i = 0; i < files.length; ++i) {
-            String inputFile = files[i].toString();
-            LOG.info("adding file: " + inputFile);
-            addFile(inputFile);
+        List<File> inputFiles = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.isFile()) {
+                inputFiles.add(file);
+            }
+        }
+        sortFiles(inputFiles, fileOrder);
+        LOG.info("adding " + inputFiles.size() + " files in " + dirName);
+        addFiles(inputFiles);
+    }
+
+    /**
+     * sort input files.
+     * @param files files
+     * @param order size (largest first) or name
+     */
+    static void sortFiles(final List<File> files, final String order) {
+        if (FILE_ORDER_NAME.equals(order)) {
+            Collections.sort(files);
+            return;
         }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File file1, final File file2) {
+                long length1 = file1.length();
+                long length2 = file2.length();
+                if (length1 != length2) {
+                    return length1 > length2 ? -1 : 1;
+                }
+                return file1.compareTo(file2);
+            }
+        });
     }
 }
@@ -73,6 +73,8 @@ public final class AnuenueDistCommandFactory {
             return new UpdateDirDistCommand(target, arg, database);
         } else if (AnuenueCommandConstants.DISTCOMMAND_BATCHDELETE.equals(command)) {
             return new BatchDeleteDistCommand(target, arg, database);
+        } else if (AnuenueCommandConstants.DISTCOMMAND_RESUMESPOOL.equals(command)) {
+            return new ResumeSpoolDistCommand(target, arg, database);
         } else if (GeneralDistCommand.isGeneralDistCommandThatRequiresArgument(command)) {
             return new GeneralDistCommand(target, command, arg, database, true);
         } else if (GeneralDistCommand.isGeneralDistCommand(command)) {
@@ -94,6 +96,8 @@ public final class AnuenueDistCommandFactory {
         parser.addOption(AnuenueCommandConstants.OPTION_COMMAND, "command", null);
         parser.addOption(AnuenueCommandConstants.OPTION_ARG, "arg", null);
         parser.addOption(AnuenueCommandConstants.OPTION_TARGET, "target", AnuenueCommandConstants.TARGET_MASTER);
+        parser.addFlag(AnuenueCommandConstants.OPTION_RESUME, "resume from the checkpoint");
+        parser.addFlag(AnuenueCommandConstants.OPTION_WATCH, "watch the directory of addDir");
 
         try {
             parser.parse(args);
@@ -111,8 +115,16 @@ public final class AnuenueDistCommandFactory {
             throw new AnuenueException("command not found");
         }
 
-        return createDistCommand(target, command, arg, new NodeDatabaseBuilder(
+        AbstractDistCommand distCommand = createDistCommand(target, command, arg, new NodeDatabaseBuilder(
                 nodeConfFile).build());
+        distCommand.setResume(parser.hasOption(AnuenueCommandConstants.OPTION_RESUME));
+        if (parser.hasOption(AnuenueCommandConstants.OPTION_WATCH)) {
+            if (!(distCommand instanceof AddDirDistCommand)) {
+                throw new AnuenueException("watch is supported only by " + AnuenueCommandConstants.DISTCOMMAND_ADDDIR);
+            }
+            ((AddDirDistCommand) distCommand).setWatch(true);
+        }
+        return distCommand;
 
     }
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Checkpoint of input files: the lines and the byte offset of each file which
+ * have been acknowledged by the nodes.
+ * The checkpoint file has a line "file name, size, last modified, lines, offset,
+ * complete" (separated by tabs) per input file. It is rewritten through a
+ * temporary file at most once per WRITE_INTERVAL while chunks are acknowledged,
+ * and when a file has finished. An entry of a file which has been modified
+ * since it was written is ignored.
+ */
+final class Checkpoint {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(Checkpoint.class);
+
+    /** minimum interval of writes(msec). */
+    private static final long WRITE_INTERVAL = 1000;
+
+    /** checkpoint file. */
+    private final File file;
+
+    /** map (file name -> entry). */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /** time of the last write(msec). */
+    private long lastWriteTime;
+
+    /** entries have been updated since the last write. */
+    private boolean dirty;
+
+    /**
+     * Constructor.
+     * @param checkpointFile checkpoint file
+     */
+    Checkpoint(final File checkpointFile) {
+        file = checkpointFile;
+    }
+
+    /**
+     * load the entries written by a previous run.
+     * @throws IOException in case of IO error
+     */
+    synchronized void load() throws IOException {
+        if (!file.exists()) {
+            LOG.info("checkpoint " + file + " does not exist. start from the beginning");
+            return;
+        }
+        List<String> lines = FileUtils.readLines(file, "UTF-8");
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length != 6) {
+                LOG.warn("ignored an invalid line of checkpoint " + file + ": " + line);
+                continue;
+            }
+            entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4]), Boolean.parseBoolean(fields[5])));
+        }
+        LOG.info("loaded checkpoint of " + entries.size() + " files from " + file);
+    }
+
+    /**
+     * get the entry of an input file.
+     * @param fileName file name
+     * @return entry, or null if the file has no entry or has been modified since the entry was written
+     */
+    synchronized Entry get(final String fileName) {
+        Entry entry = entries.get(fileName);
+        if (entry == null) {
+            return null;
+        }
+        File inputFile = new File(fileName);
+        if (inputFile.length() != entry.size || inputFile.lastModified() != entry.lastModified) {
+            LOG.warn(fileName + " has been modified since the checkpoint. start from the beginning");
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * update the entry of an input file.
+     * @param fileName file name
+     * @param lines number of acknowledged lines
+     * @param offset byte offset after the acknowledged lines, or -1 if unknown
+     * @param complete all lines of the file have been acknowledged
+     */
+    synchronized void update(final String fileName, final long lines, final long offset, final boolean complete) {
+        File inputFile = new File(fileName);
+        entries.put(fileName, new Entry(inputFile.length(), inputFile.lastModified(), lines, offset, complete));
+        dirty = true;
+        if (complete || System.currentTimeMillis() - lastWriteTime >= WRITE_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * write the entries if they have been updated.
+     */
+    synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            builder.append(entry.getKey()).append('\t').append(value.size).append('\t').append(value.lastModified)
+                .append('\t').append(value.lines).append('\t').append(value.offset).append('\t')
+                .append(value.complete).append('\n');
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(temporary, builder.toString(), "UTF-8");
+            if (!temporary.renameTo(file)) {
+                // rename does not replace an existing file on some platforms
+                FileUtils.deleteQuietly(file);
+                FileUtils.moveFile(temporary, file);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            LOG.error("failed to write checkpoint " + file + ": " + e.toString());
+        }
+        lastWriteTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Checkpoint of an input file.
+     */
+    static final class Entry {
+
+        /** size of the file. */
+        private final long size;
+
+        /** last modified time of the file. */
+        private final long lastModified;
+
+        /** number of acknowledged lines. */
+        private final long lines;
+
+        /** byte offset after the acknowledged lines, or -1 if unknown. */
+        private final long offset;
+
+        /** all lines of the file have been acknowledged. */
+        private final boolean complete;
+
+        /**
+         * Constructor.
+         * @param fileSize size of the file
+         * @param modified last modified time of the file
+         * @param acknowledgedLines number of acknowledged lines
+         * @param acknowledgedOffset byte offset after the acknowledged lines, or -1 if unknown
+         * @param completed all lines of the file have been acknowledged
+         */
+        private Entry(final long fileSize, final long modified, final long acknowledgedLines,
+                final long acknowledgedOffset, final boolean completed) {
+            size = fileSize;
+            lastModified = modified;
+            lines = acknowledgedLines;
+            offset = acknowledgedOffset;
+            complete = completed;
+        }
+
+        /**
+         * get number of acknowledged lines.
+         * @return number of lines
+         */
+        long getLines() {
+            return lines;
+        }
+
+        /**
+         * get byte offset after the acknowledged lines.
+         * @return offset, or -1 if unknown
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * check all lines of the file have been acknowledged.
+         * @return true if the file is complete
+         */
+        boolean isComplete() {
+            return complete;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A chunk of data sent by one command:
+ * TSV data which starts with the header line, or ids separated by new lines.
+ * TSV data is held either as a String, or as the header bytes and a slice of
+ * a memory mapped file, which is sent without decoding.
+ */
+final class Chunk {
+
+    /** charset of input files. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** data, or null if the chunk is a slice of a file. */
+    private final String data;
+
+    /** header bytes of a slice. */
+    private final byte[] header;
+
+    /** slice of a file. */
+    private final ByteBuffer body;
+
+    /** number of documents. */
+    private final int numberOfDocuments;
+
+    /** progress of the file which the chunk belongs to, or null. */
+    private final FileProgress progress;
+
+    /** index of the first line in the file (0 for the line after the header), or -1 if unknown. */
+    private long firstLine = -1;
+
+    /** byte offset of the file after the chunk, or -1 if unknown. */
+    private long endOffset = -1;
+
+    /**
+     * Constructor.
+     * @param chunkData data
+     * @param documents number of documents
+     */
+    Chunk(final String chunkData, final int documents) {
+        this(chunkData, documents, null);
+    }
+
+    /**
+     * Constructor.
+     * @param chunkData data
+     * @param documents number of documents
+     * @param fileProgress progress of the file which the chunk belongs to, or null
+     */
+    Chunk(final String chunkData, final int documents, final FileProgress fileProgress) {
+        data = chunkData;
+        header = null;
+        body = null;
+        numberOfDocuments = documents;
+        progress = fileProgress;
+    }
+
+    /**
+     * Constructor of a slice of a file.
+     * @param headerBytes header bytes (with new line)
+     * @param slice slice of a file
+     * @param documents number of documents
+     * @param fileProgress progress of the file which the chunk belongs to, or null
+     */
+    Chunk(final byte[] headerBytes, final ByteBuffer slice, final int documents, final FileProgress fileProgress) {
+        data = null;
+        header = headerBytes;
+        body = slice;
+        numberOfDocuments = documents;
+        progress = fileProgress;
+    }
+
+    /**
+     * get data. a slice of a file is decoded.
+     * @return data
+     */
+    String getData() {
+        if (data != null) {
+            return data;
+        }
+        byte[] bytes = new byte[header.length + body.remaining()];
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        body.duplicate().get(bytes, header.length, body.remaining());
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * get size of the data in bytes.
+     * @return size in bytes
+     */
+    long getSize() {
+        if (data == null) {
+            return header.length + body.remaining();
+        }
+        return utf8Length(data);
+    }
+
+    /**
+     * get length of a string encoded in UTF-8, without encoding it.
+     * @param string string
+     * @return length in bytes
+     */
+    static int utf8Length(final CharSequence string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                ++length;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // a surrogate pair is encoded in 4 bytes
+                length += 4;
+                ++i;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * check the chunk is a slice of a file.
+     * @return true if the chunk is a slice of a file
+     */
+    boolean isSlice() {
+        return body != null;
+    }
+
+    /**
+     * get header bytes of a slice.
+     * @return header bytes
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * get a slice of a file. the position of the returned buffer is independent of the chunk.
+     * @return slice
+     */
+    ByteBuffer getBody() {
+        return body.duplicate();
+    }
+
+    /**
+     * get number of documents.
+     * @return number of documents
+     */
+    int getNumberOfDocuments() {
+        return numberOfDocuments;
+    }
+
+    /**
+     * set the position of the chunk in the file.
+     * @param first index of the first line (0 for the line after the header)
+     * @param end byte offset of the file after the chunk, or -1 if unknown
+     */
+    void setPosition(final long first, final long end) {
+        firstLine = first;
+        endOffset = end;
+    }
+
+    /**
+     * get index of the first line in the file.
+     * @return index of the first line, or -1 if unknown
+     */
+    long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * get byte offset of the file after the chunk.
+     * @return offset, or -1 if unknown
+     */
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * get progress of the file which the chunk belongs to.
+     * @return progress, or null
+     */
+    FileProgress getProgress() {
+        return progress;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.IOException;
+
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * Reader which splits a TSV file into chunks started with the header.
+ */
+interface ChunkReader extends AutoCloseable {
+
+    /**
+     * Initialize.
+     *
+     * @throws IOException in case of IO error.
+     * @throws AnuenueException in case that a file is empty.
+     */
+    void init() throws IOException, AnuenueException;
+
+    /**
+     * skip lines acknowledged by a previous run. called after init().
+     *
+     * @param lines number of lines to skip
+     * @param offset byte offset of the file after the lines, or -1 if unknown
+     * @throws IOException in case of IO error.
+     */
+    void skip(long lines, long offset) throws IOException;
+
+    /**
+     * read a chunk.
+     *
+     * a chunk ends before the line which makes it larger than maxBytes,
+     * but it has at least one line.
+     *
+     * @param maxLineNumber max line number.
+     * @param maxBytes max size of a chunk in bytes, or 0 for no limit.
+     * the chunk has the position of its lines in the file, so that its acknowledgement can be checkpointed.
+     *
+     * @param progress progress of the file
+     * @return a chunk started with header, or null if no document remains
+     * @throws IOException in case of IO error.
+     */
+    Chunk readChunk(int maxLineNumber, long maxBytes, FileProgress progress) throws IOException;
+
+    /**
+     * close the file.
+     */
+    @Override
+    void close();
+}
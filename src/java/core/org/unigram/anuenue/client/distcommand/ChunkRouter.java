@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.ConsistentHashRing;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Router which groups lines into per-node chunks by the consistent hash of the id,
+ * and submits a chunk to the pipeline when it becomes full.
+ */
+final class ChunkRouter {
+
+    /** pipeline. */
+    private final IngestionPipeline pipeline;
+
+    /** hash ring. */
+    private final ConsistentHashRing ring;
+
+    /** header of every chunk. */
+    private final String header;
+
+    /** maximum number of documents in a chunk. */
+    private final int maxDocuments;
+
+    /** maximum size of a chunk in bytes, or 0 for no limit. */
+    private final long maxBytes;
+
+    /** progress of the file, or null. */
+    private final FileProgress progress;
+
+    /** map (node name -> chunk being built). */
+    private final Map<String, Buffer> buffers = new HashMap<String, Buffer>();
+
+    /**
+     * Constructor.
+     * @param targetPipeline pipeline
+     * @param hashRing hash ring
+     * @param chunkHeader header of every chunk (may be empty)
+     * @param max maximum number of documents in a chunk
+     * @param fileProgress progress of the file, or null
+     */
+    ChunkRouter(final IngestionPipeline targetPipeline, final ConsistentHashRing hashRing,
+            final String chunkHeader, final int max, final FileProgress fileProgress) {
+        this(targetPipeline, hashRing, chunkHeader, max, 0, fileProgress);
+    }
+
+    /**
+     * Constructor.
+     * @param targetPipeline pipeline
+     * @param hashRing hash ring
+     * @param chunkHeader header of every chunk (may be empty)
+     * @param max maximum number of documents in a chunk
+     * @param maxChunkBytes maximum size of a chunk in bytes, or 0 for no limit
+     * @param fileProgress progress of the file, or null
+     */
+    ChunkRouter(final IngestionPipeline targetPipeline, final ConsistentHashRing hashRing,
+            final String chunkHeader, final int max, final long maxChunkBytes, final FileProgress fileProgress) {
+        pipeline = targetPipeline;
+        progress = fileProgress;
+        ring = hashRing;
+        header = chunkHeader;
+        maxDocuments = max;
+        maxBytes = maxChunkBytes;
+    }
+
+    /**
+     * get id of a TSV line (the first column).
+     * @param line TSV line
+     * @return id
+     */
+    static String getId(final String line) {
+        int tab = line.indexOf('\t');
+        return tab < 0 ? line : line.substring(0, tab);
+    }
+
+    /**
+     * add a line to the chunk of the node which owns the id.
+     * @param id document id
+     * @param line line
+     * @throws AnuenueException if the pipeline has failed
+     */
+    void add(final String id, final String line) throws AnuenueException {
+        addTo(ring.getNode(id), line);
+    }
+
+    /**
+     * add a line to the chunk of given node.
+     * @param node target node
+     * @param line line
+     * @throws AnuenueException if the pipeline has failed
+     */
+    void addTo(final Node node, final String line) throws AnuenueException {
+        Buffer buffer = buffers.get(node.getName());
+        if (buffer == null) {
+            buffer = new Buffer(node);
+            buffers.put(node.getName(), buffer);
+        }
+        if (maxBytes > 0) {
+            int lineBytes = Chunk.utf8Length(line) + 1;
+            if (buffer.documents > 0 && buffer.bytes + lineBytes > maxBytes) {
+                buffer.submit();
+            }
+            buffer.bytes += lineBytes;
+        }
+        buffer.builder.append(line).append('\n');
+        if (++buffer.documents >= pipeline.getMaxLines(node, maxDocuments)) {
+            buffer.submit();
+        }
+    }
+
+    /**
+     * submit all chunks which are not full.
+     * @throws AnuenueException if the pipeline has failed
+     */
+    void flush() throws AnuenueException {
+        for (Buffer buffer : buffers.values()) {
+            if (buffer.documents > 0) {
+                buffer.submit();
+            }
+        }
+    }
+
+    /**
+     * Chunk being built for a node.
+     */
+    private final class Buffer {
+
+        /** target node. */
+        private final Node node;
+
+        /** data. */
+        private final StringBuilder builder;
+
+        /** number of documents. */
+        private int documents;
+
+        /** size of the chunk in bytes, counted only when the size is limited. */
+        private long bytes;
+
+        /**
+         * Constructor.
+         * @param target target node
+         */
+        private Buffer(final Node target) {
+            node = target;
+            builder = new StringBuilder(header);
+            documents = 0;
+            bytes = Chunk.utf8Length(header);
+        }
+
+        /**
+         * submit the chunk and start a new one.
+         * @throws AnuenueException if the pipeline has failed
+         */
+        private void submit() throws AnuenueException {
+            if (progress != null) {
+                progress.chunkSubmitted();
+            }
+            pipeline.submitTo(node, new Chunk(builder.toString(), documents, progress));
+            builder.setLength(0);
+            builder.append(header);
+            documents = 0;
+            bytes = Chunk.utf8Length(header);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of chunk sizes in bytes.
+ * Buckets are powers of two from 1KB, and the last bucket holds larger chunks.
+ */
+final class ChunkSizeHistogram {
+
+    /** upper bound of the first bucket. */
+    private static final long FIRST_BOUND = 1024;
+
+    /** number of buckets (1KB ... 64MB, and larger). */
+    private static final int NUMBER_OF_BUCKETS = 18;
+
+    /** counts of buckets. */
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+    /** number of chunks. */
+    private final AtomicLong chunks = new AtomicLong();
+
+    /** total bytes. */
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /** maximum size. */
+    private final AtomicLong maxBytes = new AtomicLong();
+
+    /**
+     * record a chunk.
+     * @param bytes size of the chunk
+     */
+    void record(final long bytes) {
+        counts.incrementAndGet(bucketOf(bytes));
+        chunks.incrementAndGet();
+        totalBytes.addAndGet(bytes);
+        while (true) {
+            long max = maxBytes.get();
+            if (bytes <= max || maxBytes.compareAndSet(max, bytes)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * get number of recorded chunks.
+     * @return number of chunks
+     */
+    long getCount() {
+        return chunks.get();
+    }
+
+    /**
+     * get bucket of given size.
+     * @param bytes size
+     * @return index of the bucket
+     */
+    private static int bucketOf(final long bytes) {
+        int bucket = 0;
+        long bound = FIRST_BOUND;
+        while (bytes > bound && bucket < NUMBER_OF_BUCKETS - 1) {
+            bound <<= 1;
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    /**
+     * format a size.
+     * @param bytes size
+     * @return formatted size
+     */
+    private static String format(final long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return (bytes / 1024 / 1024) + "MB";
+        }
+        if (bytes >= 1024) {
+            return (bytes / 1024) + "KB";
+        }
+        return bytes + "B";
+    }
+
+    /**
+     * summary and non-empty buckets, for example "chunks=10, avg=3KB, max=7KB, <=2KB:4, <=4KB:5, <=8KB:1".
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        long count = chunks.get();
+        StringBuilder builder = new StringBuilder("chunks=" + count);
+        if (count == 0) {
+            return builder.toString();
+        }
+        builder.append(", avg=").append(format(totalBytes.get() / count));
+        builder.append(", max=").append(format(maxBytes.get()));
+        long bound = FIRST_BOUND;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            long bucketCount = counts.get(i);
+            if (bucketCount > 0) {
+                builder.append(i == NUMBER_OF_BUCKETS - 1 ? ", >" + format(bound >> 1) : ", <=" + format(bound));
+                builder.append(':').append(bucketCount);
+            }
+            bound <<= 1;
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Append-only spool of chunks which could not be sent.
+ * Each node has a directory of segments named after the node. A record is a line
+ * "command TAB documents TAB bytes" followed by the bytes of the chunk, and is
+ * forced to disk before append() returns. A segment is rolled over when it
+ * exceeds SEGMENT_SIZE, and is deleted by the resume command once all of its
+ * records have been replayed.
+ */
+final class ChunkSpool implements Closeable {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(ChunkSpool.class);
+
+    /** suffix of segment files. */
+    static final String SEGMENT_SUFFIX = ".spool";
+
+    /** size over which a segment is rolled over. */
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** UTF-8. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** spool directory. */
+    private final File directory;
+
+    /** map (node name -> open segment). */
+    private final Map<String, Segment> segments = new HashMap<String, Segment>();
+
+    /** number of spooled chunks. */
+    private long spooledChunks;
+
+    /** number of spooled documents. */
+    private long spooledDocuments;
+
+    /** sequence number of segments created by this spool. */
+    private int sequence;
+
+    /**
+     * Constructor.
+     * @param spoolDirectory spool directory
+     */
+    ChunkSpool(final File spoolDirectory) {
+        directory = spoolDirectory;
+    }
+
+    /**
+     * get spool directory.
+     * @return spool directory
+     */
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * append a chunk to the segment of a node.
+     * @param node node which the chunk could not be sent to
+     * @param command command which sends the chunk
+     * @param chunk chunk
+     * @throws IOException in case of IO error
+     */
+    synchronized void append(final Node node, final String command, final Chunk chunk) throws IOException {
+        Segment segment = segments.get(node.getName());
+        if (segment == null || segment.channel.size() >= SEGMENT_SIZE) {
+            if (segment != null) {
+                segment.close();
+            }
+            segment = new Segment(newSegmentFile(node.getName()));
+            segments.put(node.getName(), segment);
+        }
+        ByteBuffer[] body;
+        long length;
+        if (chunk.isSlice()) {
+            body = new ByteBuffer[] {ByteBuffer.wrap(chunk.getHeader()), chunk.getBody()};
+            length = chunk.getSize();
+        } else {
+            byte[] data = chunk.getData().getBytes(UTF8);
+            body = new ByteBuffer[] {ByteBuffer.wrap(data)};
+            length = data.length;
+        }
+        String recordHeader = command + "\t" + chunk.getNumberOfDocuments() + "\t" + length + "\n";
+        segment.write(ByteBuffer.wrap(recordHeader.getBytes(UTF8)));
+        for (ByteBuffer buffer : body) {
+            segment.write(buffer);
+        }
+        segment.channel.force(false);
+        ++spooledChunks;
+        spooledDocuments += chunk.getNumberOfDocuments();
+    }
+
+    /**
+     * create a new segment file of a node.
+     * @param nodeName node name
+     * @return segment file
+     * @throws IOException if the directory cannot be created
+     */
+    private File newSegmentFile(final String nodeName) throws IOException {
+        File nodeDirectory = new File(directory, nodeName);
+        if (!nodeDirectory.isDirectory() && !nodeDirectory.mkdirs()) {
+            throw new IOException("cannot create spool directory: " + nodeDirectory);
+        }
+        // names sort in the order of creation
+        return new File(nodeDirectory, String.format("%013d-%04d", System.currentTimeMillis(), ++sequence)
+                + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * get number of spooled chunks.
+     * @return number of spooled chunks
+     */
+    synchronized long getSpooledChunks() {
+        return spooledChunks;
+    }
+
+    /**
+     * get number of spooled documents.
+     * @return number of spooled documents
+     */
+    synchronized long getSpooledDocuments() {
+        return spooledDocuments;
+    }
+
+    /**
+     * close open segments.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        if (spooledChunks > 0) {
+            LOG.warn(spooledChunks + " chunks (" + spooledDocuments + " documents) are spooled in " + directory
+                    + ". replay them by the resumeSpool command.");
+        }
+    }
+
+    /**
+     * list segments of a node directory in the order of creation.
+     * @param nodeDirectory node directory
+     * @return segment files
+     */
+    static List<File> listSegments(final File nodeDirectory) {
+        File[] files = nodeDirectory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> segmentFiles = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.add(file);
+            }
+        }
+        Collections.sort(segmentFiles);
+        return segmentFiles;
+    }
+
+    /**
+     * A record of a segment.
+     */
+    static final class Record {
+
+        /** command which sends the chunk. */
+        private final String command;
+
+        /** chunk. */
+        private final Chunk chunk;
+
+        /**
+         * Constructor.
+         * @param commandName command which sends the chunk
+         * @param spooledChunk chunk
+         */
+        private Record(final String commandName, final Chunk spooledChunk) {
+            command = commandName;
+            chunk = spooledChunk;
+        }
+
+        /**
+         * get command which sends the chunk.
+         * @return command
+         */
+        String getCommand() {
+            return command;
+        }
+
+        /**
+         * get chunk.
+         * @return chunk
+         */
+        Chunk getChunk() {
+            return chunk;
+        }
+    }
+
+    /**
+     * Reader of the records of a segment.
+     * A record torn by a crash while it was appended ends the segment.
+     */
+    static final class SegmentReader implements Closeable {
+
+        /** segment file. */
+        private final File file;
+
+        /** input. */
+        private final InputStream input;
+
+        /**
+         * Constructor.
+         * @param segmentFile segment file
+         * @throws IOException in case of IO error
+         */
+        SegmentReader(final File segmentFile) throws IOException {
+            file = segmentFile;
+            input = new BufferedInputStream(new FileInputStream(segmentFile));
+        }
+
+        /**
+         * read the next record.
+         * @return record, or null if no record remains
+         * @throws IOException in case of IO error or a corrupted record
+         */
+        Record next() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (true) {
+                int b = input.read();
+                if (b < 0) {
+                    if (line.size() > 0) {
+                        LOG.warn(file + ": ignored a torn record at the end");
+                    }
+                    return null;
+                }
+                if (b == '\n') {
+                    break;
+                }
+                line.write(b);
+            }
+            String[] fields = new String(line.toByteArray(), UTF8).split("\t");
+            if (fields.length != 3) {
+                throw new IOException(file + ": corrupted record header: " + Arrays.toString(fields));
+            }
+            byte[] data = new byte[Integer.parseInt(fields[2])];
+            try {
+                IOUtils.readFully(input, data);
+            } catch (EOFException e) {
+                LOG.warn(file + ": ignored a torn record at the end");
+                return null;
+            }
+            return new Record(fields[0], new Chunk(new String(data, UTF8), Integer.parseInt(fields[1])));
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * An open segment.
+     */
+    private static final class Segment {
+
+        /** output. */
+        private final FileOutputStream output;
+
+        /** channel of the output. */
+        private final FileChannel channel;
+
+        /**
+         * Constructor.
+         * @param file segment file
+         * @throws IOException in case of IO error
+         */
+        private Segment(final File file) throws IOException {
+            output = new FileOutputStream(file, true);
+            channel = output.getChannel();
+            LOG.info("spooling to " + file);
+        }
+
+        /**
+         * write a buffer.
+         * @param buffer buffer
+         * @throws IOException in case of IO error
+         */
+        private void write(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * close the segment.
+         */
+        private void close() {
+            IOUtils.closeQuietly(output);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Input stream of a file which may be compressed.
+ * The format is detected by the magic bytes: gzip is decoded by java.util.zip,
+ * bzip2 and xz by commons-compress when it is on the classpath.
+ * A compressed file is decoded by a separate thread into a bounded queue of
+ * blocks, so that decompression overlaps with parsing and posting.
+ * When the stream is closed, compressed and uncompressed throughput are logged.
+ */
+final class CompressedFileInputStream extends InputStream {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(CompressedFileInputStream.class);
+
+    /** codec: gzip. */
+    static final String CODEC_GZIP = "gzip";
+
+    /** codec: bzip2. */
+    static final String CODEC_BZIP2 = "bzip2";
+
+    /** codec: xz. */
+    static final String CODEC_XZ = "xz";
+
+    /** magic bytes of gzip. */
+    private static final byte[] MAGIC_GZIP = {0x1f, (byte) 0x8b};
+
+    /** magic bytes of bzip2. */
+    private static final byte[] MAGIC_BZIP2 = {'B', 'Z', 'h'};
+
+    /** magic bytes of xz. */
+    private static final byte[] MAGIC_XZ = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+
+    /** decoder of bzip2 in commons-compress. */
+    private static final String BZIP2_DECODER =
+            "org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream";
+
+    /** decoder of xz in commons-compress. */
+    private static final String XZ_DECODER = "org.apache.commons.compress.compressors.xz.XZCompressorInputStream";
+
+    /** size of a decoded block. */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** number of decoded blocks waiting to be read. */
+    private static final int QUEUE_BLOCKS = 16;
+
+    /** block which marks the end of the stream. */
+    private static final byte[] END = new byte[0];
+
+    /** bytes per MB. */
+    private static final double MB = 1024.0 * 1024.0;
+
+    /** file name. */
+    private final String fileName;
+
+    /** codec. */
+    private final String codec;
+
+    /** compressed bytes read from the file. */
+    private final CountingInputStream compressed;
+
+    /** decoder. */
+    private final InputStream decoder;
+
+    /** decoded blocks. */
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(QUEUE_BLOCKS);
+
+    /** thread which decodes the file. */
+    private final Thread decoderThread;
+
+    /** failure of the decoder thread, or null. */
+    private volatile IOException failure;
+
+    /** uncompressed bytes decoded. */
+    private volatile long uncompressedBytes;
+
+    /** current block. */
+    private byte[] block;
+
+    /** position in the current block. */
+    private int position;
+
+    /** the end of the stream has been read. */
+    private boolean eof;
+
+    /** the stream is closed. */
+    private boolean closed;
+
+    /** start time(msec). */
+    private final long startTime;
+
+    /**
+     * Constructor.
+     * @param name file name
+     * @param codecName codec
+     * @param file compressed bytes of the file
+     * @param decoded decoder of the file
+     */
+    private CompressedFileInputStream(final String name, final String codecName, final CountingInputStream file,
+            final InputStream decoded) {
+        fileName = name;
+        codec = codecName;
+        compressed = file;
+        decoder = decoded;
+        startTime = System.currentTimeMillis();
+        decoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "decoder-" + new File(name).getName());
+        decoderThread.setDaemon(true);
+        decoderThread.start();
+    }
+
+    /**
+     * open a file, decoding it if it is compressed.
+     * @param fileName file name
+     * @return InputStream of the uncompressed content
+     * @throws IOException in case of IO error, or if the codec of the file is not available
+     */
+    static InputStream open(final String fileName) throws IOException {
+        String codec = detectCodec(fileName);
+        if (codec == null) {
+            return new FileInputStream(fileName);
+        }
+        CountingInputStream file = new CountingInputStream(new FileInputStream(fileName));
+        try {
+            return new CompressedFileInputStream(fileName, codec, file, createDecoder(codec, file));
+        } catch (IOException e) {
+            IOUtils.closeQuietly(file);
+            throw e;
+        }
+    }
+
+    /**
+     * detect the codec of a file by its magic bytes.
+     * @param fileName file name
+     * @return codec, or null if the file is not compressed
+     * @throws IOException in case of IO error
+     */
+    static String detectCodec(final String fileName) throws IOException {
+        byte[] head = new byte[MAGIC_XZ.length];
+        int length;
+        try (FileInputStream in = new FileInputStream(fileName)) {
+            length = IOUtils.read(in, head);
+        }
+        if (startsWith(head, length, MAGIC_GZIP)) {
+            return CODEC_GZIP;
+        }
+        if (startsWith(head, length, MAGIC_BZIP2)) {
+            return CODEC_BZIP2;
+        }
+        if (startsWith(head, length, MAGIC_XZ)) {
+            return CODEC_XZ;
+        }
+        return null;
+    }
+
+    /**
+     * check the head of a file starts with magic bytes.
+     * @param head head of the file
+     * @param length length of the head
+     * @param magic magic bytes
+     * @return true if the head starts with the magic bytes
+     */
+    private static boolean startsWith(final byte[] head, final int length, final byte[] magic) {
+        return length >= magic.length && Arrays.equals(Arrays.copyOf(head, magic.length), magic);
+    }
+
+    /**
+     * create a decoder.
+     * @param codec codec
+     * @param in compressed input
+     * @return decoder
+     * @throws IOException in case of IO error, or if the codec is not available
+     */
+    private static InputStream createDecoder(final String codec, final InputStream in) throws IOException {
+        switch (codec) {
+        case CODEC_GZIP:
+            return new GZIPInputStream(in, BLOCK_SIZE);
+        case CODEC_BZIP2:
+            return createReflectiveDecoder(codec, BZIP2_DECODER, in);
+        case CODEC_XZ:
+            return createReflectiveDecoder(codec, XZ_DECODER, in);
+        default:
+            throw new IOException("unknown codec: " + codec);
+        }
+    }
+
+    /**
+     * create a decoder of commons-compress, which decodes concatenated streams.
+     * commons-compress is optional, so it is loaded by reflection.
+     * @param codec codec
+     * @param className class name of the decoder
+     * @param in compressed input
+     * @return decoder
+     * @throws IOException in case of IO error, or if the decoder is not on the classpath
+     */
+    private static InputStream createReflectiveDecoder(final String codec, final String className,
+            final InputStream in) throws IOException {
+        try {
+            Class<?> decoderClass = Class.forName(className);
+            return (InputStream) decoderClass.getConstructor(InputStream.class, boolean.class).newInstance(in, true);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(codec + " is not supported: put commons-compress on the classpath", e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("failed to create " + codec + " decoder", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("failed to create " + codec + " decoder", e);
+        }
+    }
+
+    /**
+     * decode the file into blocks, run by the decoder thread.
+     */
+    private void decode() {
+        try {
+            while (true) {
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int length = IOUtils.read(decoder, buffer);
+                if (length == 0) {
+                    break;
+                }
+                uncompressedBytes += length;
+                blocks.put(length == BLOCK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+                if (length < BLOCK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        }
+        try {
+            blocks.put(END);
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        }
+    }
+
+    /**
+     * make the current block have bytes to read.
+     * @return false if the end of the stream
+     * @throws IOException in case of decode error
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed: " + fileName);
+        }
+        while (!eof && (block == null || position >= block.length)) {
+            try {
+                block = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while decoding " + fileName, e);
+            }
+            position = 0;
+            if (block == END) {
+                eof = true;
+                if (failure != null) {
+                    throw new IOException("failed to decode " + fileName, failure);
+                }
+            }
+        }
+        return !eof;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int length = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        decoderThread.interrupt();
+        try {
+            decoderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        blocks.clear();
+        decoder.close();
+        if (eof && failure == null) {
+            logThroughput();
+        }
+    }
+
+    /**
+     * log compressed and uncompressed throughput of the file.
+     */
+    private void logThroughput() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        long compressedBytes = compressed.getByteCount();
+        LOG.info(fileName + " (" + codec + "): " + compressedBytes + " bytes compressed, " + uncompressedBytes
+                + " bytes uncompressed in " + elapsed + " msec ("
+                + String.format("%.1f", compressedBytes * 1000 / MB / elapsed) + " MB/sec compressed, "
+                + String.format("%.1f", uncompressedBytes * 1000 / MB / elapsed) + " MB/sec uncompressed)");
+    }
+}
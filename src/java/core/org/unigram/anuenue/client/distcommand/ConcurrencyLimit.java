@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.net.SocketTimeoutException;
+
+import org.unigram.anuenue.exception.SolrResponseException;
+
+/**
+ * Limit of the number of requests running on a node at the same time.
+ * When the limit is adaptive, it is adjusted by AIMD: it increases by 1/limit
+ * (about one per round of requests) when a request succeeds within the latency
+ * threshold, and is multiplied by the decrease factor when a request times out
+ * or the node answers 503. A decrease happens once for requests which started
+ * before the previous decrease, so a burst of failures halves the limit only once.
+ * Not thread-safe; callers synchronize.
+ */
+final class ConcurrencyLimit {
+
+    /** minimum limit. */
+    private static final double MIN_LIMIT = 1.0;
+
+    /** maximum limit. */
+    private final double maxLimit;
+
+    /** the limit is adjusted by AIMD. */
+    private final boolean adaptive;
+
+    /** latency threshold of a healthy request(msec). */
+    private final long latencyThreshold;
+
+    /** factor by which the limit is multiplied on overload. */
+    private final double decreaseFactor;
+
+    /** current limit. */
+    private double limit;
+
+    /** number of running requests. */
+    private int inFlight;
+
+    /** time of the last decrease(msec). */
+    private long lastDecreaseTime;
+
+    /** number of increases. */
+    private long increases;
+
+    /** number of decreases. */
+    private long decreases;
+
+    /**
+     * Constructor of a fixed limit.
+     * @param max limit
+     */
+    ConcurrencyLimit(final int max) {
+        this(max, max, false, Long.MAX_VALUE, 1.0);
+    }
+
+    /**
+     * Constructor.
+     * @param initial initial limit
+     * @param max maximum limit
+     * @param adaptiveLimit the limit is adjusted by AIMD
+     * @param threshold latency threshold of a healthy request(msec)
+     * @param factor factor by which the limit is multiplied on overload
+     */
+    ConcurrencyLimit(final int initial, final int max, final boolean adaptiveLimit,
+            final long threshold, final double factor) {
+        maxLimit = Math.max(MIN_LIMIT, max);
+        limit = Math.min(maxLimit, Math.max(MIN_LIMIT, initial));
+        adaptive = adaptiveLimit;
+        latencyThreshold = threshold;
+        decreaseFactor = factor;
+    }
+
+    /**
+     * start a request if the node has room.
+     * @return true if the request can start
+     */
+    boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        ++inFlight;
+        return true;
+    }
+
+    /**
+     * finish a request and adjust the limit.
+     * @param startTime start time of the request(msec)
+     * @param endTime end time of the request(msec)
+     * @param failure failure of the request, or null
+     */
+    void release(final long startTime, final long endTime, final Throwable failure) {
+        --inFlight;
+        if (!adaptive) {
+            return;
+        }
+        if (isOverload(failure)) {
+            if (startTime >= lastDecreaseTime) {
+                limit = Math.max(MIN_LIMIT, limit * decreaseFactor);
+                lastDecreaseTime = endTime;
+                ++decreases;
+            }
+        } else if (failure == null && endTime - startTime <= latencyThreshold && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+            ++increases;
+        }
+    }
+
+    /**
+     * check a failure means the node is overloaded: a timeout or HTTP 503.
+     * @param failure failure, or null
+     * @return true if the node is overloaded
+     */
+    static boolean isOverload(final Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SolrResponseException && ((SolrResponseException) cause).isServiceUnavailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get current limit.
+     * @return limit
+     */
+    double getLimit() {
+        return limit;
+    }
+
+    /**
+     * get number of running requests.
+     * @return number of running requests
+     */
+    int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * metrics, for example "limit=3.5, inFlight=3, increases=10, decreases=1".
+     * @return metrics
+     */
+    @Override
+    public String toString() {
+        return "limit=" + (Math.round(limit * 10) / 10.0) + ", inFlight=" + inFlight
+                + ", increases=" + increases + ", decreases=" + decreases;
+    }
+}
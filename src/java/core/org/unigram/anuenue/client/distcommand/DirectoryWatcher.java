@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watcher of the files dropped into a directory.
+ * A file is ready when its size and last modified time have not changed for
+ * the quiet period, so that a file is not read while it is being written.
+ * Each state (size and last modified time) of a file is returned once; a file
+ * is returned again only if it is rewritten. Files whose names start with "."
+ * are ignored, so that writers can write to a hidden file and rename it.
+ * Files which exist when the watcher starts are returned as well.
+ */
+final class DirectoryWatcher implements Closeable {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(DirectoryWatcher.class);
+
+    /** watched directory. */
+    private final File directory;
+
+    /** time for which a file must not change to be ready(msec). */
+    private final long quietPeriod;
+
+    /** watch service. */
+    private final WatchService watchService;
+
+    /** map (file -> state seen last) of files which are not ready. */
+    private final Map<File, FileState> pending = new HashMap<File, FileState>();
+
+    /** map (file -> state) of returned files. */
+    private final Map<File, FileState> returned = new HashMap<File, FileState>();
+
+    /** ready files which have not been returned. */
+    private final Queue<File> ready = new ArrayDeque<File>();
+
+    /** the watcher has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Constructor. the directory is watched from here.
+     * @param watchedDirectory directory
+     * @param quiet time for which a file must not change to be ready(msec)
+     * @throws IOException if the directory cannot be watched
+     */
+    DirectoryWatcher(final File watchedDirectory, final long quiet) throws IOException {
+        directory = watchedDirectory;
+        quietPeriod = quiet;
+        watchService = directory.toPath().getFileSystem().newWatchService();
+        directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        scan();
+    }
+
+    /**
+     * get a ready file, waiting for it up to the timeout.
+     * this method is called by one thread.
+     * @param timeout timeout(msec)
+     * @return file, or null if no file is ready in the timeout or the watcher is closed
+     * @throws InterruptedException if interrupted
+     */
+    File poll(final long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!closed) {
+            checkPending();
+            if (!ready.isEmpty()) {
+                return ready.poll();
+            }
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                return null;
+            }
+            // wake up when a pending file can become ready
+            long wait = deadline - now;
+            if (!pending.isEmpty()) {
+                wait = Math.min(wait, quietPeriod);
+            }
+            WatchKey key;
+            try {
+                key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+            } catch (ClosedWatchServiceException e) {
+                return null;
+            }
+            if (key != null) {
+                processEvents(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * check the watcher has been closed.
+     * @return true if closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * stop watching. a thread waiting in poll() returns null.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.warn("failed to close the watch service of " + directory + ": " + e.toString());
+        }
+    }
+
+    /**
+     * handle the events of a watch key.
+     * @param key watch key
+     */
+    private void processEvents(final WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.warn("events of " + directory + " overflowed. rescan the directory");
+                scan();
+                continue;
+            }
+            candidate(new File(directory, ((Path) event.context()).toString()));
+        }
+        if (!key.reset()) {
+            LOG.error(directory + " is no longer watched");
+            closed = true;
+        }
+    }
+
+    /**
+     * add all files of the directory as candidates, in the order of names.
+     */
+    private void scan() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> sorted = new ArrayList<File>(files.length);
+        Collections.addAll(sorted, files);
+        Collections.sort(sorted);
+        for (File file : sorted) {
+            candidate(file);
+        }
+    }
+
+    /**
+     * add a file which may have been created or modified.
+     * @param file file
+     */
+    private void candidate(final File file) {
+        if (file.getName().startsWith(".") || !file.isFile()) {
+            return;
+        }
+        FileState state = new FileState(file);
+        if (state.equals(returned.get(file))) {
+            return;
+        }
+        FileState previous = pending.get(file);
+        if (previous == null || !previous.equals(state)) {
+            pending.put(file, state);
+        }
+    }
+
+    /**
+     * move files which have not changed for the quiet period to the ready queue.
+     */
+    private void checkPending() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<File, FileState>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<File, FileState> entry = it.next();
+            File file = entry.getKey();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+            FileState current = new FileState(file);
+            if (!current.equals(entry.getValue())) {
+                entry.setValue(current);
+                continue;
+            }
+            if (now - entry.getValue().seenTime >= quietPeriod) {
+                it.remove();
+                returned.put(file, current);
+                ready.add(file);
+            }
+        }
+    }
+
+    /**
+     * Size and last modified time of a file.
+     */
+    private static final class FileState {
+
+        /** size. */
+        private final long size;
+
+        /** last modified time. */
+        private final long lastModified;
+
+        /** time when the state was seen first(msec). */
+        private final long seenTime;
+
+        /**
+         * Constructor.
+         * @param file file
+         */
+        private FileState(final File file) {
+            size = file.length();
+            lastModified = file.lastModified();
+            seenTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) object;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (size ^ lastModified);
+        }
+    }
+}
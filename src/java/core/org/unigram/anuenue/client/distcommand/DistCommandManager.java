@@ -15,62 +15,434 @@
  */
 package org.unigram.anuenue.client.distcommand;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.command.AbstractCommand;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node;
 
 /**
- * Manager of DistCommandRunner.
+ * Manager which runs commands on a shared executor.
+ * The number of commands running on a node at the same time is limited,
+ * and the other commands wait in the queue of the node.
+ * The limit is fixed, or adjusted by AIMD from timeouts and 503 responses of the node.
  */
-public final class DistCommandManager extends Thread {
+public final class DistCommandManager {
 
     /** logger. */
     private static final Log LOG = LogFactory.getLog(DistCommandManager.class);
 
-    /** the number of threads. */
-    private int numberOfThreads;
+    /** executor mode: fixed number of threads. */
+    public static final String MODE_FIXED = "fixed";
+
+    /** executor mode: a virtual thread per command (requires Java 21 or later). */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /** property: anuenue.executor.mode. */
+    private static final String PROPERTY_MODE = "anuenue.executor.mode";
+
+    /** default: executor mode. */
+    private static final String DEFAULT_MODE = MODE_FIXED;
+
+    /** property: anuenue.executor.threads. */
+    private static final String PROPERTY_THREADS = "anuenue.executor.threads";
+
+    /** default: number of threads of fixed mode. */
+    private static final String DEFAULT_THREADS = "32";
+
+    /** property: anuenue.executor.max.per.node. */
+    private static final String PROPERTY_MAX_PER_NODE = "anuenue.executor.max.per.node";
+
+    /** default: maximum number of commands running on a node at the same time. */
+    private static final String DEFAULT_MAX_PER_NODE = "8";
+
+    /** concurrency: the limit of each node is anuenue.executor.max.per.node. */
+    public static final String CONCURRENCY_FIXED = "fixed";
+
+    /** concurrency: the limit of each node is adjusted by AIMD up to anuenue.executor.max.per.node. */
+    public static final String CONCURRENCY_AIMD = "aimd";
+
+    /** property: anuenue.executor.concurrency. */
+    private static final String PROPERTY_CONCURRENCY = "anuenue.executor.concurrency";
+
+    /** default: concurrency of each node. */
+    private static final String DEFAULT_CONCURRENCY = CONCURRENCY_FIXED;
+
+    /** property: anuenue.executor.aimd.initial. */
+    private static final String PROPERTY_AIMD_INITIAL = "anuenue.executor.aimd.initial";
+
+    /** default: initial limit of AIMD. */
+    private static final String DEFAULT_AIMD_INITIAL = "2";
+
+    /** property: anuenue.executor.aimd.latency. */
+    private static final String PROPERTY_AIMD_LATENCY = "anuenue.executor.aimd.latency";
+
+    /** default: latency(msec) under which a request is healthy and the limit increases. */
+    private static final String DEFAULT_AIMD_LATENCY = "5000";
+
+    /** factor by which the AIMD limit is multiplied on overload. */
+    private static final double AIMD_DECREASE_FACTOR = 0.5;
+
+    /** shared instance. */
+    private static final DistCommandManager INSTANCE = new DistCommandManager(
+            System.getProperty(PROPERTY_MODE, DEFAULT_MODE),
+            Integer.parseInt(System.getProperty(PROPERTY_THREADS, DEFAULT_THREADS)),
+            Integer.parseInt(System.getProperty(PROPERTY_MAX_PER_NODE, DEFAULT_MAX_PER_NODE)),
+            System.getProperty(PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY),
+            Integer.parseInt(System.getProperty(PROPERTY_AIMD_INITIAL, DEFAULT_AIMD_INITIAL)),
+            Long.parseLong(System.getProperty(PROPERTY_AIMD_LATENCY, DEFAULT_AIMD_LATENCY)));
+
+    /** executor. */
+    private final ExecutorService executor;
+
+    /** maximum number of commands running on a node at the same time. */
+    private final int maxPerNode;
+
+    /** the limit of each node is adjusted by AIMD. */
+    private final boolean aimd;
+
+    /** initial limit of AIMD. */
+    private final int aimdInitial;
+
+    /** latency(msec) under which a request is healthy. */
+    private final long aimdLatency;
+
+    /** map (node name -> queue of the node). */
+    private final ConcurrentMap<String, NodeQueue> nodeQueues = new ConcurrentHashMap<String, NodeQueue>();
+
+    /** number of submitted commands. */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /** number of failed commands. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** maximum queue depth of a node. */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
 
     /**
      * Constructor.
+     * @param mode executor mode (fixed or virtual)
+     * @param threads number of threads of fixed mode
+     * @param max maximum number of commands running on a node at the same time
      */
-    public DistCommandManager() {
-        numberOfThreads = 0;
+    DistCommandManager(final String mode, final int threads, final int max) {
+        this(mode, threads, max, CONCURRENCY_FIXED, max, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     * @param mode executor mode (fixed or virtual)
+     * @param threads number of threads of fixed mode
+     * @param max maximum number of commands running on a node at the same time
+     * @param concurrency concurrency of each node (fixed or aimd)
+     * @param initial initial limit of AIMD
+     * @param latency latency(msec) under which a request is healthy
+     */
+    DistCommandManager(final String mode, final int threads, final int max,
+            final String concurrency, final int initial, final long latency) {
+        maxPerNode = max;
+        aimd = CONCURRENCY_AIMD.equals(concurrency);
+        if (!aimd && !CONCURRENCY_FIXED.equals(concurrency)) {
+            LOG.warn("unknown concurrency: " + concurrency + ". use " + CONCURRENCY_FIXED);
+        }
+        aimdInitial = initial;
+        aimdLatency = latency;
+        if (MODE_VIRTUAL.equals(mode)) {
+            executor = createVirtualThreadExecutor(threads);
+        } else {
+            if (!MODE_FIXED.equals(mode)) {
+                LOG.warn("unknown executor mode: " + mode + ". use " + MODE_FIXED);
+            }
+            executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        }
+    }
+
+    /**
+     * get the shared manager.
+     * @return DistCommandManager
+     */
+    public static DistCommandManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * create an executor which starts a virtual thread per command.
+     * the executor is looked up reflectively, so that Anuenue still runs on older Java.
+     * @param threads number of threads used when virtual threads are not available
+     * @return ExecutorService
+     */
+    private static ExecutorService createVirtualThreadExecutor(final int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("virtual threads are not available on this Java. use " + MODE_FIXED);
+            return Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        }
+    }
+
+    /**
+     * submit a command for a node.
+     * @param node target node
+     * @param command command
+     * @return future which carries the result or the exception of the command
+     */
+    public Future<String> submit(final Node node, final AbstractCommand command) {
+        return submit(node, new DistCommandRunner(command));
+    }
+
+    /**
+     * submit a task which sends a request to a node. it waits in the queue of the node
+     * like a command, and its failure adjusts the limit of the node.
+     * @param node target node
+     * @param callable task
+     * @return future which carries the result or the exception of the task
+     */
+    public Future<String> submit(final Node node, final Callable<String> callable) {
+        submitted.incrementAndGet();
+        final NodeQueue queue = getNodeQueue(node.getName());
+        FutureTask<String> task = new FutureTask<String>(callable) {
+
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                try {
+                    super.run();
+                } finally {
+                    queue.finish(startTime, getFailure(this));
+                }
+            }
+        };
+        queue.add(task);
+        return task;
     }
 
     /**
-     * increment numberOfthread.
+     * get failure of a finished command.
+     * @param task command
+     * @return failure, or null if the command has succeeded
      */
-    public void increment() {
-        synchronized (this) {
-            ++numberOfThreads;    
+    private static Throwable getFailure(final FutureTask<String> task) {
+        try {
+            task.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException | CancellationException e) {
+            return e;
         }
     }
 
     /**
-     * decrement numberOfthread.
+     * check the limit of each node is adjusted by AIMD.
+     * @return true if the limit is adaptive
+     */
+    public boolean isAdaptiveConcurrency() {
+        return aimd;
+    }
+
+    /**
+     * get maximum number of requests running on a node at the same time.
+     * @return maximum number
+     */
+    public int getMaxPerNode() {
+        return maxPerNode;
+    }
+
+    /**
+     * get current limit of the number of requests running on a node.
+     * @param node node
+     * @return limit
      */
-    public void decrement() {
-        synchronized (this) {
-            --numberOfThreads;    
+    public double getConcurrencyLimit(final Node node) {
+        return getNodeQueue(node.getName()).getLimit();
+    }
+
+    /**
+     * wait all commands, and throw the first failure.
+     * @param futures futures of commands
+     * @return results of commands
+     * @throws AnuenueException if a command has failed
+     */
+    public String[] waitAll(final List<Future<String>> futures) throws AnuenueException {
+        String[] results = new String[futures.size()];
+        Throwable firstFailure = null;
+        for (int i = 0; i < futures.size(); ++i) {
             try {
-                notifyAll();
-            } catch (Exception e) {
-                LOG.error(e.toString());
+                results[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                LOG.error("command failed: " + e.getCause());
+                if (firstFailure == null) {
+                    firstFailure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnuenueException("interrupted while waiting commands", e);
             }
         }
+        if (firstFailure != null) {
+            throw new AnuenueException(firstFailure.toString(), firstFailure);
+        }
+        return results;
     }
 
     /**
-     * wait that all thread is executed.
+     * get number of commands waiting for given node.
+     * @param node node
+     * @return queue depth
      */
-    public void waitSync() {
-        synchronized (this) {
-            while (numberOfThreads > 0) {
-                try {
-                    wait();
-                } catch (Exception e) {
-                    LOG.error(e.toString());
+    public int getQueueDepth(final Node node) {
+        NodeQueue queue = nodeQueues.get(node.getName());
+        return queue == null ? 0 : queue.getDepth();
+    }
+
+    /**
+     * get statistics of the manager.
+     * @return statistics
+     */
+    public String getStatistics() {
+        StringBuilder builder = new StringBuilder("command manager: submitted=" + submitted.get()
+                + ", failed=" + failed.get() + ", maxQueueDepth=" + maxQueueDepth.get());
+        for (Map.Entry<String, NodeQueue> entry : nodeQueues.entrySet()) {
+            builder.append(", ").append(entry.getKey()).append("=").append(entry.getValue().getDepth());
+            if (aimd) {
+                builder.append(" (").append(entry.getValue().getLimitMetrics()).append(")");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * get queue of given node.
+     * @param name node name
+     * @return NodeQueue
+     */
+    private NodeQueue getNodeQueue(final String name) {
+        NodeQueue queue = nodeQueues.get(name);
+        if (queue == null) {
+            NodeQueue newQueue = new NodeQueue();
+            queue = nodeQueues.putIfAbsent(name, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Commands waiting for a node.
+     */
+    private final class NodeQueue {
+
+        /** waiting commands. */
+        private final Deque<FutureTask<String>> pending = new ArrayDeque<FutureTask<String>>();
+
+        /** limit of running requests. */
+        private final ConcurrencyLimit limit = aimd
+                ? new ConcurrencyLimit(aimdInitial, maxPerNode, true, aimdLatency, AIMD_DECREASE_FACTOR)
+                : new ConcurrencyLimit(maxPerNode);
+
+        /**
+         * add a command, and run it if the node has room.
+         * @param task command
+         */
+        private void add(final FutureTask<String> task) {
+            synchronized (this) {
+                pending.addLast(task);
+                int depth = pending.size();
+                while (true) {
+                    int max = maxQueueDepth.get();
+                    if (depth <= max || maxQueueDepth.compareAndSet(max, depth)) {
+                        break;
+                    }
+                }
+            }
+            dispatch();
+        }
+
+        /**
+         * called when a request has finished.
+         * @param startTime start time of the request(msec)
+         * @param failure failure of the request, or null
+         */
+        private void finish(final long startTime, final Throwable failure) {
+            synchronized (this) {
+                limit.release(startTime, System.currentTimeMillis(), failure);
+            }
+            dispatch();
+        }
+
+        /**
+         * run waiting commands while the node has room.
+         */
+        private void dispatch() {
+            while (true) {
+                FutureTask<String> task;
+                synchronized (this) {
+                    if (pending.isEmpty() || !limit.tryAcquire()) {
+                        return;
+                    }
+                    task = pending.pollFirst();
                 }
+                executor.execute(task);
             }
         }
+
+        /**
+         * get number of waiting commands.
+         * @return queue depth
+         */
+        private synchronized int getDepth() {
+            return pending.size();
+        }
+
+        /**
+         * get current limit.
+         * @return limit
+         */
+        private synchronized double getLimit() {
+            return limit.getLimit();
+        }
+
+        /**
+         * get metrics of the limit.
+         * @return metrics
+         */
+        private synchronized String getLimitMetrics() {
+            return limit.toString();
+        }
+    }
+
+    /**
+     * ThreadFactory which creates daemon threads.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        /** number of created threads. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "distcommand-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
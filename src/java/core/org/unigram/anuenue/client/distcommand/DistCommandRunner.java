@@ -15,17 +15,14 @@
  */
 package org.unigram.anuenue.client.distcommand;
 
-import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import org.unigram.anuenue.client.command.AbstractCommand;
 
 /**
  * runner implementation of command.
  */
-public final class DistCommandRunner extends Thread {
-
-    /** Manager of DistCommandRunner. */
-    private final DistCommandManager distCommandManager;
+public final class DistCommandRunner implements Callable<String> {
 
     /** Dist command. */
     private final AbstractCommand anuenueCommand;
@@ -33,25 +30,19 @@ public final class DistCommandRunner extends Thread {
     /**
      * Constructer.
      *
-     * @param manager DistCommandManager
      * @param command AnuenueCommand
      */
-    public DistCommandRunner(final DistCommandManager manager, final AbstractCommand command) {
-        distCommandManager = manager;
+    public DistCommandRunner(final AbstractCommand command) {
         anuenueCommand = command;
-        distCommandManager.increment();
     }
 
     /**
      * run given command.
+     * @return result of command
+     * @throws Exception in case of any error
      */
-    public void run() {
-        try {
-            anuenueCommand.runCommand();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            distCommandManager.decrement();
-        }
+    @Override
+    public String call() throws Exception {
+        return anuenueCommand.runCommand();
     }
 }
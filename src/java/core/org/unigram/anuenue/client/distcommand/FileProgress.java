@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Progress of an input file whose chunks are sent through the pipeline.
+ * The file is finished when it has been read and all of its chunks have been sent.
+ * With a checkpoint, the lines acknowledged without a gap from the start of the
+ * file are recorded as chunks are sent, which may be in a different order.
+ */
+final class FileProgress {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(FileProgress.class);
+
+    /** file name. */
+    private final String fileName;
+
+    /** number of input files, or 0 if unknown. */
+    private final int numberOfFiles;
+
+    /** number of finished files, shared by the files of a command. */
+    private final AtomicInteger finishedFiles;
+
+    /** number of submitted chunks which have not been sent. */
+    private final AtomicInteger pendingChunks = new AtomicInteger();
+
+    /** number of sent documents. */
+    private final AtomicLong documents = new AtomicLong();
+
+    /** the file has been read. */
+    private volatile boolean read;
+
+    /** the file has finished. */
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    /** start time(msec). */
+    private final long startTime;
+
+    /** checkpoint, or null. */
+    private Checkpoint checkpoint;
+
+    /** number of lines acknowledged without a gap. */
+    private long acknowledgedLines;
+
+    /** byte offset after the acknowledged lines, or -1 if unknown. */
+    private long acknowledgedOffset = -1;
+
+    /** map (first line -> chunk) of sent chunks after a gap. */
+    private final Map<Long, Chunk> sentAfterGap = new HashMap<Long, Chunk>();
+
+    /**
+     * Constructor.
+     * @param name file name
+     * @param files number of input files, or 0 if unknown
+     * @param finishedCounter number of finished files, shared by the files of a command
+     */
+    FileProgress(final String name, final int files, final AtomicInteger finishedCounter) {
+        fileName = name;
+        numberOfFiles = files;
+        finishedFiles = finishedCounter;
+        read = false;
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * record acknowledged lines in a checkpoint.
+     * @param fileCheckpoint checkpoint
+     * @param lines number of lines acknowledged by a previous run
+     * @param offset byte offset after the lines, or -1 if unknown
+     */
+    synchronized void setCheckpoint(final Checkpoint fileCheckpoint, final long lines, final long offset) {
+        checkpoint = fileCheckpoint;
+        acknowledgedLines = lines;
+        acknowledgedOffset = offset;
+    }
+
+    /**
+     * called before a chunk of the file is submitted.
+     */
+    void chunkSubmitted() {
+        pendingChunks.incrementAndGet();
+    }
+
+    /**
+     * called when a chunk of the file has been sent.
+     * @param chunk chunk
+     */
+    void chunkSent(final Chunk chunk) {
+        documents.addAndGet(chunk.getNumberOfDocuments());
+        acknowledge(chunk);
+        pendingChunks.decrementAndGet();
+        checkFinished();
+    }
+
+    /**
+     * advance the acknowledged lines and update the checkpoint.
+     * @param chunk sent chunk
+     */
+    private synchronized void acknowledge(final Chunk chunk) {
+        if (checkpoint == null || chunk.getFirstLine() < 0) {
+            return;
+        }
+        sentAfterGap.put(chunk.getFirstLine(), chunk);
+        long previous = acknowledgedLines;
+        while (true) {
+            Chunk next = sentAfterGap.remove(acknowledgedLines);
+            if (next == null) {
+                break;
+            }
+            acknowledgedLines += next.getNumberOfDocuments();
+            acknowledgedOffset = next.getEndOffset();
+        }
+        if (acknowledgedLines != previous) {
+            checkpoint.update(fileName, acknowledgedLines, acknowledgedOffset, false);
+        }
+    }
+
+    /**
+     * called when the whole file has been read.
+     */
+    void readFinished() {
+        read = true;
+        checkFinished();
+    }
+
+    /**
+     * get file name.
+     * @return file name
+     */
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * log the progress once when the file has finished.
+     */
+    private void checkFinished() {
+        if (read && pendingChunks.get() == 0 && finished.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (checkpoint != null) {
+                    checkpoint.update(fileName, acknowledgedLines, acknowledgedOffset, true);
+                }
+            }
+            int finishedCount = finishedFiles.incrementAndGet();
+            LOG.info("finished " + fileName + " (" + finishedCount + (numberOfFiles > 0 ? "/" + numberOfFiles : "")
+                    + " files): " + documents.get() + " documents in "
+                    + (System.currentTimeMillis() - startTime) + " msec");
+        }
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * Store of a 64 bit fingerprint of the row of each document id, which is used
+ * to send only the rows which have changed since the previous snapshot.
+ * The fingerprints are kept in a memory-mapped open-addressing table keyed by
+ * the 64 bit hash of the id (linear probing, 32 bytes per slot). The ids are
+ * appended to a separate file, which is read only for the ids which have
+ * disappeared.
+ * Each run builds the table of the next generation from the rows it reads,
+ * while the table of the previous generation is only read. commit() renames
+ * the next table over the previous one, so that a failed run leaves the
+ * previous snapshot as it was and its rows are sent again by the next run.
+ */
+final class FingerprintStore implements Closeable {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(FingerprintStore.class);
+
+    /** the id is not in the previous snapshot. */
+    static final int NEW = 0;
+
+    /** the row of the id has changed since the previous snapshot. */
+    static final int CHANGED = 1;
+
+    /** the row of the id has not changed. */
+    static final int UNCHANGED = 2;
+
+    /** UTF-8. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** seed of the hash of ids. */
+    private static final long ID_SEED = 0xcbf29ce484222325L;
+
+    /** seed of the fingerprint of rows, different from the seed of ids. */
+    private static final long ROW_SEED = 0x84222325cbf29ce4L;
+
+    /** previous table, or null for the first snapshot. */
+    private final Table previous;
+
+    /** ids file of the previous table, or null. */
+    private final RandomAccessFile previousIds;
+
+    /** next table. */
+    private Table next;
+
+    /** ids file of the next table. */
+    private final FileOutputStream nextIdsStream;
+
+    /** buffered stream of the ids file of the next table. */
+    private final OutputStream nextIds;
+
+    /** size of the ids file of the next table. */
+    private long nextIdsLength;
+
+    /** table file. */
+    private final File tableFile;
+
+    /** table file of the next generation. */
+    private final File nextTableFile;
+
+    /** ids file of the previous generation, or null. */
+    private final File previousIdsFile;
+
+    /** ids file of the next generation. */
+    private final File nextIdsFile;
+
+    /** commit() has been called. */
+    private boolean committed;
+
+    /**
+     * Constructor. opens the previous snapshot, and starts the next.
+     * @param base base name of the files of the store
+     * @throws IOException in case of IO error, or if the table is broken
+     */
+    FingerprintStore(final File base) throws IOException {
+        tableFile = new File(base.getPath() + ".table");
+        nextTableFile = new File(base.getPath() + ".table.next");
+        File parent = tableFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create " + parent);
+        }
+        long generation = 0;
+        long capacity = Table.MIN_CAPACITY;
+        if (tableFile.exists()) {
+            previous = Table.open(tableFile);
+            generation = previous.generation;
+            previousIdsFile = idsFile(base, generation);
+            previousIds = new RandomAccessFile(previousIdsFile, "r");
+            capacity = Table.capacityFor(previous.size);
+            LOG.info("previous snapshot: " + previous.size + " ids in " + tableFile);
+        } else {
+            previous = null;
+            previousIdsFile = null;
+            previousIds = null;
+            LOG.info(tableFile + " does not exist. every row is sent");
+        }
+        nextIdsFile = idsFile(base, generation + 1);
+        // left by a run which has failed
+        FileUtils.deleteQuietly(nextTableFile);
+        next = Table.create(nextTableFile, capacity, generation + 1);
+        nextIdsStream = new FileOutputStream(nextIdsFile);
+        nextIds = new BufferedOutputStream(nextIdsStream);
+    }
+
+    /**
+     * get the ids file of a generation.
+     * @param base base name of the files of the store
+     * @param generation generation
+     * @return ids file
+     */
+    private static File idsFile(final File base, final long generation) {
+        return new File(base.getPath() + ".ids." + generation);
+    }
+
+    /**
+     * compute the fingerprint of a row. the header is included, so that
+     * every row changes when the fields change.
+     * @param header header of the file
+     * @param line row
+     * @return fingerprint
+     */
+    static long fingerprint(final String header, final String line) {
+        return hash(line, hash(header, ROW_SEED));
+    }
+
+    /**
+     * compare a row with the previous snapshot.
+     * @param id id
+     * @param fingerprint fingerprint of the row
+     * @return NEW, CHANGED or UNCHANGED
+     */
+    int compare(final String id, final long fingerprint) {
+        if (previous == null) {
+            return NEW;
+        }
+        long slot = previous.find(idHash(id));
+        if (slot < 0) {
+            return NEW;
+        }
+        return previous.getFingerprint(slot) == fingerprint ? UNCHANGED : CHANGED;
+    }
+
+    /**
+     * record the fingerprint of a row in the next snapshot.
+     * @param id id
+     * @param fingerprint fingerprint of the row
+     * @throws IOException in case of IO error
+     */
+    void record(final String id, final long fingerprint) throws IOException {
+        long hash = idHash(id);
+        long slot = next.find(hash);
+        if (slot >= 0) {
+            // the last row of a duplicated id wins
+            next.setFingerprint(slot, fingerprint);
+            return;
+        }
+        if (next.size + 1 > next.capacity * Table.LOAD_FACTOR_PERCENT / 100) {
+            grow();
+        }
+        byte[] bytes = id.getBytes(UTF8);
+        next.insert(hash, fingerprint, nextIdsLength, bytes.length);
+        nextIds.write(bytes);
+        nextIdsLength += bytes.length;
+    }
+
+    /**
+     * double the capacity of the next table.
+     * @throws IOException in case of IO error
+     */
+    private void grow() throws IOException {
+        File grown = new File(nextTableFile.getPath() + ".grow");
+        Table larger = Table.create(grown, next.capacity * 2, next.generation);
+        for (long slot = 0; slot < next.capacity; ++slot) {
+            long hash = next.getIdHash(slot);
+            if (hash != 0) {
+                larger.insert(hash, next.getFingerprint(slot), next.getIdOffset(slot), next.getIdLength(slot));
+            }
+        }
+        if (!grown.renameTo(nextTableFile)) {
+            throw new IOException("cannot rename " + grown + " to " + nextTableFile);
+        }
+        next = larger;
+    }
+
+    /**
+     * Visitor of ids.
+     */
+    interface IdVisitor {
+
+        /**
+         * visit an id.
+         * @param id id
+         * @throws AnuenueException in case of any error
+         */
+        void visit(String id) throws AnuenueException;
+    }
+
+    /**
+     * visit the ids which are in the previous snapshot but not in the next.
+     * @param visitor visitor
+     * @return number of the ids
+     * @throws IOException in case of IO error
+     * @throws AnuenueException if the visitor has failed
+     */
+    long visitRemoved(final IdVisitor visitor) throws IOException, AnuenueException {
+        if (previous == null) {
+            return 0;
+        }
+        long removed = 0;
+        for (long slot = 0; slot < previous.capacity; ++slot) {
+            long hash = previous.getIdHash(slot);
+            if (hash == 0 || next.find(hash) >= 0) {
+                continue;
+            }
+            byte[] bytes = new byte[previous.getIdLength(slot)];
+            previousIds.seek(previous.getIdOffset(slot));
+            previousIds.readFully(bytes);
+            visitor.visit(new String(bytes, UTF8));
+            ++removed;
+        }
+        return removed;
+    }
+
+    /**
+     * make the next snapshot the previous one of the next run.
+     * @throws IOException in case of IO error
+     */
+    void commit() throws IOException {
+        nextIds.flush();
+        nextIdsStream.getFD().sync();
+        nextIds.close();
+        next.force();
+        if (!nextTableFile.renameTo(tableFile)) {
+            // rename does not replace an existing file on some platforms
+            FileUtils.deleteQuietly(tableFile);
+            FileUtils.moveFile(nextTableFile, tableFile);
+        }
+        committed = true;
+        LOG.info("committed snapshot: " + next.size + " ids in " + tableFile);
+    }
+
+    /**
+     * close the store. the next snapshot is discarded unless it has been committed.
+     */
+    @Override
+    public void close() {
+        try {
+            nextIds.close();
+        } catch (IOException e) {
+            LOG.warn("failed to close " + nextIdsFile + ": " + e.toString());
+        }
+        if (previousIds != null) {
+            try {
+                previousIds.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close " + previousIdsFile + ": " + e.toString());
+            }
+        }
+        if (committed) {
+            FileUtils.deleteQuietly(previousIdsFile);
+        } else {
+            FileUtils.deleteQuietly(nextTableFile);
+            FileUtils.deleteQuietly(nextIdsFile);
+        }
+    }
+
+    /**
+     * compute the hash of an id. 0 is reserved for empty slots.
+     * @param id id
+     * @return hash
+     */
+    private static long idHash(final String id) {
+        long hash = hash(id, ID_SEED);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * compute a 64 bit hash of the characters (FNV-1a with a final mix).
+     * @param string string
+     * @param seed seed
+     * @return hash
+     */
+    static long hash(final CharSequence string, final long seed) {
+        long hash = seed;
+        for (int i = 0; i < string.length(); ++i) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Memory-mapped open-addressing table.
+     * The file has a header (magic, generation, capacity, size) and slots of
+     * (id hash, fingerprint, offset of the id, length of the id).
+     * The file is mapped by segments, so that it can exceed 2GB.
+     */
+    private static final class Table {
+
+        /** magic number of the table file. */
+        private static final long MAGIC = 0x414e55464e475031L;
+
+        /** size of the header. */
+        private static final int HEADER_BYTES = 32;
+
+        /** size of a slot. */
+        private static final int SLOT_BYTES = 32;
+
+        /** number of slots of a mapped segment (1GB). */
+        private static final int SLOTS_PER_SEGMENT = 1 << 25;
+
+        /** minimum capacity. */
+        private static final long MIN_CAPACITY = 1 << 16;
+
+        /** maximum load factor(%). */
+        private static final long LOAD_FACTOR_PERCENT = 60;
+
+        /** generation. */
+        private final long generation;
+
+        /** number of slots, a power of 2. */
+        private final long capacity;
+
+        /** number of used slots. */
+        private long size;
+
+        /** header. */
+        private final MappedByteBuffer header;
+
+        /** mapped segments of slots. */
+        private final MappedByteBuffer[] segments;
+
+        /**
+         * Constructor.
+         * @param channel channel of the file
+         * @param mode map mode
+         * @param tableGeneration generation
+         * @param slots number of slots
+         * @param usedSlots number of used slots
+         * @throws IOException in case of IO error
+         */
+        private Table(final FileChannel channel, final FileChannel.MapMode mode, final long tableGeneration,
+                final long slots, final long usedSlots) throws IOException {
+            generation = tableGeneration;
+            capacity = slots;
+            size = usedSlots;
+            header = channel.map(mode, 0, HEADER_BYTES);
+            int numberOfSegments = (int) ((capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT);
+            segments = new MappedByteBuffer[numberOfSegments];
+            for (int i = 0; i < numberOfSegments; ++i) {
+                long first = (long) i * SLOTS_PER_SEGMENT;
+                long slotsOfSegment = Math.min(SLOTS_PER_SEGMENT, capacity - first);
+                segments[i] = channel.map(mode, HEADER_BYTES + first * SLOT_BYTES, slotsOfSegment * SLOT_BYTES);
+            }
+        }
+
+        /**
+         * open a table to read.
+         * @param file table file
+         * @return table
+         * @throws IOException in case of IO error, or if the file is not a table
+         */
+        static Table open(final File file) throws IOException {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                FileChannel channel = randomAccessFile.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    continue;
+                }
+                buffer.flip();
+                if (buffer.remaining() < HEADER_BYTES || buffer.getLong() != MAGIC) {
+                    throw new IOException(file + " is not a fingerprint table");
+                }
+                long generation = buffer.getLong();
+                long capacity = buffer.getLong();
+                long size = buffer.getLong();
+                if (Long.bitCount(capacity) != 1 || channel.size() != HEADER_BYTES + capacity * SLOT_BYTES) {
+                    throw new IOException(file + " is broken");
+                }
+                return new Table(channel, FileChannel.MapMode.READ_ONLY, generation, capacity, size);
+            }
+        }
+
+        /**
+         * create an empty table.
+         * @param file table file
+         * @param capacity number of slots, a power of 2
+         * @param generation generation
+         * @return table
+         * @throws IOException in case of IO error
+         */
+        static Table create(final File file, final long capacity, final long generation) throws IOException {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(HEADER_BYTES + capacity * SLOT_BYTES);
+                Table table = new Table(randomAccessFile.getChannel(), FileChannel.MapMode.READ_WRITE, generation,
+                        capacity, 0);
+                table.header.putLong(0, MAGIC);
+                table.header.putLong(8, generation);
+                table.header.putLong(16, capacity);
+                table.header.putLong(24, 0);
+                return table;
+            }
+        }
+
+        /**
+         * get the capacity for a number of ids, with room for 25% more ids.
+         * @param ids number of ids
+         * @return capacity, a power of 2
+         */
+        static long capacityFor(final long ids) {
+            long capacity = MIN_CAPACITY;
+            while (ids * 125 > capacity * LOAD_FACTOR_PERCENT) {
+                capacity *= 2;
+            }
+            return capacity;
+        }
+
+        /**
+         * find the slot of an id hash.
+         * @param hash id hash
+         * @return slot, or -1 if not found
+         */
+        long find(final long hash) {
+            long mask = capacity - 1;
+            for (long slot = hash & mask;; slot = (slot + 1) & mask) {
+                long current = getIdHash(slot);
+                if (current == hash) {
+                    return slot;
+                }
+                if (current == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * insert an id hash which is not in the table.
+         * @param hash id hash
+         * @param fingerprint fingerprint
+         * @param idOffset offset of the id in the ids file
+         * @param idLength length of the id
+         */
+        void insert(final long hash, final long fingerprint, final long idOffset, final int idLength) {
+            long mask = capacity - 1;
+            long slot = hash & mask;
+            while (getIdHash(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            ByteBuffer segment = segment(slot);
+            int position = position(slot);
+            segment.putLong(position, hash);
+            segment.putLong(position + 8, fingerprint);
+            segment.putLong(position + 16, idOffset);
+            segment.putInt(position + 24, idLength);
+            header.putLong(24, ++size);
+        }
+
+        /**
+         * get the id hash of a slot.
+         * @param slot slot
+         * @return id hash, or 0 if the slot is empty
+         */
+        long getIdHash(final long slot) {
+            return segment(slot).getLong(position(slot));
+        }
+
+        /**
+         * get the fingerprint of a slot.
+         * @param slot slot
+         * @return fingerprint
+         */
+        long getFingerprint(final long slot) {
+            return segment(slot).getLong(position(slot) + 8);
+        }
+
+        /**
+         * set the fingerprint of a slot.
+         * @param slot slot
+         * @param fingerprint fingerprint
+         */
+        void setFingerprint(final long slot, final long fingerprint) {
+            segment(slot).putLong(position(slot) + 8, fingerprint);
+        }
+
+        /**
+         * get the offset of the id of a slot.
+         * @param slot slot
+         * @return offset in the ids file
+         */
+        long getIdOffset(final long slot) {
+            return segment(slot).getLong(position(slot) + 16);
+        }
+
+        /**
+         * get the length of the id of a slot.
+         * @param slot slot
+         * @return length in bytes
+         */
+        int getIdLength(final long slot) {
+            return segment(slot).getInt(position(slot) + 24);
+        }
+
+        /**
+         * write the table to the disk.
+         */
+        void force() {
+            header.force();
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        /**
+         * get the segment of a slot.
+         * @param slot slot
+         * @return segment
+         */
+        private ByteBuffer segment(final long slot) {
+            return segments[(int) (slot / SLOTS_PER_SEGMENT)];
+        }
+
+        /**
+         * get the position of a slot in its segment.
+         * @param slot slot
+         * @return position
+         */
+        private static int position(final long slot) {
+            return (int) (slot % SLOTS_PER_SEGMENT) * SLOT_BYTES;
+        }
+    }
+}
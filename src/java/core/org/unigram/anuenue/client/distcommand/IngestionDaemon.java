@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.servlet.DispatcherType;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.ConsistentHashRing;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.NodeDatabase;
+import org.unigram.anuenue.server.ContentEncodingFilter;
+
+/**
+ * Resident ingestion service.
+ * Documents posted to /ingest are micro-batched and posted to the masters,
+ * routed in the same way as post (anuenue.routing.mode).
+ * A request is answered after the masters have accepted all of its documents,
+ * so that a client can retry the request when it fails. Documents rejected by
+ * Solr fail the request instead of being isolated into the dead letter file.
+ */
+public final class IngestionDaemon {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(IngestionDaemon.class);
+
+    /** path of the intake servlet. */
+    public static final String INTAKE_PATH = "/ingest";
+
+    /** property: port of the daemon. */
+    private static final String PROPERTY_PORT = "anuenue.ingest.port";
+
+    /** default: port of the daemon. */
+    private static final String DEFAULT_PORT = "8990";
+
+    /** property: maximum number of documents of a batch. */
+    private static final String PROPERTY_BATCH_DOCUMENTS = "anuenue.ingest.batch.documents";
+
+    /** default: maximum number of documents of a batch. */
+    private static final String DEFAULT_BATCH_DOCUMENTS = "1000";
+
+    /** property: maximum size of a batch(bytes). */
+    private static final String PROPERTY_BATCH_BYTES = "anuenue.ingest.batch.bytes";
+
+    /** default: maximum size of a batch(bytes). */
+    private static final String DEFAULT_BATCH_BYTES = "1048576";
+
+    /** property: maximum delay of a document before its batch is sent(msec). */
+    private static final String PROPERTY_BATCH_DELAY = "anuenue.ingest.batch.delay";
+
+    /** default: maximum delay of a document(msec). */
+    private static final String DEFAULT_BATCH_DELAY = "200";
+
+    /** property: number of senders per master. */
+    private static final String PROPERTY_SENDERS = "anuenue.ingest.senders";
+
+    /** default: number of senders per master. */
+    private static final String DEFAULT_SENDERS = "4";
+
+    /** property: timeout of a request waiting for the masters(msec). */
+    private static final String PROPERTY_ACK_TIMEOUT = "anuenue.ingest.ack.timeout";
+
+    /** default: timeout of a request(msec). */
+    private static final String DEFAULT_ACK_TIMEOUT = "60000";
+
+    /** HTTP server. */
+    private final Server server;
+
+    /** batcher. */
+    private final MicroBatcher batcher;
+
+    /**
+     * Constructor.
+     * @param database database of node
+     * @throws AnuenueException if there is no master, or in case of invalid routing mode
+     */
+    public IngestionDaemon(final NodeDatabase database) throws AnuenueException {
+        List<Node> masters = database.getMasterList();
+        if (masters.isEmpty()) {
+            throw new AnuenueException("no master is configured");
+        }
+        String routingMode = System.getProperty(AbstractDistCommand.PROPERTY_ROUTING_MODE,
+                AbstractDistCommand.DEFAULT_ROUTING_MODE);
+        ConsistentHashRing ring = null;
+        if (AbstractDistCommand.ROUTING_HASH.equals(routingMode)) {
+            ring = new ConsistentHashRing(masters, Integer.parseInt(System.getProperty(
+                    AbstractDistCommand.PROPERTY_ROUTING_VIRTUAL_NODES,
+                    AbstractDistCommand.DEFAULT_ROUTING_VIRTUAL_NODES)));
+        } else if (!AbstractDistCommand.ROUTING_ROUNDROBIN.equals(routingMode)) {
+            throw new AnuenueException("unknown routing mode: " + routingMode);
+        }
+
+        batcher = new MicroBatcher(new MicroBatcher.Sender() {
+            @Override
+            public void send(final Node node, final Chunk chunk) throws IOException {
+                new SolrClient(node.getHostName(), node.getPortNumber()).updateTSVDataStatus(chunk.getData());
+            }
+        }, masters, ring,
+                Integer.parseInt(System.getProperty(PROPERTY_BATCH_DOCUMENTS, DEFAULT_BATCH_DOCUMENTS)),
+                Long.parseLong(System.getProperty(PROPERTY_BATCH_BYTES, DEFAULT_BATCH_BYTES)),
+                Long.parseLong(System.getProperty(PROPERTY_BATCH_DELAY, DEFAULT_BATCH_DELAY)),
+                Integer.parseInt(System.getProperty(PROPERTY_SENDERS, DEFAULT_SENDERS)) * masters.size());
+
+        server = new Server(Integer.parseInt(System.getProperty(PROPERTY_PORT, DEFAULT_PORT)));
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        context.addFilter(new FilterHolder(new ContentEncodingFilter()), INTAKE_PATH,
+                EnumSet.of(DispatcherType.REQUEST));
+        context.addServlet(new ServletHolder(new IntakeServlet(batcher,
+                Long.parseLong(System.getProperty(PROPERTY_ACK_TIMEOUT, DEFAULT_ACK_TIMEOUT)),
+                System.getProperty(AnuenueCommandConstants.PROPERTY_UNIQUE_KEY,
+                        AnuenueCommandConstants.DEFAULT_UNIQUE_KEY))), INTAKE_PATH);
+        server.setHandler(context);
+    }
+
+    /**
+     * start the HTTP server.
+     * @throws AnuenueException if the server cannot start
+     */
+    public void start() throws AnuenueException {
+        try {
+            server.start();
+        } catch (Exception e) {
+            batcher.close();
+            throw new AnuenueException("failed to start the ingestion daemon", e);
+        }
+        LOG.info("ingestion daemon started on port " + System.getProperty(PROPERTY_PORT, DEFAULT_PORT));
+    }
+
+    /**
+     * wait until the HTTP server stops.
+     * @throws InterruptedException if interrupted
+     */
+    public void join() throws InterruptedException {
+        server.join();
+    }
+
+    /**
+     * stop accepting requests, and send the documents which have been accepted.
+     */
+    public void stop() {
+        try {
+            server.stop();
+        } catch (Exception e) {
+            LOG.warn("failed to stop the HTTP server: " + e.toString());
+        }
+        batcher.close();
+        LOG.info("ingestion daemon stopped: " + batcher.getStatistics());
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.client.command.AbstractCommand;
+import org.unigram.anuenue.client.command.AddDataCommand;
+import org.unigram.anuenue.client.command.AnuenueCommandFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Pipeline which sends chunks to nodes continuously.
+ * The reader puts chunks into bounded per-node queues, and each chunk is sent by a task
+ * on the executor of the DistCommandManager, so a slow node does not stall the others.
+ * The number of chunks of a node submitted to the manager at the same time is bounded
+ * by the number of workers, and the manager limits the requests running on the node.
+ */
+final class IngestionPipeline {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(IngestionPipeline.class);
+
+    /** number of retries of a chunk rejected by overload. */
+    private static final int MAX_OVERLOAD_RETRIES = 3;
+
+    /** command which sends a chunk. */
+    private final String command;
+
+    /** workers of each node. */
+    private final List<NodeWorkers> nodeWorkers;
+
+    /** map (node name -> workers). */
+    private final Map<String, NodeWorkers> workersByName;
+
+    /** first failure of workers. */
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    /** index of the node where the search of the least loaded node starts. */
+    private final AtomicInteger nextNode = new AtomicInteger();
+
+    /** manager which runs the requests. */
+    private final DistCommandManager manager;
+
+    /** adaptive chunk size, or null if the size is fixed. */
+    private volatile AdaptiveChunkSize adaptiveChunkSize;
+
+    /** spool of chunks which could not be sent, or null to fail the command. */
+    private volatile ChunkSpool spool;
+
+    /** sizes of sent chunks. */
+    private final ChunkSizeHistogram chunkSizes = new ChunkSizeHistogram();
+
+    /** start time(msec). */
+    private final long startTime;
+
+    /**
+     * Constructor. chunks are sent by the shared manager.
+     * @param nodes target nodes
+     * @param commandName command which sends a chunk (addData or deleteById)
+     * @param workersPerNode number of chunks of each node sent at the same time
+     * @param queueCapacity capacity of the queue of each node
+     */
+    IngestionPipeline(final List<Node> nodes, final String commandName,
+            final int workersPerNode, final int queueCapacity) {
+        this(nodes, commandName, workersPerNode, queueCapacity, DistCommandManager.getInstance());
+    }
+
+    /**
+     * Constructor.
+     * @param nodes target nodes
+     * @param commandName command which sends a chunk (addData or deleteById)
+     * @param workersPerNode number of chunks of each node sent at the same time
+     * @param queueCapacity capacity of the queue of each node
+     * @param commandManager manager which runs the requests
+     */
+    IngestionPipeline(final List<Node> nodes, final String commandName,
+            final int workersPerNode, final int queueCapacity, final DistCommandManager commandManager) {
+        command = commandName;
+        manager = commandManager;
+        nodeWorkers = new ArrayList<NodeWorkers>(nodes.size());
+        workersByName = new HashMap<String, NodeWorkers>();
+        for (Node node : nodes) {
+            NodeWorkers workers = new NodeWorkers(node, workersPerNode, queueCapacity);
+            nodeWorkers.add(workers);
+            workersByName.put(node.getName(), workers);
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * adjust the number of lines of chunks by the latency of each node.
+     * @param chunkSize adaptive chunk size
+     */
+    void setAdaptiveChunkSize(final AdaptiveChunkSize chunkSize) {
+        adaptiveChunkSize = chunkSize;
+    }
+
+    /**
+     * spool chunks which could not be sent instead of failing the command.
+     * @param chunkSpool spool
+     */
+    void setSpool(final ChunkSpool chunkSpool) {
+        spool = chunkSpool;
+    }
+
+    /**
+     * get number of lines of the next chunk for a node.
+     * @param node node
+     * @param defaultLines number of lines when the size is fixed
+     * @return number of lines
+     */
+    int getMaxLines(final Node node, final int defaultLines) {
+        AdaptiveChunkSize chunkSize = adaptiveChunkSize;
+        return chunkSize == null ? defaultLines : chunkSize.getLines(node);
+    }
+
+    /**
+     * submit a chunk to the least loaded node. blocks while all queues are full.
+     * chunks can be submitted from multiple threads.
+     * @param chunk chunk
+     * @throws AnuenueException if a worker has failed
+     */
+    void submit(final Chunk chunk) throws AnuenueException {
+        checkFailure();
+        selectWorkers().put(chunk);
+    }
+
+    /**
+     * select the least loaded node.
+     * the chunk for the node is built after the selection, so that its size can depend on the node.
+     * @return node
+     */
+    Node selectNode() {
+        return selectWorkers().node;
+    }
+
+    /**
+     * select workers of the least loaded node.
+     * @return NodeWorkers
+     */
+    private NodeWorkers selectWorkers() {
+        NodeWorkers target = null;
+        int size = nodeWorkers.size();
+        int start = (nextNode.getAndIncrement() & Integer.MAX_VALUE) % size;
+        for (int i = 0; i < size; ++i) {
+            NodeWorkers candidate = nodeWorkers.get((start + i) % size);
+            if (target == null || candidate.getLoad() < target.getLoad()) {
+                target = candidate;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * submit a chunk to given node. blocks while the queue of the node is full.
+     * @param node target node
+     * @param chunk chunk
+     * @throws AnuenueException if a worker has failed or the node is not a target
+     */
+    void submitTo(final Node node, final Chunk chunk) throws AnuenueException {
+        checkFailure();
+        NodeWorkers workers = workersByName.get(node.getName());
+        if (workers == null) {
+            throw new AnuenueException(node.getName() + " is not a target of " + command);
+        }
+        workers.put(chunk);
+    }
+
+    /**
+     * submit a chunk to all nodes. blocks while a queue is full.
+     * @param chunk chunk
+     * @throws AnuenueException if a worker has failed
+     */
+    void submitToAll(final Chunk chunk) throws AnuenueException {
+        checkFailure();
+        for (NodeWorkers workers : nodeWorkers) {
+            workers.put(chunk);
+        }
+    }
+
+    /**
+     * wait until all chunks are sent.
+     * @throws AnuenueException if a worker has failed
+     */
+    void finish() throws AnuenueException {
+        for (NodeWorkers workers : nodeWorkers) {
+            workers.join();
+        }
+        logStatistics();
+        checkFailure();
+    }
+
+    /**
+     * throw the first failure of workers.
+     * @throws AnuenueException if a worker has failed
+     */
+    void checkFailure() throws AnuenueException {
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            throw new AnuenueException(command + " failed", throwable);
+        }
+    }
+
+    /**
+     * log throughput of the pipeline.
+     */
+    private void logStatistics() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        long total = 0;
+        for (NodeWorkers workers : nodeWorkers) {
+            long documents = workers.processedDocuments.get();
+            total += documents;
+            LOG.info(workers.node.getName() + ": " + documents + " documents in "
+                    + workers.processedChunks.get() + " chunks, busy " + workers.busyTime.get() + " msec");
+        }
+        LOG.info(command + ": " + total + " documents in " + elapsed + " msec ("
+                + (total * 1000 / elapsed) + " docs/sec)");
+        LOG.info(command + " chunk sizes: " + chunkSizes);
+        if (adaptiveChunkSize != null) {
+            LOG.info(command + " adaptive chunk lines: " + adaptiveChunkSize);
+        }
+    }
+
+    /**
+     * Queue and senders of a node.
+     */
+    private final class NodeWorkers {
+
+        /** target node. */
+        private final Node node;
+
+        /** chunks waiting for a sender. */
+        private final BlockingQueue<Chunk> queue;
+
+        /** maximum number of chunks submitted to the manager at the same time. */
+        private final int maxSenders;
+
+        /** number of chunks submitted to the manager and not finished. */
+        private int senders;
+
+        /** number of chunks being sent. */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /** number of processed documents. */
+        private final AtomicLong processedDocuments = new AtomicLong();
+
+        /** number of processed chunks. */
+        private final AtomicLong processedChunks = new AtomicLong();
+
+        /** total time of requests(msec). */
+        private final AtomicLong busyTime = new AtomicLong();
+
+        /**
+         * Constructor.
+         * @param target target node
+         * @param numberOfWorkers number of chunks sent at the same time
+         * @param queueCapacity capacity of the queue
+         */
+        private NodeWorkers(final Node target, final int numberOfWorkers, final int queueCapacity) {
+            node = target;
+            queue = new ArrayBlockingQueue<Chunk>(queueCapacity);
+            maxSenders = numberOfWorkers;
+            senders = 0;
+        }
+
+        /**
+         * get load of the node.
+         * @return number of queued and submitted chunks
+         */
+        private int getLoad() {
+            synchronized (this) {
+                return queue.size() + senders;
+            }
+        }
+
+        /**
+         * put a chunk, and submit it if the node has room.
+         * @param chunk chunk
+         * @throws AnuenueException if interrupted
+         */
+        private void put(final Chunk chunk) throws AnuenueException {
+            try {
+                queue.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnuenueException("interrupted while submitting a chunk", e);
+            }
+            dispatch();
+        }
+
+        /**
+         * submit queued chunks to the manager while the node has room.
+         */
+        private void dispatch() {
+            while (true) {
+                Chunk chunk;
+                synchronized (this) {
+                    if (senders >= maxSenders) {
+                        return;
+                    }
+                    chunk = queue.poll();
+                    if (chunk == null) {
+                        return;
+                    }
+                    ++senders;
+                }
+                manager.submit(node, new Sender(chunk, 0));
+            }
+        }
+
+        /**
+         * called when a submitted chunk has finished.
+         */
+        private void finished() {
+            synchronized (this) {
+                --senders;
+                notifyAll();
+            }
+            dispatch();
+        }
+
+        /**
+         * wait until the queued chunks are sent.
+         * @throws AnuenueException if interrupted
+         */
+        private synchronized void join() throws AnuenueException {
+            try {
+                while (senders > 0 || !queue.isEmpty()) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnuenueException("interrupted while waiting workers", e);
+            }
+        }
+
+        /**
+         * Task which sends a chunk on the executor of the manager.
+         */
+        private final class Sender implements Callable<String> {
+
+            /** chunk. */
+            private final Chunk chunk;
+
+            /** number of previous attempts rejected by overload. */
+            private final int attempt;
+
+            /**
+             * Constructor.
+             * @param target chunk
+             * @param previousAttempts number of previous attempts
+             */
+            private Sender(final Chunk target, final int previousAttempts) {
+                chunk = target;
+                attempt = previousAttempts;
+            }
+
+            /**
+             * send the chunk. a failure is thrown to the manager, which adjusts the limit of the node.
+             * with adaptive concurrency, a chunk rejected by overload is submitted again, and waits
+             * until the limit has decreased.
+             * @return empty string
+             * @throws Exception in case of any error
+             */
+            @Override
+            public String call() throws Exception {
+                boolean retried = false;
+                try {
+                    if (failure.get() != null) {
+                        // the command fails; discard the rest
+                        return "";
+                    }
+                    inFlight.incrementAndGet();
+                    long start = System.currentTimeMillis();
+                    try {
+                        long postTime = runCommand(chunk);
+                        processedDocuments.addAndGet(chunk.getNumberOfDocuments());
+                        processedChunks.incrementAndGet();
+                        chunkSizes.record(chunk.getSize());
+                        AdaptiveChunkSize chunkSize = adaptiveChunkSize;
+                        if (chunkSize != null && postTime >= 0) {
+                            chunkSize.record(node, chunk.getNumberOfDocuments(), postTime);
+                        }
+                        if (chunk.getProgress() != null) {
+                            chunk.getProgress().chunkSent(chunk);
+                        }
+                        return "";
+                    } catch (IOException | AnuenueException e) {
+                        if (manager.isAdaptiveConcurrency() && attempt < MAX_OVERLOAD_RETRIES
+                                && ConcurrencyLimit.isOverload(e)) {
+                            LOG.warn(node.getName() + " is overloaded, retrying a chunk: " + e.toString());
+                            retried = true;
+                            manager.submit(node, new Sender(chunk, attempt + 1));
+                            throw e;
+                        }
+                        LOG.error(command + " failed on " + node.getName() + ": " + e.toString());
+                        spoolOrFail(chunk, e);
+                        throw e;
+                    } catch (RuntimeException e) {
+                        LOG.error(command + " failed on " + node.getName() + ": " + e.toString());
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        busyTime.addAndGet(System.currentTimeMillis() - start);
+                        inFlight.decrementAndGet();
+                    }
+                } finally {
+                    if (!retried) {
+                        finished();
+                    }
+                }
+            }
+        }
+
+        /**
+         * spool a chunk which could not be sent, or fail the command if there is no spool.
+         * @param chunk chunk
+         * @param error error of the chunk
+         */
+        private void spoolOrFail(final Chunk chunk, final Exception error) {
+            ChunkSpool chunkSpool = spool;
+            if (chunkSpool == null) {
+                failure.compareAndSet(null, error);
+                return;
+            }
+            try {
+                chunkSpool.append(node, command, chunk);
+            } catch (IOException e) {
+                LOG.error("failed to spool a chunk of " + node.getName() + ": " + e.toString());
+                failure.compareAndSet(null, error);
+                return;
+            }
+            if (chunk.getProgress() != null) {
+                chunk.getProgress().chunkSent(chunk);
+            }
+        }
+
+        /**
+         * run the command of a chunk.
+         * @param chunk chunk
+         * @return time of the post(msec), or -1 if the data has been bisected
+         * @throws IOException in case of IO error
+         * @throws AnuenueException in case of any error
+         */
+        private long runCommand(final Chunk chunk) throws IOException, AnuenueException {
+            AbstractCommand chunkCommand;
+            if (chunk.isSlice() && AnuenueCommandConstants.COMMAND_ADDDATA.equals(command)) {
+                chunkCommand = AnuenueCommandFactory.createAddDataCommand(node, chunk.getHeader(), chunk.getBody());
+            } else {
+                chunkCommand = AnuenueCommandFactory.createCommand(node, command, chunk.getData());
+            }
+            long start = System.currentTimeMillis();
+            chunkCommand.runCommand();
+            if (chunkCommand instanceof AddDataCommand) {
+                return ((AddDataCommand) chunkCommand).getPostTime();
+            }
+            return System.currentTimeMillis() - start;
+        }
+    }
+}
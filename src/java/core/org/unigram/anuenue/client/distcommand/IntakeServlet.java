@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.unigram.anuenue.exception.SolrResponseException;
+
+/**
+ * Servlet which accepts documents of the ingestion daemon.
+ * POST takes TSV (the first line is the header, whose first column is the
+ * uniqueKey), or a JSON object or an array of JSON objects when the content
+ * type is application/json. Every document must have the uniqueKey, which
+ * routes it. The response is returned after the masters have confirmed all
+ * documents of the request: 400 when Solr rejected some of them, and 502 when
+ * the masters failed, with the number of documents which were not accepted.
+ * GET returns the statistics of the daemon.
+ */
+final class IntakeServlet extends HttpServlet {
+
+    /** Serial Version ID. */
+    private static final long serialVersionUID = 1L;
+
+    /** batcher. */
+    private final transient MicroBatcher batcher;
+
+    /** timeout of the acknowledgement(msec). */
+    private final long ackTimeout;
+
+    /** uniqueKey field, which is the first column of TSV. */
+    private final String uniqueKey;
+
+    /**
+     * Constructor.
+     * @param microBatcher batcher
+     * @param timeout timeout of the acknowledgement(msec)
+     * @param key uniqueKey field of the schema
+     */
+    IntakeServlet(final MicroBatcher microBatcher, final long timeout, final String key) {
+        batcher = microBatcher;
+        ackTimeout = timeout;
+        uniqueKey = key;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        response.getWriter().println(batcher.getStatistics());
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding("UTF-8");
+        }
+        List<String> lines;
+        String contentType = request.getContentType();
+        try {
+            if (contentType != null && contentType.startsWith("application/json")) {
+                lines = jsonToTSV(IOUtils.toString(request.getReader()), uniqueKey);
+            } else {
+                lines = readLines(request.getReader());
+                checkUniqueKey(lines, uniqueKey);
+            }
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (lines.size() < 2) {
+            reply(response, HttpServletResponse.SC_OK, 0, 0, null);
+            return;
+        }
+
+        MicroBatcher.Acknowledgement ack = batcher.add(lines.get(0), lines.subList(1, lines.size()));
+        try {
+            if (!ack.await(ackTimeout)) {
+                reply(response, HttpServletResponse.SC_GATEWAY_TIMEOUT, ack.getDocuments(), ack.getFailedDocuments(),
+                        "not confirmed in " + ackTimeout + " msec");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reply(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, ack.getDocuments(), ack.getFailedDocuments(),
+                    "interrupted");
+            return;
+        }
+        Throwable error = ack.getError();
+        if (error != null) {
+            // the data is wrong if Solr rejected it, otherwise the masters are
+            boolean rejected = error instanceof SolrResponseException
+                    && ((SolrResponseException) error).isClientError();
+            reply(response, rejected ? HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_BAD_GATEWAY,
+                    ack.getDocuments(), ack.getFailedDocuments(), error.toString());
+            return;
+        }
+        reply(response, HttpServletResponse.SC_OK, ack.getDocuments(), 0, null);
+    }
+
+    /**
+     * write a response.
+     * @param response response
+     * @param status HTTP status
+     * @param documents number of documents of the request
+     * @param failed number of documents which were not accepted
+     * @param error error message, or null
+     * @throws IOException in case of IO error
+     */
+    private static void reply(final HttpServletResponse response, final int status, final int documents,
+            final int failed, final String error) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json; charset=UTF-8");
+        StringBuilder body = new StringBuilder("{\"documents\":").append(documents);
+        if (error == null) {
+            body.append(",\"status\":\"ok\"}");
+        } else {
+            body.append(",\"failed\":").append(failed)
+                .append(",\"status\":\"error\",\"error\":").append(JSON.toString(error)).append('}');
+        }
+        response.getWriter().println(body);
+    }
+
+    /**
+     * read non-empty lines.
+     * @param reader reader
+     * @return lines, the first of which is the header
+     * @throws IOException in case of IO error
+     */
+    private static List<String> readLines(final BufferedReader reader) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                return lines;
+            }
+            if (line.length() > 0) {
+                lines.add(line);
+            }
+        }
+    }
+
+    /**
+     * check the first column of TSV is the uniqueKey, and every document has it.
+     * @param lines lines, the first of which is the header
+     * @param key uniqueKey field
+     */
+    static void checkUniqueKey(final List<String> lines, final String key) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        String first = ChunkRouter.getId(lines.get(0));
+        if (!first.equals(key)) {
+            throw new IllegalArgumentException("the first column is not " + key + ": " + first);
+        }
+        for (int i = 1; i < lines.size(); ++i) {
+            if (ChunkRouter.getId(lines.get(i)).length() == 0) {
+                throw new IllegalArgumentException("no " + key + " at line " + (i + 1));
+            }
+        }
+    }
+
+    /**
+     * convert JSON documents to TSV lines.
+     * the header is the union of the fields, with the uniqueKey first. values are flattened to one line,
+     * and must be strings, numbers or booleans.
+     * @param json a JSON object or an array of JSON objects
+     * @param key uniqueKey field, which every document must have
+     * @return lines, the first of which is the header
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> jsonToTSV(final String json, final String key) {
+        Object parsed;
+        try {
+            parsed = JSON.parse(json);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("invalid JSON: " + e.getMessage(), e);
+        }
+        List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
+        if (parsed instanceof Map) {
+            documents.add((Map<String, Object>) parsed);
+        } else if (parsed instanceof Object[]) {
+            for (Object document : (Object[]) parsed) {
+                if (!(document instanceof Map)) {
+                    throw new IllegalArgumentException("a document is not a JSON object: " + document);
+                }
+                documents.add((Map<String, Object>) document);
+            }
+        } else {
+            throw new IllegalArgumentException("neither a JSON object nor an array");
+        }
+        if (documents.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        TreeSet<String> otherFields = new TreeSet<String>();
+        for (Map<String, Object> document : documents) {
+            Object id = document.get(key);
+            if (id == null || id.toString().length() == 0) {
+                throw new IllegalArgumentException("a document does not have " + key + ": " + JSON.toString(document));
+            }
+            otherFields.addAll(document.keySet());
+        }
+        otherFields.remove(key);
+        List<String> fields = new ArrayList<String>(otherFields.size() + 1);
+        fields.add(key);
+        fields.addAll(otherFields);
+
+        List<String> lines = new ArrayList<String>(documents.size() + 1);
+        lines.add(join(fields));
+        for (Map<String, Object> document : documents) {
+            List<String> values = new ArrayList<String>(fields.size());
+            for (String field : fields) {
+                Object value = document.get(field);
+                if (value instanceof Object[] || value instanceof Map) {
+                    // Object[].toString() is not the values
+                    throw new IllegalArgumentException("arrays and objects are not supported: " + field);
+                }
+                values.add(value == null ? "" : value.toString().replaceAll("[\t\r\n]", " "));
+            }
+            lines.add(join(values));
+        }
+        return lines;
+    }
+
+    /**
+     * join values by tabs.
+     * @param values values
+     * @return a line
+     */
+    private static String join(final List<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append('\t');
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
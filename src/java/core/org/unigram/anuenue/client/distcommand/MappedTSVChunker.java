@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * Chunker which memory-maps a TSV file and splits it at new line bytes.
+ * A chunk is the header bytes and a slice of the mapped file, so lines are
+ * neither decoded nor copied into Strings.
+ * The file is mapped by windows, so that files larger than 2GB can be read.
+ */
+final class MappedTSVChunker implements ChunkReader {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(MappedTSVChunker.class);
+
+    /** default size of a mapped window. */
+    static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    /** new line. */
+    private static final byte NEW_LINE = '\n';
+
+    /** carriage return. */
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    /** filename. */
+    private final String inputFileName;
+
+    /** size of a mapped window. */
+    private final int windowSize;
+
+    /** file. */
+    private RandomAccessFile file;
+
+    /** channel of the file. */
+    private FileChannel channel;
+
+    /** size of the file. */
+    private long fileSize;
+
+    /** header bytes (with new line). */
+    private byte[] header;
+
+    /** mapped window. */
+    private MappedByteBuffer window;
+
+    /** file offset of the window. */
+    private long windowStart;
+
+    /** file offset of the next line. */
+    private long position;
+
+    /** number of lines read into chunks or skipped. */
+    private long linesRead;
+
+    /**
+     * Constructor.
+     *
+     * @param filename filename
+     */
+    MappedTSVChunker(final String filename) {
+        this(filename, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param filename filename
+     * @param mappedWindowSize size of a mapped window
+     */
+    MappedTSVChunker(final String filename, final int mappedWindowSize) {
+        inputFileName = filename;
+        windowSize = mappedWindowSize;
+    }
+
+    @Override
+    public void init() throws IOException, AnuenueException {
+        file = new RandomAccessFile(inputFileName, "r");
+        channel = file.getChannel();
+        fileSize = channel.size();
+        position = 0;
+        map(0, windowSize);
+
+        int end = indexOfNewLine(0);
+        while (end < 0 && window.capacity() < fileSize && window.capacity() < Integer.MAX_VALUE) {
+            // the header is longer than the window
+            map(0, (int) Math.min(Integer.MAX_VALUE, 2L * window.capacity()));
+            end = indexOfNewLine(0);
+        }
+        if (fileSize == 0 || end < 0 && fileSize > window.capacity()) {
+            LOG.error("input file: " + inputFileName + "has no content.");
+            throw new AnuenueException("input file: " + inputFileName + "has no content.");
+        }
+        int headerLength = end < 0 ? window.capacity() : end;
+        if (headerLength > 0 && window.get(headerLength - 1) == CARRIAGE_RETURN) {
+            --headerLength;
+        }
+        header = new byte[headerLength + 1];
+        window.position(0);
+        window.get(header, 0, headerLength);
+        header[headerLength] = NEW_LINE;
+        position = end < 0 ? fileSize : end + 1;
+    }
+
+    @Override
+    public void skip(final long lines, final long offset) throws IOException {
+        if (offset >= 0) {
+            position = Math.max(position, Math.min(offset, fileSize));
+            linesRead = lines;
+            return;
+        }
+        // the offset is unknown: scan the lines without copying them
+        long remaining = lines;
+        while (remaining > 0) {
+            Chunk chunk = readChunk((int) Math.min(Integer.MAX_VALUE, remaining), 0, null);
+            if (chunk == null) {
+                break;
+            }
+            remaining -= chunk.getNumberOfDocuments();
+        }
+    }
+
+    @Override
+    public Chunk readChunk(final int maxLineNumber, final long maxBytes, final FileProgress progress)
+            throws IOException {
+        if (position >= fileSize) {
+            return null;
+        }
+        long windowEnd = windowStart + window.capacity();
+        if (position >= windowEnd || windowEnd < fileSize && windowEnd - position < windowSize / 2) {
+            map(position, windowSize);
+        }
+
+        int start = (int) (position - windowStart);
+        int offset = start;
+        int lines = 0;
+        while (lines < maxLineNumber) {
+            int end = indexOfNewLine(offset);
+            if (end < 0) {
+                if (windowStart + window.capacity() >= fileSize) {
+                    if (offset >= window.capacity()) {
+                        // the file ends with new line
+                        break;
+                    }
+                    // the last line without new line
+                    if (exceeds(lines, window.capacity() - start, maxBytes)) {
+                        break;
+                    }
+                    offset = window.capacity();
+                    ++lines;
+                    break;
+                }
+                if (lines > 0) {
+                    break;
+                }
+                // a line is longer than the rest of the window
+                map(position, Math.max(windowSize, (int) Math.min(Integer.MAX_VALUE, 2L * window.capacity())));
+                start = 0;
+                offset = 0;
+                continue;
+            }
+            if (exceeds(lines, end + 1 - start, maxBytes)) {
+                break;
+            }
+            offset = end + 1;
+            ++lines;
+        }
+        if (lines == 0) {
+            return null;
+        }
+
+        ByteBuffer slice = window.duplicate();
+        slice.position(start);
+        slice.limit(offset);
+        position = windowStart + offset;
+        Chunk chunk = new Chunk(header, slice.slice(), lines, progress);
+        chunk.setPosition(linesRead, position);
+        linesRead += lines;
+        return chunk;
+    }
+
+    /**
+     * check a chunk which has given lines exceeds the limit when the next line is added.
+     *
+     * @param lines number of lines in the chunk
+     * @param bodyBytes size of the lines and the next line
+     * @param maxBytes max size of a chunk in bytes, or 0 for no limit.
+     * @return true if the next line should start the next chunk
+     */
+    private boolean exceeds(final int lines, final long bodyBytes, final long maxBytes) {
+        return maxBytes > 0 && lines > 0 && header.length + bodyBytes > maxBytes;
+    }
+
+    /**
+     * get the header bytes.
+     *
+     * @return header bytes (with new line)
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * map a window.
+     *
+     * @param start file offset of the window
+     * @param size size of the window
+     * @throws IOException in case of IO error
+     */
+    private void map(final long start, final int size) throws IOException {
+        long length = Math.min(size, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowStart = start;
+    }
+
+    /**
+     * find the next new line in the window.
+     *
+     * @param from index in the window
+     * @return index of the new line, or -1
+     */
+    private int indexOfNewLine(final int from) {
+        int limit = window.capacity();
+        for (int i = from; i < limit; ++i) {
+            if (window.get(i) == NEW_LINE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * close the file. the mapped windows are released when chunks are garbage collected.
+     */
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(channel);
+        IOUtils.closeQuietly(file);
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.node.ConsistentHashRing;
+import org.unigram.anuenue.node.Node;
+
+/**
+ * Batcher which collects documents of many small requests into chunks.
+ * Lines with the same header (and the same owner with hash routing) are
+ * appended to one batch, which is sent when it reaches the maximum number of
+ * documents or bytes, or when its oldest document has waited for the maximum
+ * delay. A request is acknowledged when all batches which contain its lines
+ * have been sent. When all senders are busy, the thread which fills a batch
+ * sends it, so that producers are slowed down instead of queued without limit.
+ * If Solr rejects a batch, the requests in it are sent again in halves, so
+ * that only the requests which own the invalid lines are rejected.
+ */
+final class MicroBatcher {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(MicroBatcher.class);
+
+    /** number of batches waiting for a sender, per sender. */
+    private static final int QUEUED_BATCHES_PER_SENDER = 2;
+
+    /**
+     * Sender of a batch.
+     */
+    interface Sender {
+
+        /**
+         * send a chunk to a node, and return after the node has confirmed it.
+         * @param node node
+         * @param chunk chunk
+         * @throws IOException in case of IO error
+         * @throws AnuenueException in case of any error
+         */
+        void send(Node node, Chunk chunk) throws IOException, AnuenueException;
+    }
+
+    /** sender. */
+    private final Sender sender;
+
+    /** target nodes. */
+    private final List<Node> nodes;
+
+    /** hash ring, or null for round robin. */
+    private final ConsistentHashRing ring;
+
+    /** maximum number of documents of a batch. */
+    private final int maxDocuments;
+
+    /** maximum size of a batch in bytes. */
+    private final long maxBytes;
+
+    /** maximum delay of a document(msec). */
+    private final long maxDelay;
+
+    /** map (owner and header -> open batch). */
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    /** senders. */
+    private final ThreadPoolExecutor senders;
+
+    /** flusher of delayed batches. */
+    private final ScheduledExecutorService flusher;
+
+    /** index of the next node of round robin. */
+    private final AtomicInteger nextNode = new AtomicInteger();
+
+    /** number of sent batches. */
+    private final AtomicLong sentBatches = new AtomicLong();
+
+    /** number of sent documents. */
+    private final AtomicLong sentDocuments = new AtomicLong();
+
+    /** number of failed batches. */
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * Constructor. the flusher starts immediately.
+     * @param batchSender sender
+     * @param targetNodes target nodes
+     * @param hashRing hash ring, or null for round robin
+     * @param documents maximum number of documents of a batch
+     * @param bytes maximum size of a batch in bytes
+     * @param delay maximum delay of a document(msec)
+     * @param numberOfSenders number of senders
+     */
+    MicroBatcher(final Sender batchSender, final List<Node> targetNodes, final ConsistentHashRing hashRing,
+            final int documents, final long bytes, final long delay, final int numberOfSenders) {
+        sender = batchSender;
+        nodes = hashRing == null ? targetNodes : hashRing.getNodes();
+        ring = hashRing;
+        maxDocuments = Math.max(1, documents);
+        maxBytes = bytes;
+        maxDelay = Math.max(1, delay);
+        int threads = Math.max(1, numberOfSenders);
+        senders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUED_BATCHES_PER_SENDER),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        flusher = Executors.newSingleThreadScheduledExecutor();
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushDelayed();
+            }
+        }, maxDelay, Math.max(1, maxDelay / 2), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * add documents.
+     * @param header header of TSV (without new line)
+     * @param lines lines of documents
+     * @return acknowledgement of the documents
+     */
+    Acknowledgement add(final String header, final List<String> lines) {
+        Acknowledgement ack = new Acknowledgement(lines.size());
+        List<Batch> full = new ArrayList<Batch>();
+        synchronized (this) {
+            for (String line : lines) {
+                Node owner = ring == null ? null : ring.getNode(ChunkRouter.getId(line));
+                String key = (owner == null ? "" : owner.getName()) + "\n" + header;
+                Batch batch = batches.get(key);
+                if (batch == null) {
+                    batch = new Batch(owner, header);
+                    batches.put(key, batch);
+                }
+                batch.add(line, ack);
+                if (batch.documents >= maxDocuments || maxBytes > 0 && batch.bytes >= maxBytes) {
+                    batches.remove(key);
+                    full.add(batch);
+                }
+            }
+        }
+        for (Batch batch : full) {
+            dispatch(batch);
+        }
+        ack.partDone(null, 0);
+        return ack;
+    }
+
+    /**
+     * send batches whose oldest document has waited for the maximum delay.
+     */
+    private void flushDelayed() {
+        List<Batch> delayed = new ArrayList<Batch>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Iterator<Batch> it = batches.values().iterator(); it.hasNext();) {
+                Batch batch = it.next();
+                if (now - batch.createdTime >= maxDelay) {
+                    it.remove();
+                    delayed.add(batch);
+                }
+            }
+        }
+        for (Batch batch : delayed) {
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * send a batch by a sender.
+     * @param batch batch
+     */
+    private void dispatch(final Batch batch) {
+        final Node node = batch.owner != null ? batch.owner
+                : nodes.get((nextNode.getAndIncrement() & Integer.MAX_VALUE) % nodes.size());
+        senders.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(node, batch, 0, batch.acks.size());
+            }
+        });
+    }
+
+    /**
+     * send the lines of some requests in a batch, and acknowledge them.
+     * if Solr rejects the lines of two or more requests, they are sent again in halves,
+     * so that only the requests which own the invalid lines get the rejection.
+     * @param node node
+     * @param batch batch
+     * @param from index of the first request in acks
+     * @param to index after the last request in acks
+     */
+    private void send(final Node node, final Batch batch, final int from, final int to) {
+        int documents = 0;
+        for (int i = from; i < to; ++i) {
+            documents += batch.ackDocuments.get(i);
+        }
+        int end = to < batch.acks.size() ? batch.ackOffsets.get(to) : batch.body.length();
+        Throwable error = null;
+        try {
+            sender.send(node, new Chunk(batch.header + "\n" + batch.body.substring(batch.ackOffsets.get(from), end),
+                    documents));
+            sentBatches.incrementAndGet();
+            sentDocuments.addAndGet(documents);
+        } catch (IOException | AnuenueException | RuntimeException e) {
+            error = e;
+        }
+        if (error != null && to - from > 1 && error instanceof SolrResponseException
+                && ((SolrResponseException) error).isClientError()) {
+            LOG.warn("a batch of " + documents + " documents of " + (to - from) + " requests is rejected by "
+                    + node.getName() + ", sending the requests in halves: " + error.toString());
+            int middle = (from + to) / 2;
+            send(node, batch, from, middle);
+            send(node, batch, middle, to);
+            return;
+        }
+        if (error != null) {
+            LOG.error("failed to send a batch of " + documents + " documents to " + node.getName()
+                    + ": " + error.toString());
+            failedBatches.incrementAndGet();
+        }
+        for (int i = from; i < to; ++i) {
+            batch.acks.get(i).partDone(error, error == null ? 0 : batch.ackDocuments.get(i));
+        }
+    }
+
+    /**
+     * send all batches and stop.
+     */
+    void close() {
+        flusher.shutdownNow();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Batch> rest;
+        synchronized (this) {
+            rest = new ArrayList<Batch>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : rest) {
+            dispatch(batch);
+        }
+        senders.shutdown();
+        try {
+            senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * statistics, for example "batches=10, documents=5000, failed=0, open=2".
+     * @return statistics
+     */
+    String getStatistics() {
+        int open;
+        synchronized (this) {
+            open = batches.size();
+        }
+        return "batches=" + sentBatches.get() + ", documents=" + sentDocuments.get()
+                + ", failed=" + failedBatches.get() + ", open=" + open;
+    }
+
+    /**
+     * Acknowledgement of the documents of a request.
+     */
+    static final class Acknowledgement {
+
+        /** number of documents. */
+        private final int documents;
+
+        /** number of batches which have not been sent, and one until the request has been added. */
+        private final AtomicInteger pendingParts = new AtomicInteger(1);
+
+        /** first error. */
+        private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        /** number of documents in failed batches. */
+        private final AtomicInteger failedDocuments = new AtomicInteger();
+
+        /** released when all parts are done. */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * Constructor.
+         * @param numberOfDocuments number of documents
+         */
+        private Acknowledgement(final int numberOfDocuments) {
+            documents = numberOfDocuments;
+        }
+
+        /**
+         * called when a part is done.
+         * @param partError error of the part, or null
+         * @param failed number of documents of the request in the part if it failed
+         */
+        private void partDone(final Throwable partError, final int failed) {
+            if (partError != null) {
+                error.compareAndSet(null, partError);
+                failedDocuments.addAndGet(failed);
+            }
+            if (pendingParts.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        /**
+         * wait until all documents are sent.
+         * @param timeout timeout(msec)
+         * @return false if timed out
+         * @throws InterruptedException if interrupted
+         */
+        boolean await(final long timeout) throws InterruptedException {
+            return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * get the first error.
+         * @return error, or null if all documents have been sent
+         */
+        Throwable getError() {
+            return error.get();
+        }
+
+        /**
+         * get number of documents.
+         * @return number of documents
+         */
+        int getDocuments() {
+            return documents;
+        }
+
+        /**
+         * get number of documents which have not been sent.
+         * @return number of documents in failed batches
+         */
+        int getFailedDocuments() {
+            return failedDocuments.get();
+        }
+    }
+
+    /**
+     * An open batch.
+     */
+    private static final class Batch {
+
+        /** owner, or null for round robin. */
+        private final Node owner;
+
+        /** header. */
+        private final String header;
+
+        /** lines. */
+        private final StringBuilder body = new StringBuilder();
+
+        /** acknowledgements of the requests whose lines are in the batch. */
+        private final List<Acknowledgement> acks = new ArrayList<Acknowledgement>();
+
+        /** number of documents of each request in the batch, in the order of acks. */
+        private final List<Integer> ackDocuments = new ArrayList<Integer>();
+
+        /** offset of the first line of each request in body, in the order of acks. */
+        private final List<Integer> ackOffsets = new ArrayList<Integer>();
+
+        /** number of documents. */
+        private int documents;
+
+        /** size in bytes. */
+        private long bytes;
+
+        /** time when the first document was added(msec). */
+        private final long createdTime = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         * @param node owner, or null for round robin
+         * @param headerLine header
+         */
+        private Batch(final Node node, final String headerLine) {
+            owner = node;
+            header = headerLine;
+            bytes = Chunk.utf8Length(headerLine) + 1;
+        }
+
+        /**
+         * add a line.
+         * @param line line
+         * @param ack acknowledgement of the request of the line
+         */
+        private void add(final String line, final Acknowledgement ack) {
+            int last = acks.size() - 1;
+            if (last < 0 || acks.get(last) != ack) {
+                ack.pendingParts.incrementAndGet();
+                acks.add(ack);
+                ackDocuments.add(1);
+                ackOffsets.add(body.length());
+            } else {
+                ackDocuments.set(last, ackDocuments.get(last) + 1);
+            }
+            body.append(line).append('\n');
+            ++documents;
+            bytes += Chunk.utf8Length(line) + 1;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.client.command.AnuenueCommandFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.NodeDatabase;
+
+/**
+ * Class of "resumeSpool" dist command.
+ * Chunks spooled by a failed command are replayed to their nodes with backoff,
+ * nodes in parallel and the segments of a node in order. A segment is deleted
+ * when all of its records have been sent; a segment which fails is kept and
+ * replayed again from its first record, which is safe because documents are
+ * overwritten by their uniqueKey.
+ */
+public final class ResumeSpoolDistCommand extends AbstractDistCommand {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(ResumeSpoolDistCommand.class);
+
+    /** property: number of attempts of a record. */
+    private static final String PROPERTY_RETRY_MAX = "anuenue.spool.retry.max";
+
+    /** default: number of attempts of a record. */
+    private static final String DEFAULT_RETRY_MAX = "5";
+
+    /** property: first backoff(msec), doubled on each retry. */
+    private static final String PROPERTY_RETRY_BACKOFF = "anuenue.spool.retry.backoff";
+
+    /** default: first backoff(msec). */
+    private static final String DEFAULT_RETRY_BACKOFF = "1000";
+
+    /** maximum backoff(msec). */
+    private static final long MAX_BACKOFF = 60 * 1000;
+
+    /** number of attempts of a record. */
+    private final int maxAttempts;
+
+    /** first backoff(msec). */
+    private final long initialBackoff;
+
+    /**
+     * Constructor.
+     * @param target target
+     * @param arg spool directory, or empty to use anuenue.spool.dir
+     * @param database database of node
+     * @throws AnuenueException in case of any error
+     */
+    public ResumeSpoolDistCommand(final String target, final String arg, final NodeDatabase database)
+            throws AnuenueException {
+        super(target, AnuenueCommandConstants.DISTCOMMAND_RESUMESPOOL, arg, database, false);
+        maxAttempts = Math.max(1, Integer.parseInt(System.getProperty(PROPERTY_RETRY_MAX, DEFAULT_RETRY_MAX)));
+        initialBackoff = Long.parseLong(System.getProperty(PROPERTY_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF));
+    }
+
+    /**
+     * actual Implementation of execute().
+     * @throws AnuenueException in case of any error
+     */
+    @Override
+    protected void executeImpl() throws AnuenueException {
+        String dirName = getArgument();
+        if (dirName == null || dirName.length() == 0) {
+            dirName = System.getProperty(PROPERTY_SPOOL_DIR, "");
+        }
+        if (dirName.length() == 0) {
+            throw new AnuenueException("specify the spool directory by --arg or " + PROPERTY_SPOOL_DIR);
+        }
+        File[] nodeDirectories = new File(dirName).listFiles();
+        if (nodeDirectories == null || nodeDirectories.length == 0) {
+            LOG.info("nothing is spooled in " + dirName);
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nodeDirectories.length);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>(nodeDirectories.length);
+            for (final File nodeDirectory : nodeDirectories) {
+                if (!nodeDirectory.isDirectory()) {
+                    continue;
+                }
+                final Node node = getNodeByName(nodeDirectory.getName());
+                if (node == null) {
+                    LOG.warn("skip " + nodeDirectory + ": no node is named " + nodeDirectory.getName());
+                    continue;
+                }
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws InterruptedException {
+                        return replayNode(node, nodeDirectory);
+                    }
+                }));
+            }
+            int remaining = 0;
+            for (Future<Integer> future : futures) {
+                remaining += future.get();
+            }
+            if (remaining > 0) {
+                throw new AnuenueException(remaining + " spooled segments remain in " + dirName);
+            }
+        } catch (ExecutionException e) {
+            throw new AnuenueException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnuenueException("interrupted while replaying spool", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * replay the segments of a node in order. stops at the first segment which fails.
+     * @param node node
+     * @param nodeDirectory directory of the segments of the node
+     * @return number of remaining segments
+     * @throws InterruptedException if interrupted
+     */
+    private int replayNode(final Node node, final File nodeDirectory) throws InterruptedException {
+        List<File> segments = ChunkSpool.listSegments(nodeDirectory);
+        for (int i = 0; i < segments.size(); ++i) {
+            File segment = segments.get(i);
+            try {
+                int records = replaySegment(node, segment);
+                if (!segment.delete()) {
+                    LOG.warn("cannot delete " + segment);
+                }
+                LOG.info(node.getName() + ": replayed " + records + " chunks of " + segment);
+            } catch (IOException e) {
+                LOG.error(node.getName() + ": failed to replay " + segment + ": " + e.toString());
+                return segments.size() - i;
+            }
+        }
+        // removed only if empty
+        nodeDirectory.delete();
+        return 0;
+    }
+
+    /**
+     * replay the records of a segment.
+     * @param node node
+     * @param segment segment file
+     * @return number of records
+     * @throws IOException if a record cannot be sent after retries
+     * @throws InterruptedException if interrupted
+     */
+    private int replaySegment(final Node node, final File segment) throws IOException, InterruptedException {
+        int records = 0;
+        try (ChunkSpool.SegmentReader reader = new ChunkSpool.SegmentReader(segment)) {
+            while (true) {
+                ChunkSpool.Record record = reader.next();
+                if (record == null) {
+                    return records;
+                }
+                send(node, record);
+                ++records;
+            }
+        }
+    }
+
+    /**
+     * send a record, retrying with exponential backoff.
+     * @param node node
+     * @param record record
+     * @throws IOException if the record cannot be sent after retries
+     * @throws InterruptedException if interrupted
+     */
+    private void send(final Node node, final ChunkSpool.Record record) throws IOException, InterruptedException {
+        long backoff = initialBackoff;
+        for (int attempt = 1;; ++attempt) {
+            try {
+                AnuenueCommandFactory.createCommand(node, record.getCommand(), record.getChunk().getData())
+                    .runCommand();
+                return;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                LOG.warn(node.getName() + ": retry in " + backoff + " msec (" + attempt + "/" + maxAttempts
+                        + "): " + e.toString());
+            } catch (AnuenueException e) {
+                throw new IOException(e);
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(MAX_BACKOFF, backoff * 2);
+        }
+    }
+}
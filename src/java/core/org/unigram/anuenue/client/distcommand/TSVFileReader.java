@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * A Reader of TSV File.
+ * Compressed files (gzip, or bzip2 and xz with commons-compress) are decoded while reading.
+ */
+final class TSVFileReader implements ChunkReader {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(TSVFileReader.class);
+
+    /** BufferedReader. */
+    private BufferedReader reader = null;
+
+    /** InputStream of the file, decoded if it is compressed. */
+    private InputStream fis = null;
+
+    /** InputStreamReader. */
+    private InputStreamReader isr = null;
+
+    /** filename. */
+    private final String inputFileName;
+
+    /** The header of file. */
+    private String header;
+
+    /** has more chunk. */
+    private boolean hasNext;
+
+    /** line which did not fit in the previous chunk, or null. */
+    private String pendingLine;
+
+    /** number of lines read into chunks or skipped. */
+    private long linesRead;
+
+    /** Constructor.
+     *
+     * @param filename filename
+     */
+    public TSVFileReader(final String filename) {
+        inputFileName = filename;
+        hasNext = true;
+    }
+
+    /**
+     * Initialize.
+     *
+     * @throws IOException in case of IO error.
+     * @throws AnuenueException in case that a file is empty.
+     */
+    @Override
+    public void init() throws IOException, AnuenueException {
+        fis = CompressedFileInputStream.open(inputFileName);
+        isr = new InputStreamReader(fis, "UTF-8");
+        reader = new BufferedReader(isr);
+
+        header = reader.readLine();
+        if (header == null) {
+            LOG.error("input file: " + inputFileName + "has no content.");
+            throw new AnuenueException("input file: " + inputFileName + "has no content.");
+        }
+        header += "\n";
+    }
+
+    /**
+     * get the header (with new line).
+     *
+     * @return header
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * read a line.
+     *
+     * @return a line, or null if no line remains
+     * @throws IOException in case of IO error.
+     */
+    public String readLine() throws IOException {
+        if (!hasNext) {
+            return null;
+        }
+        String line = reader.readLine();
+        if (line == null) {
+            hasNext = false;
+        }
+        return line;
+    }
+
+    /**
+     * skip lines by reading them, since the offset in a decoded stream cannot be seeked.
+     *
+     * @param lines number of lines to skip
+     * @param offset ignored
+     * @throws IOException in case of IO error.
+     */
+    @Override
+    public void skip(final long lines, final long offset) throws IOException {
+        for (long i = 0; i < lines; ++i) {
+            if (readLine() == null) {
+                break;
+            }
+            ++linesRead;
+        }
+    }
+
+    /**
+     * read a chunk.
+     *
+     * @param maxLineNumber max line number.
+     * @param maxBytes max size of a chunk in bytes, or 0 for no limit.
+     * @param progress progress of the file
+     * @return a chunk started with header, or null if no document remains
+     * @throws IOException in case of IO error.
+     */
+    @Override
+    public Chunk readChunk(final int maxLineNumber, final long maxBytes, final FileProgress progress)
+            throws IOException {
+        if (!hasNext && pendingLine == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(header);
+        long bytes = Chunk.utf8Length(header);
+
+        int lines = 0;
+        for (; lines < maxLineNumber; ++lines) {
+            String line = pendingLine;
+            pendingLine = null;
+            if (line == null) {
+                line = hasNext ? reader.readLine() : null;
+            }
+            if (line == null) {
+                hasNext = false;
+                break;
+            }
+            if (maxBytes > 0) {
+                int lineBytes = Chunk.utf8Length(line) + 1;
+                if (lines > 0 && bytes + lineBytes > maxBytes) {
+                    pendingLine = line;
+                    break;
+                }
+                bytes += lineBytes;
+            }
+            builder.append(line).append('\n');
+        }
+        if (lines == 0) {
+            return null;
+        }
+        Chunk chunk = new Chunk(builder.toString(), lines, progress);
+        chunk.setPosition(linesRead, -1);
+        linesRead += lines;
+        return chunk;
+    }
+
+    /**
+     * close readers.
+     */
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(reader);
+        IOUtils.closeQuietly(isr);
+        IOUtils.closeQuietly(fis);
+    }
+
+}
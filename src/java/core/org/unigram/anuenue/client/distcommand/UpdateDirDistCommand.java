@@ -16,15 +16,22 @@
 package org.unigram.anuenue.client.distcommand;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unigram.anuenue.client.AnuenueCommandConstants;
 import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.ConsistentHashRing;
 import org.unigram.anuenue.node.NodeDatabase;
+import org.unigram.anuenue.node.NodeDatabaseBuilder;
 
 /**
  * Class of "updateDir" dist command.
+ * With a fingerprint store, the input is a snapshot of all documents: only the
+ * rows which have changed since the previous snapshot are sent, and the ids
+ * which have disappeared are deleted.
  */
 public final class UpdateDirDistCommand extends AbstractDistCommand {
 
@@ -32,6 +39,33 @@ public final class UpdateDirDistCommand extends AbstractDistCommand {
     private static final Log LOG = LogFactory
             .getLog(UpdateDirDistCommand.class);
 
+    /** update mode: delete documents of a file, and then add them. */
+    public static final String UPDATE_MODE_DELETE_AND_ADD = "deleteAndAdd";
+
+    /** update mode: add documents in one pass and overwrite by the uniqueKey. */
+    public static final String UPDATE_MODE_UPSERT = "upsert";
+
+    /** property: update mode (deleteAndAdd or upsert). */
+    private static final String PROPERTY_UPDATE_MODE = "anuenue.update.mode";
+
+    /** default: update mode. */
+    private static final String DEFAULT_UPDATE_MODE = UPDATE_MODE_DELETE_AND_ADD;
+
+    /** property: anuenue-nodes.xml of the previous layout, used to find documents moved to other masters. */
+    private static final String PROPERTY_PREVIOUS_NODES = "anuenue.routing.previous.nodes";
+
+    /** property: base name of the fingerprint store (empty to update every row). */
+    private static final String PROPERTY_FINGERPRINT_STORE = "anuenue.update.fingerprint.store";
+
+    /** default: every row is updated. */
+    private static final String DEFAULT_FINGERPRINT_STORE = "";
+
+    /** update mode. */
+    private final String updateMode;
+
+    /** base name of the fingerprint store, or empty. */
+    private final String fingerprintStore;
+
     /**
      * Constructor.
      * @param target target
@@ -42,6 +76,11 @@ public final class UpdateDirDistCommand extends AbstractDistCommand {
     public UpdateDirDistCommand(final String target, final String arg,
             final NodeDatabase database) throws AnuenueException {
         super(target, AnuenueCommandConstants.DISTCOMMAND_UPDATEDIR, arg, database, true);
+        updateMode = System.getProperty(PROPERTY_UPDATE_MODE, DEFAULT_UPDATE_MODE);
+        if (!UPDATE_MODE_DELETE_AND_ADD.equals(updateMode) && !UPDATE_MODE_UPSERT.equals(updateMode)) {
+            throw new AnuenueException("unknown update mode: " + updateMode);
+        }
+        fingerprintStore = System.getProperty(PROPERTY_FINGERPRINT_STORE, DEFAULT_FINGERPRINT_STORE);
     }
 
     /**
@@ -63,8 +102,23 @@ public final class UpdateDirDistCommand extends AbstractDistCommand {
         String dirName = getArgument();
         File dir = new File(dirName);
 
+        boolean upsert = UPDATE_MODE_UPSERT.equals(updateMode);
+        if (upsert && !isHashRouting()) {
+            LOG.warn("upsert mode requires hash routing to masters. use " + UPDATE_MODE_DELETE_AND_ADD);
+            upsert = false;
+        }
+        ConsistentHashRing previousRing = upsert ? createPreviousHashRing() : null;
+
+        if (fingerprintStore.length() > 0) {
+            if (previousRing == null) {
+                updateChangedRows(listSnapshot(dir), new File(fingerprintStore));
+                return;
+            }
+            LOG.warn("the fingerprint store is not used while documents move to other masters");
+        }
+
         if (dir.isFile()) {
-            updateFile(dir.toString());
+            updateFile(dir.toString(), upsert, previousRing);
             return;
         }
 
@@ -77,16 +131,65 @@ public final class UpdateDirDistCommand extends AbstractDistCommand {
         for (int i = 0; i < files.length; i++) {
             String inputFile = files[i].toString();
             LOG.info("updating file: " + inputFile);
-            updateFile(inputFile);
+            updateFile(inputFile, upsert, previousRing);
+        }
+    }
+
+    /**
+     * list the files of a snapshot.
+     * @param dir a directory or a file
+     * @return files
+     * @throws AnuenueException if there is no file
+     */
+    private static List<File> listSnapshot(final File dir) throws AnuenueException {
+        List<File> files = new ArrayList<File>();
+        if (dir.isFile()) {
+            files.add(dir);
+            return files;
+        }
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile()) {
+                    files.add(child);
+                }
+            }
         }
+        if (files.isEmpty()) {
+            throw new AnuenueException("there is no files in directory: " + dir);
+        }
+        AddDirDistCommand.sortFiles(files, AddDirDistCommand.FILE_ORDER_NAME);
+        return files;
+    }
+
+    /**
+     * create hash ring of the previous layout.
+     * @return hash ring, or null if the previous layout is not specified
+     * @throws AnuenueException in case that the previous layout is invalid
+     */
+    private ConsistentHashRing createPreviousHashRing() throws AnuenueException {
+        String previousNodes = System.getProperty(PROPERTY_PREVIOUS_NODES);
+        if (previousNodes == null || previousNodes.length() == 0) {
+            return null;
+        }
+        LOG.info("previous layout: " + previousNodes);
+        return createHashRing(new NodeDatabaseBuilder(previousNodes).build().getMasterList());
     }
 
     /**
      * update by file.
      * @param fileName file name
+     * @param upsert update in one pass
+     * @param previousRing hash ring of the previous layout (upsert only)
      * @throws AnuenueException in case of any error.
      */
-    private void updateFile(final String fileName) throws AnuenueException {
+    private void updateFile(final String fileName, final boolean upsert,
+            final ConsistentHashRing previousRing) throws AnuenueException {
+        if (upsert) {
+            upsertFile(fileName, previousRing);
+            return;
+        }
+
         /* delete the index of the files in update files */
         File file = new File(fileName);
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the buffers which copy response bodies, shared by all SolrClients.
+ * The buffers are heap arrays, since both ends of a copy are streams; a direct buffer
+ * would be copied to an array again.
+ */
+final class BufferPool {
+
+    /** size of a buffer. */
+    static final int BUFFER_SIZE = 32 * 1024;
+
+    /** maximum number of idle buffers. */
+    private static final int MAX_IDLE = 64;
+
+    /** shared instance. */
+    private static final BufferPool INSTANCE = new BufferPool();
+
+    /** idle buffers. */
+    private final Queue<byte[]> idle = new ConcurrentLinkedQueue<byte[]>();
+
+    /** number of idle buffers. */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * Constructor.
+     */
+    private BufferPool() {
+    }
+
+    /**
+     * get the shared pool.
+     * @return BufferPool
+     */
+    static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * acquire a buffer. it should be returned by release().
+     * @return buffer of BUFFER_SIZE bytes
+     */
+    byte[] acquire() {
+        byte[] buffer = idle.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * return a buffer to the pool. it is dropped when the pool is full.
+     * @param buffer buffer
+     */
+    void release(final byte[] buffer) {
+        if (idleCount.incrementAndGet() > MAX_IDLE) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(buffer);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream of a HTTP body sent with "Transfer-Encoding: chunked".
+ * close() does not close the underlying stream.
+ */
+final class ChunkedInputStream extends InputStream {
+
+    /** underlying stream. */
+    private final InputStream inputStream;
+
+    /** remaining bytes of the current chunk. */
+    private long remaining;
+
+    /** reached the last chunk. */
+    private boolean eof;
+
+    /** already read the first chunk header. */
+    private boolean started;
+
+    /**
+     * Constructor.
+     * @param in underlying stream
+     */
+    ChunkedInputStream(final InputStream in) {
+        inputStream = in;
+        remaining = 0;
+        eof = false;
+        started = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!prepareChunk()) {
+            return -1;
+        }
+        int b = inputStream.read();
+        if (b < 0) {
+            throw new EOFException("unexpected end of chunked HTTP body");
+        }
+        --remaining;
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (!prepareChunk()) {
+            return -1;
+        }
+        int n = inputStream.read(buffer, offset, (int) Math.min(length, remaining));
+        if (n < 0) {
+            throw new EOFException("unexpected end of chunked HTTP body");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * move to the next chunk if the current chunk is consumed.
+     * @return false if there is no more chunk
+     * @throws IOException in case of IO error
+     */
+    private boolean prepareChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (remaining > 0) {
+            return true;
+        }
+        if (started) {
+            // CRLF after the chunk data
+            PooledConnection.readLine(inputStream);
+        }
+        started = true;
+        String line = PooledConnection.readLine(inputStream);
+        if (line == null) {
+            throw new EOFException("unexpected end of chunked HTTP body");
+        }
+        int semicolon = line.indexOf(';');
+        if (semicolon >= 0) {
+            line = line.substring(0, semicolon);
+        }
+        try {
+            remaining = Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid chunk size: " + line, e);
+        }
+        if (remaining == 0) {
+            // skip trailers
+            while (true) {
+                String trailer = PooledConnection.readLine(inputStream);
+                if (trailer == null || trailer.length() == 0) {
+                    break;
+                }
+            }
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream of a HTTP body which has Content-Length.
+ * close() does not close the underlying stream.
+ */
+final class FixedLengthInputStream extends InputStream {
+
+    /** underlying stream. */
+    private final InputStream inputStream;
+
+    /** remaining bytes. */
+    private long remaining;
+
+    /**
+     * Constructor.
+     * @param in underlying stream
+     * @param length content length
+     */
+    FixedLengthInputStream(final InputStream in, final long length) {
+        inputStream = in;
+        remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = inputStream.read();
+        if (b < 0) {
+            throw new EOFException("unexpected end of HTTP body");
+        }
+        --remaining;
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int n = inputStream.read(buffer, offset, (int) Math.min(length, remaining));
+        if (n < 0) {
+            throw new EOFException("unexpected end of HTTP body");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(inputStream.available(), remaining);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pool of persistent HTTP/1.1 connections, kept per node (host:port) and shared by all SolrClients.
+ */
+public final class HttpConnectionPool {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(HttpConnectionPool.class);
+
+    /** property: anuenue.http.pool.max.per.host. */
+    private static final String PROPERTY_MAX_PER_HOST = "anuenue.http.pool.max.per.host";
+
+    /** default: maximum number of connections per host. */
+    private static final String DEFAULT_MAX_PER_HOST = "16";
+
+    /** property: anuenue.http.pool.idle.timeout. */
+    private static final String PROPERTY_IDLE_TIMEOUT = "anuenue.http.pool.idle.timeout";
+
+    /** default: idle connections are closed after this period(msec). */
+    private static final String DEFAULT_IDLE_TIMEOUT = "30000";
+
+    /** property: anuenue.http.pool.validate. */
+    private static final String PROPERTY_VALIDATE = "anuenue.http.pool.validate";
+
+    /** default: validate idle connections before reusing them. */
+    private static final String DEFAULT_VALIDATE = "true";
+
+    /** property: anuenue.http.pool.validate.after. */
+    private static final String PROPERTY_VALIDATE_AFTER = "anuenue.http.pool.validate.after";
+
+    /** default: only connections idle longer than this period(msec) are validated. */
+    private static final String DEFAULT_VALIDATE_AFTER = "2000";
+
+    /** shared instance. */
+    private static final HttpConnectionPool INSTANCE = new HttpConnectionPool(
+            Integer.parseInt(System.getProperty(PROPERTY_MAX_PER_HOST, DEFAULT_MAX_PER_HOST)),
+            Long.parseLong(System.getProperty(PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT)),
+            Boolean.parseBoolean(System.getProperty(PROPERTY_VALIDATE, DEFAULT_VALIDATE)),
+            Long.parseLong(System.getProperty(PROPERTY_VALIDATE_AFTER, DEFAULT_VALIDATE_AFTER)));
+
+    /** maximum number of connections leased at the same time per host. */
+    private final int maxPerHost;
+
+    /** idle timeout(msec). */
+    private final long idleTimeout;
+
+    /** validate idle connections before reusing them. */
+    private final boolean validate;
+
+    /** idle period(msec) after which a connection is validated. */
+    private final long validateAfter;
+
+    /** map (host:port -> pool of the host). */
+    private final ConcurrentMap<String, HostPool> hostPools = new ConcurrentHashMap<String, HostPool>();
+
+    /** number of leases served by an idle connection. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** number of leases which opened a new connection. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** number of connections closed because they had been idle too long. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** number of idle connections which had been closed by the server. */
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param max maximum number of connections per host
+     * @param timeout idle timeout(msec)
+     * @param validateConnection validate idle connections before reusing them
+     * @param validateIdle idle period(msec) after which a connection is validated
+     */
+    HttpConnectionPool(final int max, final long timeout, final boolean validateConnection,
+            final long validateIdle) {
+        maxPerHost = max;
+        idleTimeout = timeout;
+        validate = validateConnection;
+        validateAfter = validateIdle;
+    }
+
+    /**
+     * get the shared pool.
+     * @return HttpConnectionPool
+     */
+    public static HttpConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * lease a connection. the connection must be returned by release().
+     * @param host host name
+     * @param port port number
+     * @param connectTimeout connect timeout(msec), also used as the wait limit for a free connection
+     * @return PooledConnection
+     * @throws IOException in case of connection failure
+     */
+    PooledConnection lease(final String host, final int port, final int connectTimeout) throws IOException {
+        String key = host + ":" + port;
+        HostPool hostPool = getHostPool(key);
+        hostPool.acquire(key, connectTimeout);
+
+        boolean leased = false;
+        try {
+            PooledConnection connection = hostPool.pollIdle();
+            if (connection != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                connection = PooledConnection.open(key, host, port, connectTimeout);
+            }
+            leased = true;
+            return connection;
+        } finally {
+            if (!leased) {
+                hostPool.permits.release();
+            }
+        }
+    }
+
+    /**
+     * return a connection to the pool.
+     * @param connection connection
+     * @param reusable true if the connection can be used for the next request
+     */
+    void release(final PooledConnection connection, final boolean reusable) {
+        HostPool hostPool = getHostPool(connection.getPoolKey());
+        try {
+            if (reusable) {
+                connection.touch();
+                hostPool.offerIdle(connection);
+            } else {
+                connection.close();
+            }
+        } finally {
+            hostPool.permits.release();
+        }
+    }
+
+    /**
+     * close all idle connections.
+     */
+    public void closeIdleConnections() {
+        for (HostPool hostPool : hostPools.values()) {
+            hostPool.closeIdle();
+        }
+    }
+
+    /**
+     * get pool for given host.
+     * @param key host:port
+     * @return HostPool
+     */
+    private HostPool getHostPool(final String key) {
+        HostPool hostPool = hostPools.get(key);
+        if (hostPool == null) {
+            HostPool newPool = new HostPool(maxPerHost);
+            hostPool = hostPools.putIfAbsent(key, newPool);
+            if (hostPool == null) {
+                hostPool = newPool;
+            }
+        }
+        return hostPool;
+    }
+
+    /**
+     * get number of leases served by an idle connection.
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * get number of leases which opened a new connection.
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * get number of connections closed because they had been idle too long.
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * get number of idle connections which had been closed by the server.
+     * @return number of validation failures
+     */
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    /**
+     * get idle period after which a connection is validated.
+     * @return idle period(msec)
+     */
+    long getValidateAfter() {
+        return validateAfter;
+    }
+
+    /**
+     * get statistics of the pool.
+     * @return statistics
+     */
+    public String getStatistics() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return "connection pool: hits=" + hit + ", misses=" + misses.get()
+                + ", hitRatio=" + (total == 0 ? 0 : hit * 100 / total) + "%"
+                + ", evictions=" + evictions.get()
+                + ", validationFailures=" + validationFailures.get();
+    }
+
+    /**
+     * Connections of a host.
+     */
+    private final class HostPool {
+
+        /** permits for leased connections. */
+        private final Semaphore permits;
+
+        /** idle connections (most recently used first). */
+        private final Deque<PooledConnection> idleConnections = new ArrayDeque<PooledConnection>();
+
+        /**
+         * Constructor.
+         * @param max maximum number of connections
+         */
+        private HostPool(final int max) {
+            permits = new Semaphore(max, true);
+        }
+
+        /**
+         * wait for a free connection.
+         * @param key host:port
+         * @param timeout wait limit(msec)
+         * @throws IOException if no connection becomes free
+         */
+        private void acquire(final String key, final int timeout) throws IOException {
+            try {
+                if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("connection pool for " + key + " is exhausted (max " + maxPerHost + ")");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for a connection to " + key, e);
+            }
+        }
+
+        /**
+         * take an idle connection which is still usable.
+         * @return connection or null
+         */
+        private PooledConnection pollIdle() {
+            while (true) {
+                PooledConnection connection;
+                synchronized (this) {
+                    evictExpired();
+                    connection = idleConnections.pollFirst();
+                }
+                if (connection == null) {
+                    return null;
+                }
+                // a request on a connection closed within validateAfter is resent once by SolrClient
+                if (validate && connection.isExpired(System.currentTimeMillis(), validateAfter)
+                        && connection.isStale()) {
+                    validationFailures.incrementAndGet();
+                    LOG.debug("closing a stale connection to " + connection.getPoolKey());
+                    connection.close();
+                    continue;
+                }
+                return connection;
+            }
+        }
+
+        /**
+         * keep an idle connection.
+         * @param connection connection
+         */
+        private synchronized void offerIdle(final PooledConnection connection) {
+            idleConnections.offerFirst(connection);
+            evictExpired();
+        }
+
+        /**
+         * close connections which have been idle too long.
+         */
+        private synchronized void evictExpired() {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection connection = iterator.next();
+                if (!connection.isExpired(now, idleTimeout)) {
+                    break;
+                }
+                iterator.remove();
+                connection.close();
+                evictions.incrementAndGet();
+            }
+        }
+
+        /**
+         * close all idle connections.
+         */
+        private synchronized void closeIdle() {
+            for (PooledConnection connection : idleConnections) {
+                connection.close();
+            }
+            idleConnections.clear();
+        }
+    }
+}
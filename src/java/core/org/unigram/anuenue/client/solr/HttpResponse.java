@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Response of a HTTP request. Closing the response returns the connection to the pool.
+ */
+final class HttpResponse implements AutoCloseable {
+
+    /** size of the buffer used to drain the body. */
+    private static final int DRAIN_BUFFER_SIZE = 8192;
+
+    /** connection. */
+    private final PooledConnection connection;
+
+    /** pool which the connection belongs to. */
+    private final HttpConnectionPool pool;
+
+    /** HTTP status code. */
+    private final int statusCode;
+
+    /** response headers (names are lower case). */
+    private final Map<String, String> headers;
+
+    /** body. */
+    private final InputStream body;
+
+    /** decoded body, or null before getBody() is called. */
+    private InputStream decodedBody;
+
+    /** the connection can be reused after the body is consumed. */
+    private final boolean keepAlive;
+
+    /** the connection has been returned to the pool. */
+    private boolean released;
+
+    /**
+     * Constructor.
+     * @param conn connection
+     * @param connectionPool pool
+     * @param code status code
+     * @param responseHeaders response headers
+     * @param responseBody body
+     * @param reusable the connection can be reused
+     */
+    private HttpResponse(final PooledConnection conn, final HttpConnectionPool connectionPool,
+            final int code, final Map<String, String> responseHeaders,
+            final InputStream responseBody, final boolean reusable) {
+        connection = conn;
+        pool = connectionPool;
+        statusCode = code;
+        headers = responseHeaders;
+        body = responseBody;
+        keepAlive = reusable;
+        released = false;
+    }
+
+    /**
+     * read status line and headers of a response.
+     * @param conn connection
+     * @param connectionPool pool
+     * @param method HTTP method of the request
+     * @return HttpResponse
+     * @throws IOException in case of IO error
+     */
+    static HttpResponse read(final PooledConnection conn, final HttpConnectionPool connectionPool,
+            final String method) throws IOException {
+        InputStream in = conn.getInputStream();
+        String statusLine;
+        int code;
+        Map<String, String> responseHeaders;
+        do {
+            statusLine = PooledConnection.readLine(in);
+            if (statusLine == null) {
+                throw new EOFException("connection closed before response");
+            }
+            code = parseStatusCode(statusLine);
+            responseHeaders = readHeaders(in);
+        } while (code == 100);
+
+        boolean reusable;
+        String connectionHeader = responseHeaders.get("connection");
+        if (statusLine.startsWith("HTTP/1.0")) {
+            reusable = "keep-alive".equalsIgnoreCase(connectionHeader);
+        } else {
+            reusable = !"close".equalsIgnoreCase(connectionHeader);
+        }
+
+        InputStream responseBody;
+        String transferEncoding = responseHeaders.get("transfer-encoding");
+        String contentLength = responseHeaders.get("content-length");
+        if ("HEAD".equals(method) || code == 204 || code == 304) {
+            responseBody = new FixedLengthInputStream(in, 0);
+        } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            responseBody = new ChunkedInputStream(in);
+        } else if (contentLength != null) {
+            responseBody = new FixedLengthInputStream(in, parseContentLength(contentLength));
+        } else {
+            // the body ends when the server closes the connection
+            responseBody = in;
+            reusable = false;
+        }
+        return new HttpResponse(conn, connectionPool, code, responseHeaders, responseBody, reusable);
+    }
+
+    /**
+     * parse status line.
+     * @param statusLine status line
+     * @return status code
+     * @throws IOException if the status line is invalid
+     */
+    private static int parseStatusCode(final String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid status line: " + statusLine, e);
+        }
+    }
+
+    /**
+     * parse Content-Length. repeated headers are joined by commas, and must have the same value.
+     * @param contentLength value of the header
+     * @return length of the body
+     * @throws IOException if the value is invalid
+     */
+    static long parseContentLength(final String contentLength) throws IOException {
+        long length = -1;
+        for (String value : contentLength.split(",")) {
+            long parsed;
+            try {
+                parsed = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid content-length: " + contentLength, e);
+            }
+            if (parsed < 0 || length >= 0 && parsed != length) {
+                throw new IOException("invalid content-length: " + contentLength);
+            }
+            length = parsed;
+        }
+        return length;
+    }
+
+    /**
+     * read headers.
+     * @param in InputStream
+     * @return map of header name (lower case) to value
+     * @throws IOException in case of IO error
+     */
+    private static Map<String, String> readHeaders(final InputStream in) throws IOException {
+        Map<String, String> map = new HashMap<String, String>();
+        while (true) {
+            String line = PooledConnection.readLine(in);
+            if (line == null) {
+                throw new EOFException("connection closed while reading headers");
+            }
+            if (line.length() == 0) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            String value = line.substring(colon + 1).trim();
+            String previous = map.get(name);
+            map.put(name, previous == null ? value : previous + ", " + value);
+        }
+        return map;
+    }
+
+    /**
+     * get status code.
+     * @return status code
+     */
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * get a header value.
+     * @param name header name
+     * @return header value or null
+     */
+    String getHeader(final String name) {
+        return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * get the body as it has been sent, without decoding Content-Encoding.
+     * @return body
+     */
+    InputStream getRawBody() {
+        return body;
+    }
+
+    /**
+     * get the body, decoded if the response has Content-Encoding gzip or deflate.
+     * @return body
+     * @throws IOException in case of IO error
+     */
+    InputStream getBody() throws IOException {
+        if (decodedBody == null) {
+            String encoding = getHeader("Content-Encoding");
+            String name = encoding == null ? "" : encoding.trim().toLowerCase(Locale.ENGLISH);
+            if ("gzip".equals(name) || "x-gzip".equals(name)) {
+                decodedBody = new GZIPInputStream(body);
+            } else if ("deflate".equals(name)) {
+                decodedBody = new InflaterInputStream(body);
+            } else {
+                decodedBody = body;
+            }
+        }
+        return decodedBody;
+    }
+
+    /**
+     * consume the rest of the body and return the connection to the pool.
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        boolean reusable = keepAlive;
+        if (reusable) {
+            try {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (body.read(buffer) >= 0) {
+                    continue;
+                }
+            } catch (IOException e) {
+                reusable = false;
+            }
+        }
+        pool.release(connection, reusable);
+    }
+
+    /**
+     * close the connection without reading the rest of the body.
+     */
+    void abort() {
+        if (released) {
+            return;
+        }
+        released = true;
+        pool.release(connection, false);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoder of update requests in the javabin format of Solr (application/javabin),
+ * which is read by the update handler without parsing text.
+ * TSV data is converted by its header row: each line is a document whose fields are named
+ * by the columns of the header. The field values are copied as UTF-8 bytes without decoding,
+ * and empty values are skipped as the CSV loader of Solr does.
+ * Only what the loader of Solr 4 reads is written: the outermost named list with "params",
+ * and "docs" (an iterator of input documents), "delById" or "delByQ".
+ */
+public final class JavaBinEncoder {
+
+    /** version of the format. */
+    private static final int VERSION = 2;
+
+    /** tag: float. */
+    private static final int FLOAT = 8;
+
+    /** tag: iterator. */
+    private static final int ITERATOR = 14;
+
+    /** tag: end of an iterator. */
+    private static final int END = 15;
+
+    /** tag: input document. */
+    private static final int SOLRINPUTDOC = 16;
+
+    /** tag and length: string. */
+    private static final int STR = 1 << 5;
+
+    /** tag and length: array. */
+    private static final int ARR = 4 << 5;
+
+    /** tag and length: named list. */
+    private static final int NAMED_LST = 6 << 5;
+
+    /** tag and index: string which is written once and referred by its index. */
+    private static final int EXTERN_STRING = 7 << 5;
+
+    /** maximum length which is written in a tag byte. */
+    private static final int TAG_LENGTH_MAX = 0x1f;
+
+    /** estimated bytes written per document in addition to its values. */
+    private static final int DOCUMENT_OVERHEAD = 64;
+
+    /** charset of data. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** buffer. */
+    private byte[] buffer;
+
+    /** length of the data in the buffer. */
+    private int length;
+
+    /** map (extern string -> index). */
+    private final Map<String, Integer> externStrings = new HashMap<String, Integer>();
+
+    /**
+     * Constructor.
+     * @param capacity initial capacity
+     */
+    private JavaBinEncoder(final int capacity) {
+        buffer = new byte[Math.max(capacity, 64)];
+    }
+
+    /**
+     * encode TSV data as documents to add.
+     * @param header header row (with or without new line)
+     * @param body lines of documents. the buffer is not modified.
+     * @return encoded request
+     * @throws IOException if a line does not have as many values as the header
+     */
+    public static ByteBuffer encodeTSV(final byte[] header, final ByteBuffer body) throws IOException {
+        String[] fields = new String(header, UTF8).replaceAll("[\r\n]+$", "").split("\t", -1);
+        ByteBuffer data = body.duplicate();
+        JavaBinEncoder encoder = new JavaBinEncoder(data.remaining() + data.remaining() / 8 + DOCUMENT_OVERHEAD);
+        encoder.startRequest(2);
+        encoder.writeExternString("docs");
+        encoder.writeByte(ITERATOR);
+
+        byte[] bytes;
+        int offset;
+        int end;
+        if (data.hasArray()) {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+            end = offset + data.remaining();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.get(bytes);
+            offset = 0;
+            end = bytes.length;
+        }
+        int[] starts = new int[fields.length];
+        int[] ends = new int[fields.length];
+        int lineNumber = 0;
+        for (int lineStart = offset; lineStart < end;) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && bytes[lineEnd] != '\n') {
+                ++lineEnd;
+            }
+            int next = lineEnd + 1;
+            ++lineNumber;
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+            if (lineEnd > lineStart) {
+                int values = split(bytes, lineStart, lineEnd, starts, ends);
+                if (values != fields.length) {
+                    throw new IOException("expected " + fields.length + " values but got " + values
+                            + " at line " + lineNumber + ": " + new String(bytes, lineStart, lineEnd - lineStart, UTF8));
+                }
+                encoder.writeDocument(fields, bytes, starts, ends);
+            }
+            lineStart = next;
+        }
+        encoder.writeByte(END);
+        return encoder.toByteBuffer();
+    }
+
+    /**
+     * encode documents to delete by their unique keys.
+     * @param ids unique keys
+     * @return encoded request
+     */
+    public static ByteBuffer encodeDeleteById(final Collection<String> ids) {
+        return encodeDelete("delById", ids);
+    }
+
+    /**
+     * encode queries of documents to delete.
+     * @param queries queries
+     * @return encoded request
+     */
+    public static ByteBuffer encodeDeleteByQuery(final Collection<String> queries) {
+        return encodeDelete("delByQ", queries);
+    }
+
+    /**
+     * encode a delete request.
+     * @param name name of the list
+     * @param values unique keys or queries
+     * @return encoded request
+     */
+    private static ByteBuffer encodeDelete(final String name, final Collection<String> values) {
+        int capacity = DOCUMENT_OVERHEAD;
+        for (String value : values) {
+            capacity += value.length() * 3 + 5;
+        }
+        JavaBinEncoder encoder = new JavaBinEncoder(capacity);
+        encoder.startRequest(2);
+        encoder.writeExternString(name);
+        encoder.writeTag(ARR, values.size());
+        for (String value : values) {
+            byte[] bytes = value.getBytes(UTF8);
+            encoder.writeString(bytes, 0, bytes.length);
+        }
+        return encoder.toByteBuffer();
+    }
+
+    /**
+     * split a line by tabs.
+     * @param bytes data
+     * @param start start of the line
+     * @param end end of the line (without new line)
+     * @param starts starts of the values
+     * @param ends ends of the values
+     * @return number of values, which may be more than the length of the arrays
+     */
+    private static int split(final byte[] bytes, final int start, final int end, final int[] starts,
+            final int[] ends) {
+        int count = 0;
+        int valueStart = start;
+        for (int i = start; i <= end; ++i) {
+            if (i == end || bytes[i] == '\t') {
+                if (count < starts.length) {
+                    starts[count] = valueStart;
+                    ends[count] = i;
+                }
+                ++count;
+                valueStart = i + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * write the version and the outermost named list with empty params.
+     * @param entries number of entries of the named list
+     */
+    private void startRequest(final int entries) {
+        writeByte(VERSION);
+        writeTag(NAMED_LST, entries);
+        writeExternString("params");
+        writeTag(NAMED_LST, 0);
+    }
+
+    /**
+     * write a document.
+     * @param fields field names
+     * @param bytes data
+     * @param starts starts of the values
+     * @param ends ends of the values
+     */
+    private void writeDocument(final String[] fields, final byte[] bytes, final int[] starts, final int[] ends) {
+        int size = 0;
+        for (int i = 0; i < fields.length; ++i) {
+            if (ends[i] > starts[i]) {
+                ++size;
+            }
+        }
+        writeByte(SOLRINPUTDOC);
+        writeVInt(size);
+        // document boost
+        writeByte(FLOAT);
+        writeInt(Float.floatToIntBits(1.0f));
+        for (int i = 0; i < fields.length; ++i) {
+            if (ends[i] > starts[i]) {
+                writeExternString(fields[i]);
+                writeString(bytes, starts[i], ends[i] - starts[i]);
+            }
+        }
+    }
+
+    /**
+     * write a string which is written once and referred by its index after that.
+     * @param value string
+     */
+    private void writeExternString(final String value) {
+        Integer index = externStrings.get(value);
+        if (index != null) {
+            writeTag(EXTERN_STRING, index);
+            return;
+        }
+        writeTag(EXTERN_STRING, 0);
+        byte[] bytes = value.getBytes(UTF8);
+        writeString(bytes, 0, bytes.length);
+        externStrings.put(value, externStrings.size() + 1);
+    }
+
+    /**
+     * write a string given as UTF-8 bytes.
+     * @param bytes data
+     * @param offset offset of the string
+     * @param size length of the string in bytes
+     */
+    private void writeString(final byte[] bytes, final int offset, final int size) {
+        writeTag(STR, size);
+        ensure(size);
+        System.arraycopy(bytes, offset, buffer, length, size);
+        length += size;
+    }
+
+    /**
+     * write a tag with a length.
+     * @param tag tag
+     * @param size length
+     */
+    private void writeTag(final int tag, final int size) {
+        if (size < TAG_LENGTH_MAX) {
+            writeByte(tag | size);
+        } else {
+            writeByte(tag | TAG_LENGTH_MAX);
+            writeVInt(size - TAG_LENGTH_MAX);
+        }
+    }
+
+    /**
+     * write a variable length integer.
+     * @param value non-negative integer
+     */
+    private void writeVInt(final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            writeByte((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        writeByte(remaining);
+    }
+
+    /**
+     * write a 4 bytes integer (big endian).
+     * @param value integer
+     */
+    private void writeInt(final int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    /**
+     * write a byte.
+     * @param value byte
+     */
+    private void writeByte(final int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * ensure the buffer has room.
+     * @param size bytes to be written
+     */
+    private void ensure(final int size) {
+        if (length + size > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + size));
+        }
+    }
+
+    /**
+     * get the encoded bytes.
+     * @return encoded bytes
+     */
+    private ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+}
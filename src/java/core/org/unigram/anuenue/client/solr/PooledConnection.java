@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A persistent HTTP/1.1 connection to a Solr instance.
+ */
+final class PooledConnection {
+
+    /** encoding of HTTP headers. */
+    private static final String HEADER_ENCODING = "ISO-8859-1";
+
+    /** size of socket buffers. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** key of the pool (host:port). */
+    private final String poolKey;
+
+    /** value of Host header. */
+    private final String hostHeader;
+
+    /** socket. */
+    private final Socket socket;
+
+    /** input stream of the socket. */
+    private final InputStream inputStream;
+
+    /** output stream of the socket. */
+    private final OutputStream outputStream;
+
+    /** last time when this connection was returned to the pool. */
+    private long lastUsed;
+
+    /** number of requests sent via this connection. */
+    private int requestCount;
+
+    /** buffer of the byte peeked by isStale(). */
+    private final ByteBuffer peekBuffer = ByteBuffer.allocate(1);
+
+    /**
+     * Constructor.
+     * @param key key of the pool
+     * @param host host name
+     * @param port port number
+     * @param connectedSocket connected socket
+     * @throws IOException in case of IO error
+     */
+    private PooledConnection(final String key, final String host, final int port,
+            final Socket connectedSocket) throws IOException {
+        poolKey = key;
+        hostHeader = host + ":" + port;
+        socket = connectedSocket;
+        inputStream = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        lastUsed = System.currentTimeMillis();
+        requestCount = 0;
+    }
+
+    /**
+     * open a new connection.
+     * @param key key of the pool
+     * @param host host name
+     * @param port port number
+     * @param connectTimeout connect timeout(msec)
+     * @return PooledConnection
+     * @throws IOException in case of connection failure
+     */
+    static PooledConnection open(final String key, final String host, final int port,
+            final int connectTimeout) throws IOException {
+        // opened by a channel so that isStale() can peek without blocking
+        Socket socket = SocketChannel.open().socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            return new PooledConnection(key, host, port, socket);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * get key of the pool.
+     * @return key of the pool
+     */
+    String getPoolKey() {
+        return poolKey;
+    }
+
+    /**
+     * return whether this connection has been used before.
+     * @return true if this connection has been used before
+     */
+    boolean isReused() {
+        return requestCount > 0;
+    }
+
+    /**
+     * get input stream.
+     * @return input stream of the socket
+     */
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * set read timeout.
+     * @param timeout read timeout(msec)
+     * @throws IOException in case of socket error
+     */
+    void setReadTimeout(final int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    /**
+     * mark this connection as idle.
+     */
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * return whether this connection has been idle longer than given timeout.
+     * @param now current time
+     * @param idleTimeout idle timeout(msec)
+     * @return true if expired
+     */
+    boolean isExpired(final long now, final long idleTimeout) {
+        return now - lastUsed > idleTimeout;
+    }
+
+    /**
+     * check whether the server has closed this connection.
+     * the socket is peeked without blocking: an idle connection has nothing to read,
+     * so EOF or unexpected data means that it cannot be used.
+     * @return true if this connection cannot be used
+     */
+    boolean isStale() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return true;
+        }
+        try {
+            if (inputStream.available() > 0) {
+                return true;
+            }
+            SocketChannel channel = socket.getChannel();
+            channel.configureBlocking(false);
+            try {
+                peekBuffer.clear();
+                return channel.read(peekBuffer) != 0;
+            } finally {
+                channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * send a request.
+     * @param method HTTP method
+     * @param pathAndQuery path and query
+     * @param headers request headers
+     * @param entity request body (nullable)
+     * @throws IOException in case of IO error
+     */
+    void sendRequest(final String method, final String pathAndQuery,
+            final Map<String, String> headers, final RequestEntity entity) throws IOException {
+        ++requestCount;
+        StringBuilder head = new StringBuilder(256);
+        head.append(method).append(' ').append(pathAndQuery).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(hostHeader).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (entity != null) {
+            head.append("Content-Length: ").append(entity.getContentLength()).append("\r\n");
+        }
+        head.append("\r\n");
+        outputStream.write(head.toString().getBytes(HEADER_ENCODING));
+        if (entity != null) {
+            entity.writeTo(outputStream);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * close this connection.
+     */
+    void close() {
+        IOUtils.closeQuietly(socket);
+    }
+
+    /**
+     * read a line terminated by LF (CR is removed).
+     * @param in InputStream
+     * @return a line, or null if the stream ends before any byte is read
+     * @throws IOException in case of IO error
+     */
+    static String readLine(final InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(HEADER_ENCODING);
+    }
+}
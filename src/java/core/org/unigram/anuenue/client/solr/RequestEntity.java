@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Body of a HTTP request.
+ */
+abstract class RequestEntity {
+
+    /**
+     * get length of the body.
+     * @return length of the body
+     */
+    abstract long getContentLength();
+
+    /**
+     * write the body to given stream. the stream is not closed.
+     * @param outputStream OutputStream
+     * @throws IOException in case of IO error
+     */
+    abstract void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * check the body can be compressed in memory.
+     * @return true if the body can be compressed
+     */
+    boolean isCompressible() {
+        return true;
+    }
+
+    /**
+     * create an entity which holds the compressed body of given entity.
+     * @param entity entity
+     * @param encoding content encoding (gzip or deflate)
+     * @return RequestEntity
+     * @throws IOException in case of IO error
+     */
+    static RequestEntity compress(final RequestEntity entity, final String encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE,
+                entity.getContentLength() / 2 + 64));
+        try (DeflaterOutputStream outputStream = "gzip".equals(encoding)
+                ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+            entity.writeTo(outputStream);
+        }
+        return new ByteArrayEntity(compressed.toByteArray());
+    }
+
+    /**
+     * create an entity from a byte array.
+     * @param data data
+     * @return RequestEntity
+     */
+    static RequestEntity create(final byte[] data) {
+        return new ByteArrayEntity(data);
+    }
+
+    /**
+     * create an entity from header bytes and a slice of a file.
+     * @param header header bytes
+     * @param body slice of a file
+     * @return RequestEntity
+     */
+    static RequestEntity create(final byte[] header, final ByteBuffer body) {
+        return new SliceEntity(header, body);
+    }
+
+    /**
+     * create an entity from a file.
+     * @param file File
+     * @return RequestEntity
+     */
+    static RequestEntity create(final File file) {
+        return new FileEntity(file);
+    }
+
+    /**
+     * Entity of a byte array.
+     */
+    private static final class ByteArrayEntity extends RequestEntity {
+
+        /** data. */
+        private final byte[] data;
+
+        /**
+         * Constructor.
+         * @param bytes data
+         */
+        private ByteArrayEntity(final byte[] bytes) {
+            data = bytes;
+        }
+
+        @Override
+        long getContentLength() {
+            return data.length;
+        }
+
+        @Override
+        void writeTo(final OutputStream outputStream) throws IOException {
+            outputStream.write(data);
+        }
+    }
+
+    /**
+     * Entity of a file.
+     */
+    private static final class FileEntity extends RequestEntity {
+
+        /** file. */
+        private final File file;
+
+        /**
+         * Constructor.
+         * @param inputFile File
+         */
+        private FileEntity(final File inputFile) {
+            file = inputFile;
+        }
+
+        @Override
+        long getContentLength() {
+            return file.length();
+        }
+
+        @Override
+        boolean isCompressible() {
+            // a whole file is not held in memory
+            return false;
+        }
+
+        @Override
+        void writeTo(final OutputStream outputStream) throws IOException {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                IOUtils.copy(inputStream, outputStream);
+            }
+        }
+    }
+
+    /**
+     * Entity of header bytes and a slice of a file.
+     */
+    private static final class SliceEntity extends RequestEntity {
+
+        /** size of the buffer used to copy the slice. */
+        private static final int COPY_BUFFER_SIZE = 8192;
+
+        /** header bytes. */
+        private final byte[] header;
+
+        /** slice of a file. */
+        private final ByteBuffer body;
+
+        /**
+         * Constructor.
+         * @param headerBytes header bytes
+         * @param slice slice of a file
+         */
+        private SliceEntity(final byte[] headerBytes, final ByteBuffer slice) {
+            header = headerBytes;
+            body = slice;
+        }
+
+        @Override
+        long getContentLength() {
+            return header.length + body.remaining();
+        }
+
+        @Override
+        void writeTo(final OutputStream outputStream) throws IOException {
+            outputStream.write(header);
+            // the entity may be written twice when a request is retried
+            ByteBuffer slice = body.duplicate();
+            byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, slice.remaining())];
+            while (slice.hasRemaining()) {
+                int length = Math.min(buffer.length, slice.remaining());
+                slice.get(buffer, 0, length);
+                outputStream.write(buffer, 0, length);
+            }
+        }
+    }
+}
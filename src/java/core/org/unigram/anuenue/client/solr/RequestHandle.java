@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Handle which aborts a request from another thread.
+ * Aborting closes the connection of the request, so that a thread blocked in reading
+ * the response fails at once, and the connection is not returned to the pool.
+ */
+public final class RequestHandle {
+
+    /** connection of the request, or null. */
+    private PooledConnection connection;
+
+    /** the request has been aborted. */
+    private boolean aborted;
+
+    /**
+     * attach the connection of the request.
+     * @param conn connection
+     * @throws InterruptedIOException if the request has been aborted
+     */
+    synchronized void attach(final PooledConnection conn) throws InterruptedIOException {
+        if (aborted) {
+            throw new InterruptedIOException("request aborted");
+        }
+        connection = conn;
+    }
+
+    /**
+     * detach the connection after the request has finished.
+     * @return true if the request has been aborted, and the connection must not be reused
+     */
+    synchronized boolean detach() {
+        connection = null;
+        return aborted;
+    }
+
+    /**
+     * abort the request. a request which has not started fails when it starts.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    /**
+     * check the request has been aborted.
+     * @return true if aborted
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+}
@@ -15,36 +15,44 @@
  */
 package org.unigram.anuenue.client.solr;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.Writer;
 import java.net.HttpURLConnection;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
-
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.unigram.anuenue.exception.SolrResponseException;
 
 /**
  * Class which updates data.
+ * Requests are sent via persistent connections of the shared HttpConnectionPool.
  */
 public final class SolrClient {
 
     /** Solr ping path. */
     private static final String SOLR_PING_PATH = "/solr/admin/ping";
 
+    /** Solr select path. */
+    private static final String SOLR_SELECT_PATH = "/solr/select";
+
     /** Solr update path. */
     private static final String SOLR_UPDATE_PATH = "/solr/update";
 
@@ -67,6 +75,18 @@ public final class SolrClient {
     /** encoding for HTTP. */
     private static final String HTTP_ENCODING = "UTF-8";
 
+    /** content-type of TSV. */
+    private static final String TSV_CONTENT_TYPE = "text/csv; charset=" + HTTP_ENCODING;
+
+    /** content-type of XML. */
+    private static final String XML_CONTENT_TYPE = "text/xml; charset=" + HTTP_ENCODING;
+
+    /** content-type of javabin. */
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+
+    /** minimum status code which means an error. */
+    private static final int HTTP_ERROR_STATUS = 400;
+
     /** property: anuenue.http.connect.timeout. */
     private static final String PROPERTY_HTTP_CONNECT_TIMEOUT = "anuenue.http.connect.timeout";
 
@@ -84,6 +104,52 @@ public final class SolrClient {
 
     /** HTTP read timeout(msec). */
     private int readTimeout;
+
+    /** request compression: none. */
+    public static final String COMPRESSION_NONE = "none";
+
+    /** request compression: gzip. */
+    public static final String COMPRESSION_GZIP = "gzip";
+
+    /** request compression: deflate. */
+    public static final String COMPRESSION_DEFLATE = "deflate";
+
+    /** property: anuenue.http.request.compression. */
+    private static final String PROPERTY_HTTP_REQUEST_COMPRESSION = "anuenue.http.request.compression";
+
+    /** default value of request compression. */
+    private static final String DEFAULT_HTTP_REQUEST_COMPRESSION = COMPRESSION_NONE;
+
+    /** Content-Encoding of update posts (none, gzip or deflate). */
+    private final String requestCompression;
+
+    /** property: anuenue.http.request.compression.min.bytes. */
+    private static final String PROPERTY_HTTP_REQUEST_COMPRESSION_MIN_BYTES = "anuenue.http.request.compression.min.bytes";
+
+    /** default value of minimum size of a compressed body. */
+    private static final String DEFAULT_HTTP_REQUEST_COMPRESSION_MIN_BYTES = "1024";
+
+    /** minimum size of a compressed body; smaller bodies are sent as they are. */
+    private final long compressionMinBytes;
+
+    /** update format: TSV (and XML for deletes). */
+    public static final String FORMAT_TSV = "tsv";
+
+    /** update format: javabin. */
+    public static final String FORMAT_JAVABIN = "javabin";
+
+    /** property: anuenue.update.format. */
+    private static final String PROPERTY_UPDATE_FORMAT = "anuenue.update.format";
+
+    /** default value of update format. */
+    private static final String DEFAULT_UPDATE_FORMAT = FORMAT_TSV;
+
+    /** format of posted documents and deletes (tsv or javabin). */
+    private final String updateFormat;
+
+    /** encodings of responses accepted by the client. */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
     /**
      * Constructor.
      *
@@ -98,6 +164,33 @@ public final class SolrClient {
 
         connectTimeout = Integer.parseInt(System.getProperty(PROPERTY_HTTP_CONNECT_TIMEOUT, DEFAULT_HTTP_CONNECT_TIMEOUT));
         readTimeout = Integer.parseInt(System.getProperty(PROPERTY_HTTP_READ_TIMEOUT, DEFAULT_HTTP_READ_TIMEOUT));
+        String compression = System.getProperty(PROPERTY_HTTP_REQUEST_COMPRESSION, DEFAULT_HTTP_REQUEST_COMPRESSION);
+        if (!COMPRESSION_GZIP.equals(compression) && !COMPRESSION_DEFLATE.equals(compression)) {
+            if (!COMPRESSION_NONE.equals(compression)) {
+                LOG.warn("unknown request compression: " + compression + ". use " + COMPRESSION_NONE);
+            }
+            compression = COMPRESSION_NONE;
+        }
+        requestCompression = compression;
+        compressionMinBytes = Long.parseLong(System.getProperty(PROPERTY_HTTP_REQUEST_COMPRESSION_MIN_BYTES,
+                DEFAULT_HTTP_REQUEST_COMPRESSION_MIN_BYTES));
+        String format = System.getProperty(PROPERTY_UPDATE_FORMAT, DEFAULT_UPDATE_FORMAT);
+        if (!FORMAT_JAVABIN.equals(format)) {
+            if (!FORMAT_TSV.equals(format)) {
+                LOG.warn("unknown update format: " + format + ". use " + FORMAT_TSV);
+            }
+            format = FORMAT_TSV;
+        }
+        updateFormat = format;
+    }
+
+    /**
+     * get name of Solr instance.
+     *
+     * @return host:port
+     */
+    public String getName() {
+        return hostName + ":" + portNumber;
     }
 
     /**
@@ -118,12 +211,21 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public String updateTSVFile(final File file) throws IOException {
+        return getResult(post(SOLR_UPDATE_TSV_PATH_AND_QUERY, TSV_CONTENT_TYPE, RequestEntity.create(file)),
+                SOLR_UPDATE_TSV_PATH_AND_QUERY);
+    }
 
-        try (FileInputStream fis = new FileInputStream(file);
-                InputStreamReader isr = new InputStreamReader(fis, HTTP_ENCODING);
-                Reader reader = new BufferedReader(isr)) {
-            return updateTSVData(reader);
-        }
+    /**
+     * Update a TSV file, and read only the status header of the response.
+     *
+     * @param file File
+     *
+     * @return the status of post
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse updateTSVFileStatus(final File file) throws IOException {
+        return getStatus(post(SOLR_UPDATE_TSV_PATH_AND_QUERY, TSV_CONTENT_TYPE, RequestEntity.create(file)),
+                SOLR_UPDATE_TSV_PATH_AND_QUERY);
     }
 
     /**
@@ -135,23 +237,104 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public String updateTSVData(final String data) throws IOException {
-        try (Reader reader = new StringReader(data)) {
-            return updateTSVData(reader);
-        }
+        return getResult(postTSV(data), getTSVUpdatePath());
     }
 
     /**
-     * Update TSV data.
+     * update String TSV data, and read only the status header of the response.
      *
-     * @param reader Reader
+     * @param data String data.
+     *
+     * @return the status of post
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse updateTSVDataStatus(final String data) throws IOException {
+        return getStatus(postTSV(data), getTSVUpdatePath());
+    }
+
+    /**
+     * update TSV data given as the header and a slice of a file.
+     * the bytes are sent as they are, without decoding, or converted to javabin
+     * when the update format is javabin.
+     *
+     * @param header header bytes (with new line)
+     * @param body slice of a file
      *
      * @return the result of post
      * @throws IOException in case of IO error
      */
-    private String updateTSVData(final Reader reader) throws IOException {
-        URL solrURL = new URL("http", hostName, portNumber, SOLR_UPDATE_TSV_PATH_AND_QUERY);
-        String contentType = "text/csv; charset=" + HTTP_ENCODING;
-        return post(reader, solrURL, contentType);
+    public String updateTSVData(final byte[] header, final ByteBuffer body) throws IOException {
+        return getResult(postTSV(header, body), getTSVUpdatePath());
+    }
+
+    /**
+     * update TSV data given as the header and a slice of a file, and read only the status header
+     * of the response.
+     *
+     * @param header header bytes (with new line)
+     * @param body slice of a file
+     *
+     * @return the status of post
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse updateTSVDataStatus(final byte[] header, final ByteBuffer body) throws IOException {
+        return getStatus(postTSV(header, body), getTSVUpdatePath());
+    }
+
+    /**
+     * Post String TSV data in the update format.
+     *
+     * @param data String data (the header and lines)
+     *
+     * @return response. it must be closed.
+     * @throws IOException in case of IO error
+     */
+    private HttpResponse postTSV(final String data) throws IOException {
+        byte[] bytes = data.getBytes(HTTP_ENCODING);
+        if (!FORMAT_JAVABIN.equals(updateFormat)) {
+            return post(SOLR_UPDATE_TSV_PATH_AND_QUERY, TSV_CONTENT_TYPE, RequestEntity.create(bytes));
+        }
+        int headerLength = 0;
+        while (headerLength < bytes.length && bytes[headerLength] != '\n') {
+            ++headerLength;
+        }
+        headerLength = Math.min(headerLength + 1, bytes.length);
+        return postTSV(Arrays.copyOf(bytes, headerLength),
+                ByteBuffer.wrap(bytes, headerLength, bytes.length - headerLength));
+    }
+
+    /**
+     * Post TSV data given as the header and a slice of a file in the update format.
+     * the data is converted to javabin by the header when the update format is javabin.
+     *
+     * @param header header bytes (with new line)
+     * @param body slice of a file
+     *
+     * @return response. it must be closed.
+     * @throws IOException in case of IO error
+     * @throws SolrResponseException with 400 if a line does not match the header in javabin,
+     *             as Solr rejects such a line of TSV, so that invalid lines are isolated in the same way
+     */
+    private HttpResponse postTSV(final byte[] header, final ByteBuffer body) throws IOException {
+        if (FORMAT_JAVABIN.equals(updateFormat)) {
+            ByteBuffer request;
+            try {
+                request = JavaBinEncoder.encodeTSV(header, body);
+            } catch (IOException e) {
+                throw new SolrResponseException(HTTP_ERROR_STATUS, e.getMessage());
+            }
+            return post(SOLR_UPDATE_PATH, JAVABIN_CONTENT_TYPE, RequestEntity.create(new byte[0], request));
+        }
+        return post(SOLR_UPDATE_TSV_PATH_AND_QUERY, TSV_CONTENT_TYPE, RequestEntity.create(header, body));
+    }
+
+    /**
+     * get the path and query to which TSV data is posted.
+     *
+     * @return path and query
+     */
+    private String getTSVUpdatePath() {
+        return FORMAT_JAVABIN.equals(updateFormat) ? SOLR_UPDATE_PATH : SOLR_UPDATE_TSV_PATH_AND_QUERY;
     }
 
     /**
@@ -162,8 +345,20 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public String updateTSVViaStreamFile(final String argument) throws IOException  {
-        return get(new URL("http", hostName, portNumber, SOLR_UPDATE_TSV_VIA_STREAM_FILE_PATH_AND_QUERY
-                + URLEncoder.encode(new File(argument).getAbsolutePath(), "UTF-8")));
+        return get(SOLR_UPDATE_TSV_VIA_STREAM_FILE_PATH_AND_QUERY
+                + URLEncoder.encode(new File(argument).getAbsolutePath(), "UTF-8"));
+    }
+
+    /**
+     * Update TSV file via stream.file parameter, and read only the status header of the response.
+     * @param argument filename
+     *
+     * @return the status of get
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse updateTSVViaStreamFileStatus(final String argument) throws IOException  {
+        return getStatus(SOLR_UPDATE_TSV_VIA_STREAM_FILE_PATH_AND_QUERY
+                + URLEncoder.encode(new File(argument).getAbsolutePath(), "UTF-8"));
     }
 
     /**
@@ -173,7 +368,82 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public String ping() throws IOException {
-        return get(new URL("http", hostName, portNumber, SOLR_PING_PATH));
+        return get(SOLR_PING_PATH);
+    }
+
+    /**
+     * Ping to a Solr instance, and read only the status header of the response.
+     *
+     * @return the status of ping
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse pingStatus() throws IOException {
+        return getStatus(SOLR_PING_PATH);
+    }
+
+    /**
+     * Search.
+     *
+     * @param query query string (URL encoded parameters)
+     *
+     * @return the result of search
+     * @throws IOException in case of IO error
+     */
+    public String select(final String query) throws IOException {
+        return get(SOLR_SELECT_PATH + "?" + query);
+    }
+
+    /**
+     * Search, and return the body as a stream instead of a string.
+     * Closing the stream returns the connection to the pool.
+     *
+     * @param query query string (URL encoded parameters)
+     *
+     * @return the result of search (decoded if it is compressed). it must be closed.
+     * @throws IOException in case of IO error
+     */
+    public InputStream selectStream(final String query) throws IOException {
+        String pathAndQuery = SOLR_SELECT_PATH + "?" + query;
+        final HttpResponse httpResponse = execute("GET", pathAndQuery, new LinkedHashMap<String, String>(), null,
+                null);
+        try {
+            checkStatus(httpResponse, pathAndQuery);
+            return new FilterInputStream(httpResponse.getBody()) {
+                @Override
+                public void close() {
+                    httpResponse.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            httpResponse.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Search, which can be aborted by the handle from another thread.
+     *
+     * @param query query string (URL encoded parameters)
+     * @param handle handle of the request
+     *
+     * @return the result of search
+     * @throws IOException in case of IO error, or if the request has been aborted
+     */
+    public String select(final String query, final RequestHandle handle) throws IOException {
+        String pathAndQuery = SOLR_SELECT_PATH + "?" + query;
+        try (HttpResponse httpResponse = execute("GET", pathAndQuery, new LinkedHashMap<String, String>(), null,
+                handle)) {
+            try {
+                checkStatus(httpResponse, pathAndQuery);
+                return IOUtils.toString(httpResponse.getBody(), HTTP_ENCODING);
+            } finally {
+                // detach before the connection is returned to the pool, so that a late abort
+                // does not close it under another request
+                if (handle.detach()) {
+                    httpResponse.abort();
+                }
+            }
+        }
     }
 
     /**
@@ -185,41 +455,85 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public String updateXML(final String data) throws IOException {
+        return getResult(post(SOLR_UPDATE_PATH, XML_CONTENT_TYPE, RequestEntity.create(data.getBytes(HTTP_ENCODING))),
+                SOLR_UPDATE_PATH);
+    }
 
-        try (Reader reader = new StringReader(data)) {
-            return post(reader);
+    /**
+     * Update XML, and read only the status header of the response.
+     *
+     * @param data String data
+     *
+     * @return the status of post
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse updateXMLStatus(final String data) throws IOException {
+        return getStatus(post(SOLR_UPDATE_PATH, XML_CONTENT_TYPE, RequestEntity.create(data.getBytes(HTTP_ENCODING))),
+                SOLR_UPDATE_PATH);
+    }
+
+    /**
+     * Delete documents by their unique keys, and read only the status header of the response.
+     * the request is javabin when the update format is javabin, and XML otherwise.
+     *
+     * @param ids unique keys
+     *
+     * @return the status of post
+     * @throws IOException in case of IO error
+     */
+    public SolrResponse deleteById(final Collection<String> ids) throws IOException {
+        if (FORMAT_JAVABIN.equals(updateFormat)) {
+            return getStatus(post(SOLR_UPDATE_PATH, JAVABIN_CONTENT_TYPE,
+                    RequestEntity.create(new byte[0], JavaBinEncoder.encodeDeleteById(ids))), SOLR_UPDATE_PATH);
         }
+        StringBuilder builder = new StringBuilder("<delete>");
+        for (String id : ids) {
+            builder.append("<id>").append(StringEscapeUtils.escapeXml(id)).append("</id>");
+        }
+        return updateXMLStatus(builder.append("</delete>").toString());
     }
 
     /**
-     * Post data.
+     * Delete documents which match a query, and read only the status header of the response.
+     * the request is javabin when the update format is javabin, and XML otherwise.
      *
-     * @param reader Reader
+     * @param query query
      *
-     * @return the result of post
+     * @return the status of post
      * @throws IOException in case of IO error
      */
-    private String post(final Reader reader) throws IOException {
-        URL solrURL = new URL("http", hostName, portNumber, SOLR_UPDATE_PATH);
-        String contentType = "text/xml; charset=" + HTTP_ENCODING;
-        return post(reader, solrURL, contentType);
+    public SolrResponse deleteByQuery(final String query) throws IOException {
+        if (FORMAT_JAVABIN.equals(updateFormat)) {
+            return getStatus(post(SOLR_UPDATE_PATH, JAVABIN_CONTENT_TYPE, RequestEntity.create(new byte[0],
+                    JavaBinEncoder.encodeDeleteByQuery(Collections.singletonList(query)))), SOLR_UPDATE_PATH);
+        }
+        return updateXMLStatus("<delete><query>" + StringEscapeUtils.escapeXml(query) + "</query></delete>");
     }
 
     /**
-     * Post data.
+     * Post data. the body is compressed when request compression is enabled.
      *
-     * @param reader data
-     * @param solrURL the URL for updating solr data
+     * @param pathAndQuery path and query
      * @param contentType content-type
+     * @param entity data
      *
-     * @return the result of post
+     * @return response. it must be closed.
      * @throws IOException in case of IO error
      */
-    private String post(final Reader reader, final URL solrURL,
-            final String contentType) throws IOException {
-        HttpURLConnection urlc = null;
-        urlc = getPostHttpURLConnection(solrURL, contentType);
-        return post(reader, urlc);
+    private HttpResponse post(final String pathAndQuery, final String contentType,
+            final RequestEntity entity) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", contentType);
+        RequestEntity body = entity;
+        if (!COMPRESSION_NONE.equals(requestCompression) && entity.isCompressible()
+                && entity.getContentLength() >= compressionMinBytes) {
+            body = RequestEntity.compress(entity, requestCompression);
+            headers.put("Content-Encoding", requestCompression);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("compressed " + entity.getContentLength() + " bytes to " + body.getContentLength());
+            }
+        }
+        return execute("POST", pathAndQuery, headers, body, null);
     }
 
     /**
@@ -241,18 +555,30 @@ public final class SolrClient {
     /**
      * Get data.
      *
-     * @param solrURL the URL for updating solr data
+     * @param pathAndQuery path and query
      *
      * @return the result of get
      * @throws IOException in case of IO error
      */
-    private String get(final URL solrURL) throws IOException {
-        HttpURLConnection urlc = getGetHttpURLConnection(solrURL);
-        return getResult(urlc);
+    private String get(final String pathAndQuery) throws IOException {
+        return getResult(execute("GET", pathAndQuery, new LinkedHashMap<String, String>(), null, null), pathAndQuery);
+    }
+
+    /**
+     * Get data, and read only the status header of the response.
+     *
+     * @param pathAndQuery path and query
+     *
+     * @return the status of get
+     * @throws IOException in case of IO error
+     */
+    private SolrResponse getStatus(final String pathAndQuery) throws IOException {
+        return getStatus(execute("GET", pathAndQuery, new LinkedHashMap<String, String>(), null, null), pathAndQuery);
     }
 
     /**
      * Get data and copy them to HttpServletResponse.
+     * A compressed body is decoded, since the client is not known to accept it.
      *
      * @param path     the URL for updating solr data
      * @param response HttpServletResponse
@@ -260,14 +586,140 @@ public final class SolrClient {
      * @throws IOException in case of IO error
      */
     public void getAndCopyToHttpServletResponse(final String path, final HttpServletResponse response) throws IOException {
-        HttpURLConnection urlc = getGetHttpURLConnection(new URL("http", hostName, portNumber, path));
+        getAndCopyToHttpServletResponse(path, null, response);
+    }
 
-        response.setContentType(urlc.getContentType());
-        try (Writer writer = response.getWriter();
-                InputStream inputStream = urlc.getInputStream()) {
-            IOUtils.copy(inputStream, writer, HTTP_ENCODING);
+    /**
+     * Get data and copy the bytes to HttpServletResponse as they are.
+     * Content-Type, Content-Length and Content-Encoding are passed through, so that a compressed
+     * body is not decompressed and compressed again. A compressed body is decoded only when
+     * the request does not accept its encoding.
+     *
+     * @param path     the URL for updating solr data
+     * @param request  HttpServletRequest whose Accept-Encoding is checked (nullable: the body is decoded)
+     * @param response HttpServletResponse
+     *
+     * @throws IOException in case of IO error
+     */
+    public void getAndCopyToHttpServletResponse(final String path, final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        try (HttpResponse httpResponse = execute("GET", path, new LinkedHashMap<String, String>(), null, null)) {
+            checkStatus(httpResponse, path);
+            String contentType = httpResponse.getHeader("Content-Type");
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            String encoding = httpResponse.getHeader("Content-Encoding");
+            InputStream body;
+            if (encoding == null || acceptsEncoding(request, encoding)) {
+                if (encoding != null) {
+                    response.setHeader("Content-Encoding", encoding);
+                    response.addHeader("Vary", "Accept-Encoding");
+                }
+                String contentLength = httpResponse.getHeader("Content-Length");
+                if (contentLength != null) {
+                    response.setHeader("Content-Length", contentLength.trim());
+                }
+                body = httpResponse.getRawBody();
+            } else {
+                body = httpResponse.getBody();
+            }
+            OutputStream outputStream = response.getOutputStream();
+            BufferPool bufferPool = BufferPool.getInstance();
+            byte[] buffer = bufferPool.acquire();
+            try {
+                int length;
+                while ((length = body.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, length);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+            outputStream.flush();
         }
     }
+
+    /**
+     * Check a request accepts a content coding.
+     *
+     * @param request request (nullable)
+     * @param encoding content coding
+     *
+     * @return true if Accept-Encoding of the request has the coding without q=0
+     */
+    static boolean acceptsEncoding(final HttpServletRequest request, final String encoding) {
+        String accept = request == null ? null : request.getHeader("Accept-Encoding");
+        if (accept == null) {
+            return false;
+        }
+        String coding = encoding.trim();
+        for (String element : accept.split(",")) {
+            String[] parameters = element.split(";");
+            if (!parameters[0].trim().equalsIgnoreCase(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parameters.length; ++i) {
+                String parameter = parameters[i].replace(" ", "");
+                if (parameter.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Send a request via a pooled connection.
+     * A request on a reused connection is retried once with a new connection,
+     * because the server may have closed it after validation.
+     *
+     * @param method HTTP method
+     * @param pathAndQuery path and query
+     * @param headers request headers
+     * @param entity request body (nullable)
+     * @param handle handle which aborts the request (nullable)
+     *
+     * @return response. it must be closed.
+     * @throws IOException in case of IO error
+     */
+    private HttpResponse execute(final String method, final String pathAndQuery,
+            final Map<String, String> headers, final RequestEntity entity, final RequestHandle handle)
+            throws IOException {
+        headers.put("Accept-Encoding", ACCEPT_ENCODING);
+        HttpConnectionPool pool = HttpConnectionPool.getInstance();
+        for (int attempt = 0;; ++attempt) {
+            PooledConnection connection = pool.lease(hostName, portNumber, connectTimeout);
+            boolean reused = connection.isReused();
+            if (handle != null) {
+                try {
+                    handle.attach(connection);
+                } catch (IOException e) {
+                    pool.release(connection, true);
+                    throw e;
+                }
+            }
+            try {
+                connection.setReadTimeout(readTimeout);
+                connection.sendRequest(method, pathAndQuery, headers, entity);
+                return HttpResponse.read(connection, pool, method);
+            } catch (SocketTimeoutException e) {
+                pool.release(connection, false);
+                throw e;
+            } catch (IOException e) {
+                pool.release(connection, false);
+                if (!reused || attempt > 0) {
+                    throw e;
+                }
+                LOG.debug("retrying with a new connection: " + e.toString());
+            } catch (RuntimeException | Error e) {
+                // the connection and the permit of the host must not leak
+                pool.release(connection, false);
+                throw e;
+            }
+        }
+    }
+
     /**
      * Submit data.
      *
@@ -300,60 +752,55 @@ public final class SolrClient {
     }
 
     /**
-     * Get HttpURLConnection.
+     * Get result from a response and return the connection to the pool.
      *
-     * @param solrURL URL for updating sorl data
-     * @param contentType content-type
-     * @param method HTTP method
-     * @return HttpURLConnection
+     * @param httpResponse response
+     * @param pathAndQuery path and query of the request
+     *
+     * @return result
+     * @throws IOException in case of IO error or error status
      */
-    private HttpURLConnection getHttpURLConnection(final URL solrURL,
-            final String contentType, final String method) {
-        HttpURLConnection urlc = null;
-
-        try {
-            urlc = (HttpURLConnection) solrURL.openConnection();
-            urlc.setRequestMethod(method);
-            urlc.setDoOutput(true);
-            urlc.setDoInput(true);
-            urlc.setUseCaches(false);
-            urlc.setAllowUserInteraction(false);
-            if (contentType != null) {
-                urlc.setRequestProperty("Content-type", contentType);
-            }
-            urlc.setConnectTimeout(connectTimeout);
-            urlc.setReadTimeout(readTimeout);
-        } catch (ProtocolException e) {
-            throw new RuntimeException(
-                    "Shouldn't happen: HttpURLConnection doesn't support POST?"
-                            + e.toString(), e);
-        } catch (IOException e) {
-            LOG.error(e.toString());
-            throw new RuntimeException(e);
+    private String getResult(final HttpResponse httpResponse, final String pathAndQuery) throws IOException {
+        try (HttpResponse r = httpResponse) {
+            checkStatus(r, pathAndQuery);
+            return IOUtils.toString(r.getBody(), HTTP_ENCODING);
         }
-        return urlc;
     }
 
     /**
-     * Get HttpURLConnection via POST.
+     * Read the status header of a response and return the connection to the pool.
+     * The rest of the body is skipped without being kept.
      *
-     * @param solrURL URL for updating sorl data
-     * @param contentType content-type
-     * @return HttpURLConnection
+     * @param httpResponse response
+     * @param pathAndQuery path and query of the request
+     *
+     * @return status header
+     * @throws IOException in case of IO error or error status
      */
-    private HttpURLConnection getPostHttpURLConnection(final URL solrURL,
-            final String contentType) {
-        return getHttpURLConnection(solrURL, contentType, "POST");
+    private SolrResponse getStatus(final HttpResponse httpResponse, final String pathAndQuery) throws IOException {
+        try (HttpResponse r = httpResponse) {
+            checkStatus(r, pathAndQuery);
+            return SolrResponse.read(r.getBody());
+        }
     }
 
     /**
-     * Get HttpURLConnection via GET.
+     * Check status code of a response.
      *
-     * @param solrURL URL for updating sorl data
-     * @return HttpURLConnection
+     * @param httpResponse response
+     * @param pathAndQuery path and query of the request
+     *
+     * @throws SolrResponseException if the status code is an error
+     * @throws IOException in case of IO error
      */
-    private HttpURLConnection getGetHttpURLConnection(final URL solrURL) {
-        return getHttpURLConnection(solrURL, null, "GET");
+    private void checkStatus(final HttpResponse httpResponse, final String pathAndQuery) throws IOException {
+        int statusCode = httpResponse.getStatusCode();
+        if (statusCode < HTTP_ERROR_STATUS) {
+            return;
+        }
+        String body = IOUtils.toString(httpResponse.getBody(), HTTP_ENCODING);
+        throw new SolrResponseException(statusCode, "Server returned HTTP response code: " + statusCode
+                + " for URL: http://" + hostName + ":" + portNumber + pathAndQuery + " " + body);
     }
 
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Status header of a Solr response (status and QTime of responseHeader).
+ * The header is parsed from the head of the body, in XML or JSON, and the rest of the body
+ * is skipped without being kept.
+ */
+public final class SolrResponse {
+
+    /** number of bytes at the head of the body which are searched for the header. */
+    private static final int HEADER_LIMIT = 4096;
+
+    /** value of a field which is not found. */
+    public static final int UNKNOWN = -1;
+
+    /** keys of status (XML, JSON). */
+    private static final byte[][] STATUS_KEYS = {bytes("<int name=\"status\">"), bytes("\"status\":")};
+
+    /** keys of QTime (XML, JSON). */
+    private static final byte[][] QTIME_KEYS = {bytes("<int name=\"QTime\">"), bytes("\"QTime\":")};
+
+    /** status of responseHeader. */
+    private final int status;
+
+    /** QTime of responseHeader(msec). */
+    private final int qTime;
+
+    /** length of the body. */
+    private final long length;
+
+    /**
+     * Constructor.
+     * @param responseStatus status
+     * @param responseQTime QTime
+     * @param bodyLength length of the body
+     */
+    private SolrResponse(final int responseStatus, final int responseQTime, final long bodyLength) {
+        status = responseStatus;
+        qTime = responseQTime;
+        length = bodyLength;
+    }
+
+    /**
+     * read the header from a body, and skip the rest of the body.
+     * @param body body
+     * @return SolrResponse
+     * @throws IOException in case of IO error
+     */
+    static SolrResponse read(final InputStream body) throws IOException {
+        BufferPool bufferPool = BufferPool.getInstance();
+        byte[] buffer = bufferPool.acquire();
+        try {
+            int limit = Math.min(HEADER_LIMIT, buffer.length);
+            int filled = 0;
+            int responseStatus = UNKNOWN;
+            int responseQTime = UNKNOWN;
+            int read = 0;
+            while (filled < limit && (responseStatus == UNKNOWN || responseQTime == UNKNOWN)
+                    && (read = body.read(buffer, filled, limit - filled)) >= 0) {
+                filled += read;
+                responseStatus = find(buffer, filled, STATUS_KEYS);
+                responseQTime = find(buffer, filled, QTIME_KEYS);
+            }
+            long bodyLength = filled;
+            while (read >= 0 && (read = body.read(buffer)) >= 0) {
+                bodyLength += read;
+            }
+            return new SolrResponse(responseStatus, responseQTime, bodyLength);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * find the integer value of a key.
+     * @param buffer buffer
+     * @param length length of the data in the buffer
+     * @param keys keys
+     * @return value, or UNKNOWN if no key is followed by a complete integer
+     */
+    static int find(final byte[] buffer, final int length, final byte[][] keys) {
+        for (byte[] key : keys) {
+            int index = indexOf(buffer, length, key);
+            if (index < 0) {
+                continue;
+            }
+            int value = 0;
+            int i = index + key.length;
+            while (i < length && buffer[i] == ' ') {
+                ++i;
+            }
+            int digits = i;
+            while (i < length && buffer[i] >= '0' && buffer[i] <= '9') {
+                value = value * 10 + buffer[i] - '0';
+                ++i;
+            }
+            // the integer must be terminated in the buffer
+            if (i > digits && i < length) {
+                return value;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * find bytes in a buffer.
+     * @param buffer buffer
+     * @param length length of the data in the buffer
+     * @param key bytes to find
+     * @return index, or -1 if not found
+     */
+    private static int indexOf(final byte[] buffer, final int length, final byte[] key) {
+        int last = length - key.length;
+        for (int i = 0; i <= last; ++i) {
+            int j = 0;
+            while (j < key.length && buffer[i + j] == key[j]) {
+                ++j;
+            }
+            if (j == key.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * encode an ASCII string.
+     * @param text string
+     * @return bytes
+     */
+    private static byte[] bytes(final String text) {
+        return text.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * get status of responseHeader. 0 means success.
+     * @return status, or UNKNOWN if the body has no header
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * get QTime of responseHeader.
+     * @return QTime(msec), or UNKNOWN if the body has no header
+     */
+    public int getQTime() {
+        return qTime;
+    }
+
+    /**
+     * get the length of the (decoded) body.
+     * @return length
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "status=" + (status == UNKNOWN ? "-" : String.valueOf(status))
+                + ", QTime=" + (qTime == UNKNOWN ? "-" : String.valueOf(qTime)) + ", bytes=" + length;
+    }
+}
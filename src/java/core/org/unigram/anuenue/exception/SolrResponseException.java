@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.exception;
+
+import java.io.IOException;
+
+/**
+ * if a Solr instance returns an error status, SolrClient throws this Exception.
+ */
+public class SolrResponseException extends IOException {
+
+    /**
+     * Serial Version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /** HTTP status code: service unavailable. */
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    /** minimum status code of client errors. */
+    private static final int CLIENT_ERROR = 400;
+
+    /** minimum status code of server errors. */
+    private static final int SERVER_ERROR = 500;
+
+    /** HTTP status code. */
+    private final int statusCode;
+
+    /**
+     * Constructor.
+     * @param code HTTP status code
+     * @param message error message
+     */
+    public SolrResponseException(final int code, final String message) {
+        super(message);
+        statusCode = code;
+    }
+
+    /**
+     * get HTTP status code.
+     * @return HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * check the Solr instance is overloaded (HTTP 503).
+     * @return true if the status is 503
+     */
+    public boolean isServiceUnavailable() {
+        return statusCode == SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * check the Solr instance rejected the request (HTTP 4xx).
+     * @return true if the status is 4xx
+     */
+    public boolean isClientError() {
+        return statusCode >= CLIENT_ERROR && statusCode < SERVER_ERROR;
+    }
+}
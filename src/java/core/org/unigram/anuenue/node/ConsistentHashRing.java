@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.node;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * Consistent hash ring which maps a document id to a node.
+ * Points of the nodes are computed by MD5 in the same way as ketama,
+ * so that adding or removing a node moves only the ids of the node.
+ */
+public final class ConsistentHashRing {
+
+    /** number of points taken from one MD5 digest. */
+    private static final int POINTS_PER_DIGEST = 4;
+
+    /** charset of ids. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** map (point -> node). */
+    private final TreeMap<Long, Node> ring = new TreeMap<Long, Node>();
+
+    /** nodes on the ring. */
+    private final List<Node> nodes;
+
+    /**
+     * Constructor.
+     * @param nodeList nodes
+     * @param virtualNodes number of points per node
+     * @throws AnuenueException if no node is given
+     */
+    public ConsistentHashRing(final List<Node> nodeList, final int virtualNodes) throws AnuenueException {
+        if (nodeList == null || nodeList.isEmpty()) {
+            throw new AnuenueException("no node for consistent hash ring");
+        }
+        nodes = Collections.unmodifiableList(new ArrayList<Node>(nodeList));
+        int digests = Math.max(1, (virtualNodes + POINTS_PER_DIGEST - 1) / POINTS_PER_DIGEST);
+        for (Node node : nodes) {
+            for (int i = 0; i < digests; ++i) {
+                byte[] digest = md5(node.getName() + "-" + i);
+                for (int h = 0; h < POINTS_PER_DIGEST; ++h) {
+                    ring.put(point(digest, h), node);
+                }
+            }
+        }
+    }
+
+    /**
+     * get the node which owns an id.
+     * @param id document id
+     * @return Node
+     */
+    public Node getNode(final String id) {
+        Map.Entry<Long, Node> entry = ring.ceilingEntry(point(md5(id), 0));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * get nodes on the ring.
+     * @return nodes
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * compute a point from a digest.
+     * @param digest MD5 digest
+     * @param index index of the point in the digest (0-3)
+     * @return point (unsigned 32bit value)
+     */
+    private static long point(final byte[] digest, final int index) {
+        int offset = index * POINTS_PER_DIGEST;
+        return ((long) (digest[offset + 3] & 0xFF) << 24)
+                | ((long) (digest[offset + 2] & 0xFF) << 16)
+                | ((long) (digest[offset + 1] & 0xFF) << 8)
+                | (digest[offset] & 0xFF);
+    }
+
+    /**
+     * compute MD5 digest.
+     * @param key key
+     * @return digest
+     */
+    private static byte[] md5(final String key) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
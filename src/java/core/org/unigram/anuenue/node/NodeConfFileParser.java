@@ -168,7 +168,7 @@ public final class NodeConfFileParser {
         String groupName = null;
         if (node.getParentNode().getAttributes().getNamedItem(ATTRIBUTE_NAME_GROUP) != null) {
             groupName = node.getParentNode().getAttributes()
-                    .getNamedItem(ATTRIBUTE_NAME_GROUP).toString();
+                    .getNamedItem(ATTRIBUTE_NAME_GROUP).getNodeValue();
         }
         if (groupName == null || groupName.equals("")) {
             groupName = Node.DEFAULT_GROUP_NAME;
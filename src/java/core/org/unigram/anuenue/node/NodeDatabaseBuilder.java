@@ -121,7 +121,7 @@ public final class NodeDatabaseBuilder {
                 masters.add(n);
             }
             if (n.isMerger()) {
-                LOG.info("Role merger is obsoleted. :"  + n.getName());
+                LOG.info("Role merger is obsoleted. use /anuenue/select of any node. :"  + n.getName());
             }
             if (n.isSlave()) {
                 slaves.add(n);
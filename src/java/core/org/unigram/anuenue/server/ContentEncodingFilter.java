@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter which decodes request bodies sent with "Content-Encoding: gzip" or "deflate",
+ * so that Solr accepts compressed updates.
+ * Requests without Content-Encoding pass through as they are.
+ * The filter is registered in webdefault.xml, and loaded from the server classpath.
+ */
+public final class ContentEncodingFilter implements Filter {
+
+    /** Content-Encoding header. */
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    /** Content-Length header. */
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String encoding = httpRequest.getHeader(CONTENT_ENCODING);
+        if (encoding == null || "identity".equalsIgnoreCase(encoding.trim())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        switch (encoding.trim().toLowerCase(Locale.ENGLISH)) {
+        case "gzip":
+        case "x-gzip":
+            chain.doFilter(new DecodedRequest(httpRequest, new GZIPInputStream(httpRequest.getInputStream())),
+                    response);
+            break;
+        case "deflate":
+            chain.doFilter(new DecodedRequest(httpRequest, new InflaterInputStream(httpRequest.getInputStream())),
+                    response);
+            break;
+        default:
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                    "unsupported Content-Encoding: " + encoding);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Request whose body is decoded.
+     * Content-Encoding and Content-Length are hidden, because they describe the encoded body.
+     */
+    private static final class DecodedRequest extends HttpServletRequestWrapper {
+
+        /** decoded body. */
+        private final ServletInputStream inputStream;
+
+        /** reader of the body, or null. */
+        private BufferedReader reader;
+
+        /**
+         * Constructor.
+         * @param request request
+         * @param decoded decoded body
+         */
+        private DecodedRequest(final HttpServletRequest request, final InputStream decoded) {
+            super(request);
+            inputStream = new ServletInputStream() {
+                @Override
+                public int read() throws IOException {
+                    return decoded.read();
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    return decoded.read(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    decoded.close();
+                }
+            };
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(inputStream, charset == null ? "ISO-8859-1" : charset));
+            }
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            if (isHidden(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(final String name) {
+            if (isHidden(name)) {
+                return Collections.enumeration(Collections.<String>emptyList());
+            }
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public int getIntHeader(final String name) {
+            if (isHidden(name)) {
+                return -1;
+            }
+            return super.getIntHeader(name);
+        }
+
+        /**
+         * check a header is hidden.
+         * @param name header name
+         * @return true if the header describes the encoded body
+         */
+        private static boolean isHidden(final String name) {
+            return CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+}
@@ -0,0 +1,831 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.NodeDatabase;
+import org.unigram.anuenue.util.LatencyHistogram;
+
+/**
+ * Merger which sends a query to one replica of every shard in parallel and merges the top documents.
+ * A shard is a master and the slaves replicating it, and its replicas are searched in turn.
+ * The documents are merged with a heap bounded by start + rows, which is limited by
+ * anuenue.merger.max.rows. Shards which fail or do not answer by the deadline are reported,
+ * and the documents of the other shards are returned as partial results.
+ */
+final class SearchMerger {
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(SearchMerger.class);
+
+    /** shard status: ok. */
+    static final String STATUS_OK = "ok";
+
+    /** shard status: error. */
+    static final String STATUS_ERROR = "error";
+
+    /** shard status: timeout. */
+    static final String STATUS_TIMEOUT = "timeout";
+
+    /** uniqueKey field, which is always requested from the shards. */
+    private static final String ID_FIELD = System.getProperty(AnuenueCommandConstants.PROPERTY_UNIQUE_KEY,
+            AnuenueCommandConstants.DEFAULT_UNIQUE_KEY);
+
+    /** score field. */
+    static final String SCORE_FIELD = "score";
+
+    /** property: anuenue.merger.max.rows. */
+    private static final String PROPERTY_MAX_ROWS = "anuenue.merger.max.rows";
+
+    /** default: maximum of start + rows, which is the number of documents requested from each shard. */
+    private static final String DEFAULT_MAX_ROWS = "10000";
+
+    /** maximum of start + rows. */
+    private static final long MAX_ROWS = Long.parseLong(System.getProperty(PROPERTY_MAX_ROWS, DEFAULT_MAX_ROWS));
+
+    /** parameters which are replaced in the queries to the shards. */
+    private static final Set<String> REPLACED_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "start", "rows", "wt", "fl", "deadline", "json.wrf", "omitHeader"));
+
+    /** shards. */
+    private final List<Shard> shards;
+
+    /** searcher of the replicas. */
+    private final ShardSearcher searcher;
+
+    /** threads which search the shards. */
+    private final ExecutorService executor;
+
+    /** number of queries. */
+    private final AtomicLong queries = new AtomicLong();
+
+    /** number of queries with partial results. */
+    private final AtomicLong partialQueries = new AtomicLong();
+
+    /** number of failed shard requests. */
+    private final AtomicLong failedShards = new AtomicLong();
+
+    /** number of timed out shard requests. */
+    private final AtomicLong timedOutShards = new AtomicLong();
+
+    /** latencies of queries. */
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+    /** latencies of shard requests. */
+    private final LatencyHistogram shardLatency = new LatencyHistogram();
+
+    /** latencies of merges. */
+    private final LatencyHistogram mergeLatency = new LatencyHistogram();
+
+    /**
+     * Searcher of a replica.
+     */
+    interface ShardSearcher {
+
+        /**
+         * search a replica.
+         * @param node replica
+         * @param query query string
+         * @param timeout read timeout(msec)
+         * @return Solr response parsed from JSON
+         * @throws IOException in case of IO error
+         */
+        Map<String, Object> search(Node node, String query, int timeout) throws IOException;
+    }
+
+    /**
+     * Searcher which sends queries with SolrClient.
+     */
+    static final class SolrShardSearcher implements ShardSearcher {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> search(final Node node, final String query, final int timeout)
+                throws IOException {
+            SolrClient client = new SolrClient(node.getHostName(), node.getPortNumber());
+            client.setReadTimeout(timeout);
+            Object parsed = JSON.parse(client.select(query));
+            if (!(parsed instanceof Map)) {
+                throw new IOException("unexpected response from " + client.getName());
+            }
+            return (Map<String, Object>) parsed;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param shardList shards
+     * @param shardSearcher searcher of the replicas
+     * @param threads number of threads which search the shards
+     */
+    SearchMerger(final List<Shard> shardList, final ShardSearcher shardSearcher, final int threads) {
+        shards = shardList;
+        searcher = shardSearcher;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * build shards from the nodes. a shard is a master, and its replicas are the slaves which
+     * replicate it (the master itself if it is a slave too). a master without slaves is searched itself.
+     * the order of the master list is not defined, so the shards are sorted by the names of the masters.
+     * @param database node database
+     * @return shards
+     * @throws AnuenueException if there is no master
+     */
+    static List<Shard> buildShards(final NodeDatabase database) throws AnuenueException {
+        Map<String, List<Node>> replicas = new TreeMap<String, List<Node>>();
+        for (Node master : database.getMasterList()) {
+            List<Node> nodes = new ArrayList<Node>();
+            if (master.isSlave()) {
+                nodes.add(master);
+            }
+            replicas.put(master.getName(), nodes);
+        }
+        if (replicas.isEmpty()) {
+            throw new AnuenueException("no master is defined");
+        }
+        for (Node slave : database.getSlaveList()) {
+            if (slave.getReplicationMaster() == null) {
+                continue;
+            }
+            Node master = database.getNodeByName(slave.getReplicationMaster());
+            if (master == null || !replicas.containsKey(master.getName())) {
+                LOG.warn("replication master of " + slave.getName() + " is not a master: "
+                        + slave.getReplicationMaster());
+                continue;
+            }
+            replicas.get(master.getName()).add(slave);
+        }
+        List<Shard> shardList = new ArrayList<Shard>(replicas.size());
+        for (Map.Entry<String, List<Node>> entry : replicas.entrySet()) {
+            List<Node> nodes = entry.getValue();
+            if (nodes.isEmpty()) {
+                LOG.info("no slave replicates " + entry.getKey() + ". search the master");
+                nodes.add(database.getNodeByName(entry.getKey()));
+            }
+            shardList.add(new Shard(entry.getKey(), nodes));
+        }
+        return shardList;
+    }
+
+    /**
+     * search all shards and merge the results.
+     * @param parameters request parameters
+     * @param start offset of the first document
+     * @param rows number of documents
+     * @param sort sort fields
+     * @param timeout deadline of the query(msec)
+     * @return merged result
+     * @throws IllegalArgumentException if start + rows exceeds the maximum
+     */
+    Result search(final Map<String, String[]> parameters, final int start, final int rows,
+            final List<SortField> sort, final long timeout) {
+        long top = (long) start + rows;
+        if (top > MAX_ROWS) {
+            throw new IllegalArgumentException("start + rows must not exceed " + MAX_ROWS + ": " + top);
+        }
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final String query = shardQuery(parameters, (int) top, sort);
+        final int readTimeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeout));
+
+        List<Future<ShardResponse>> futures = new ArrayList<Future<ShardResponse>>(shards.size());
+        List<Node> nodes = new ArrayList<Node>(shards.size());
+        for (final Shard shard : shards) {
+            final Node node = shard.nextReplica();
+            nodes.add(node);
+            futures.add(executor.submit(new Callable<ShardResponse>() {
+                @Override
+                public ShardResponse call() {
+                    return searchShard(shard, node, query, readTimeout);
+                }
+            }));
+        }
+
+        List<ShardResponse> responses = new ArrayList<ShardResponse>(shards.size());
+        for (int i = 0; i < futures.size(); ++i) {
+            Future<ShardResponse> future = futures.get(i);
+            Shard shard = shards.get(i);
+            try {
+                responses.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timedOutShards.incrementAndGet();
+                responses.add(new ShardResponse(shard.getName(), nodes.get(i), STATUS_TIMEOUT,
+                        System.nanoTime() - begin, "no response in " + timeout + " msec"));
+            } catch (ExecutionException e) {
+                failedShards.incrementAndGet();
+                responses.add(new ShardResponse(shard.getName(), nodes.get(i), STATUS_ERROR,
+                        System.nanoTime() - begin, e.getCause().toString()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                responses.add(new ShardResponse(shard.getName(), nodes.get(i), STATUS_ERROR,
+                        System.nanoTime() - begin, "interrupted"));
+            }
+        }
+
+        long mergeBegin = System.nanoTime();
+        Result result = new Result(responses, start, merge(responses, sort, start, rows));
+        long end = System.nanoTime();
+        result.mergeTime = end - mergeBegin;
+        result.elapsedTime = end - begin;
+        mergeLatency.record(result.mergeTime);
+        queryLatency.record(result.elapsedTime);
+        queries.incrementAndGet();
+        if (result.isPartial()) {
+            partialQueries.incrementAndGet();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("merged " + result.getDocuments().size() + " documents of " + responses.size()
+                    + " shards in " + TimeUnit.NANOSECONDS.toMicros(result.mergeTime) + " usec");
+        }
+        return result;
+    }
+
+    /**
+     * search a replica of a shard.
+     * @param shard shard
+     * @param node replica
+     * @param query query string
+     * @param timeout read timeout(msec)
+     * @return response of the shard
+     */
+    private ShardResponse searchShard(final Shard shard, final Node node, final String query, final int timeout) {
+        long begin = System.nanoTime();
+        try {
+            Map<String, Object> response = searcher.search(node, query, timeout);
+            long elapsed = System.nanoTime() - begin;
+            shardLatency.record(elapsed);
+            return new ShardResponse(shard.getName(), node, elapsed, response);
+        } catch (IOException | RuntimeException e) {
+            long elapsed = System.nanoTime() - begin;
+            shardLatency.record(elapsed);
+            failedShards.incrementAndGet();
+            LOG.warn("failed to search " + node.getName() + ": " + e.toString());
+            return new ShardResponse(shard.getName(), node, STATUS_ERROR, elapsed, e.toString());
+        }
+    }
+
+    /**
+     * build the query string sent to the shards. each shard returns the top start + rows documents,
+     * with the id and the sort fields.
+     * @param parameters request parameters
+     * @param topDocuments number of documents requested from each shard
+     * @param sort sort fields
+     * @return query string
+     */
+    static String shardQuery(final Map<String, String[]> parameters, final int topDocuments,
+            final List<SortField> sort) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            for (Map.Entry<String, String[]> entry : parameters.entrySet()) {
+                if (REPLACED_PARAMETERS.contains(entry.getKey())) {
+                    continue;
+                }
+                for (String value : entry.getValue()) {
+                    builder.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=')
+                            .append(URLEncoder.encode(value, "UTF-8")).append('&');
+                }
+            }
+            StringBuilder fields = new StringBuilder();
+            String[] fl = parameters.get("fl");
+            fields.append(fl == null || fl.length == 0 ? "*" : fl[0]);
+            fields.append(',').append(ID_FIELD);
+            for (SortField field : sort) {
+                fields.append(',').append(field.getName());
+            }
+            builder.append("fl=").append(URLEncoder.encode(fields.toString(), "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        builder.append("&start=0&rows=").append(topDocuments).append("&wt=json");
+        return builder.toString();
+    }
+
+    /**
+     * merge the documents of the shards which succeeded.
+     * every shard returns its documents in the sort order, so a shard is skipped from the first
+     * document which does not enter the heap.
+     * @param responses responses of the shards
+     * @param sort sort fields
+     * @param start offset of the first document
+     * @param rows number of documents
+     * @return merged documents
+     */
+    static List<Map<String, Object>> merge(final List<ShardResponse> responses, final List<SortField> sort,
+            final int start, final int rows) {
+        long top = (long) start + rows;
+        if (top <= 0 || rows <= 0) {
+            return Collections.emptyList();
+        }
+        // the heap is sized by the documents of the shards, not by the parameters of the request
+        int total = 0;
+        for (ShardResponse response : responses) {
+            total += response.documents.size();
+        }
+        Comparator<Hit> order = new HitComparator(sort);
+        PriorityQueue<Hit> heap = new PriorityQueue<Hit>((int) Math.max(1, Math.min(top, total)),
+                Collections.reverseOrder(order));
+        for (int shard = 0; shard < responses.size(); ++shard) {
+            List<Map<String, Object>> documents = responses.get(shard).documents;
+            for (int position = 0; position < documents.size(); ++position) {
+                Hit hit = new Hit(documents.get(position), shard, position);
+                if (heap.size() < top) {
+                    heap.add(hit);
+                } else if (order.compare(hit, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(hit);
+                } else {
+                    break;
+                }
+            }
+        }
+        int size = heap.size() - start;
+        if (size <= 0) {
+            return Collections.emptyList();
+        }
+        Object[] merged = new Object[size];
+        while (heap.size() > start) {
+            merged[heap.size() - start - 1] = heap.poll().document;
+        }
+        List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>(size);
+        for (Object document : merged) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) document;
+            documents.add(map);
+        }
+        return documents;
+    }
+
+    /**
+     * parse a sort parameter, for example "price asc, score desc".
+     * @param sort sort parameter, or null for "score desc"
+     * @return sort fields
+     * @throws IllegalArgumentException if the parameter is invalid
+     */
+    static List<SortField> parseSort(final String sort) {
+        List<SortField> fields = new ArrayList<SortField>();
+        if (sort == null || sort.trim().isEmpty()) {
+            fields.add(new SortField(SCORE_FIELD, true));
+            return fields;
+        }
+        for (String clause : sort.split(",")) {
+            String[] tokens = clause.trim().split("\\s+");
+            if (tokens.length != 2) {
+                throw new IllegalArgumentException("invalid sort: " + clause.trim());
+            }
+            if ("desc".equalsIgnoreCase(tokens[1])) {
+                fields.add(new SortField(tokens[0], true));
+            } else if ("asc".equalsIgnoreCase(tokens[1])) {
+                fields.add(new SortField(tokens[0], false));
+            } else {
+                throw new IllegalArgumentException("invalid sort direction: " + tokens[1]);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * get the statistics.
+     * @return statistics
+     */
+    String getStatistics() {
+        return "queries=" + queries.get() + ", partial=" + partialQueries.get()
+                + ", failedShards=" + failedShards.get() + ", timedOutShards=" + timedOutShards.get()
+                + "\nquery: " + queryLatency + "\nshard: " + shardLatency + "\nmerge: " + mergeLatency;
+    }
+
+    /**
+     * stop the threads.
+     */
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Shard, which is a master and its replicas.
+     */
+    static final class Shard {
+
+        /** name of the master. */
+        private final String name;
+
+        /** replicas. */
+        private final List<Node> replicas;
+
+        /** index of the next replica. */
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * Constructor.
+         * @param masterName name of the master
+         * @param nodes replicas
+         */
+        Shard(final String masterName, final List<Node> nodes) {
+            name = masterName;
+            replicas = nodes;
+        }
+
+        /**
+         * get name of the master.
+         * @return name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * get the replicas.
+         * @return replicas
+         */
+        List<Node> getReplicas() {
+            return replicas;
+        }
+
+        /**
+         * get the next replica in turn.
+         * @return replica
+         */
+        Node nextReplica() {
+            return replicas.get((next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size());
+        }
+    }
+
+    /**
+     * Sort field.
+     */
+    static final class SortField {
+
+        /** field name. */
+        private final String name;
+
+        /** descending order. */
+        private final boolean descending;
+
+        /**
+         * Constructor.
+         * @param fieldName field name
+         * @param desc descending order
+         */
+        SortField(final String fieldName, final boolean desc) {
+            name = fieldName;
+            descending = desc;
+        }
+
+        /**
+         * get field name.
+         * @return field name
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Response of a shard.
+     */
+    static final class ShardResponse {
+
+        /** name of the shard. */
+        private final String shard;
+
+        /** searched replica. */
+        private final Node node;
+
+        /** status (ok, error or timeout). */
+        private final String status;
+
+        /** elapsed time(nsec). */
+        private final long elapsedTime;
+
+        /** error message, or null. */
+        private final String error;
+
+        /** number of found documents. */
+        private final long numFound;
+
+        /** maximum score, or null. */
+        private final Number maxScore;
+
+        /** top documents. */
+        private final List<Map<String, Object>> documents;
+
+        /**
+         * Constructor of a failed response.
+         * @param shardName name of the shard
+         * @param replica searched replica
+         * @param shardStatus status
+         * @param elapsed elapsed time(nsec)
+         * @param message error message
+         */
+        ShardResponse(final String shardName, final Node replica, final String shardStatus,
+                final long elapsed, final String message) {
+            shard = shardName;
+            node = replica;
+            status = shardStatus;
+            elapsedTime = elapsed;
+            error = message;
+            numFound = 0;
+            maxScore = null;
+            documents = Collections.emptyList();
+        }
+
+        /**
+         * Constructor of a successful response.
+         * @param shardName name of the shard
+         * @param replica searched replica
+         * @param elapsed elapsed time(nsec)
+         * @param solrResponse Solr response parsed from JSON
+         */
+        @SuppressWarnings("unchecked")
+        ShardResponse(final String shardName, final Node replica, final long elapsed,
+                final Map<String, Object> solrResponse) {
+            shard = shardName;
+            node = replica;
+            status = STATUS_OK;
+            elapsedTime = elapsed;
+            error = null;
+            Map<String, Object> response = (Map<String, Object>) solrResponse.get("response");
+            if (response == null) {
+                throw new IllegalArgumentException("no response in the result of " + replica.getName());
+            }
+            numFound = ((Number) response.get("numFound")).longValue();
+            maxScore = (Number) response.get("maxScore");
+            Object[] docs = (Object[]) response.get("docs");
+            List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(docs == null ? 0 : docs.length);
+            if (docs != null) {
+                for (Object doc : docs) {
+                    list.add((Map<String, Object>) doc);
+                }
+            }
+            documents = list;
+        }
+
+        /**
+         * get the status, and the error if the shard failed, as a JSON object.
+         * @return map of the status
+         */
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("shard", shard);
+            map.put("node", node.getName());
+            map.put("status", status);
+            map.put("QTime", TimeUnit.NANOSECONDS.toMillis(elapsedTime));
+            if (error == null) {
+                map.put("numFound", numFound);
+            } else {
+                map.put("error", error);
+            }
+            return map;
+        }
+
+        /**
+         * get the status.
+         * @return ok, error or timeout
+         */
+        String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Merged result.
+     */
+    static final class Result {
+
+        /** responses of the shards. */
+        private final List<ShardResponse> responses;
+
+        /** offset of the first document. */
+        private final int start;
+
+        /** merged documents. */
+        private final List<Map<String, Object>> documents;
+
+        /** time of the query(nsec). */
+        private long elapsedTime;
+
+        /** time of the merge(nsec). */
+        private long mergeTime;
+
+        /**
+         * Constructor.
+         * @param shardResponses responses of the shards
+         * @param offset offset of the first document
+         * @param merged merged documents
+         */
+        Result(final List<ShardResponse> shardResponses, final int offset, final List<Map<String, Object>> merged) {
+            responses = shardResponses;
+            start = offset;
+            documents = merged;
+        }
+
+        /**
+         * get the merged documents.
+         * @return documents
+         */
+        List<Map<String, Object>> getDocuments() {
+            return documents;
+        }
+
+        /**
+         * get the responses of the shards.
+         * @return responses
+         */
+        List<ShardResponse> getShardResponses() {
+            return responses;
+        }
+
+        /**
+         * check some shards have failed.
+         * @return true if the result is partial
+         */
+        boolean isPartial() {
+            for (ShardResponse response : responses) {
+                if (!STATUS_OK.equals(response.status)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * check all shards have failed.
+         * @return true if no shard answered
+         */
+        boolean isFailed() {
+            for (ShardResponse response : responses) {
+                if (STATUS_OK.equals(response.status)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * get the result in the layout of a Solr JSON response, with the status of the shards
+         * and the merge time in the response header.
+         * @return map of the result
+         */
+        Map<String, Object> toMap() {
+            long numFound = 0;
+            Number maxScore = null;
+            List<Map<String, Object>> shardStatus = new ArrayList<Map<String, Object>>(responses.size());
+            for (ShardResponse response : responses) {
+                numFound += response.numFound;
+                if (response.maxScore != null
+                        && (maxScore == null || response.maxScore.doubleValue() > maxScore.doubleValue())) {
+                    maxScore = response.maxScore;
+                }
+                shardStatus.add(response.toMap());
+            }
+            Map<String, Object> header = new LinkedHashMap<String, Object>();
+            header.put("status", 0);
+            header.put("QTime", TimeUnit.NANOSECONDS.toMillis(elapsedTime));
+            header.put("mergeTime", TimeUnit.NANOSECONDS.toMicros(mergeTime));
+            if (isPartial()) {
+                header.put("partialResults", true);
+            }
+            header.put("shards", shardStatus);
+
+            Map<String, Object> response = new LinkedHashMap<String, Object>();
+            response.put("numFound", numFound);
+            response.put("start", start);
+            if (maxScore != null) {
+                response.put("maxScore", maxScore);
+            }
+            response.put("docs", documents);
+
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("responseHeader", header);
+            map.put("response", response);
+            return map;
+        }
+    }
+
+    /**
+     * Document with its position in the results of the shards.
+     */
+    private static final class Hit {
+
+        /** document. */
+        private final Map<String, Object> document;
+
+        /** index of the shard. */
+        private final int shard;
+
+        /** position in the result of the shard. */
+        private final int position;
+
+        /**
+         * Constructor.
+         * @param doc document
+         * @param shardIndex index of the shard
+         * @param shardPosition position in the result of the shard
+         */
+        private Hit(final Map<String, Object> doc, final int shardIndex, final int shardPosition) {
+            document = doc;
+            shard = shardIndex;
+            position = shardPosition;
+        }
+    }
+
+    /**
+     * Order of hits. missing values come last, and ties are ordered by shard and position.
+     */
+    private static final class HitComparator implements Comparator<Hit> {
+
+        /** sort fields. */
+        private final List<SortField> sort;
+
+        /**
+         * Constructor.
+         * @param sortFields sort fields
+         */
+        private HitComparator(final List<SortField> sortFields) {
+            sort = sortFields;
+        }
+
+        @Override
+        public int compare(final Hit a, final Hit b) {
+            for (SortField field : sort) {
+                Object x = a.document.get(field.name);
+                Object y = b.document.get(field.name);
+                if (x == null || y == null) {
+                    if (x != y) {
+                        return x == null ? 1 : -1;
+                    }
+                    continue;
+                }
+                int c = compareValues(x, y);
+                if (c != 0) {
+                    return field.descending ? -c : c;
+                }
+            }
+            if (a.shard != b.shard) {
+                return a.shard < b.shard ? -1 : 1;
+            }
+            return Integer.compare(a.position, b.position);
+        }
+
+        /**
+         * compare values of a field.
+         * @param x value
+         * @param y value
+         * @return comparison
+         */
+        private static int compareValues(final Object x, final Object y) {
+            if (x instanceof Long && y instanceof Long) {
+                return ((Long) x).compareTo((Long) y);
+            }
+            if (x instanceof Number && y instanceof Number) {
+                return Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue());
+            }
+            return x.toString().compareTo(y.toString());
+        }
+    }
+}
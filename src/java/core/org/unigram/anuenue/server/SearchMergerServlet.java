@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.NodeDatabaseBuilder;
+
+/**
+ * Servlet which searches all shards of the cluster and merges the results,
+ * in place of the obsoleted merger role.
+ * GET (or POST of a form) takes the parameters of Solr /select and returns a Solr JSON response;
+ * "deadline" overrides the deadline of the query(msec). The status of every shard is in
+ * responseHeader.shards, and partialResults is set when some shards failed.
+ * start + rows larger than anuenue.merger.max.rows is answered with 400.
+ * GET of /stats returns the statistics, including the latencies of the merges.
+ * The servlet is mapped in web.xml, and loaded from the server classpath.
+ */
+public final class SearchMergerServlet extends HttpServlet {
+
+    /** Serial Version ID. */
+    private static final long serialVersionUID = 1L;
+
+    /** logger. */
+    private static final Log LOG = LogFactory.getLog(SearchMergerServlet.class);
+
+    /** property: anuenue.merger.nodes. */
+    private static final String PROPERTY_MERGER_NODES = "anuenue.merger.nodes";
+
+    /** default: node configuration file. */
+    private static final String DEFAULT_MERGER_NODES = "conf/anuenue-nodes.xml";
+
+    /** property: anuenue.merger.deadline. */
+    private static final String PROPERTY_MERGER_DEADLINE = "anuenue.merger.deadline";
+
+    /** default: deadline of a query(msec). */
+    private static final String DEFAULT_MERGER_DEADLINE = "5000";
+
+    /** property: anuenue.merger.threads. */
+    private static final String PROPERTY_MERGER_THREADS = "anuenue.merger.threads";
+
+    /** default: number of threads which search the shards. */
+    private static final String DEFAULT_MERGER_THREADS = "64";
+
+    /** path of the statistics. */
+    private static final String STATS_PATH = "/stats";
+
+    /** default number of documents. */
+    private static final int DEFAULT_ROWS = 10;
+
+    /** merger. */
+    private transient SearchMerger merger;
+
+    /** default deadline of a query(msec). */
+    private int deadline;
+
+    @Override
+    public void init() throws ServletException {
+        String nodes = System.getProperty(PROPERTY_MERGER_NODES, DEFAULT_MERGER_NODES);
+        deadline = Integer.parseInt(System.getProperty(PROPERTY_MERGER_DEADLINE, DEFAULT_MERGER_DEADLINE));
+        int threads = Integer.parseInt(System.getProperty(PROPERTY_MERGER_THREADS, DEFAULT_MERGER_THREADS));
+        List<SearchMerger.Shard> shards;
+        try {
+            shards = SearchMerger.buildShards(new NodeDatabaseBuilder(nodes).build());
+        } catch (AnuenueException e) {
+            throw new ServletException("failed to read " + nodes, e);
+        }
+        merger = new SearchMerger(shards, new SearchMerger.SolrShardSearcher(), threads);
+        LOG.info("search merger of " + shards.size() + " shards (deadline " + deadline + " msec)");
+    }
+
+    @Override
+    public void destroy() {
+        if (merger != null) {
+            merger.close();
+        }
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        if (STATS_PATH.equals(request.getPathInfo())) {
+            response.setContentType("text/plain; charset=UTF-8");
+            response.getWriter().println(merger.getStatistics());
+            return;
+        }
+        if (request.getParameter("q") == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing parameter: q");
+            return;
+        }
+        SearchMerger.Result result;
+        try {
+            int start = intParameter(request, "start", 0);
+            int rows = intParameter(request, "rows", DEFAULT_ROWS);
+            int timeout = intParameter(request, "deadline", deadline);
+            List<SearchMerger.SortField> sort = SearchMerger.parseSort(request.getParameter("sort"));
+            result = merger.search(request.getParameterMap(), start, rows, sort, timeout);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        response.setStatus(result.isFailed() ? HttpServletResponse.SC_BAD_GATEWAY : HttpServletResponse.SC_OK);
+        response.setContentType("application/json; charset=UTF-8");
+        response.getWriter().println(JSON.toString(result.toMap()));
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        doGet(request, response);
+    }
+
+    /**
+     * get a non-negative integer parameter.
+     * @param request request
+     * @param name parameter name
+     * @param defaultValue value when the parameter is not given
+     * @return value
+     * @throws IllegalArgumentException if the parameter is invalid
+     */
+    private static int intParameter(final HttpServletRequest request, final String name, final int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+        }
+        if (parsed < 0) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value);
+        }
+        return parsed;
+    }
+}
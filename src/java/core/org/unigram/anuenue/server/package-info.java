@@ -0,0 +1,4 @@
+/**
+ * package of components deployed in the Jetty of Anuenue nodes.
+ */
+package org.unigram.anuenue.server;
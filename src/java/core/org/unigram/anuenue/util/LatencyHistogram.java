@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies.
+ * Buckets are powers of two from 64 usec, and the last bucket holds larger latencies,
+ * so percentiles are accurate within a factor of two. Recording does not lock.
+ */
+public final class LatencyHistogram {
+
+    /** upper bound of the first bucket(usec). */
+    private static final long FIRST_BOUND = 64;
+
+    /** number of buckets (64usec ... about 68 minutes, and larger). */
+    private static final int NUMBER_OF_BUCKETS = 27;
+
+    /** nanoseconds per microsecond. */
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /** counts of buckets. */
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+    /** number of recorded latencies. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** total latency(usec). */
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    /** maximum latency(usec). */
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * record a latency.
+     * @param nanos latency(nsec)
+     */
+    public void record(final long nanos) {
+        long micros = Math.max(0, nanos / NANOS_PER_MICRO);
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        while (true) {
+            long max = maxMicros.get();
+            if (micros <= max || maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * get number of recorded latencies.
+     * @return number of latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * get the upper bound of the bucket which holds the given percentile.
+     * @param percentile percentile (0 - 100)
+     * @return latency(usec), or 0 if nothing is recorded
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        long bound = FIRST_BOUND;
+        for (int i = 0; i < NUMBER_OF_BUCKETS - 1; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bound, maxMicros.get());
+            }
+            bound <<= 1;
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * get bucket of given latency.
+     * @param micros latency(usec)
+     * @return index of the bucket
+     */
+    private static int bucketOf(final long micros) {
+        int bucket = 0;
+        long bound = FIRST_BOUND;
+        while (micros > bound && bucket < NUMBER_OF_BUCKETS - 1) {
+            bound <<= 1;
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    /**
+     * format a latency.
+     * @param micros latency(usec)
+     * @return formatted latency in msec
+     */
+    private static String format(final long micros) {
+        return String.format(Locale.ENGLISH, "%.1fms", micros / 1000.0);
+    }
+
+    /**
+     * summary, for example "count=10, avg=3.2ms, p50=4.1ms, p99=7.9ms, max=7.9ms".
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        long n = count.get();
+        StringBuilder builder = new StringBuilder("count=" + n);
+        if (n == 0) {
+            return builder.toString();
+        }
+        builder.append(", avg=").append(format(totalMicros.get() / n));
+        builder.append(", p50=").append(format(getPercentile(50)));
+        builder.append(", p99=").append(format(getPercentile(99)));
+        builder.append(", max=").append(format(maxMicros.get()));
+        return builder.toString();
+    }
+}
@@ -58,6 +58,24 @@ public final class SimpleCommandLineParser {
         defaultValueMap.put(option, defaultValue);
     }
 
+    /**
+     * Add a flag, an option without value.
+     * @param option option Name
+     * @param description description
+     */
+    public void addFlag(final String option, final String description) {
+        options.addOption(option, option, false, description);
+    }
+
+    /**
+     * Check an option is set.
+     * @param option option name
+     * @return true if the option is set
+     */
+    public boolean hasOption(final String option) {
+        return commandLine.hasOption(option);
+    }
+
     /**
      * Constructor.
      */
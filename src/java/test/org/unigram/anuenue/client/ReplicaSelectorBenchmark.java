@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+
+/**
+ * Benchmark of the overhead of ReplicaSelector under contention.
+ * Each thread selects a replica, starts a request and finishes it in a loop, without I/O.
+ * Round robin by a shared counter is measured as the baseline.
+ *
+ * usage: ReplicaSelectorBenchmark [replicas] [msec per run] [max threads]
+ */
+public final class ReplicaSelectorBenchmark {
+
+    /** default number of replicas. */
+    private static final int DEFAULT_REPLICAS = 4;
+
+    /** default time of a run(msec). */
+    private static final long DEFAULT_DURATION = 2000;
+
+    /** results of the operations, kept so that they are not optimized away. */
+    private static volatile long sink;
+
+    /**
+     * Constructor.
+     */
+    private ReplicaSelectorBenchmark() {
+    }
+
+    /**
+     * Operation measured by the benchmark.
+     */
+    private interface Operation {
+
+        /**
+         * select a replica and finish a request on it.
+         * @return index of the selected replica
+         */
+        int run();
+    }
+
+    /**
+     * run an operation on threads.
+     * @param name name of the operation
+     * @param operation operation
+     * @param threads number of threads
+     * @param duration time of the run(msec)
+     * @throws InterruptedException if interrupted
+     */
+    private static void run(final String name, final Operation operation, final int threads, final long duration)
+            throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i) {
+            new Thread() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    long result = 0;
+                    while (running.get()) {
+                        result += operation.run();
+                        ++count;
+                    }
+                    sink = result;
+                    operations.addAndGet(count);
+                    done.countDown();
+                }
+            }.start();
+        }
+        Thread.sleep(duration);
+        running.set(false);
+        done.await();
+        double perSecond = operations.get() * 1000.0 / duration;
+        System.out.println(String.format("%-12s threads=%-3d %10.0f ops/sec %8.1f ns/op per thread",
+                name, threads, perSecond, threads * 1e9 / perSecond));
+    }
+
+    /**
+     * main.
+     * @param args [replicas] [msec per run] [max threads]
+     * @throws Exception in case of error
+     */
+    public static void main(final String[] args) throws Exception {
+        int replicas = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REPLICAS;
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_DURATION;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors() * 2;
+
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < replicas; ++i) {
+            nodes.add(new Node("slave" + i, 8983, Role.SLAVE, null));
+        }
+        final ReplicaSelector selector = new ReplicaSelector(nodes, 3, 30000, 10000);
+        Operation p2c = new Operation() {
+            @Override
+            public int run() {
+                ReplicaSelector.Replica replica = selector.select(null);
+                replica.start();
+                replica.succeed(1000000);
+                return replica.getNode().getHostName().length();
+            }
+        };
+        final AtomicInteger next = new AtomicInteger();
+        final int size = replicas;
+        Operation roundRobin = new Operation() {
+            @Override
+            public int run() {
+                return (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+            }
+        };
+
+        // warm up
+        run("warmup", p2c, 1, duration);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            run("p2c", p2c, threads, duration);
+            run("round-robin", roundRobin, threads, duration);
+        }
+    }
+}
@@ -177,7 +177,7 @@ public final class TestAnuenueDistCommands {
     }
 
     /**
-     * Test of CommandUncaughtExceptionHandler.
+     * Test that failures of commands are thrown.
      *
      *  @throws AnuenueException if error occured.
      */
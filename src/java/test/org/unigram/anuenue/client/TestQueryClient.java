@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.Test;
+import org.unigram.anuenue.client.solr.HttpConnectionPool;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of the hedged queries of QueryClient.
+ */
+public final class TestQueryClient {
+
+    /** port numbers of the test servers. */
+    private static final int[] PORTS = {18987, 18988};
+
+    /** port number of the server which sends a broken response. */
+    private static final int BROKEN_PORT = 18995;
+
+    /** latency of a stalled request(msec). */
+    private static final long STALL = 2000;
+
+    /** number of stalled queries. */
+    private static final int ROUNDS = 3;
+
+    /** the next request to any server stalls. */
+    private final AtomicBoolean stallNext = new AtomicBoolean();
+
+    /**
+     * Servlet which answers the port number, or stalls when requested.
+     */
+    private final class SlaveServlet extends HttpServlet {
+
+        /** Serial Version ID. */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            if (stallNext.compareAndSet(true, false)) {
+                try {
+                    Thread.sleep(STALL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            response.setContentType("text/plain; charset=UTF-8");
+            response.getWriter().print(request.getLocalPort());
+        }
+    }
+
+    /**
+     * start a server.
+     * @param port port number
+     * @return server
+     * @throws Exception in case of error
+     */
+    private Server start(final int port) throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(port);
+        server.setConnectors(new Connector[] {connector});
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new SlaveServlet()), "/*");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Test that a stalled query is answered by the hedge, and the stalled request is aborted.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testHedge() throws Exception {
+        Server[] servers = new Server[PORTS.length];
+        System.setProperty("anuenue.query.hedge.min.delay", "50");
+        QueryClient client = null;
+        try {
+            for (int i = 0; i < PORTS.length; ++i) {
+                servers[i] = start(PORTS[i]);
+            }
+            List<Node> replicas = Arrays.asList(new Node("localhost", PORTS[0], Role.SLAVE, null),
+                    new Node("localhost", PORTS[1], Role.SLAVE, null));
+            client = new QueryClient(Collections.singletonMap("shard", replicas));
+            // latencies needed before hedging
+            for (int i = 0; i < 30; ++i) {
+                client.select("q=*:*");
+            }
+            assertTrue(client.getStatistics(), client.getStatistics().contains("hedges=0"));
+
+            for (int i = 0; i < ROUNDS; ++i) {
+                stallNext.set(true);
+                long begin = System.currentTimeMillis();
+                String port = client.select("q=*:*");
+                assertTrue(System.currentTimeMillis() - begin < STALL / 2);
+                assertTrue(port, port.equals(String.valueOf(PORTS[0])) || port.equals(String.valueOf(PORTS[1])));
+            }
+            String statistics = client.getStatistics();
+            assertTrue(statistics, statistics.contains("hedges=" + ROUNDS + ", "));
+            assertTrue(statistics, statistics.contains("hedgeWins=" + ROUNDS + ", "));
+            assertTrue(statistics, statistics.contains("failures=0"));
+            for (int i = 0; i < 100 && !client.getStatistics().contains("aborts=" + ROUNDS); ++i) {
+                Thread.sleep(10);
+            }
+            assertTrue(client.getStatistics(), client.getStatistics().contains("aborts=" + ROUNDS));
+            String shard = client.getStatistics().split("\n")[1];
+            assertFalse(shard, shard.matches(".*outstanding=[^0].*"));
+        } finally {
+            System.clearProperty("anuenue.query.hedge.min.delay");
+            if (client != null) {
+                client.close();
+            }
+            for (Server server : servers) {
+                AnuenueTestUtil.stopServerQuietly(server);
+            }
+        }
+    }
+
+    /**
+     * Test that a runtime error of a request fails the replica, and the query is answered by another replica.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testRuntimeError() throws Exception {
+        final ServerSocket broken = new ServerSocket(BROKEN_PORT);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    try (Socket socket = broken.accept()) {
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII")).readLine();
+                        OutputStream out = socket.getOutputStream();
+                        // a negative chunk size makes the reader throw IndexOutOfBoundsException
+                        out.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-1\r\n"
+                                .getBytes("US-ASCII"));
+                        out.flush();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        Server server = null;
+        QueryClient client = null;
+        try {
+            HttpConnectionPool.getInstance().closeIdleConnections();
+            server = start(PORTS[0]);
+            List<Node> replicas = Arrays.asList(new Node("localhost", BROKEN_PORT, Role.SLAVE, null),
+                    new Node("localhost", PORTS[0], Role.SLAVE, null));
+            client = new QueryClient(Collections.singletonMap("shard", replicas));
+            for (int i = 0; i < ROUNDS * 2; ++i) {
+                assertEquals(String.valueOf(PORTS[0]), client.select("q=*:*"));
+            }
+            String statistics = client.getStatistics();
+            assertTrue(statistics, statistics.contains("failures=0"));
+            String shard = statistics.split("\n")[1];
+            assertFalse(shard, shard.matches(".*outstanding=[^0].*"));
+        } finally {
+            broken.close();
+            if (client != null) {
+                client.close();
+            }
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+}
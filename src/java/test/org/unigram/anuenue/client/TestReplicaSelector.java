@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+import org.unigram.anuenue.node.NodeDatabaseBuilder;
+
+/**
+ * Test class of ReplicaSelector and QueryClient.
+ */
+public final class TestReplicaSelector {
+
+    /** number of selections of the tests. */
+    private static final int SELECTIONS = 1000;
+
+    /** replicas. */
+    private final List<Node> nodes = Arrays.asList(new Node("slave0", 8983, Role.SLAVE, null),
+            new Node("slave1", 8983, Role.SLAVE, null));
+
+    /**
+     * select a replica and finish a request on it.
+     * @param selector selector
+     * @param name name of the node which answers slowly
+     * @param slow latency of the slow node(msec)
+     * @return selected replica
+     */
+    private static ReplicaSelector.Replica request(final ReplicaSelector selector, final String name, final long slow) {
+        ReplicaSelector.Replica replica = selector.select(null);
+        replica.start();
+        long latency = replica.getNode().getHostName().equals(name) ? slow : 1;
+        replica.succeed(TimeUnit.MILLISECONDS.toNanos(latency));
+        return replica;
+    }
+
+    /**
+     * Test that a slow replica is avoided, and tried again after its latency decays.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testLatency() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(nodes, 3, 1000, 100);
+        while (!request(selector, "slave0", 100).getNode().getHostName().equals("slave0")) {
+            continue;
+        }
+        int slow = 0;
+        for (int i = 0; i < SELECTIONS; ++i) {
+            if (request(selector, "slave0", 100).getNode().getHostName().equals("slave0")) {
+                ++slow;
+            }
+        }
+        assertTrue("slave0 selected " + slow + " times", slow <= 1);
+
+        Thread.sleep(1000);
+        int recovered = 0;
+        for (int i = 0; i < SELECTIONS; ++i) {
+            ReplicaSelector.Replica replica = selector.select(null);
+            replica.start();
+            replica.succeed(TimeUnit.MILLISECONDS.toNanos(1));
+            if (replica.getNode().getHostName().equals("slave0")) {
+                ++recovered;
+            }
+        }
+        assertTrue("slave0 selected " + recovered + " times", recovered > SELECTIONS / 4);
+    }
+
+    /**
+     * Test that a replica with outstanding requests is avoided.
+     */
+    @Test
+    public void testOutstanding() {
+        ReplicaSelector selector = new ReplicaSelector(nodes, 3, 1000, 100);
+        ReplicaSelector.Replica busy = selector.select(null);
+        busy.start();
+        busy.start();
+        for (int i = 0; i < SELECTIONS; ++i) {
+            assertNotSame(busy, selector.select(null));
+        }
+    }
+
+    /**
+     * Test that a replica is ejected after consecutive failures, and selected again after the ejection.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testEjection() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(nodes, 2, 200, 100);
+        ReplicaSelector.Replica failing = selector.select(null);
+        for (int i = 0; i < 2; ++i) {
+            failing.start();
+            failing.fail();
+        }
+        for (int i = 0; i < SELECTIONS; ++i) {
+            assertNotSame(failing, selector.select(null));
+        }
+        // the other replica is excluded, so the ejected one is used
+        assertEquals(failing, selector.select(selector.select(null)));
+        assertTrue(selector.getStatistics().startsWith("ejections=1"));
+
+        Thread.sleep(300);
+        boolean selected = false;
+        for (int i = 0; i < SELECTIONS && !selected; ++i) {
+            selected = selector.select(null) == failing;
+        }
+        assertTrue(selected);
+    }
+
+    /**
+     * get the statistics of a shard.
+     * @param client client
+     * @param shard name of the shard
+     * @return line of the shard
+     */
+    private static String shardStatistics(final QueryClient client, final String shard) {
+        for (String line : client.getStatistics().split("\n")) {
+            if (line.startsWith(shard + ": ")) {
+                return line;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Test that the slaves are partitioned into shards by their masters, and limited to a group.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testShards() throws Exception {
+        QueryClient all = QueryClient.create(new NodeDatabaseBuilder("resources/anuenue-nodes-groups.xml").build(),
+                null);
+        assertEquals("[bbbb:7983, cccc:7983]", new TreeSet<String>(all.getShardNames()).toString());
+        String shard = shardStatistics(all, "bbbb:7983");
+        assertTrue(shard, shard.contains("dddd:7983(") && shard.contains("ffff:7983("));
+
+        QueryClient group = QueryClient.create(new NodeDatabaseBuilder("resources/anuenue-nodes-groups.xml").build(),
+                "slaves2");
+        shard = shardStatistics(group, "bbbb:7983");
+        assertTrue(shard, !shard.contains("dddd:7983(") && shard.contains("ffff:7983("));
+    }
+}
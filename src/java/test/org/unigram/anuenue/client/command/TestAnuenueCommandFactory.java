@@ -154,4 +154,48 @@ public final class TestAnuenueCommandFactory {
         }
 
     }
+
+    /**
+     * Test of deleteById.
+     */
+    @Test
+    public void testDeleteById() {
+
+        /** location of anuenue-nodes.xml file for the testing. */
+        String clusterConfFile = "resources/anuenue-nodes-single.xml";
+
+        String dataDir = "data-test-command";
+        String host = "localhost";
+        int port = 18983;
+
+        Server server = null;
+
+        try {
+
+            // start Solr
+            server = SimpleAnuenueInstanceFactory.createSolrInstance(port,
+                    dataDir, clusterConfFile);
+            HttpUnitOptions.setExceptionsThrownOnScriptError(false);
+            AnuenueCommandFactory.createCommand(host, port, "addFile",
+                    "resources/example-docs/add-sample02.txt").runCommand();
+            AnuenueCommandFactory.createCommand(host, port, "commit", null)
+                    .runCommand();
+            assertSame(3, AnuenueTestUtil.getNumberOfIndexedDocumentViaSolr(host, port));
+            AnuenueCommandFactory.createCommand(host, port, "deleteById",
+                    "23493\n294\n").runCommand();
+            assertSame(3, AnuenueTestUtil.getNumberOfIndexedDocumentViaSolr(host, port));
+            AnuenueCommandFactory.createCommand(host, port, "commit", null)
+                    .runCommand();
+            assertSame(1, AnuenueTestUtil.getNumberOfIndexedDocumentViaSolr(host, port));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            // stop Solr
+            AnuenueTestUtil.stopServerQuietly(server);
+            assertTrue(FileUtils.deleteQuietly(new File(dataDir)));
+        }
+
+    }
 }
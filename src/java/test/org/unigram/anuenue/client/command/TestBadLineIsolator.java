@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of BadLineIsolator.
+ */
+public final class TestBadLineIsolator {
+
+    /** port number of the test server. */
+    private static final int PORT = 18985;
+
+    /** number of lines. */
+    private static final int NUMBER_OF_LINES = 16;
+
+    /**
+     * Handler which rejects data containing "invalid", and fails on data containing "broken".
+     */
+    private static final class RejectingHandler extends AbstractHandler {
+
+        /** number of requests. */
+        private final AtomicInteger requests = new AtomicInteger();
+
+        /** accepted lines. */
+        private final Set<String> accepted = new HashSet<String>();
+
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            requests.incrementAndGet();
+            String body = IOUtils.toString(request.getInputStream(), "UTF-8");
+            if (body.contains("broken")) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "broken server");
+            } else if (body.contains("invalid")) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid document");
+            } else {
+                synchronized (accepted) {
+                    String[] lines = body.split("\n");
+                    for (int i = 1; i < lines.length; ++i) {
+                        accepted.add(lines[i]);
+                    }
+                }
+                response.getWriter().print("ok");
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+
+    /**
+     * start the test server.
+     * @param handler handler
+     * @return server
+     * @throws Exception in case of error
+     */
+    private static Server startServer(final RejectingHandler handler) throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        server.setHandler(handler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Test that an invalid line is found by bisection.
+     */
+    @Test
+    public void testBisection() {
+        Server server = null;
+        try {
+            RejectingHandler handler = new RejectingHandler();
+            server = startServer(handler);
+
+            StringBuilder data = new StringBuilder("id\tname\n");
+            for (int i = 0; i < NUMBER_OF_LINES; ++i) {
+                data.append(i).append('\t').append(i == 5 ? "invalid" : "valid").append('\n');
+            }
+            AddDataCommand command =
+                (AddDataCommand) AnuenueCommandFactory.createCommand("localhost", PORT, "addData", data.toString());
+            command.runCommand();
+
+            assertEquals("bisected posts are not timed", -1, command.getPostTime());
+            assertEquals(NUMBER_OF_LINES - 1, handler.accepted.size());
+            assertTrue("requests: " + handler.requests.get(), handler.requests.get() < NUMBER_OF_LINES / 2);
+            String deadLetters = FileUtils.readFileToString(DeadLetterFile.getInstance().getFile(), "UTF-8");
+            assertTrue(deadLetters.contains("5\tinvalid\n"));
+
+            command = (AddDataCommand) AnuenueCommandFactory.createCommand("localhost", PORT, "addData",
+                    "id\tname\n100\tvalid\n");
+            command.runCommand();
+            assertTrue(command.getPostTime() >= 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+            FileUtils.deleteQuietly(DeadLetterFile.getInstance().getFile());
+        }
+    }
+
+    /**
+     * Test that a server error is thrown without bisection or dead letters.
+     */
+    @Test
+    public void testServerErrorIsNotBisected() {
+        Server server = null;
+        try {
+            RejectingHandler handler = new RejectingHandler();
+            server = startServer(handler);
+
+            StringBuilder data = new StringBuilder("id\tname\n");
+            for (int i = 0; i < NUMBER_OF_LINES; ++i) {
+                data.append(i).append('\t').append(i == 5 ? "broken" : "valid").append('\n');
+            }
+            try {
+                AnuenueCommandFactory.createCommand("localhost", PORT, "addData", data.toString()).runCommand();
+                fail("SolrResponseException should be thrown");
+            } catch (SolrResponseException e) {
+                assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getStatusCode());
+            }
+            assertEquals(1, handler.requests.get());
+            assertTrue(handler.accepted.isEmpty());
+            assertFalse(DeadLetterFile.getInstance().getFile().exists());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+            FileUtils.deleteQuietly(DeadLetterFile.getInstance().getFile());
+        }
+    }
+
+    /**
+     * Test that a line which cannot be encoded in javabin is isolated as a rejected line.
+     */
+    @Test
+    public void testJavaBinBadLine() {
+        Server server = null;
+        System.setProperty("anuenue.update.format", SolrClient.FORMAT_JAVABIN);
+        try {
+            RejectingHandler handler = new RejectingHandler();
+            server = startServer(handler);
+
+            StringBuilder data = new StringBuilder("id\tname\n");
+            for (int i = 0; i < NUMBER_OF_LINES; ++i) {
+                data.append(i).append('\t').append(i == 5 ? "too\tmany" : "valid").append('\n');
+            }
+            AnuenueCommandFactory.createCommand("localhost", PORT, "addData", data.toString()).runCommand();
+
+            assertTrue("requests: " + handler.requests.get(), handler.requests.get() > 0);
+            String deadLetters = FileUtils.readFileToString(DeadLetterFile.getInstance().getFile(), "UTF-8");
+            assertTrue(deadLetters.contains("5\ttoo\tmany\n"));
+            assertFalse(deadLetters.contains("4\tvalid"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            System.clearProperty("anuenue.update.format");
+            AnuenueTestUtil.stopServerQuietly(server);
+            FileUtils.deleteQuietly(DeadLetterFile.getInstance().getFile());
+        }
+    }
+
+    /**
+     * Test that a rejection of every line is thrown without bisecting down to each line.
+     */
+    @Test
+    public void testHeaderRejection() {
+        Server server = null;
+        try {
+            RejectingHandler handler = new RejectingHandler();
+            server = startServer(handler);
+
+            StringBuilder data = new StringBuilder("id\tinvalid_field\n");
+            for (int i = 0; i < NUMBER_OF_LINES; ++i) {
+                data.append(i).append('\t').append("valid").append('\n');
+            }
+            try {
+                AnuenueCommandFactory.createCommand("localhost", PORT, "addData", data.toString()).runCommand();
+                fail("SolrResponseException should be thrown");
+            } catch (SolrResponseException e) {
+                assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.getStatusCode());
+            }
+            assertTrue("requests: " + handler.requests.get(), handler.requests.get() <= 4);
+            assertFalse(DeadLetterFile.getInstance().getFile().exists());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+            FileUtils.deleteQuietly(DeadLetterFile.getInstance().getFile());
+        }
+    }
+
+    /**
+     * Test that data without lines is not posted.
+     */
+    @Test
+    public void testHeaderOnly() {
+        Server server = null;
+        try {
+            RejectingHandler handler = new RejectingHandler();
+            server = startServer(handler);
+
+            BadLineIsolator.retryByBisection(new SolrClient("localhost", PORT), "id\tname\n",
+                    new SolrResponseException(HttpServletResponse.SC_BAD_REQUEST, "invalid document"));
+            assertEquals(0, handler.requests.get());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.unigram.anuenue.exception.AnuenueException;
+
+/**
+ * Benchmark which compares TSVFileReader with MappedTSVChunker.
+ * Each chunk is written to a null stream in the same way as it is written to the socket.
+ *
+ * usage: TSVChunkerBenchmark file [max line per chunk] [repeat]
+ */
+public final class TSVChunkerBenchmark {
+
+    /** size of the copy buffer, same as the request entity. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** default max line per chunk. */
+    private static final int DEFAULT_MAX_LINE = 100;
+
+    /**
+     * Constructor.
+     */
+    private TSVChunkerBenchmark() {
+    }
+
+    /**
+     * OutputStream which discards bytes.
+     */
+    private static final class NullOutputStream extends OutputStream {
+
+        /** number of written bytes. */
+        private long count;
+
+        @Override
+        public void write(final int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * read all chunks of the file and write them.
+     * @param reader reader
+     * @param maxLine max line per chunk
+     * @return elapsed time(msec)
+     * @throws IOException in case of IO error
+     * @throws AnuenueException in case of invalid file
+     */
+    private static long run(final ChunkReader reader, final int maxLine) throws IOException, AnuenueException {
+        long start = System.currentTimeMillis();
+        NullOutputStream out = new NullOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long chunks = 0;
+        try (ChunkReader r = reader) {
+            r.init();
+            while (true) {
+                Chunk chunk = r.readChunk(maxLine, 0, null);
+                if (chunk == null) {
+                    break;
+                }
+                if (chunk.isSlice()) {
+                    out.write(chunk.getHeader());
+                    ByteBuffer body = chunk.getBody();
+                    while (body.hasRemaining()) {
+                        int length = Math.min(buffer.length, body.remaining());
+                        body.get(buffer, 0, length);
+                        out.write(buffer, 0, length);
+                    }
+                } else {
+                    out.write(chunk.getData().getBytes("UTF-8"));
+                }
+                ++chunks;
+            }
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(reader.getClass().getSimpleName() + ": " + chunks + " chunks, " + out.count
+                + " bytes in " + elapsed + " msec (" + (out.count / 1024 / 1024 * 1000 / elapsed) + " MB/sec)");
+        return elapsed;
+    }
+
+    /**
+     * main.
+     * @param args file [max line per chunk] [repeat]
+     * @throws Exception in case of error
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: TSVChunkerBenchmark file [max line per chunk] [repeat]");
+            return;
+        }
+        String fileName = new File(args[0]).getPath();
+        int maxLine = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_LINE;
+        int repeat = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        for (int i = 0; i < repeat; ++i) {
+            run(new TSVFileReader(fileName), maxLine);
+            run(new MappedTSVChunker(fileName), maxLine);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+
+/**
+ * Test class of AdaptiveChunkSize.
+ */
+public final class TestAdaptiveChunkSize {
+
+    /** node. */
+    private final Node node = new Node("localhost", 8983, Role.MASTER, null);
+
+    /**
+     * record a window of posts of the current size.
+     * @param chunkSize adaptive chunk size
+     * @param latency latency of each post(msec)
+     */
+    private void recordWindow(final AdaptiveChunkSize chunkSize, final long latency) {
+        int lines = chunkSize.getLines(node);
+        for (int i = 0; i < AdaptiveChunkSize.WINDOW; ++i) {
+            chunkSize.record(node, lines, latency);
+        }
+    }
+
+    /**
+     * Test that the size grows while the latency is low, up to the maximum.
+     */
+    @Test
+    public void testGrow() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 10, 300, 1000);
+        assertEquals(100, chunkSize.getLines(node));
+        recordWindow(chunkSize, 10);
+        assertEquals(125, chunkSize.getLines(node));
+        for (int i = 0; i < 10; ++i) {
+            recordWindow(chunkSize, 10);
+        }
+        assertEquals(300, chunkSize.getLines(node));
+    }
+
+    /**
+     * Test that the size shrinks while the latency exceeds the target, down to the minimum.
+     */
+    @Test
+    public void testShrink() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 10, 300, 1000);
+        recordWindow(chunkSize, 2000);
+        assertEquals(75, chunkSize.getLines(node));
+        for (int i = 0; i < 20; ++i) {
+            recordWindow(chunkSize, 2000);
+        }
+        assertEquals(10, chunkSize.getLines(node));
+        assertTrue(chunkSize.toString().contains("p95=2000msec"));
+    }
+
+    /**
+     * Test that a growth which drops the throughput is reverted and not repeated.
+     */
+    @Test
+    public void testRevertGrowth() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 10, 300, 1000);
+        recordWindow(chunkSize, 100);
+        assertEquals(125, chunkSize.getLines(node));
+        // 125 lines take twice as long as 100 lines
+        recordWindow(chunkSize, 250);
+        assertEquals(100, chunkSize.getLines(node));
+        recordWindow(chunkSize, 100);
+        assertEquals(100, chunkSize.getLines(node));
+    }
+}
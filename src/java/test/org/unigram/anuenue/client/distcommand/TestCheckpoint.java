@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class of Checkpoint.
+ */
+public final class TestCheckpoint {
+
+    /** input file. */
+    private File input;
+
+    /** checkpoint file. */
+    private File checkpointFile;
+
+    /**
+     * create the input file.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        input = File.createTempFile("anuenue-checkpoint", ".tsv");
+        FileUtils.writeStringToFile(input, "id\tname\n1\ta\n2\tb\n3\tc\n4\td\n5\te\n", "UTF-8");
+        checkpointFile = File.createTempFile("anuenue-checkpoint", ".checkpoint");
+        checkpointFile.delete();
+    }
+
+    /**
+     * delete the files.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(input);
+        FileUtils.deleteQuietly(checkpointFile);
+    }
+
+    /**
+     * Test that lines acknowledged without a gap are checkpointed, and a reader resumes after them.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testResume() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        FileProgress progress = new FileProgress(input.getPath(), 1, new AtomicInteger());
+        progress.setCheckpoint(checkpoint, 0, -1);
+        Chunk first;
+        Chunk second;
+        Chunk third;
+        try (MappedTSVChunker reader = new MappedTSVChunker(input.getPath())) {
+            reader.init();
+            first = reader.readChunk(2, 0, progress);
+            second = reader.readChunk(2, 0, progress);
+            third = reader.readChunk(2, 0, progress);
+        }
+        for (int i = 0; i < 3; ++i) {
+            progress.chunkSubmitted();
+        }
+        // acknowledged out of order: the first chunk is still in flight
+        progress.chunkSent(second);
+        progress.chunkSent(third);
+        checkpoint.flush();
+        Checkpoint loaded = new Checkpoint(checkpointFile);
+        loaded.load();
+        assertNull(loaded.get(input.getPath()));
+
+        progress.chunkSent(first);
+        checkpoint.flush();
+        loaded = new Checkpoint(checkpointFile);
+        loaded.load();
+        Checkpoint.Entry entry = loaded.get(input.getPath());
+        assertEquals(5, entry.getLines());
+        assertEquals(input.length(), entry.getOffset());
+        assertFalse(entry.isComplete());
+
+        progress.readFinished();
+        loaded = new Checkpoint(checkpointFile);
+        loaded.load();
+        assertTrue(loaded.get(input.getPath()).isComplete());
+    }
+
+    /**
+     * Test that both readers skip acknowledged lines.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSkip() throws Exception {
+        long offset = "id\tname\n1\ta\n2\tb\n".length();
+        try (MappedTSVChunker reader = new MappedTSVChunker(input.getPath())) {
+            reader.init();
+            reader.skip(2, offset);
+            Chunk chunk = reader.readChunk(10, 0, null);
+            assertEquals("id\tname\n3\tc\n4\td\n5\te\n", chunk.getData());
+            assertEquals(2, chunk.getFirstLine());
+        }
+        try (MappedTSVChunker reader = new MappedTSVChunker(input.getPath())) {
+            reader.init();
+            reader.skip(2, -1);
+            assertEquals("id\tname\n3\tc\n4\td\n5\te\n", reader.readChunk(10, 0, null).getData());
+        }
+        try (TSVFileReader reader = new TSVFileReader(input.getPath())) {
+            reader.init();
+            reader.skip(2, offset);
+            Chunk chunk = reader.readChunk(10, 0, null);
+            assertEquals("id\tname\n3\tc\n4\td\n5\te\n", chunk.getData());
+            assertEquals(2, chunk.getFirstLine());
+        }
+    }
+
+    /**
+     * Test that the entry of a modified file is ignored.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testModifiedFile() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        checkpoint.update(input.getPath(), 2, 16, false);
+        checkpoint.flush();
+        FileUtils.writeStringToFile(input, "6\tf\n", "UTF-8", true);
+        Checkpoint loaded = new Checkpoint(checkpointFile);
+        loaded.load();
+        assertNull(loaded.get(input.getPath()));
+    }
+}
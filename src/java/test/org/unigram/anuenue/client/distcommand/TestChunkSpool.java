@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+import org.unigram.anuenue.node.NodeDatabase;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of ChunkSpool.
+ */
+public final class TestChunkSpool {
+
+    /** port number of the test server. */
+    private static final int PORT = 18993;
+
+    /** spool directory. */
+    private File directory;
+
+    /** node. */
+    private final Node node = new Node("localhost", 1, Role.MASTER, null);
+
+    /**
+     * Handler which answers posts with a given status, and records the accepted lines.
+     */
+    private static final class StatusHandler extends AbstractHandler {
+
+        /** status of responses. */
+        private volatile int status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+
+        /** number of accepted lines. */
+        private final AtomicInteger accepted = new AtomicInteger();
+
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+            String body = IOUtils.toString(request.getInputStream(), "UTF-8");
+            if (status != HttpServletResponse.SC_OK) {
+                response.sendError(status);
+            } else {
+                accepted.addAndGet(body.split("\n").length - 1);
+                response.getWriter().print("<int name=\"status\">0</int>");
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+
+    /**
+     * create the spool directory.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("anuenue-spool", "");
+        directory.delete();
+    }
+
+    /**
+     * delete the spool directory.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * Test that spooled chunks are read back in order, and a torn record is ignored.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testAppendAndRead() throws Exception {
+        try (ChunkSpool spool = new ChunkSpool(directory)) {
+            spool.append(node, AnuenueCommandConstants.COMMAND_ADDDATA, new Chunk("id\tname\n1\ta\n2\tb\n", 2));
+            spool.append(node, AnuenueCommandConstants.COMMAND_ADDDATA,
+                    new Chunk("id\tname\n".getBytes("UTF-8"), ByteBuffer.wrap("3\tc\n".getBytes("UTF-8")), 1, null));
+            spool.append(node, AnuenueCommandConstants.COMMAND_DELETEBYID, new Chunk("1\n", 1));
+            assertEquals(3, spool.getSpooledChunks());
+            assertEquals(4, spool.getSpooledDocuments());
+        }
+
+        List<File> segments = ChunkSpool.listSegments(new File(directory, node.getName()));
+        assertEquals(1, segments.size());
+        try (FileOutputStream out = new FileOutputStream(segments.get(0), true)) {
+            out.write("addData\t1\t100\n3\t".getBytes("UTF-8"));
+        }
+
+        try (ChunkSpool.SegmentReader reader = new ChunkSpool.SegmentReader(segments.get(0))) {
+            ChunkSpool.Record record = reader.next();
+            assertEquals(AnuenueCommandConstants.COMMAND_ADDDATA, record.getCommand());
+            assertEquals("id\tname\n1\ta\n2\tb\n", record.getChunk().getData());
+            assertEquals(2, record.getChunk().getNumberOfDocuments());
+            record = reader.next();
+            assertEquals("id\tname\n3\tc\n", record.getChunk().getData());
+            record = reader.next();
+            assertEquals(AnuenueCommandConstants.COMMAND_DELETEBYID, record.getCommand());
+            assertEquals("1\n", record.getChunk().getData());
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test that chunks which cannot be sent to an unreachable node are spooled instead of failing.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPipelineSpoolsFailedChunks() throws Exception {
+        try (ChunkSpool spool = new ChunkSpool(directory)) {
+            IngestionPipeline pipeline = new IngestionPipeline(Collections.singletonList(node),
+                    AnuenueCommandConstants.COMMAND_ADDDATA, 1, 4);
+            pipeline.setSpool(spool);
+            for (int i = 0; i < 3; ++i) {
+                pipeline.submit(new Chunk("id\n" + i + "\n", 1));
+            }
+            pipeline.finish();
+            assertEquals(3, spool.getSpooledChunks());
+        }
+    }
+
+    /**
+     * Test that chunks failed by a server error are spooled, and kept while the replay fails.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testReplayKeepsSegmentOnServerError() throws Exception {
+        StatusHandler handler = new StatusHandler();
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        server.setHandler(handler);
+        server.start();
+        System.setProperty("anuenue.spool.retry.max", "1");
+        try {
+            Node target = new Node("localhost", PORT, Role.MASTER, null);
+            try (ChunkSpool spool = new ChunkSpool(directory)) {
+                IngestionPipeline pipeline = new IngestionPipeline(Collections.singletonList(target),
+                        AnuenueCommandConstants.COMMAND_ADDDATA, 1, 4);
+                pipeline.setSpool(spool);
+                for (int i = 0; i < 2; ++i) {
+                    pipeline.submit(new Chunk("id\n" + i + "\n", 1));
+                }
+                pipeline.finish();
+                assertEquals(2, spool.getSpooledChunks());
+            }
+
+            Node slave = new Node("localhost", PORT + 1, Role.SLAVE, null);
+            Map<String, Node> nameMap = new HashMap<String, Node>();
+            nameMap.put(target.getName(), target);
+            nameMap.put(slave.getName(), slave);
+            List<Node> nodes = Arrays.asList(target, slave);
+            NodeDatabase database = new NodeDatabase(nodes, nameMap, Collections.singletonMap("localhost", nodes),
+                    Collections.singletonList(target), Collections.<Node>emptyList(), Collections.singletonList(slave),
+                    Collections.<String, List<Node>>emptyMap());
+            File nodeDirectory = new File(directory, target.getName());
+            try {
+                new ResumeSpoolDistCommand(AnuenueCommandConstants.TARGET_MASTER, directory.getPath(), database)
+                    .execute();
+                fail("the replay should fail");
+            } catch (AnuenueException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("1 spooled segments remain"));
+            }
+            assertEquals(1, ChunkSpool.listSegments(nodeDirectory).size());
+            assertEquals(0, handler.accepted.get());
+
+            handler.status = HttpServletResponse.SC_OK;
+            new ResumeSpoolDistCommand(AnuenueCommandConstants.TARGET_MASTER, directory.getPath(), database)
+                .execute();
+            assertFalse(nodeDirectory.exists());
+            assertEquals(2, handler.accepted.get());
+        } finally {
+            System.clearProperty("anuenue.spool.retry.max");
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class of CompressedFileInputStream.
+ */
+public final class TestCompressedFileInputStream {
+
+    /** input file. */
+    private File file;
+
+    /**
+     * create the input file.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("anuenue-compressed", ".tsv.gz");
+    }
+
+    /**
+     * delete the input file.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * create TSV data larger than a decoded block.
+     * @return data
+     */
+    private static String createData() {
+        StringBuilder builder = new StringBuilder("id\tname\n");
+        for (int i = 0; i < 10000; ++i) {
+            builder.append(i).append("\tdocument ").append(i).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Test that a gzip file is decoded, and read by chunks.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testGzip() throws Exception {
+        String data = createData();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(data.getBytes("UTF-8"));
+        }
+        assertEquals(CompressedFileInputStream.CODEC_GZIP, CompressedFileInputStream.detectCodec(file.getPath()));
+        try (InputStream in = CompressedFileInputStream.open(file.getPath())) {
+            assertEquals(data, IOUtils.toString(in, "UTF-8"));
+        }
+
+        StringBuilder lines = new StringBuilder();
+        try (TSVFileReader reader = new TSVFileReader(file.getPath())) {
+            reader.init();
+            assertEquals("id\tname\n", reader.getHeader());
+            lines.append(reader.getHeader());
+            while (true) {
+                Chunk chunk = reader.readChunk(3000, 0, null);
+                if (chunk == null) {
+                    break;
+                }
+                lines.append(chunk.getData().substring(reader.getHeader().length()));
+            }
+        }
+        assertEquals(data, lines.toString());
+    }
+
+    /**
+     * Test that a plain file is read as it is.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPlain() throws Exception {
+        FileUtils.writeStringToFile(file, "id\n1\n", "UTF-8");
+        assertNull(CompressedFileInputStream.detectCodec(file.getPath()));
+        try (InputStream in = CompressedFileInputStream.open(file.getPath())) {
+            assertEquals("id\n1\n", IOUtils.toString(in, "UTF-8"));
+        }
+    }
+
+    /**
+     * Test that a corrupted gzip file fails while reading.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testCorrupted() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(createData().getBytes("UTF-8"));
+        }
+        byte[] compressed = bytes.toByteArray();
+        FileUtils.writeByteArrayToFile(file, Arrays.copyOf(compressed, compressed.length / 2));
+        try (InputStream in = CompressedFileInputStream.open(file.getPath())) {
+            IOUtils.toString(in, "UTF-8");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("failed to decode"));
+        }
+    }
+}
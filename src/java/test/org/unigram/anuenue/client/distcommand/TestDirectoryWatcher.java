@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class of DirectoryWatcher.
+ */
+public final class TestDirectoryWatcher {
+
+    /** quiet period of the tests(msec). */
+    private static final long QUIET = 200;
+
+    /** timeout of the tests(msec). */
+    private static final long TIMEOUT = 10000;
+
+    /** watched directory. */
+    private File dir;
+
+    /**
+     * create the directory.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("anuenue-watch", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    /**
+     * delete the directory.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    /**
+     * Test that existing and new files are returned once, and hidden files are ignored.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testNewFiles() throws Exception {
+        File existing = new File(dir, "a.tsv");
+        FileUtils.writeStringToFile(existing, "id\n1\n", "UTF-8");
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, QUIET)) {
+            assertEquals(existing, watcher.poll(TIMEOUT));
+
+            FileUtils.writeStringToFile(new File(dir, ".b.tsv"), "id\n2\n", "UTF-8");
+            File created = new File(dir, "b.tsv");
+            new File(dir, ".b.tsv").renameTo(created);
+            assertEquals(created, watcher.poll(TIMEOUT));
+            assertNull(watcher.poll(QUIET * 3));
+        }
+    }
+
+    /**
+     * Test that a file is returned after it stops changing, and again when it is rewritten.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testWrittenFile() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, QUIET)) {
+            File file = new File(dir, "c.tsv");
+            FileUtils.writeStringToFile(file, "id\n", "UTF-8");
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 3; ++i) {
+                Thread.sleep(QUIET / 2);
+                FileUtils.writeStringToFile(file, i + "\n", "UTF-8", true);
+            }
+            assertEquals(file, watcher.poll(TIMEOUT));
+            assertTrue(System.currentTimeMillis() - start >= QUIET * 3 / 2 + QUIET);
+
+            FileUtils.writeStringToFile(file, "id\n9\n", "UTF-8");
+            file.setLastModified(file.lastModified() + 1000);
+            assertEquals(file, watcher.poll(TIMEOUT));
+        }
+    }
+
+    /**
+     * Test that close wakes up a waiting poll.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testClose() throws Exception {
+        final DirectoryWatcher watcher = new DirectoryWatcher(dir, QUIET);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(QUIET);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                watcher.close();
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        assertNull(watcher.poll(TIMEOUT));
+        assertTrue(watcher.isClosed());
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+import org.unigram.anuenue.client.AnuenueCommandConstants;
+import org.unigram.anuenue.client.command.AbstractCommand;
+import org.unigram.anuenue.client.command.AddDataCommand;
+import org.unigram.anuenue.client.solr.HttpConnectionPool;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of DistCommandManager.
+ */
+public final class TestDistCommandManager {
+
+    /** port number of the test server. */
+    private static final int PORT = 18992;
+
+    /**
+     * Command which records the number of commands running at the same time.
+     */
+    private static final class SleepCommand extends AbstractCommand {
+
+        /** number of running commands. */
+        private final AtomicInteger running;
+
+        /** maximum number of running commands. */
+        private final AtomicInteger maxRunning;
+
+        /**
+         * Constructor.
+         * @param arg result, "fail" or "overloaded"
+         * @param current number of running commands
+         * @param max maximum number of running commands
+         */
+        private SleepCommand(final String arg, final AtomicInteger current, final AtomicInteger max) {
+            super(null, arg);
+            running = current;
+            maxRunning = max;
+        }
+
+        @Override
+        public String runCommand() throws IOException {
+            int count = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (count <= max || maxRunning.compareAndSet(max, count)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            if ("fail".equals(getArgument())) {
+                throw new IOException("failed");
+            }
+            if ("overloaded".equals(getArgument())) {
+                throw new SolrResponseException(503, "Service Unavailable");
+            }
+            return getArgument();
+        }
+    }
+
+    /**
+     * Handler which accepts posts slowly, and records the number of posts handled at the same time.
+     */
+    private static final class SlowHandler extends AbstractHandler {
+
+        /** number of running posts. */
+        private final AtomicInteger running = new AtomicInteger();
+
+        /** maximum number of running posts. */
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        /** number of posted lines. */
+        private final AtomicInteger lines = new AtomicInteger();
+
+        /** time to handle a post(msec). */
+        private final long delay;
+
+        /**
+         * Constructor.
+         * @param postDelay time to handle a post(msec)
+         */
+        private SlowHandler(final long postDelay) {
+            delay = postDelay;
+        }
+
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+            int count = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (count <= max || maxRunning.compareAndSet(max, count)) {
+                    break;
+                }
+            }
+            try {
+                String body = IOUtils.toString(request.getInputStream(), "UTF-8");
+                lines.addAndGet(body.split("\n").length - 1);
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            response.getWriter().print("<int name=\"status\">0</int>");
+            baseRequest.setHandled(true);
+        }
+    }
+
+    /**
+     * start the test server.
+     * @param handler handler
+     * @return server
+     * @throws Exception in case of error
+     */
+    private static Server startServer(final SlowHandler handler) throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        server.setHandler(handler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Test that chunks of a pipeline are sent on the executor of the manager within its limit per node.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testPipelineRunsOnManager() throws Exception {
+        SlowHandler handler = new SlowHandler(20);
+        Server server = startServer(handler);
+        try {
+            DistCommandManager manager = new DistCommandManager(DistCommandManager.MODE_FIXED, 8, 2);
+            Node node = new Node("localhost", PORT, Role.MASTER, null);
+            IngestionPipeline pipeline = new IngestionPipeline(Collections.singletonList(node),
+                    AnuenueCommandConstants.COMMAND_ADDDATA, 4, 4, manager);
+            for (int i = 0; i < 12; ++i) {
+                pipeline.submit(new Chunk("id\n" + i + "\n", 1));
+            }
+            pipeline.finish();
+            assertEquals(12, handler.lines.get());
+            assertTrue("max running: " + handler.maxRunning.get(), handler.maxRunning.get() <= 2);
+            assertTrue(manager.getStatistics(), manager.getStatistics().contains("submitted=12"));
+            assertEquals(0, manager.getQueueDepth(node));
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+
+    /**
+     * Test that commands on a node are limited.
+     */
+    @Test
+    public void testMaxPerNode() {
+        DistCommandManager manager = new DistCommandManager(DistCommandManager.MODE_FIXED, 8, 2);
+        Node node = new Node("localhost", 8983, Role.MASTER, null);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(manager.submit(node, new SleepCommand(Integer.toString(i), running, maxRunning)));
+        }
+        try {
+            String[] results = manager.waitAll(futures);
+            for (int i = 0; i < 10; ++i) {
+                assertEquals(Integer.toString(i), results[i]);
+            }
+        } catch (AnuenueException e) {
+            fail();
+        }
+        assertTrue("max running: " + maxRunning.get(), maxRunning.get() <= 2);
+        assertEquals(0, manager.getQueueDepth(node));
+    }
+
+    /**
+     * Test that a failure is thrown after all commands finish.
+     */
+    @Test
+    public void testFailure() {
+        DistCommandManager manager = new DistCommandManager(DistCommandManager.MODE_VIRTUAL, 4, 4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        futures.add(manager.submit(new Node("aaaa", 8983, Role.MASTER, null),
+                new SleepCommand("fail", running, maxRunning)));
+        futures.add(manager.submit(new Node("bbbb", 8983, Role.MASTER, null),
+                new SleepCommand("ok", running, maxRunning)));
+        try {
+            manager.waitAll(futures);
+            fail();
+        } catch (AnuenueException e) {
+            assertTrue(futures.get(1).isDone());
+            assertEquals(0, running.get());
+        }
+    }
+
+    /**
+     * Test that the AIMD limit decreases on 503 and increases on success.
+     */
+    @Test
+    public void testAimd() {
+        DistCommandManager manager = new DistCommandManager(DistCommandManager.MODE_FIXED, 8, 8,
+                DistCommandManager.CONCURRENCY_AIMD, 4, 1000);
+        Node node = new Node("localhost", 8983, Role.MASTER, null);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        assertEquals(4.0, manager.getConcurrencyLimit(node), 0.0);
+
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; ++i) {
+            futures.add(manager.submit(node, new SleepCommand("overloaded", running, maxRunning)));
+        }
+        try {
+            manager.waitAll(futures);
+            fail();
+        } catch (AnuenueException e) {
+            assertTrue(e.getCause() instanceof SolrResponseException);
+        }
+        // the commands started together, so the limit is halved once
+        assertEquals(2.0, manager.getConcurrencyLimit(node), 0.0);
+        assertTrue(maxRunning.get() <= 4);
+
+        futures.clear();
+        for (int i = 0; i < 20; ++i) {
+            futures.add(manager.submit(node, new SleepCommand("ok", running, maxRunning)));
+        }
+        try {
+            manager.waitAll(futures);
+        } catch (AnuenueException e) {
+            fail();
+        }
+        assertTrue("limit: " + manager.getConcurrencyLimit(node), manager.getConcurrencyLimit(node) > 4.0);
+        assertTrue(manager.getStatistics().contains("decreases=1"));
+    }
+
+    /**
+     * Test that a timeout of an add command reaches the manager and decreases the AIMD limit.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testAimdOnTimeout() throws Exception {
+        // connections to the server of the other test are closed
+        HttpConnectionPool.getInstance().closeIdleConnections();
+        Server server = startServer(new SlowHandler(1000));
+        try {
+            DistCommandManager manager = new DistCommandManager(DistCommandManager.MODE_FIXED, 8, 8,
+                    DistCommandManager.CONCURRENCY_AIMD, 4, 1000);
+            Node node = new Node("localhost", PORT, Role.MASTER, null);
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 2; ++i) {
+                SolrClient client = new SolrClient("localhost", PORT);
+                client.setReadTimeout(100);
+                futures.add(manager.submit(node, new AddDataCommand(client, "id\n" + i + "\n")));
+            }
+            try {
+                manager.waitAll(futures);
+                fail("the timeout should be thrown");
+            } catch (AnuenueException e) {
+                assertTrue(e.getCause().toString(), e.getCause() instanceof SocketTimeoutException);
+            }
+            assertEquals(2.0, manager.getConcurrencyLimit(node), 0.0);
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class of FingerprintStore.
+ */
+public final class TestFingerprintStore {
+
+    /** header of the rows. */
+    private static final String HEADER = "id\tname";
+
+    /** directory of the store. */
+    private File dir;
+
+    /**
+     * create the directory.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("anuenue-fingerprint", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    /**
+     * delete the directory.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    /**
+     * record rows in a store and return the ids which have been removed.
+     * @param store store
+     * @param rows rows
+     * @return removed ids in order
+     * @throws Exception in case of error
+     */
+    private static List<String> recordAll(final FingerprintStore store, final String... rows) throws Exception {
+        for (String row : rows) {
+            store.record(ChunkRouter.getId(row), FingerprintStore.fingerprint(HEADER, row));
+        }
+        final List<String> removed = new ArrayList<String>();
+        store.visitRemoved(new FingerprintStore.IdVisitor() {
+            @Override
+            public void visit(final String id) {
+                removed.add(id);
+            }
+        });
+        Collections.sort(removed);
+        return removed;
+    }
+
+    /**
+     * compare a row with the store.
+     * @param store store
+     * @param row row
+     * @return NEW, CHANGED or UNCHANGED
+     */
+    private static int compare(final FingerprintStore store, final String row) {
+        return store.compare(ChunkRouter.getId(row), FingerprintStore.fingerprint(HEADER, row));
+    }
+
+    /**
+     * Test that changed rows and removed ids are found against the committed snapshot.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSnapshots() throws Exception {
+        File base = new File(dir, "store");
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            assertEquals(FingerprintStore.NEW, compare(store, "1\ta"));
+            assertTrue(recordAll(store, "1\ta", "2\tb", "3\t\u3042").isEmpty());
+            store.commit();
+        }
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            assertEquals(FingerprintStore.UNCHANGED, compare(store, "1\ta"));
+            assertEquals(FingerprintStore.CHANGED, compare(store, "2\tB"));
+            assertEquals(FingerprintStore.NEW, compare(store, "4\td"));
+            assertEquals(FingerprintStore.CHANGED,
+                    store.compare("1", FingerprintStore.fingerprint("id\ttitle", "1\ta")));
+            List<String> removed = recordAll(store, "1\ta", "2\tB", "4\td");
+            assertEquals(Collections.singletonList("3"), removed);
+            store.commit();
+        }
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            assertEquals(FingerprintStore.UNCHANGED, compare(store, "2\tB"));
+            assertEquals(FingerprintStore.NEW, compare(store, "3\t\u3042"));
+        }
+        // only the files of the committed generation remain
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertEquals("[store.ids.2, store.table]", Arrays.toString(names));
+    }
+
+    /**
+     * Test that a snapshot which is not committed is discarded.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testNotCommitted() throws Exception {
+        File base = new File(dir, "store");
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            recordAll(store, "1\ta");
+            store.commit();
+        }
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            recordAll(store, "1\tchanged");
+        }
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            assertEquals(FingerprintStore.UNCHANGED, compare(store, "1\ta"));
+        }
+    }
+
+    /**
+     * Test that the table grows beyond its initial capacity.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testGrow() throws Exception {
+        File base = new File(dir, "store");
+        int ids = 100000;
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            for (int i = 0; i < ids; ++i) {
+                store.record(Integer.toString(i), i);
+            }
+            store.commit();
+        }
+        try (FingerprintStore store = new FingerprintStore(base)) {
+            for (int i = 0; i < ids; ++i) {
+                assertEquals(FingerprintStore.UNCHANGED, store.compare(Integer.toString(i), i));
+                if (i % 2 == 0) {
+                    store.record(Integer.toString(i), i);
+                }
+            }
+            final int[] removed = new int[1];
+            store.visitRemoved(new FingerprintStore.IdVisitor() {
+                @Override
+                public void visit(final String id) {
+                    assertEquals(1, Integer.parseInt(id) % 2);
+                    ++removed[0];
+                }
+            });
+            assertEquals(ids / 2, removed[0]);
+        }
+    }
+}
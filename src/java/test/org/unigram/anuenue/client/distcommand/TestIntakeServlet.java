@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test class of IntakeServlet.
+ */
+public final class TestIntakeServlet {
+
+    /** uniqueKey field. */
+    private static final String KEY = "blogid";
+
+    /**
+     * Test that JSON documents are converted to TSV with the uniqueKey first.
+     */
+    @Test
+    public void testJsonToTSV() {
+        List<String> lines = IntakeServlet.jsonToTSV(
+                "[{\"title\":\"a\\tb\",\"blogid\":1},{\"blogid\":\"2\",\"genre\":\"search\"}]", KEY);
+        assertEquals(Arrays.asList("blogid\tgenre\ttitle", "1\t\ta b", "2\tsearch\t"), lines);
+    }
+
+    /**
+     * Test that a JSON document without the uniqueKey, or with an array value, is rejected.
+     */
+    @Test
+    public void testInvalidJson() {
+        try {
+            IntakeServlet.jsonToTSV("[{\"blogid\":1},{\"id\":2}]", KEY);
+            fail("a document without the uniqueKey should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does not have blogid"));
+        }
+        try {
+            IntakeServlet.jsonToTSV("{\"blogid\":1,\"tag\":[\"a\",\"b\"]}", KEY);
+            fail("an array value should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tag"));
+        }
+    }
+
+    /**
+     * Test that TSV must start with the uniqueKey.
+     */
+    @Test
+    public void testCheckUniqueKey() {
+        IntakeServlet.checkUniqueKey(Arrays.asList("blogid\ttitle", "1\ta"), KEY);
+        try {
+            IntakeServlet.checkUniqueKey(Arrays.asList("title\tblogid", "a\t1"), KEY);
+            fail("a header without the uniqueKey first should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("first column"));
+        }
+        try {
+            IntakeServlet.checkUniqueKey(Arrays.asList("blogid\ttitle", "1\ta", "\tb"), KEY);
+            fail("a line without the uniqueKey should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 3"));
+        }
+    }
+}
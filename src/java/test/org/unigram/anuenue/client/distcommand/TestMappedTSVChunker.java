@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class of MappedTSVChunker.
+ */
+public final class TestMappedTSVChunker {
+
+    /** input file. */
+    private File file;
+
+    /**
+     * create the input file.
+     * @throws Exception in case of IO error
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("anuenue-chunker", ".tsv");
+    }
+
+    /**
+     * delete the input file.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * read all chunks of the file.
+     * @param windowSize size of a mapped window
+     * @param maxLineNumber max line number of a chunk
+     * @return data of chunks
+     * @throws Exception in case of error
+     */
+    private List<String> readAll(final int windowSize, final int maxLineNumber) throws Exception {
+        return readAll(new MappedTSVChunker(file.getPath(), windowSize), maxLineNumber, 0);
+    }
+
+    /**
+     * read all chunks of the file.
+     * @param reader reader
+     * @param maxLineNumber max line number of a chunk
+     * @param maxBytes max size of a chunk
+     * @return data of chunks
+     * @throws Exception in case of error
+     */
+    private static List<String> readAll(final ChunkReader reader, final int maxLineNumber, final long maxBytes)
+            throws Exception {
+        List<String> chunks = new ArrayList<String>();
+        try (ChunkReader chunkReader = reader) {
+            chunkReader.init();
+            while (true) {
+                Chunk chunk = chunkReader.readChunk(maxLineNumber, maxBytes, null);
+                if (chunk == null) {
+                    break;
+                }
+                chunks.add(chunk.getData());
+            }
+            assertNull(chunkReader.readChunk(maxLineNumber, maxBytes, null));
+        }
+        return chunks;
+    }
+
+    /**
+     * Test that chunks are the same as those of TSVFileReader.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSameAsLineReader() throws Exception {
+        FileUtils.writeStringToFile(file, "id\tname\n1\tjava\n2\truby\n3\tperl\n4\tpython\n5\tscala", "UTF-8");
+        List<String> expected = new ArrayList<String>();
+        try (TSVFileReader reader = new TSVFileReader(file.getPath())) {
+            reader.init();
+            while (true) {
+                Chunk chunk = reader.readChunk(2, 0, null);
+                if (chunk == null) {
+                    break;
+                }
+                expected.add(chunk.getData());
+            }
+        }
+        // the last line is sent without new line
+        expected.set(expected.size() - 1, "id\tname\n5\tscala");
+        assertEquals(expected, readAll(MappedTSVChunker.DEFAULT_WINDOW_SIZE, 2));
+    }
+
+    /**
+     * Test that lines across windows and lines longer than a window are read.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSmallWindow() throws Exception {
+        String body = "1\tjava\n2\ta very long line which does not fit in a window\n3\tperl\n4\truby\n";
+        FileUtils.writeStringToFile(file, "id\tname\r\n" + body, "UTF-8");
+        StringBuilder lines = new StringBuilder();
+        for (String chunk : readAll(8, 2)) {
+            assertEquals("id\tname\n", chunk.substring(0, 8));
+            lines.append(chunk.substring(8));
+        }
+        assertEquals(body, lines.toString());
+    }
+
+    /**
+     * Test that chunks are cut by size, and a line larger than the limit is sent alone.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testMaxBytes() throws Exception {
+        FileUtils.writeStringToFile(file, "id\tname\n1\tjava\n2\truby\n3\ta line larger than the limit\n4\tperl\n",
+                "UTF-8");
+        List<String> expected = new ArrayList<String>();
+        expected.add("id\tname\n1\tjava\n2\truby\n");
+        expected.add("id\tname\n3\ta line larger than the limit\n");
+        expected.add("id\tname\n4\tperl\n");
+        assertEquals(expected, readAll(new TSVFileReader(file.getPath()), 100, 24));
+        assertEquals(expected, readAll(new MappedTSVChunker(file.getPath()), 100, 24));
+    }
+
+    /**
+     * Test a file which has only the header.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testHeaderOnly() throws Exception {
+        FileUtils.writeStringToFile(file, "id\tname\n", "UTF-8");
+        assertEquals(0, readAll(MappedTSVChunker.DEFAULT_WINDOW_SIZE, 100).size());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.distcommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+
+/**
+ * Test class of MicroBatcher.
+ */
+public final class TestMicroBatcher {
+
+    /** timeout of the tests(msec). */
+    private static final long TIMEOUT = 10000;
+
+    /** target nodes. */
+    private final List<Node> nodes = Arrays.asList(new Node("master0", 8983, Role.MASTER, null));
+
+    /**
+     * Sender which records the chunks, and waits for a latch before returning.
+     */
+    private static final class RecordingSender implements MicroBatcher.Sender {
+
+        /** sent chunks. */
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+        /** released to let the sender return. */
+        private final CountDownLatch release;
+
+        /** error thrown by the sender, or null. */
+        private final IOException error;
+
+        /**
+         * Constructor.
+         * @param latch released to let the sender return
+         * @param sendError error thrown by the sender, or null
+         */
+        private RecordingSender(final CountDownLatch latch, final IOException sendError) {
+            release = latch;
+            error = sendError;
+        }
+
+        @Override
+        public void send(final Node node, final Chunk chunk) throws IOException, AnuenueException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (error != null) {
+                throw error;
+            }
+            sent.add(chunk.getData());
+        }
+    }
+
+    /**
+     * Test that a batch is sent when it is full, and the request is acknowledged after it is sent.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testSizeFlush() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(release, null);
+        MicroBatcher batcher = new MicroBatcher(sender, nodes, null, 3, 0, TIMEOUT * 10, 1);
+        try {
+            MicroBatcher.Acknowledgement first = batcher.add("id\tname", Arrays.asList("1\ta", "2\tb"));
+            MicroBatcher.Acknowledgement second = batcher.add("id\tname", Arrays.asList("3\tc"));
+            assertFalse(second.await(100));
+            release.countDown();
+            assertTrue(first.await(TIMEOUT));
+            assertTrue(second.await(TIMEOUT));
+            assertNull(first.getError());
+            assertEquals(2, first.getDocuments());
+            assertEquals(Arrays.asList("id\tname\n1\ta\n2\tb\n3\tc\n"), sender.sent);
+        } finally {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Test that a batch which is not full is sent after the delay, and different headers are not mixed.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testDelayFlush() throws Exception {
+        RecordingSender sender = new RecordingSender(new CountDownLatch(0), null);
+        MicroBatcher batcher = new MicroBatcher(sender, nodes, null, 1000, 0, 50, 1);
+        try {
+            MicroBatcher.Acknowledgement first = batcher.add("id\tname", Arrays.asList("1\ta"));
+            MicroBatcher.Acknowledgement second = batcher.add("id\ttitle", Arrays.asList("2\tb"));
+            assertTrue(first.await(TIMEOUT));
+            assertTrue(second.await(TIMEOUT));
+            assertEquals(2, sender.sent.size());
+            assertTrue(sender.sent.contains("id\tname\n1\ta\n"));
+            assertTrue(sender.sent.contains("id\ttitle\n2\tb\n"));
+        } finally {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Test that a failure of a batch is reported to the requests in it, and close sends the open batches.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testError() throws Exception {
+        RecordingSender sender = new RecordingSender(new CountDownLatch(0), new IOException("down"));
+        MicroBatcher batcher = new MicroBatcher(sender, nodes, null, 1000, 0, TIMEOUT * 10, 1);
+        MicroBatcher.Acknowledgement ack = batcher.add("id\tname", Arrays.asList("1\ta", "2\tb"));
+        assertFalse(ack.await(100));
+        batcher.close();
+        assertTrue(ack.await(0));
+        assertNotNull(ack.getError());
+        assertEquals(2, ack.getFailedDocuments());
+        assertTrue(batcher.getStatistics().contains("failed=1"));
+    }
+
+    /**
+     * Test that a rejection of a batch is reported only to the request which owns the invalid line.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testRejectedRequest() throws Exception {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        MicroBatcher.Sender sender = new MicroBatcher.Sender() {
+            @Override
+            public void send(final Node node, final Chunk chunk) throws IOException {
+                if (chunk.getData().contains("invalid")) {
+                    throw new SolrResponseException(400, "invalid document");
+                }
+                sent.add(chunk.getData());
+            }
+        };
+        MicroBatcher batcher = new MicroBatcher(sender, nodes, null, 1000, 0, TIMEOUT * 10, 1);
+        MicroBatcher.Acknowledgement valid = batcher.add("id\tname", Arrays.asList("1\ta", "2\tb"));
+        MicroBatcher.Acknowledgement invalid = batcher.add("id\tname", Arrays.asList("3\tinvalid", "4\td"));
+        batcher.close();
+        assertTrue(valid.await(0));
+        assertTrue(invalid.await(0));
+        assertNull(valid.getError());
+        assertEquals(400, ((SolrResponseException) invalid.getError()).getStatusCode());
+        assertEquals(2, invalid.getFailedDocuments());
+        assertEquals(Arrays.asList("id\tname\n1\ta\n2\tb\n"), sent);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.internal.csv.CSVParser;
+import org.apache.solr.internal.csv.CSVStrategy;
+
+/**
+ * Benchmark which compares TSV with javabin as the update format.
+ * Documents of the blog schema (blogid, title, content, genre) are generated, and measured are
+ * the cost of the masters to read a request into documents (the CSV parser of Solr configured as
+ * the TSV parameters of SolrClient, and the javabin codec of the update handler),
+ * the cost of the client to convert TSV to javabin, and the size of the requests.
+ *
+ * usage: JavaBinBenchmark [documents per request] [repeat]
+ */
+public final class JavaBinBenchmark {
+
+    /** default number of documents of a request. */
+    private static final int DEFAULT_DOCUMENTS = 1000;
+
+    /** default number of runs of a measurement. */
+    private static final int DEFAULT_REPEAT = 200;
+
+    /** header of the data. */
+    private static final String HEADER = "blogid\ttitle\tcontent\tgenre\n";
+
+    /** genres. */
+    private static final String[] GENRES = {"search", "travel", "food", "music", ""};
+
+    /** number of read documents, to keep the work from being optimized away. */
+    private static long sink;
+
+    /**
+     * Constructor.
+     */
+    private JavaBinBenchmark() {
+    }
+
+    /**
+     * Task measured by the benchmark.
+     */
+    private interface Task {
+
+        /**
+         * run the task.
+         * @throws IOException in case of IO error
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * get the bytes allocated by the current thread.
+     * @return allocated bytes, or -1 if not supported
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * measure a task.
+     * @param name name of the task
+     * @param task task
+     * @param documents number of documents of a run
+     * @param repeat number of runs
+     * @throws IOException in case of IO error
+     */
+    private static void run(final String name, final Task task, final int documents, final int repeat)
+            throws IOException {
+        for (int i = 0; i < repeat; ++i) {
+            task.run();
+        }
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < repeat; ++i) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+        System.out.println(String.format("%-26s %8.3f msec/request %10.0f docs/s %10d bytes allocated/request",
+                name, elapsed / 1e6 / repeat, documents * 1e9 * repeat / elapsed, allocated / repeat));
+    }
+
+    /**
+     * create the lines of documents.
+     * @param documents number of documents
+     * @return lines
+     * @throws IOException in case of IO error
+     */
+    private static byte[] createBody(final int documents) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < documents; ++i) {
+            builder.append(i).append('\t')
+                .append("\u691c\u7d22\u30a8\u30f3\u30b8\u30f3\u306e\u8a18\u4e8b ").append(i).append('\t')
+                .append("Anuenue is a wrapper of Solr which distributes documents to the masters ")
+                .append("and queries to the slaves. This is the content of the entry ").append(i).append('.')
+                .append('\t').append(GENRES[i % GENRES.length]).append('\n');
+        }
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * main.
+     * @param args [documents per request] [repeat]
+     * @throws Exception in case of error
+     */
+    public static void main(final String[] args) throws Exception {
+        final int documents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DOCUMENTS;
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPEAT;
+        final byte[] header = HEADER.getBytes("UTF-8");
+        final byte[] body = createBody(documents);
+        final byte[] tsv = new byte[header.length + body.length];
+        System.arraycopy(header, 0, tsv, 0, header.length);
+        System.arraycopy(body, 0, tsv, header.length, body.length);
+        ByteBuffer encoded = JavaBinEncoder.encodeTSV(header, ByteBuffer.wrap(body));
+        final byte[] javabin = new byte[encoded.remaining()];
+        encoded.get(javabin);
+        System.out.println(documents + " documents: tsv " + tsv.length + " bytes, javabin "
+                + javabin.length + " bytes");
+
+        Task parseTSV = new Task() {
+            @Override
+            public void run() throws IOException {
+                // as CSVLoaderBase with separator=%09&encapsulator=%09
+                CSVStrategy strategy = new CSVStrategy(',', '"', CSVStrategy.COMMENTS_DISABLED,
+                        CSVStrategy.ESCAPE_DISABLED, false, false, false, true);
+                strategy.setDelimiter('\t');
+                strategy.setEncapsulator('\t');
+                CSVParser parser = new CSVParser(new InputStreamReader(new ByteArrayInputStream(tsv), "UTF-8"),
+                        strategy);
+                String[] fields = parser.getLine();
+                String[] values;
+                while ((values = parser.getLine()) != null) {
+                    SolrInputDocument document = new SolrInputDocument();
+                    for (int i = 0; i < fields.length; ++i) {
+                        if (values[i].length() > 0) {
+                            document.addField(fields[i], values[i]);
+                        }
+                    }
+                    sink += document.size();
+                }
+            }
+        };
+        Task parseJavaBin = new Task() {
+            @Override
+            public void run() throws IOException {
+                new JavaBinUpdateRequestCodec().unmarshal(new ByteArrayInputStream(javabin),
+                        new JavaBinUpdateRequestCodec.StreamingUpdateHandler() {
+                            @Override
+                            public void update(final SolrInputDocument document, final UpdateRequest request,
+                                    final Integer commitWithin, final Boolean overwrite) {
+                                sink += document.size();
+                            }
+                        });
+            }
+        };
+        Task encode = new Task() {
+            @Override
+            public void run() throws IOException {
+                sink += JavaBinEncoder.encodeTSV(header, ByteBuffer.wrap(body)).remaining();
+            }
+        };
+        for (int i = 0; i < 2; ++i) {
+            run("master: parse tsv", parseTSV, documents, repeat);
+            run("master: parse javabin", parseJavaBin, documents, repeat);
+            run("client: encode javabin", encode, documents, repeat);
+        }
+        System.out.println("sink: " + sink);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Benchmark which compares the byte copy of getAndCopyToHttpServletResponse with the previous
+ * char copy (decode the body, and encode it again through the writer of the response).
+ * A large result page is served by an embedded server, as it is and compressed by gzip,
+ * and copied to a response which discards the bytes.
+ *
+ * usage: ProxyCopyBenchmark [documents per page] [repeat]
+ */
+public final class ProxyCopyBenchmark {
+
+    /** port number of the server. */
+    private static final int PORT = 18990;
+
+    /** default number of documents of a page. */
+    private static final int DEFAULT_DOCUMENTS = 5000;
+
+    /** default number of copies of a measurement. */
+    private static final int DEFAULT_REPEAT = 50;
+
+    /** page. */
+    private static byte[] page;
+
+    /** page compressed by gzip. */
+    private static byte[] gzipPage;
+
+    /**
+     * Constructor.
+     */
+    private ProxyCopyBenchmark() {
+    }
+
+    /**
+     * Servlet which returns the page, compressed when the path is /gzip.
+     */
+    private static final class PageServlet extends HttpServlet {
+
+        /** Serial Version ID. */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            byte[] body = page;
+            if ("/gzip".equals(request.getPathInfo())) {
+                response.setHeader("Content-Encoding", "gzip");
+                body = gzipPage;
+            }
+            response.setContentType("application/json; charset=UTF-8");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * ServletOutputStream which discards bytes.
+     */
+    private static final class NullServletOutputStream extends ServletOutputStream {
+
+        /** number of written bytes. */
+        private long count;
+
+        @Override
+        public void write(final int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Copy measured by the benchmark.
+     */
+    private interface Copy {
+
+        /**
+         * copy the page of a path.
+         * @param path path
+         * @param out output of the response
+         * @throws IOException in case of IO error
+         */
+        void run(String path, NullServletOutputStream out) throws IOException;
+    }
+
+    /**
+     * create a proxy of an interface which returns the output stream, and null for other methods.
+     * @param type interface
+     * @param out output stream
+     * @param acceptEncoding Accept-Encoding header
+     * @param <T> type
+     * @return proxy
+     */
+    private static <T> T proxy(final Class<T> type, final ServletOutputStream out, final String acceptEncoding) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getName().equals("getOutputStream")) {
+                            return out;
+                        }
+                        if (method.getName().equals("getHeader")) {
+                            return acceptEncoding;
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    /**
+     * get the bytes allocated by the current thread.
+     * @return allocated bytes, or -1 if not supported
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * measure a copy.
+     * @param name name of the copy
+     * @param path path of the page
+     * @param copy copy
+     * @param repeat number of copies
+     * @throws IOException in case of IO error
+     */
+    private static void run(final String name, final String path, final Copy copy, final int repeat)
+            throws IOException {
+        NullServletOutputStream out = new NullServletOutputStream();
+        for (int i = 0; i < repeat; ++i) {
+            copy.run(path, out);
+        }
+        out.count = 0;
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < repeat; ++i) {
+            copy.run(path, out);
+        }
+        long elapsed = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+        System.out.println(String.format("%-22s %8.2f msec/page %8.1f MB/s %10d bytes out/page %10d bytes allocated/page",
+                name + " " + path, elapsed / 1e6 / repeat, page.length * 1e3 * repeat / elapsed,
+                out.count / repeat, allocated / repeat));
+    }
+
+    /**
+     * create a result page of Solr.
+     * @param documents number of documents
+     * @return page
+     * @throws IOException in case of IO error
+     */
+    private static byte[] createPage(final int documents) throws IOException {
+        StringBuilder builder = new StringBuilder("{\"responseHeader\":{\"status\":0,\"QTime\":1},"
+                + "\"response\":{\"numFound\":" + documents + ",\"start\":0,\"docs\":[");
+        for (int i = 0; i < documents; ++i) {
+            builder.append(i == 0 ? "" : ",").append("{\"blogid\":\"").append(i)
+                .append("\",\"title\":\"\u691c\u7d22\u30a8\u30f3\u30b8\u30f3 ").append(i)
+                .append("\",\"content\":\"Anuenue is a wrapper of Solr which distributes documents ")
+                .append("to the masters and queries to the slaves. ").append(i)
+                .append("\",\"genre\":\"search\"}");
+        }
+        return builder.append("]}}").toString().getBytes("UTF-8");
+    }
+
+    /**
+     * main.
+     * @param args [documents per page] [repeat]
+     * @throws Exception in case of error
+     */
+    public static void main(final String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DOCUMENTS;
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPEAT;
+        page = createPage(documents);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(page);
+        }
+        gzipPage = compressed.toByteArray();
+        System.out.println("page: " + page.length + " bytes, gzip: " + gzipPage.length + " bytes");
+
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new PageServlet()), "/*");
+        server.setHandler(context);
+        server.start();
+        try {
+            final SolrClient client = new SolrClient("localhost", PORT);
+            final HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            Copy chars = new Copy() {
+                @Override
+                public void run(final String path, final NullServletOutputStream out) throws IOException {
+                    // the previous implementation
+                    PooledConnection connection = pool.lease("localhost", PORT, 60000);
+                    Map<String, String> headers = new LinkedHashMap<String, String>();
+                    headers.put("Accept-Encoding", "gzip, deflate");
+                    connection.sendRequest("GET", path, headers, null);
+                    try (HttpResponse response = HttpResponse.read(connection, pool, "GET")) {
+                        Writer writer = new OutputStreamWriter(out, "UTF-8");
+                        IOUtils.copy(response.getBody(), writer, "UTF-8");
+                        writer.flush();
+                    }
+                }
+            };
+            Copy bytes = new Copy() {
+                @Override
+                public void run(final String path, final NullServletOutputStream out) throws IOException {
+                    client.getAndCopyToHttpServletResponse(path, proxy(HttpServletRequest.class, null, "gzip"),
+                            proxy(HttpServletResponse.class, out, null));
+                }
+            };
+            Copy decoded = new Copy() {
+                @Override
+                public void run(final String path, final NullServletOutputStream out) throws IOException {
+                    client.getAndCopyToHttpServletResponse(path, proxy(HttpServletResponse.class, out, null));
+                }
+            };
+            for (String path : new String[] {"/identity", "/gzip"}) {
+                run("chars", path, chars, repeat);
+                run("bytes", path, bytes, repeat);
+                run("bytes(decoded)", path, decoded, repeat);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
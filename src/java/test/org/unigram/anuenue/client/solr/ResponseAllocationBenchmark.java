@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Benchmark of the bytes allocated per request by the String results of SolrClient
+ * and by the status header (SolrResponse) and stream results.
+ * An embedded server answers a Solr XML header followed by a payload of the given size.
+ *
+ * usage: ResponseAllocationBenchmark [repeat]
+ */
+public final class ResponseAllocationBenchmark {
+
+    /** port number of the server. */
+    private static final int PORT = 18991;
+
+    /** default number of requests of a measurement. */
+    private static final int DEFAULT_REPEAT = 200;
+
+    /** sizes of the payloads. */
+    private static final int[] SIZES = {0, 100 * 1024, 1024 * 1024};
+
+    /** current response. */
+    private static volatile byte[] body;
+
+    /** results of the requests, kept so that they are not optimized away. */
+    private static long sink;
+
+    /**
+     * Constructor.
+     */
+    private ResponseAllocationBenchmark() {
+    }
+
+    /**
+     * Handler which answers the current response.
+     */
+    private static final class ResponseHandler extends AbstractHandler {
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            IOUtils.toByteArray(request.getInputStream());
+            response.setContentType("application/xml; charset=UTF-8");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            baseRequest.setHandled(true);
+        }
+    }
+
+    /**
+     * Request measured by the benchmark.
+     */
+    private interface Call {
+
+        /**
+         * send a request.
+         * @return a value of the result
+         * @throws IOException in case of IO error
+         */
+        long run() throws IOException;
+    }
+
+    /**
+     * get the bytes allocated by the current thread.
+     * @return allocated bytes, or -1 if not supported
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * measure a request.
+     * @param name name of the request
+     * @param call request
+     * @param repeat number of requests
+     * @throws IOException in case of IO error
+     */
+    private static void run(final String name, final Call call, final int repeat) throws IOException {
+        for (int i = 0; i < repeat; ++i) {
+            sink += call.run();
+        }
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < repeat; ++i) {
+            sink += call.run();
+        }
+        long elapsed = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+        System.out.println(String.format("%-20s response=%8d bytes %8.3f msec/call %10d bytes allocated/call",
+                name, body.length, elapsed / 1e6 / repeat, allocated / repeat));
+    }
+
+    /**
+     * main.
+     * @param args [repeat]
+     * @throws Exception in case of error
+     */
+    public static void main(final String[] args) throws Exception {
+        int repeat = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REPEAT;
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        server.setHandler(new ResponseHandler());
+        server.start();
+        try {
+            final SolrClient client = new SolrClient("localhost", PORT);
+            Call string = new Call() {
+                @Override
+                public long run() throws IOException {
+                    return client.updateXML("<commit/>").length();
+                }
+            };
+            Call status = new Call() {
+                @Override
+                public long run() throws IOException {
+                    return client.updateXMLStatus("<commit/>").getQTime();
+                }
+            };
+            Call select = new Call() {
+                @Override
+                public long run() throws IOException {
+                    return client.select("q=*:*").length();
+                }
+            };
+            Call stream = new Call() {
+                @Override
+                public long run() throws IOException {
+                    try (InputStream in = client.selectStream("q=*:*")) {
+                        return in.read();
+                    }
+                }
+            };
+            for (int size : SIZES) {
+                StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>\n"
+                        + "<lst name=\"responseHeader\"><int name=\"status\">0</int><int name=\"QTime\">1</int></lst>\n");
+                while (builder.length() < size) {
+                    builder.append("<str name=\"message\">payload of an admin response</str>\n");
+                }
+                body = builder.append("</response>\n").toString().getBytes("UTF-8");
+                run("updateXML", string, repeat);
+                run("updateXMLStatus", status, repeat);
+                run("select", select, repeat);
+                run("selectStream", stream, repeat);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+import org.unigram.anuenue.exception.SolrResponseException;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of HttpConnectionPool.
+ */
+public final class TestHttpConnectionPool {
+
+    /** port number of the test server. */
+    private static final int PORT = 18984;
+
+    /** port number of the server which sends an invalid Content-Length. */
+    private static final int INVALID_PORT = 18994;
+
+    /**
+     * Handler which echoes the request body.
+     */
+    private static final class EchoHandler extends AbstractHandler {
+        @Override
+        public void handle(final String target, final Request baseRequest,
+                final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            String body = IOUtils.toString(request.getInputStream(), "UTF-8");
+            if (body.contains("invalid")) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid document");
+            } else {
+                response.setContentType("text/plain; charset=UTF-8");
+                PrintWriter writer = response.getWriter();
+                writer.print(request.getMethod() + ":" + body);
+                // flushing before completion makes Jetty use chunked encoding
+                writer.flush();
+                writer.print(":done");
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+
+    /**
+     * Start a test server.
+     * @return Server
+     * @throws Exception in case of any error
+     */
+    private static Server startServer() throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(PORT);
+        server.setConnectors(new Connector[] {connector});
+        server.setHandler(new EchoHandler());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Test that connections are reused.
+     */
+    @Test
+    public void testReuse() {
+        Server server = null;
+        try {
+            server = startServer();
+            HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            SolrClient client = new SolrClient("localhost", PORT);
+
+            long misses = pool.getMisses();
+            long hits = pool.getHits();
+            assertEquals("POST:<commit/>:done", client.updateXML("<commit/>"));
+            assertEquals("GET::done", client.ping());
+            assertEquals("POST:a\tb\n1\t2\n:done", new SolrClient("localhost", PORT).updateTSVData("a\tb\n1\t2\n"));
+            assertEquals("one new connection", misses + 1, pool.getMisses());
+            assertEquals("two reused requests", hits + 2, pool.getHits());
+
+            try {
+                client.updateXML("invalid");
+                fail();
+            } catch (SolrResponseException e) {
+                assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.getStatusCode());
+            }
+            assertEquals("POST:<commit/>:done", client.updateXML("<commit/>"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+
+    /**
+     * Test that the connection is reused after only the status header or a stream of the body is read.
+     */
+    @Test
+    public void testStatus() {
+        Server server = null;
+        try {
+            server = startServer();
+            HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            SolrClient client = new SolrClient("localhost", PORT);
+            String header = "<int name=\"status\">0</int><int name=\"QTime\">7</int>";
+            client.ping();
+
+            long misses = pool.getMisses();
+            SolrResponse response = client.updateXMLStatus(header);
+            assertEquals(0, response.getStatus());
+            assertEquals(7, response.getQTime());
+            assertEquals(("POST:" + header + ":done").length(), response.getLength());
+            try (InputStream in = client.selectStream("q=*:*")) {
+                assertEquals('G', in.read());
+            }
+            assertEquals("GET::done", client.ping());
+            assertEquals("no new connection", misses, pool.getMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+
+    /**
+     * Test that connections closed by the server are not used.
+     */
+    @Test
+    public void testStaleConnection() {
+        Server server = null;
+        try {
+            server = startServer();
+            SolrClient client = new SolrClient("localhost", PORT);
+            assertEquals("GET::done", client.ping());
+            server.stop();
+            server = startServer();
+
+            HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            // only connections idle longer than this are validated
+            Thread.sleep(pool.getValidateAfter() + 100);
+            long failures = pool.getValidationFailures();
+            assertEquals("GET::done", client.ping());
+            assertTrue(pool.getValidationFailures() > failures);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+
+    /**
+     * Test parsing Content-Length.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testParseContentLength() throws IOException {
+        assertEquals(12, HttpResponse.parseContentLength("12"));
+        assertEquals(12, HttpResponse.parseContentLength("12, 12"));
+        for (String invalid : new String[] {"12, 13", "abc", "-1", ""}) {
+            try {
+                HttpResponse.parseContentLength(invalid);
+                fail(invalid);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("invalid content-length"));
+            }
+        }
+    }
+
+    /**
+     * Test that a response with an invalid Content-Length returns the connection to the pool.
+     * @throws Exception in case of any error
+     */
+    @Test
+    public void testInvalidContentLength() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(INVALID_PORT);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    try (Socket socket = serverSocket.accept()) {
+                        PooledConnection.readLine(socket.getInputStream());
+                        OutputStream out = socket.getOutputStream();
+                        out.write("HTTP/1.1 200 OK\r\nContent-Length: 3\r\nContent-Length: 4\r\n\r\nabc"
+                                .getBytes("US-ASCII"));
+                        out.flush();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            SolrClient client = new SolrClient("localhost", INVALID_PORT);
+            // more requests than the permits of a host
+            for (int i = 0; i < 20; ++i) {
+                try {
+                    client.ping();
+                    fail();
+                } catch (IOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().startsWith("invalid content-length"));
+                }
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
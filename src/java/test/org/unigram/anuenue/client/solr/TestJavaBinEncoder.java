@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+/**
+ * Test class of JavaBinEncoder. The requests are decoded by the codec of the update handler.
+ */
+public final class TestJavaBinEncoder {
+
+    /** header of the test data. */
+    private static final String HEADER = "blogid\ttitle\tcontent\tgenre\n";
+
+    /**
+     * decode a request.
+     * @param request encoded request
+     * @param documents list to which the documents are added
+     * @return decoded request
+     * @throws IOException in case of IO error
+     */
+    private static UpdateRequest decode(final ByteBuffer request, final List<SolrInputDocument> documents)
+            throws IOException {
+        byte[] bytes = new byte[request.remaining()];
+        request.duplicate().get(bytes);
+        return new JavaBinUpdateRequestCodec().unmarshal(new ByteArrayInputStream(bytes),
+                new JavaBinUpdateRequestCodec.StreamingUpdateHandler() {
+                    @Override
+                    public void update(final SolrInputDocument document, final UpdateRequest request,
+                            final Integer commitWithin, final Boolean overwrite) {
+                        documents.add(document);
+                    }
+                });
+    }
+
+    /**
+     * encode TSV data.
+     * @param body lines
+     * @return encoded request
+     * @throws IOException in case of IO error
+     */
+    private static ByteBuffer encode(final String body) throws IOException {
+        return JavaBinEncoder.encodeTSV(HEADER.getBytes("UTF-8"), ByteBuffer.wrap(body.getBytes("UTF-8")));
+    }
+
+    /**
+     * Test that the lines are encoded as documents named by the header.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testEncodeTSV() throws IOException {
+        String title = "\u691c\u7d22\u30a8\u30f3\u30b8\u30f3";
+        String content = StringUtils.repeat("long content ", 20);
+        List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+        decode(encode("1\t" + title + "\t" + content + "\tsearch\n"
+                + "\n"
+                + "2\tno genre\tshort\t\r\n"
+                + "3\tlast\tline\twithout new line"), documents);
+
+        assertEquals(3, documents.size());
+        SolrInputDocument document = documents.get(0);
+        assertEquals("1", document.getFieldValue("blogid"));
+        assertEquals(title, document.getFieldValue("title"));
+        assertEquals(content, document.getFieldValue("content"));
+        assertEquals("search", document.getFieldValue("genre"));
+        assertEquals(1.0f, document.getDocumentBoost(), 0.0f);
+
+        document = documents.get(1);
+        assertEquals("2", document.getFieldValue("blogid"));
+        assertEquals("short", document.getFieldValue("content"));
+        assertNull("empty values are skipped", document.getField("genre"));
+
+        document = documents.get(2);
+        assertEquals("3", document.getFieldValue("blogid"));
+        assertEquals("without new line", document.getFieldValue("genre"));
+    }
+
+    /**
+     * Test that the field names are written once and referred after that.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testFieldNamesAreWrittenOnce() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            body.append(i).append("\tt\tc\tg\n");
+        }
+        ByteBuffer request = encode(body.toString());
+        String encoded = new String(request.array(), request.position(), request.remaining(), "ISO-8859-1");
+        assertEquals(1, StringUtils.countMatches(encoded, "content"));
+
+        List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+        decode(request, documents);
+        assertEquals(100, documents.size());
+        assertEquals("99", documents.get(99).getFieldValue("blogid"));
+        assertEquals("c", documents.get(99).getFieldValue("content"));
+    }
+
+    /**
+     * Test that a line which does not match the header is reported.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testBadLine() throws IOException {
+        try {
+            encode("1\ttitle\tcontent\tgenre\n2\ttitle\tcontent\n");
+            fail("IOException should be thrown");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("expected 4 values but got 3 at line 2"));
+        }
+    }
+
+    /**
+     * Test that deletes are encoded.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testEncodeDelete() throws IOException {
+        List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+        List<String> ids = Arrays.asList("1", "<2>", "\u691c\u7d22");
+        UpdateRequest request = decode(JavaBinEncoder.encodeDeleteById(ids), documents);
+        assertEquals(ids, request.getDeleteById());
+        assertTrue(documents.isEmpty());
+
+        request = decode(JavaBinEncoder.encodeDeleteByQuery(Collections.singletonList("genre:search")), documents);
+        assertEquals(Collections.singletonList("genre:search"), request.getDeleteQuery());
+        assertTrue(documents.isEmpty());
+    }
+}
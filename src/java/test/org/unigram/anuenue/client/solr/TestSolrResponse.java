@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.client.solr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Test class of SolrResponse.
+ */
+public final class TestSolrResponse {
+
+    /**
+     * InputStream which returns at most one byte per read.
+     */
+    private static final class TrickleInputStream extends ByteArrayInputStream {
+
+        /**
+         * Constructor.
+         * @param bytes bytes
+         */
+        private TrickleInputStream(final byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+
+    /**
+     * read a response.
+     * @param body body
+     * @param trickle read the body a byte at a time
+     * @return response
+     * @throws IOException in case of IO error
+     */
+    private static SolrResponse read(final String body, final boolean trickle) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        InputStream in = trickle ? new TrickleInputStream(bytes) : new ByteArrayInputStream(bytes);
+        SolrResponse response = SolrResponse.read(in);
+        assertEquals("the body is consumed", -1, in.read());
+        return response;
+    }
+
+    /**
+     * Test that the header is parsed from XML and JSON responses.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testHeader() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>\n<lst name=\"responseHeader\">"
+                + "<int name=\"status\">0</int><int name=\"QTime\">12</int></lst>\n</response>\n";
+        String json = "{\"responseHeader\":{\"status\": 0,\"QTime\":345},\"response\":{\"numFound\":0,\"docs\":[]}}";
+        for (boolean trickle : new boolean[] {false, true}) {
+            SolrResponse response = read(xml, trickle);
+            assertEquals(0, response.getStatus());
+            assertEquals(12, response.getQTime());
+            assertEquals(xml.length(), response.getLength());
+            response = read(json, trickle);
+            assertEquals(0, response.getStatus());
+            assertEquals(345, response.getQTime());
+        }
+    }
+
+    /**
+     * Test that a large body is skipped, and a body without the header is unknown.
+     * @throws IOException in case of IO error
+     */
+    @Test
+    public void testLargeBody() throws IOException {
+        StringBuilder builder = new StringBuilder("{\"responseHeader\":{\"status\":0,\"QTime\":3},\"docs\":[");
+        while (builder.length() < BufferPool.BUFFER_SIZE * 3) {
+            builder.append("{\"id\":\"0123456789\"},");
+        }
+        String body = builder.append("{}]}").toString();
+        SolrResponse response = read(body, false);
+        assertEquals(3, response.getQTime());
+        assertEquals(body.length(), response.getLength());
+
+        response = read("OK", false);
+        assertEquals(SolrResponse.UNKNOWN, response.getStatus());
+        assertEquals("status=-, QTime=-, bytes=2", response.toString());
+        // the value is not terminated in the body
+        assertEquals(SolrResponse.UNKNOWN, read("\"status\":1", false).getStatus());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.unigram.anuenue.exception.AnuenueException;
+import org.unigram.anuenue.node.Node.Role;
+
+/**
+ * Test class of ConsistentHashRing.
+ */
+public final class TestConsistentHashRing {
+
+    /** number of ids used in the tests. */
+    private static final int NUMBER_OF_IDS = 10000;
+
+    /**
+     * create masters.
+     * @param size number of masters
+     * @return masters
+     */
+    private static List<Node> createMasters(final int size) {
+        List<Node> masters = new ArrayList<Node>();
+        for (int i = 0; i < size; ++i) {
+            masters.add(new Node("master" + i, 8983, Role.MASTER, null));
+        }
+        return masters;
+    }
+
+    /**
+     * Test that ids are distributed to all nodes evenly.
+     */
+    @Test
+    public void testDistribution() {
+        try {
+            List<Node> masters = createMasters(4);
+            ConsistentHashRing ring = new ConsistentHashRing(masters, 160);
+            Map<Node, Integer> counts = new HashMap<Node, Integer>();
+            for (int i = 0; i < NUMBER_OF_IDS; ++i) {
+                Node node = ring.getNode(Integer.toString(i));
+                Integer count = counts.get(node);
+                counts.put(node, count == null ? 1 : count + 1);
+            }
+            assertEquals(4, counts.size());
+            for (int count : counts.values()) {
+                assertTrue("count: " + count, count > NUMBER_OF_IDS / 4 * 0.7);
+                assertTrue("count: " + count, count < NUMBER_OF_IDS / 4 * 1.3);
+            }
+            // same id goes to same node
+            assertEquals(ring.getNode("abc"), new ConsistentHashRing(masters, 160).getNode("abc"));
+        } catch (AnuenueException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Test that adding a node moves ids only to the new node.
+     */
+    @Test
+    public void testAddNode() {
+        try {
+            List<Node> masters = createMasters(4);
+            ConsistentHashRing before = new ConsistentHashRing(masters, 160);
+            List<Node> newMasters = createMasters(5);
+            Node added = newMasters.get(4);
+            ConsistentHashRing after = new ConsistentHashRing(newMasters, 160);
+            int moved = 0;
+            for (int i = 0; i < NUMBER_OF_IDS; ++i) {
+                String id = Integer.toString(i);
+                Node oldNode = before.getNode(id);
+                Node newNode = after.getNode(id);
+                if (!oldNode.equals(newNode)) {
+                    assertEquals(added, newNode);
+                    ++moved;
+                }
+            }
+            assertTrue("moved: " + moved, moved < NUMBER_OF_IDS / 5 * 1.3);
+        } catch (AnuenueException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Test that an empty ring is rejected.
+     */
+    @Test
+    public void testEmpty() {
+        try {
+            new ConsistentHashRing(new ArrayList<Node>(), 160);
+            fail();
+        } catch (AnuenueException e) {
+            return;
+        }
+    }
+}
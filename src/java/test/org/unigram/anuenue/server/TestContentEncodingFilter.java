@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.Test;
+import org.unigram.anuenue.client.solr.SolrClient;
+import org.unigram.anuenue.util.AnuenueTestUtil;
+
+/**
+ * Test class of ContentEncodingFilter and compressed requests and responses of SolrClient.
+ */
+public final class TestContentEncodingFilter {
+
+    /** port number of the test server. */
+    private static final int PORT = 18986;
+
+    /** page returned by GET. */
+    private static final String PAGE = "{\"response\":{\"docs\":[{\"title\":\"\u65e5\u672c\u8a9e\"}]}}";
+
+    /** page compressed by gzip. */
+    private static final byte[] GZIP_PAGE = gzip(PAGE);
+
+    /**
+     * Servlet which echoes the decoded body and its Content-Encoding in a gzip response.
+     */
+    private static final class EchoServlet extends HttpServlet {
+
+        /** Serial Version ID. */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            String body = IOUtils.toString(request.getInputStream(), "UTF-8");
+            response.setContentType("text/plain; charset=UTF-8");
+            response.setHeader("Content-Encoding", "gzip");
+            try (OutputStream out = new GZIPOutputStream(response.getOutputStream())) {
+                out.write((request.getHeader("Content-Encoding") + ":" + body).getBytes("UTF-8"));
+            }
+        }
+
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            response.setContentType("application/json; charset=UTF-8");
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(GZIP_PAGE.length);
+            response.getOutputStream().write(GZIP_PAGE);
+        }
+    }
+
+    /**
+     * ServletOutputStream which keeps the written bytes.
+     */
+    private static final class BufferedServletOutputStream extends ServletOutputStream {
+
+        /** written bytes. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(final int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            bytes.write(b, off, len);
+        }
+    }
+
+    /**
+     * compress a string by gzip.
+     * @param text string
+     * @return compressed bytes
+     */
+    private static byte[] gzip(final String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * post data with given compression.
+     * @param compression request compression
+     * @param data data
+     * @return result
+     * @throws Exception in case of any error
+     */
+    private static String post(final String compression, final String data) throws Exception {
+        System.setProperty("anuenue.http.request.compression", compression);
+        System.setProperty("anuenue.http.request.compression.min.bytes", "0");
+        try {
+            return new SolrClient("localhost", PORT).updateTSVData(data);
+        } finally {
+            System.clearProperty("anuenue.http.request.compression");
+            System.clearProperty("anuenue.http.request.compression.min.bytes");
+        }
+    }
+
+    /**
+     * Test that compressed requests are decoded by the filter, and compressed responses by the client.
+     */
+    @Test
+    public void testCompression() {
+        Server server = null;
+        try {
+            server = new Server();
+            SocketConnector connector = new SocketConnector();
+            connector.setPort(PORT);
+            server.setConnectors(new Connector[] {connector});
+            ServletContextHandler context = new ServletContextHandler();
+            context.setContextPath("/");
+            context.addFilter(ContentEncodingFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+            context.addServlet(new ServletHolder(new EchoServlet()), "/*");
+            server.setHandler(context);
+            server.start();
+
+            String data = "id\tname\n1\t\u65e5\u672c\u8a9e\n2\tcompressed text\n";
+            assertEquals("null:" + data, post(SolrClient.COMPRESSION_NONE, data));
+            assertEquals("null:" + data, post(SolrClient.COMPRESSION_GZIP, data));
+            assertEquals("null:" + data, post(SolrClient.COMPRESSION_DEFLATE, data));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+
+    /**
+     * copy a page to a mock HttpServletResponse.
+     * @param acceptEncoding Accept-Encoding of the request, or null
+     * @param response response
+     * @return copied bytes
+     * @throws Exception in case of any error
+     */
+    private static byte[] copy(final String acceptEncoding, final HttpServletResponse response) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        BufferedServletOutputStream out = new BufferedServletOutputStream();
+        when(response.getOutputStream()).thenReturn(out);
+        new SolrClient("localhost", PORT).getAndCopyToHttpServletResponse("/page", request, response);
+        return out.bytes.toByteArray();
+    }
+
+    /**
+     * Test that a compressed response is copied as it is to a client which accepts it,
+     * and decoded for a client which does not.
+     */
+    @Test
+    public void testCopyCompressedResponse() {
+        Server server = null;
+        try {
+            server = new Server();
+            SocketConnector connector = new SocketConnector();
+            connector.setPort(PORT);
+            server.setConnectors(new Connector[] {connector});
+            ServletContextHandler context = new ServletContextHandler();
+            context.setContextPath("/");
+            context.addServlet(new ServletHolder(new EchoServlet()), "/*");
+            server.setHandler(context);
+            server.start();
+
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            assertArrayEquals(GZIP_PAGE, copy("gzip, deflate", response));
+            verify(response).setContentType("application/json; charset=UTF-8");
+            verify(response).setHeader("Content-Encoding", "gzip");
+            verify(response).setHeader("Content-Length", String.valueOf(GZIP_PAGE.length));
+
+            response = mock(HttpServletResponse.class);
+            assertEquals(PAGE, new String(copy("gzip;q=0, identity", response), "UTF-8"));
+            verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+            verify(response, never()).setHeader(eq("Content-Length"), anyString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            AnuenueTestUtil.stopServerQuietly(server);
+        }
+    }
+}
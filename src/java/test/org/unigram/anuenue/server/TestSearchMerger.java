@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) The Anuenue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unigram.anuenue.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.unigram.anuenue.node.Node;
+import org.unigram.anuenue.node.Node.Role;
+import org.unigram.anuenue.node.NodeDatabaseBuilder;
+
+/**
+ * Test class of SearchMerger.
+ */
+public final class TestSearchMerger {
+
+    /**
+     * Searcher which returns the documents of the shard given by the port of the node.
+     * port 0 fails and port 1 does not answer in time.
+     */
+    private static final class FakeSearcher implements SearchMerger.ShardSearcher {
+
+        /** documents of the shards (ids with scores). */
+        private final Map<Integer, Object[]> results = new HashMap<Integer, Object[]>();
+
+        @Override
+        public Map<String, Object> search(final Node node, final String query, final int timeout)
+                throws IOException {
+            if (node.getPortNumber() == 0) {
+                throw new IOException("down");
+            }
+            if (node.getPortNumber() == 1) {
+                try {
+                    Thread.sleep(timeout * 10L);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            assertTrue(query, query.contains("start=0&rows=3&wt=json"));
+            Object[] docs = results.get(node.getPortNumber());
+            Map<String, Object> response = new HashMap<String, Object>();
+            response.put("numFound", (long) docs.length);
+            response.put("docs", docs);
+            Map<String, Object> solrResponse = new HashMap<String, Object>();
+            solrResponse.put("response", response);
+            return solrResponse;
+        }
+
+        /**
+         * set the documents of a shard.
+         * @param port port of the shard
+         * @param idsAndScores id, score, id, score...
+         */
+        private void put(final int port, final Object... idsAndScores) {
+            Object[] docs = new Object[idsAndScores.length / 2];
+            for (int i = 0; i < docs.length; ++i) {
+                Map<String, Object> doc = new HashMap<String, Object>();
+                doc.put("id", idsAndScores[i * 2]);
+                doc.put("score", idsAndScores[i * 2 + 1]);
+                docs[i] = doc;
+            }
+            results.put(port, docs);
+        }
+    }
+
+    /**
+     * create a shard of one node.
+     * @param port port of the node
+     * @return shard
+     */
+    private static SearchMerger.Shard shard(final int port) {
+        return new SearchMerger.Shard("shard" + port, Arrays.asList(new Node("localhost", port, Role.SLAVE, null)));
+    }
+
+    /**
+     * get the ids of documents.
+     * @param documents documents
+     * @return ids
+     */
+    private static List<Object> ids(final List<Map<String, Object>> documents) {
+        List<Object> ids = new ArrayList<Object>();
+        for (Map<String, Object> document : documents) {
+            ids.add(document.get("id"));
+        }
+        return ids;
+    }
+
+    /**
+     * Test that the top documents of the shards are merged by score.
+     */
+    @Test
+    public void testMerge() {
+        FakeSearcher searcher = new FakeSearcher();
+        searcher.put(10, "a", 9.0, "b", 5.0, "c", 1.0);
+        searcher.put(11, "d", 8.0, "e", 7.0, "f", 6.0);
+        searcher.put(12, "g", 5.0);
+        SearchMerger merger = new SearchMerger(Arrays.asList(shard(10), shard(11), shard(12)), searcher, 3);
+        try {
+            Map<String, String[]> parameters = Collections.singletonMap("q", new String[] {"x"});
+            SearchMerger.Result result = merger.search(parameters, 1, 2, SearchMerger.parseSort(null), 10000);
+            assertFalse(result.isPartial());
+            assertEquals(Arrays.<Object>asList("d", "e"), ids(result.getDocuments()));
+
+            Map<?, ?> response = (Map<?, ?>) result.toMap().get("response");
+            assertEquals(7L, response.get("numFound"));
+            assertEquals(1, response.get("start"));
+            assertTrue(merger.getStatistics().startsWith("queries=1, partial=0"));
+        } finally {
+            merger.close();
+        }
+    }
+
+    /**
+     * Test that ties and the sort order of a field are kept, with a heap smaller than the documents.
+     */
+    @Test
+    public void testMergeSortField() {
+        List<SearchMerger.ShardResponse> responses = new ArrayList<SearchMerger.ShardResponse>();
+        FakeSearcher searcher = new FakeSearcher();
+        searcher.put(10, "a", 1L, "b", 3L, "c", 3L);
+        searcher.put(11, "d", 2L, "e", 3L, "f", 4L);
+        for (int port = 10; port <= 11; ++port) {
+            Node node = new Node("localhost", port, Role.SLAVE, null);
+            responses.add(new SearchMerger.ShardResponse("shard" + port, node, 0, searchQuietly(searcher, node)));
+        }
+        List<SearchMerger.SortField> sort = SearchMerger.parseSort("score asc");
+        assertEquals(Arrays.<Object>asList("a", "d", "b", "c", "e"),
+                ids(SearchMerger.merge(responses, sort, 0, 5)));
+        assertEquals(Arrays.<Object>asList("c", "e"), ids(SearchMerger.merge(responses, sort, 3, 2)));
+        assertTrue(SearchMerger.merge(responses, sort, 10, 2).isEmpty());
+    }
+
+    /**
+     * Test that start + rows is limited without overflow, and a large window does not allocate a large heap.
+     */
+    @Test
+    public void testMaxRows() {
+        FakeSearcher searcher = new FakeSearcher();
+        searcher.put(10, "a", 9.0, "b", 5.0);
+        SearchMerger merger = new SearchMerger(Arrays.asList(shard(10)), searcher, 1);
+        try {
+            Map<String, String[]> parameters = Collections.singletonMap("q", new String[] {"x"});
+            for (int start : new int[] {100000000, Integer.MAX_VALUE}) {
+                try {
+                    merger.search(parameters, start, 10, SearchMerger.parseSort(null), 10000);
+                    fail("start " + start + " should be rejected");
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().startsWith("start + rows must not exceed"));
+                }
+            }
+
+            List<SearchMerger.ShardResponse> responses = new ArrayList<SearchMerger.ShardResponse>();
+            Node node = new Node("localhost", 10, Role.SLAVE, null);
+            responses.add(new SearchMerger.ShardResponse("shard10", node, 0, searchQuietly(searcher, node)));
+            assertEquals(Arrays.<Object>asList("a", "b"),
+                    ids(SearchMerger.merge(responses, SearchMerger.parseSort(null), 0, Integer.MAX_VALUE)));
+        } finally {
+            merger.close();
+        }
+    }
+
+    /**
+     * Test that failed and timed out shards are reported as partial results.
+     */
+    @Test
+    public void testPartialResults() {
+        FakeSearcher searcher = new FakeSearcher();
+        searcher.put(1, "late", 9.0);
+        searcher.put(10, "a", 1.0);
+        SearchMerger merger = new SearchMerger(Arrays.asList(shard(0), shard(1), shard(10)), searcher, 3);
+        try {
+            Map<String, String[]> parameters = Collections.singletonMap("q", new String[] {"x"});
+            long start = System.currentTimeMillis();
+            SearchMerger.Result result = merger.search(parameters, 0, 3, SearchMerger.parseSort(null), 200);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertTrue(result.isPartial());
+            assertFalse(result.isFailed());
+            assertEquals(Arrays.<Object>asList("a"), ids(result.getDocuments()));
+            assertEquals(SearchMerger.STATUS_ERROR, result.getShardResponses().get(0).getStatus());
+            assertEquals(SearchMerger.STATUS_TIMEOUT, result.getShardResponses().get(1).getStatus());
+            assertEquals(SearchMerger.STATUS_OK, result.getShardResponses().get(2).getStatus());
+            assertEquals(Boolean.TRUE,
+                    ((Map<?, ?>) result.toMap().get("responseHeader")).get("partialResults"));
+        } finally {
+            merger.close();
+        }
+    }
+
+    /**
+     * Test that a shard is a master and the slaves replicating it.
+     * @throws Exception in case of error
+     */
+    @Test
+    public void testBuildShards() throws Exception {
+        List<SearchMerger.Shard> shards = SearchMerger.buildShards(
+                new NodeDatabaseBuilder("resources/anuenue-nodes-1.xml").build());
+        // sorted by the names of the masters
+        assertEquals(2, shards.size());
+        assertEquals("bbbb:7983", shards.get(0).getName());
+        assertEquals(1, shards.get(0).getReplicas().size());
+        assertEquals("dddd:7983", shards.get(0).nextReplica().getName());
+        assertEquals("cccc:7983", shards.get(1).getName());
+        assertEquals(1, shards.get(1).getReplicas().size());
+        assertEquals("eeee:6983", shards.get(1).nextReplica().getName());
+    }
+
+    /**
+     * Test that the uniqueKey and the sort fields are requested from the shards.
+     */
+    @Test
+    public void testShardQuery() {
+        Map<String, String[]> parameters = new HashMap<String, String[]>();
+        parameters.put("q", new String[] {"x"});
+        parameters.put("rows", new String[] {"10"});
+        String query = SearchMerger.shardQuery(parameters, 20, SearchMerger.parseSort("price asc"));
+        assertEquals("q=x&fl=*%2Cblogid%2Cprice&start=0&rows=20&wt=json", query);
+    }
+
+    /**
+     * search without checked exceptions.
+     * @param searcher searcher
+     * @param node node
+     * @return response
+     */
+    private static Map<String, Object> searchQuietly(final FakeSearcher searcher, final Node node) {
+        try {
+            return searcher.search(node, "start=0&rows=3&wt=json", 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}